@@ -0,0 +1,193 @@
+package com.techlab.renderpdf.loadgen;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Load run configuration.
+ *
+ * Values come from an optional properties file ({@code --config=run.properties}) and are
+ * overridden by {@code --key=value} command line arguments, e.g.
+ * <pre>
+ * --url=http://localhost:8080 --rate=50 --duration=60s --arrival=poisson
+ * --templates=test-template:3,invoice:1 --payloads=small:4,large:1
+ * --payload.large.variables=200 --payload.large.rows=500
+ * </pre>
+ */
+public final class LoadConfig {
+
+    public enum Arrival { CONSTANT, POISSON }
+
+    /**
+     * Shape of a generated request body: number of extra variables, table rows per
+     * discovered table and length of every generated string value
+     */
+    public record PayloadProfile(String name, int variables, int rows, int valueLength) {
+    }
+
+    public record Weighted<T>(T value, int weight) {
+    }
+
+    private final Properties properties;
+
+    private LoadConfig(Properties properties) {
+        this.properties = properties;
+    }
+
+    public static LoadConfig parse(String[] args) throws IOException {
+        Properties cli = new Properties();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                cli.setProperty(arg.substring(2), "true");
+            } else {
+                cli.setProperty(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+
+        Properties merged = new Properties();
+        String configFile = cli.getProperty("config");
+        if (configFile != null) {
+            try (Reader reader = Files.newBufferedReader(Path.of(configFile))) {
+                merged.load(reader);
+            }
+        }
+        merged.putAll(cli);
+        return new LoadConfig(merged);
+    }
+
+    public String baseUrl() {
+        String url = properties.getProperty("url", "http://localhost:8080");
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    /** Target arrival rate in requests per second */
+    public double rate() {
+        return Double.parseDouble(properties.getProperty("rate", "10"));
+    }
+
+    public Duration duration() {
+        return parseDuration(properties.getProperty("duration", "60s"));
+    }
+
+    /** Warm-up phase at the same rate whose latencies are discarded */
+    public Duration warmup() {
+        return parseDuration(properties.getProperty("warmup", "10s"));
+    }
+
+    public Arrival arrival() {
+        return Arrival.valueOf(properties.getProperty("arrival", "constant").toUpperCase());
+    }
+
+    /** Requests still outstanding above this are counted as dropped instead of being sent */
+    public int maxInFlight() {
+        return Integer.parseInt(properties.getProperty("max-in-flight", "10000"));
+    }
+
+    public Duration requestTimeout() {
+        return parseDuration(properties.getProperty("request-timeout", "60s"));
+    }
+
+    public long seed() {
+        return Long.parseLong(properties.getProperty("seed", "42"));
+    }
+
+    public List<Weighted<String>> templates() {
+        List<Weighted<String>> result = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : parseWeights(properties.getProperty("templates", "test-template")).entrySet()) {
+            result.add(new Weighted<>(entry.getKey(), entry.getValue()));
+        }
+        return result;
+    }
+
+    public List<Weighted<PayloadProfile>> payloads() {
+        List<Weighted<PayloadProfile>> result = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : parseWeights(properties.getProperty("payloads", "small")).entrySet()) {
+            String name = entry.getKey();
+            PayloadProfile defaults = defaultProfile(name);
+            String prefix = "payload." + name + ".";
+            PayloadProfile profile = new PayloadProfile(name,
+                    Integer.parseInt(properties.getProperty(prefix + "variables", String.valueOf(defaults.variables()))),
+                    Integer.parseInt(properties.getProperty(prefix + "rows", String.valueOf(defaults.rows()))),
+                    Integer.parseInt(properties.getProperty(prefix + "value-length", String.valueOf(defaults.valueLength()))));
+            result.add(new Weighted<>(profile, entry.getValue()));
+        }
+        return result;
+    }
+
+    /** JSON summary file */
+    public Path output() {
+        return Path.of(properties.getProperty("output", "load-result.json"));
+    }
+
+    /** Optional HdrHistogram interval log, readable by HistogramLogProcessor / plotters */
+    public Path histogramLog() {
+        String value = properties.getProperty("histogram-log");
+        return value == null ? null : Path.of(value);
+    }
+
+    /** Optional result file of a previous build to compare against */
+    public Path baseline() {
+        String value = properties.getProperty("baseline");
+        return value == null ? null : Path.of(value);
+    }
+
+    public Map<String, String> asMap() {
+        Map<String, String> map = new LinkedHashMap<>();
+        properties.stringPropertyNames().stream().sorted().forEach(key -> map.put(key, properties.getProperty(key)));
+        return map;
+    }
+
+    private static PayloadProfile defaultProfile(String name) {
+        return switch (name) {
+            case "large" -> new PayloadProfile(name, 200, 500, 64);
+            case "medium" -> new PayloadProfile(name, 50, 50, 32);
+            default -> new PayloadProfile(name, 0, 5, 16);
+        };
+    }
+
+    private static Map<String, Integer> parseWeights(String spec) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String part : spec.split(",")) {
+            String trimmed = part.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            int colon = trimmed.lastIndexOf(':');
+            if (colon < 0) {
+                weights.put(trimmed, 1);
+            } else {
+                weights.put(trimmed.substring(0, colon), Integer.parseInt(trimmed.substring(colon + 1)));
+            }
+        }
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException("Empty weighted list: " + spec);
+        }
+        return weights;
+    }
+
+    private static Duration parseDuration(String value) {
+        String v = value.trim().toLowerCase();
+        if (v.endsWith("ms")) {
+            return Duration.ofMillis(Long.parseLong(v.substring(0, v.length() - 2)));
+        }
+        if (v.endsWith("s")) {
+            return Duration.ofSeconds(Long.parseLong(v.substring(0, v.length() - 1)));
+        }
+        if (v.endsWith("m")) {
+            return Duration.ofMinutes(Long.parseLong(v.substring(0, v.length() - 1)));
+        }
+        return Duration.ofSeconds(Long.parseLong(v));
+    }
+}
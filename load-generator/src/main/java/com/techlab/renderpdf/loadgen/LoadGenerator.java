@@ -0,0 +1,255 @@
+package com.techlab.renderpdf.loadgen;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load generator for {@code POST /api/pdf/generate}.
+ *
+ * Requests are issued on a fixed schedule (constant or Poisson arrivals) regardless of how many
+ * responses are still outstanding, so a slow server cannot throttle the generator. Latency is
+ * recorded twice: from the time the request was <em>intended</em> to be sent (corrected for
+ * coordinated omission) and from the time it was actually sent.
+ *
+ * The corrected histogram holds every intended send of the measured period, not only the successful
+ * ones: failures, timeouts and non-200 responses at their latency from the intended send time, requests
+ * dropped by {@code --max-in-flight} and requests still unfinished after the drain at the request timeout
+ * (or their age, if longer). The uncorrected histogram holds successful responses only.
+ *
+ * Usage:
+ * <pre>
+ * java -jar render-pdf-load-generator.jar --url=http://localhost:8080 --rate=50 --duration=2m \
+ *      --templates=test-template --payloads=small:4,large:1 --output=result.json --baseline=previous.json
+ * </pre>
+ */
+public final class LoadGenerator {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final LoadConfig config;
+    private final HttpClient httpClient;
+
+    private final Histogram corrected = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+    private final Histogram uncorrected = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+    private final Map<String, Histogram> correctedByLabel = new ConcurrentHashMap<>();
+    private final Recorder intervalRecorder = new Recorder(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+
+    private final AtomicLong inFlight = new AtomicLong();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<Long, Pending> pending = new ConcurrentHashMap<>();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder responseBytes = new LongAdder();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    /**
+     * Measured request without a response yet
+     */
+    private record Pending(long intendedNanos, String label) {
+    }
+
+    private LoadGenerator(LoadConfig config) {
+        this.config = config;
+        ExecutorService callbacks = Executors.newVirtualThreadPerTaskExecutor();
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .executor(callbacks)
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadConfig config = LoadConfig.parse(args);
+        LoadResult result = new LoadGenerator(config).run();
+        result.write(config.output());
+        result.print(System.out);
+        if (config.baseline() != null) {
+            LoadResult.compare(config.baseline(), result, System.out);
+        }
+    }
+
+    private LoadResult run() throws Exception {
+        List<PayloadFactory.Payload> payloads = new ArrayList<>();
+        List<Integer> weights = new ArrayList<>();
+        PayloadFactory factory = new PayloadFactory(httpClient, config.baseUrl(), config.seed());
+        for (LoadConfig.Weighted<String> template : config.templates()) {
+            for (LoadConfig.Weighted<LoadConfig.PayloadProfile> profile : config.payloads()) {
+                payloads.add(factory.build(template.value(), profile.value()));
+                weights.add(template.weight() * profile.weight());
+            }
+        }
+        int totalWeight = weights.stream().mapToInt(Integer::intValue).sum();
+
+        double rate = config.rate();
+        long warmupNanos = config.warmup().toNanos();
+        long endNanos = warmupNanos + config.duration().toNanos();
+        double meanGapNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        Random random = new Random(config.seed());
+
+        PrintStream out = System.out;
+        out.printf("Open-loop load: %.1f req/s (%s), warm-up %ds, measure %ds, %d payload variants -> %s%n",
+                rate, config.arrival(), config.warmup().toSeconds(), config.duration().toSeconds(),
+                payloads.size(), config.baseUrl());
+
+        HistogramLogWriter logWriter = null;
+        if (config.histogramLog() != null) {
+            logWriter = new HistogramLogWriter(config.histogramLog().toFile());
+            logWriter.outputLogFormatVersion();
+            logWriter.outputLegend();
+        }
+
+        Instant startedAt = Instant.now();
+        long start = System.nanoTime();
+        long measureStart = start + warmupNanos;
+        long nextReport = measureStart + TimeUnit.SECONDS.toNanos(1);
+        intervalRecorder.reset();
+        double offset = 0;
+
+        while (true) {
+            offset += config.arrival() == LoadConfig.Arrival.POISSON
+                    ? -Math.log(1 - random.nextDouble()) * meanGapNanos
+                    : meanGapNanos;
+            long intended = start + (long) offset;
+            if (intended - start >= endNanos) {
+                break;
+            }
+
+            long now;
+            while ((now = System.nanoTime()) < intended) {
+                if (now >= nextReport && logWriter != null) {
+                    logWriter.outputIntervalHistogram(intervalRecorder.getIntervalHistogram());
+                    nextReport += TimeUnit.SECONDS.toNanos(1);
+                }
+                LockSupport.parkNanos(Math.min(intended - now, TimeUnit.MILLISECONDS.toNanos(1)));
+            }
+
+            PayloadFactory.Payload payload = pick(payloads, weights, totalWeight, random);
+            send(payload, intended, intended >= measureStart);
+        }
+
+        // Chờ các request còn đang chạy, không gửi thêm
+        long drainDeadline = System.nanoTime() + config.requestTimeout().toNanos();
+        while (inFlight.get() > 0 && System.nanoTime() < drainDeadline) {
+            Thread.sleep(10);
+        }
+        // Còn chưa xong sau khi drain: vẫn tính vào corrected, ít nhất bằng request timeout
+        long drained = System.nanoTime();
+        long unfinishedCount = 0;
+        for (Long id : List.copyOf(pending.keySet())) {
+            Pending unfinished = pending.remove(id);
+            if (unfinished != null) {
+                unfinishedCount++;
+                recordCorrected(unfinished.label(), Math.max(drained - unfinished.intendedNanos(),
+                        config.requestTimeout().toNanos()));
+            }
+        }
+        if (logWriter != null) {
+            logWriter.outputIntervalHistogram(intervalRecorder.getIntervalHistogram());
+            logWriter.close();
+        }
+
+        double measuredSeconds = config.duration().toNanos() / 1e9;
+        return new LoadResult(config.asMap(), startedAt, measuredSeconds, sent.sum(), completed.sum(),
+                dropped.sum(), unfinishedCount, responseBytes.sum(), snapshot(errors),
+                corrected, uncorrected, correctedByLabel);
+    }
+
+    private void send(PayloadFactory.Payload payload, long intendedNanos, boolean measured) {
+        String label = payload.template() + "/" + payload.profile();
+        if (inFlight.get() >= config.maxInFlight()) {
+            if (measured) {
+                // Không gửi được vẫn là request client chờ: tính như timeout
+                dropped.increment();
+                recordCorrected(label, config.requestTimeout().toNanos());
+            }
+            return;
+        }
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create(config.baseUrl() + "/api/pdf/generate"))
+                .timeout(config.requestTimeout())
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(payload.body()))
+                .build();
+
+        inFlight.incrementAndGet();
+        long id = sequence.incrementAndGet();
+        if (measured) {
+            sent.increment();
+            pending.put(id, new Pending(intendedNanos, label));
+        }
+        long sentNanos = System.nanoTime();
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .whenComplete((response, failure) -> {
+                    long done = System.nanoTime();
+                    inFlight.decrementAndGet();
+                    // Đã tính lúc drain (unfinished) thì bỏ qua
+                    if (!measured || pending.remove(id) == null) {
+                        return;
+                    }
+                    // Lỗi, timeout, non-200 đều tính vào corrected theo thời gian từ lúc dự định gửi
+                    recordCorrected(label, done - intendedNanos);
+                    if (failure != null) {
+                        errors.computeIfAbsent(failure.getClass().getSimpleName(), k -> new LongAdder()).increment();
+                        return;
+                    }
+                    if (response.statusCode() != 200) {
+                        errors.computeIfAbsent("HTTP " + response.statusCode(), k -> new LongAdder()).increment();
+                        return;
+                    }
+                    uncorrected.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(done - sentNanos),
+                            HIGHEST_TRACKABLE_MICROS));
+                    responseBytes.add(response.body().length);
+                    completed.increment();
+                });
+    }
+
+    private void recordCorrected(String label, long latencyNanos) {
+        long micros = Math.min(TimeUnit.NANOSECONDS.toMicros(latencyNanos), HIGHEST_TRACKABLE_MICROS);
+        corrected.recordValue(micros);
+        intervalRecorder.recordValue(micros);
+        correctedByLabel.computeIfAbsent(label, k -> new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS))
+                .recordValue(micros);
+    }
+
+    private static PayloadFactory.Payload pick(List<PayloadFactory.Payload> payloads, List<Integer> weights,
+                                               int totalWeight, Random random) {
+        int r = random.nextInt(totalWeight);
+        for (int i = 0; i < payloads.size(); i++) {
+            r -= weights.get(i);
+            if (r < 0) {
+                return payloads.get(i);
+            }
+        }
+        return payloads.get(payloads.size() - 1);
+    }
+
+    private static Map<String, Long> snapshot(Map<String, LongAdder> counters) {
+        Map<String, Long> result = new TreeMap<>();
+        counters.forEach((key, value) -> result.put(key, value.sum()));
+        return result;
+    }
+}
@@ -0,0 +1,103 @@
+package com.techlab.renderpdf.loadgen;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Summary of a load run, written as JSON so results of two builds can be diffed or compared
+ * with {@code --baseline=previous.json}. Latencies are reported in milliseconds.
+ */
+final class LoadResult {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private final Map<String, Object> json = new LinkedHashMap<>();
+
+    LoadResult(Map<String, String> config, Instant startedAt, double measuredSeconds,
+               long sent, long completed, long dropped, long unfinished, long responseBytes,
+               Map<String, Long> errors, Histogram corrected, Histogram uncorrected,
+               Map<String, Histogram> correctedByLabel) {
+        json.put("startedAt", startedAt.toString());
+        json.put("config", config);
+        json.put("measuredSeconds", measuredSeconds);
+        json.put("sent", sent);
+        json.put("completed", completed);
+        json.put("dropped", dropped);
+        json.put("unfinished", unfinished);
+        json.put("errors", errors);
+        json.put("achievedRate", completed / measuredSeconds);
+        json.put("responseBytes", responseBytes);
+        json.put("correctedLatencyMs", summarize(corrected));
+        json.put("uncorrectedLatencyMs", summarize(uncorrected));
+
+        Map<String, Object> byLabel = new TreeMap<>();
+        correctedByLabel.forEach((label, histogram) -> byLabel.put(label, summarize(histogram)));
+        json.put("correctedLatencyMsByTemplate", byLabel);
+    }
+
+    void write(Path output) throws IOException {
+        MAPPER.writeValue(output.toFile(), json);
+    }
+
+    @SuppressWarnings("unchecked")
+    void print(PrintStream out) {
+        out.println();
+        out.printf("sent=%s completed=%s dropped=%s unfinished=%s errors=%s achieved=%.1f req/s%n",
+                json.get("sent"), json.get("completed"), json.get("dropped"), json.get("unfinished"),
+                json.get("errors"), (double) json.get("achievedRate"));
+        printLine(out, "corrected", (Map<String, Object>) json.get("correctedLatencyMs"));
+        printLine(out, "uncorrected", (Map<String, Object>) json.get("uncorrectedLatencyMs"));
+        ((Map<String, Object>) json.get("correctedLatencyMsByTemplate"))
+                .forEach((label, summary) -> printLine(out, "  " + label, (Map<String, Object>) summary));
+    }
+
+    /**
+     * Print corrected-latency percentiles of this run next to a previous result file
+     */
+    static void compare(Path baselineFile, LoadResult current, PrintStream out) throws IOException {
+        JsonNode baseline = MAPPER.readTree(baselineFile.toFile()).path("correctedLatencyMs");
+        JsonNode now = MAPPER.valueToTree(current.json).path("correctedLatencyMs");
+
+        out.println();
+        out.printf("Compared with %s (corrected latency, ms)%n", baselineFile);
+        out.printf("%-8s %12s %12s %9s%n", "", "baseline", "current", "delta");
+        for (String key : new String[]{"mean", "p50", "p90", "p99", "p99.9", "max"}) {
+            double before = baseline.path(key).asDouble();
+            double after = now.path(key).asDouble();
+            double delta = before > 0 ? (after - before) / before * 100 : 0;
+            out.printf("%-8s %12.2f %12.2f %+8.1f%%%n", key, before, after, delta);
+        }
+    }
+
+    private static Map<String, Object> summarize(Histogram histogram) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", histogram.getTotalCount());
+        summary.put("mean", histogram.getMean() / 1000d);
+        for (double percentile : PERCENTILES) {
+            summary.put("p" + format(percentile), histogram.getValueAtPercentile(percentile) / 1000d);
+        }
+        summary.put("max", histogram.getMaxValue() / 1000d);
+        return summary;
+    }
+
+    private static void printLine(PrintStream out, String label, Map<String, Object> summary) {
+        out.printf("%-28s n=%-7s mean=%9.2f p50=%9.2f p99=%9.2f p99.9=%9.2f max=%9.2f%n", label,
+                summary.get("count"), summary.get("mean"), summary.get("p50"), summary.get("p99"),
+                summary.get("p99.9"), summary.get("max"));
+    }
+
+    private static String format(double percentile) {
+        return percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile);
+    }
+}
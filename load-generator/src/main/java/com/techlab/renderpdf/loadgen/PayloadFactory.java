@@ -0,0 +1,106 @@
+package com.techlab.renderpdf.loadgen;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Builds request bodies ahead of the run so the send loop only picks a pre-serialised payload.
+ *
+ * Placeholders are discovered through {@code GET /api/templates/{name}/params}; every simple
+ * variable and table field gets a value, then the profile adds extra variables and rows.
+ */
+final class PayloadFactory {
+
+    /** A ready-to-send request body with the labels it is reported under */
+    record Payload(String template, String profile, byte[] body) {
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpClient httpClient;
+    private final String baseUrl;
+    private final Random random;
+
+    PayloadFactory(HttpClient httpClient, String baseUrl, long seed) {
+        this.httpClient = httpClient;
+        this.baseUrl = baseUrl;
+        this.random = new Random(seed);
+    }
+
+    Payload build(String template, LoadConfig.PayloadProfile profile) throws Exception {
+        TemplateParams params = fetchParams(template);
+
+        Map<String, Object> variables = new LinkedHashMap<>();
+        for (String name : params.simpleVariables()) {
+            variables.put(name, randomText(profile.valueLength()));
+        }
+        for (int i = 0; i < profile.variables(); i++) {
+            variables.put("loadVar" + i, randomText(profile.valueLength()));
+        }
+        for (Map.Entry<String, List<String>> table : params.tables().entrySet()) {
+            List<Map<String, Object>> rows = new ArrayList<>(profile.rows());
+            for (int r = 0; r < profile.rows(); r++) {
+                Map<String, Object> row = new LinkedHashMap<>();
+                for (String field : table.getValue()) {
+                    row.put(field, randomText(profile.valueLength()));
+                }
+                rows.add(row);
+            }
+            variables.put(table.getKey(), rows);
+        }
+
+        Map<String, Object> request = new LinkedHashMap<>();
+        request.put("templateName", template);
+        request.put("variables", variables);
+        return new Payload(template, profile.name(), objectMapper.writeValueAsBytes(request));
+    }
+
+    private TemplateParams fetchParams(String template) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/templates/"
+                        + URLEncoder.encode(template, StandardCharsets.UTF_8) + "/params"))
+                .timeout(Duration.ofSeconds(30))
+                .GET()
+                .build();
+        HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Cannot read params of template '" + template
+                    + "': HTTP " + response.statusCode());
+        }
+
+        JsonNode data = objectMapper.readTree(response.body()).path("data");
+        List<String> simple = new ArrayList<>();
+        data.path("simpleVariables").forEach(node -> simple.add(node.asText()));
+        Map<String, List<String>> tables = new LinkedHashMap<>();
+        for (JsonNode table : data.path("tableVariables")) {
+            List<String> fields = new ArrayList<>();
+            table.path("fields").forEach(node -> fields.add(node.asText()));
+            tables.put(table.path("tableName").asText(), fields);
+        }
+        return new TemplateParams(simple, tables);
+    }
+
+    private String randomText(int length) {
+        // Có dấu tiếng Việt để đi qua đúng đường font Unicode của server
+        String alphabet = "abcdefghijklmnopqrstuvwxyzàáạảãâầấậẩẫăằắặẳẵèéẹẻẽêềếệểễđ 0123456789";
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+    private record TemplateParams(List<String> simpleVariables, Map<String, List<String>> tables) {
+    }
+}
@@ -0,0 +1,241 @@
+package com.techlab.renderpdf.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.techlab.renderpdf.model.PdfGenerationRequest;
+import com.techlab.renderpdf.service.RenderDeadline;
+import com.techlab.renderpdf.template.TemplateType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+
+/**
+ * Optional cluster mode: templates are sharded across nodes by consistent hashing so that each
+ * template is loaded and cached on exactly one owner node.
+ *
+ * Membership is the static list {@code pdf.cluster.peers}. A node that receives a request for a
+ * template it does not own either forwards the whole request to the owner ({@code forward}) or
+ * renders locally with the template bytes fetched from the owner, without caching them
+ * ({@code fetch}); for a form template those are its laid-out form PDF, so every node fills the same form. Forwarded requests carry {@link #FORWARDED_HEADER} so they are never routed twice.
+ */
+@Slf4j
+@Component
+public class ClusterRouter {
+
+    public static final String FORWARDED_HEADER = "X-Render-Forwarded-By";
+    public static final String NODE_HEADER = "X-Render-Node";
+    public static final String TEMPLATE_VERSION_HEADER = "X-Template-Version";
+    public static final String TEMPLATE_TYPE_HEADER = "X-Template-Type";
+
+    public enum Mode { FORWARD, FETCH }
+
+    /**
+     * Response received from the owner node
+     */
+    public record ForwardedResponse(int status, byte[] body, Map<String, String> headers) {
+    }
+
+    /**
+     * Template served by the owner node: compiled DOCX bytes, or the form PDF of a {@link TemplateType#FORM} template
+     */
+    public record FetchedTemplate(TemplateType type, String hash, byte[] bytes) {
+    }
+
+    private final boolean enabled;
+    private final String self;
+    private final Mode mode;
+    private final Duration timeout;
+    private final ConsistentHashRing ring;
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper;
+
+    private final Counter forwardedCounter;
+    private final Counter fetchedCounter;
+    private final Counter fallbackCounter;
+
+    public ClusterRouter(@Value("${pdf.cluster.enabled:false}") boolean enabled,
+                         @Value("${pdf.cluster.self:http://localhost:${server.port:8080}}") String self,
+                         @Value("${pdf.cluster.peers:}") String peers,
+                         @Value("${pdf.cluster.virtual-nodes:128}") int virtualNodes,
+                         @Value("${pdf.cluster.mode:forward}") String mode,
+                         @Value("${pdf.cluster.timeout-ms:60000}") long timeoutMs,
+                         ObjectMapper objectMapper,
+                         MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.self = normalize(self);
+        this.mode = Mode.valueOf(mode.trim().toUpperCase());
+        this.timeout = Duration.ofMillis(timeoutMs);
+        this.objectMapper = objectMapper;
+
+        List<String> members = new ArrayList<>();
+        Arrays.stream(peers.split(","))
+                .map(String::trim)
+                .filter(peer -> !peer.isEmpty())
+                .map(ClusterRouter::normalize)
+                .distinct()
+                .forEach(members::add);
+        if (!members.contains(this.self)) {
+            members.add(this.self);
+        }
+        this.ring = new ConsistentHashRing(members, virtualNodes);
+
+        this.httpClient = enabled
+                ? HttpClient.newBuilder()
+                        .version(HttpClient.Version.HTTP_1_1)
+                        .connectTimeout(Duration.ofSeconds(5))
+                        .executor(Executors.newVirtualThreadPerTaskExecutor())
+                        .build()
+                : null;
+
+        this.forwardedCounter = Counter.builder("render.cluster.forwarded")
+                .description("Requests forwarded to the owner node").register(meterRegistry);
+        this.fetchedCounter = Counter.builder("render.cluster.template.fetched")
+                .description("Templates fetched from the owner node").register(meterRegistry);
+        this.fallbackCounter = Counter.builder("render.cluster.fallback")
+                .description("Requests rendered locally because the owner node was unreachable").register(meterRegistry);
+
+        if (enabled) {
+            log.info("Cluster mode {}: self={}, members={}", this.mode, this.self, members);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public String getSelf() {
+        return self;
+    }
+
+    /**
+     * Owner node of the template when it is another node, empty when this node owns it
+     * or cluster mode is off
+     */
+    public Optional<String> remoteOwner(String templateName) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        String owner = ring.ownerOf(templateName);
+        return owner.equals(self) ? Optional.empty() : Optional.of(owner);
+    }
+
+    /**
+     * Send the generate request to the owner node
+     *
+     * @param deadline Deadline of the request, passed on as what is left of it
+     * @param passOn Further request headers to pass on (scheduling priority, tenant)
+     * @throws IOException If the owner is unreachable (caller falls back to rendering locally)
+     */
+    public ForwardedResponse forward(String owner, PdfGenerationRequest request, RenderDeadline deadline,
+                                     Map<String, String> passOn) throws IOException {
+        // The owner gets what is left of the deadline; waiting for it longer is pointless
+        Duration remaining = Duration.ofNanos(Math.max(deadline.remainingNanos(), 1));
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(owner + "/api/pdf/generate"))
+                .timeout(remaining.compareTo(timeout) < 0 ? remaining : timeout)
+                .header("Content-Type", "application/json")
+                .header(FORWARDED_HEADER, self);
+        String deadlineHeader = deadline.toHeader();
+        if (deadlineHeader != null) {
+            builder.header(RenderDeadline.HEADER, deadlineHeader);
+        }
+        passOn.forEach(builder::header);
+        HttpRequest httpRequest = builder
+                .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(request)))
+                .build();
+        HttpResponse<byte[]> response = send(httpRequest);
+        forwardedCounter.increment();
+
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (String name : List.of("Content-Type", "Content-Disposition", "X-Processing-Time-Ms")) {
+            response.headers().firstValue(name).ifPresent(value -> headers.put(name, value));
+        }
+        headers.put(NODE_HEADER, owner);
+        return new ForwardedResponse(response.statusCode(), response.body(), headers);
+    }
+
+    /**
+     * Fetch the template from the owner node (fetch mode)
+     *
+     * @throws FileNotFoundException If the owner does not have the template
+     * @throws IOException If the owner is unreachable or returned a template type this node does not know
+     */
+    public FetchedTemplate fetchTemplate(String owner, String templateName) throws IOException {
+        HttpRequest httpRequest = HttpRequest.newBuilder(URI.create(owner + "/api/cluster/templates/"
+                        + URLEncoder.encode(templateName, StandardCharsets.UTF_8)))
+                .timeout(timeout)
+                .header(FORWARDED_HEADER, self)
+                .GET()
+                .build();
+        HttpResponse<byte[]> response = send(httpRequest);
+        if (response.statusCode() == 404) {
+            throw new FileNotFoundException("Template not found on owner " + owner + ": " + templateName);
+        }
+        if (response.statusCode() != 200) {
+            throw new IOException("Owner " + owner + " returned HTTP " + response.statusCode());
+        }
+        TemplateType type;
+        try {
+            type = TemplateType.parse(response.headers().firstValue(TEMPLATE_TYPE_HEADER).orElse(null));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Owner " + owner + " returned " + e.getMessage());
+        }
+        fetchedCounter.increment();
+        return new FetchedTemplate(type, response.headers().firstValue(TEMPLATE_VERSION_HEADER).orElse(null),
+                response.body());
+    }
+
+    public void recordFallback(String owner, Exception e) {
+        fallbackCounter.increment();
+        log.warn("Owner node {} unreachable, rendering locally: {}", owner, e.getMessage());
+    }
+
+    public Map<String, Object> status(String templateName) {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", enabled);
+        status.put("mode", mode.name().toLowerCase());
+        status.put("self", self);
+        status.put("members", ring.nodes());
+        if (templateName != null) {
+            status.put("template", templateName);
+            status.put("owner", ring.ownerOf(templateName));
+        }
+        return status;
+    }
+
+    private HttpResponse<byte[]> send(HttpRequest request) throws IOException {
+        try {
+            return httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while calling " + request.uri());
+        }
+    }
+
+    private static String normalize(String url) {
+        String trimmed = url.trim();
+        return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+}
@@ -1,11 +1,15 @@
 package com.techlab.renderpdf.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
 
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Configuration for virtual threads
@@ -24,5 +28,24 @@ public class ThreadConfig {
     public Executor virtualThreadExecutor() {
         return Executors.newVirtualThreadPerTaskExecutor();
     }
-}
 
+    /**
+     * Platform-thread pool for the CPU-heavy DOCX -> PDF work
+     * Request handling stays on virtual threads; the render itself runs here so that monitors held
+     * by OpenPDF/XMLBeans never pin a virtual thread carrier.
+     * The pool never grows beyond its parallelism (no compensation threads).
+     */
+    @Bean(name = "renderPool", destroyMethod = "shutdown")
+    public ForkJoinPool renderPool(@Value("${pdf.generation.render.parallelism:0}") int configuredParallelism) {
+        int parallelism = configuredParallelism > 0
+                ? configuredParallelism
+                : Runtime.getRuntime().availableProcessors();
+        ForkJoinPool.ForkJoinWorkerThreadFactory factory = pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("render-worker-" + thread.getPoolIndex());
+            return thread;
+        };
+        return new ForkJoinPool(parallelism, factory, null, true,
+                parallelism, parallelism, 1, pool -> true, 60, TimeUnit.SECONDS);
+    }
+}
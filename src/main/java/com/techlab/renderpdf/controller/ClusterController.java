@@ -0,0 +1,68 @@
+package com.techlab.renderpdf.controller;
+
+import com.techlab.renderpdf.cluster.ClusterRouter;
+import com.techlab.renderpdf.service.PdfGenerationService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * REST controller for cluster mode: membership/ownership status and template bytes for peers
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/cluster")
+@RequiredArgsConstructor
+public class ClusterController {
+
+    private final ClusterRouter clusterRouter;
+
+    private final PdfGenerationService pdfGenerationService;
+
+    /**
+     * Cluster status, optionally with the owner node of a template
+     * 
+     * GET /api/cluster?template=invoice
+     */
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> status(@RequestParam(value = "template", required = false) String template) {
+        return ResponseEntity.ok(clusterRouter.status(template));
+    }
+
+    /**
+     * Current template version, served by the owner node to peers running in fetch mode: compiled DOCX bytes,
+     * or the laid-out form PDF of a form template (type in {@code X-Template-Type})
+     * 
+     * GET /api/cluster/templates/{templateName}
+     */
+    @GetMapping("/templates/{templateName}")
+    public ResponseEntity<byte[]> templateBytes(@PathVariable String templateName) {
+        if (!clusterRouter.isEnabled()) {
+            return ResponseEntity.notFound().build();
+        }
+        try {
+            ClusterRouter.FetchedTemplate template = pdfGenerationService.getTemplateForPeer(templateName);
+            byte[] bytes = template.bytes();
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+            headers.setContentLength(bytes.length);
+            headers.set(ClusterRouter.NODE_HEADER, clusterRouter.getSelf());
+            headers.set(ClusterRouter.TEMPLATE_VERSION_HEADER, template.hash());
+            headers.set(ClusterRouter.TEMPLATE_TYPE_HEADER, template.type().id());
+            return new ResponseEntity<>(bytes, headers, HttpStatus.OK);
+
+        } catch (java.io.FileNotFoundException e) {
+            return ResponseEntity.notFound().build();
+
+        } catch (Exception e) {
+            log.error("Error serving template bytes: {}", templateName, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+}
@@ -1,7 +1,14 @@
 package com.techlab.renderpdf.controller;
 
+import com.techlab.renderpdf.cluster.ClusterRouter;
 import com.techlab.renderpdf.model.PdfGenerationRequest;
+import com.techlab.renderpdf.output.RenderedDocument;
+import com.techlab.renderpdf.service.FontCache;
 import com.techlab.renderpdf.service.PdfGenerationService;
+import com.techlab.renderpdf.service.RenderCoalescer;
+import com.techlab.renderpdf.service.RenderDeadline;
+import com.techlab.renderpdf.service.RenderExecutor;
+import com.techlab.renderpdf.service.RenderScheduler;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -11,6 +18,11 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -25,6 +37,16 @@ import java.util.concurrent.atomic.AtomicLong;
 public class PdfController {
 
     private final PdfGenerationService pdfGenerationService;
+
+    private final RenderExecutor renderExecutor;
+
+    private final RenderCoalescer renderCoalescer;
+
+    private final RenderScheduler renderScheduler;
+
+    private final FontCache fontCache;
+
+    private final ClusterRouter clusterRouter;
     
     // Metrics để theo dõi performance
     private static final AtomicLong totalRequests = new AtomicLong(0);
@@ -41,14 +63,61 @@ public class PdfController {
      * Optimized with caching for high concurrent requests
      */
     @PostMapping("/generate")
-    public ResponseEntity<byte[]> generatePdf(@Valid @RequestBody PdfGenerationRequest request) {
+    public ResponseEntity<?> generatePdf(@Valid @RequestBody PdfGenerationRequest request,
+            @RequestHeader(value = ClusterRouter.FORWARDED_HEADER, required = false) String forwardedBy,
+            @RequestHeader(value = RenderScheduler.PRIORITY_HEADER, required = false) String priority,
+            @RequestHeader(value = RenderScheduler.TENANT_HEADER, required = false) String tenant,
+            @RequestHeader(value = RenderDeadline.HEADER, required = false) String deadlineHeader) {
+        // Deadline: header X-Request-Deadline hoặc mặc định cấu hình, render dừng ở checkpoint khi quá hạn
+        RenderDeadline deadline;
+        try {
+            deadline = renderExecutor.deadline(deadlineHeader);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(("Error: " + e.getMessage()).getBytes());
+        }
+
+        // Cluster forward mode: template thuộc node khác -> chuyển nguyên request sang owner
+        // (kèm phần deadline còn lại, lớp ưu tiên và tenant)
+        if (forwardedBy == null && clusterRouter.getMode() == ClusterRouter.Mode.FORWARD) {
+            Optional<String> owner = clusterRouter.remoteOwner(request.getTemplateName());
+            if (owner.isPresent()) {
+                try {
+                    Map<String, String> forwardHeaders = new LinkedHashMap<>();
+                    if (priority != null) {
+                        forwardHeaders.put(RenderScheduler.PRIORITY_HEADER, priority);
+                    }
+                    if (tenant != null) {
+                        forwardHeaders.put(RenderScheduler.TENANT_HEADER, tenant);
+                    }
+                    ClusterRouter.ForwardedResponse forwarded = clusterRouter.forward(owner.get(), request, deadline,
+                            forwardHeaders);
+                    HttpHeaders headers = new HttpHeaders();
+                    forwarded.headers().forEach(headers::set);
+                    return new ResponseEntity<>(forwarded.body(), headers, HttpStatus.valueOf(forwarded.status()));
+                } catch (IOException e) {
+                    clusterRouter.recordFallback(owner.get(), e);
+                }
+            }
+        }
+
         totalRequests.incrementAndGet();
         long startTime = System.currentTimeMillis();
         
         try {
             log.debug("Generating PDF for template: {}", request.getTemplateName());
             
-            byte[] pdfBytes = pdfGenerationService.generatePdfFromDocxTemplate(request);
+            // Render chạy trên render pool (platform threads), request thread (virtual) chỉ chờ kết quả
+            // Request giống hệt (retry, double-click) đang render thì chờ và dùng chung kết quả
+            // Thứ tự lấy render worker: theo lớp ưu tiên (header X-Render-Priority) và giới hạn theo tenant/template
+            RenderScheduler.Ticket ticket = new RenderScheduler.Ticket(
+                    RenderScheduler.Priority.parse(priority, renderScheduler.defaultPriority()),
+                    tenant, request.getTemplateName());
+            // Load template + chờ memory budget trên thread này (virtual), render worker chỉ nhận render đã có memory
+            RenderedDocument pdf = renderCoalescer.render(request, deadline, shared -> {
+                try (PdfGenerationService.PreparedRender prepared = pdfGenerationService.prepare(request, shared)) {
+                    return renderExecutor.execute(ticket, shared, () -> pdfGenerationService.render(prepared));
+                }
+            });
             
             long duration = System.currentTimeMillis() - startTime;
             successfulRequests.incrementAndGet();
@@ -62,7 +131,7 @@ public class PdfController {
                 log.warn("Slow PDF generation: {} ms for template: {}", duration, request.getTemplateName());
             } else {
                 log.info("PDF generated in {} ms, size: {} bytes, template: {}", 
-                        duration, pdfBytes.length, request.getTemplateName());
+                        duration, pdf.size(), request.getTemplateName());
             }
 
             String filename = request.getOutputFilename() != null 
@@ -72,13 +141,32 @@ public class PdfController {
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.APPLICATION_PDF);
             headers.setContentDispositionFormData("attachment", filename);
-            headers.setContentLength(pdfBytes.length);
+            headers.setContentLength(pdf.size());
             
             // Add performance headers
             headers.set("X-Processing-Time-Ms", String.valueOf(duration));
+            if (clusterRouter.isEnabled()) {
+                headers.set(ClusterRouter.NODE_HEADER, clusterRouter.getSelf());
+            }
 
-            return new ResponseEntity<>(pdfBytes, headers, HttpStatus.OK);
+            // Stream từ chunks/file tạm, giải phóng sau khi ghi xong response
+            return new ResponseEntity<>(pdf.toResource(), headers, HttpStatus.OK);
             
+        } catch (RejectedExecutionException e) {
+            failedRequests.incrementAndGet();
+            log.warn("Render queue full, rejecting template: {}", request.getTemplateName());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(("Error: " + e.getMessage()).getBytes());
+
+        } catch (RenderDeadline.ExceededException e) {
+            // Không ai chờ kết quả nữa: render đã dừng ở checkpoint, không tốn thêm CPU
+            failedRequests.incrementAndGet();
+            log.warn("{} for template: {} after {} ms", e.getMessage(), request.getTemplateName(),
+                    System.currentTimeMillis() - startTime);
+            return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+                .body(("Error: " + e.getMessage()).getBytes());
+
         } catch (Exception e) {
             long duration = System.currentTimeMillis() - startTime;
             failedRequests.incrementAndGet();
@@ -138,6 +226,7 @@ public class PdfController {
                 .averageProcessingTimeMs(avgTime)
                 .maxProcessingTimeMs(maxTime)
                 .minProcessingTimeMs(minTime)
+                .fontCache(fontCache.stats())
                 .build();
         
         return ResponseEntity.ok(metrics);
@@ -156,6 +245,7 @@ public class PdfController {
         private double averageProcessingTimeMs;
         private long maxProcessingTimeMs;
         private long minProcessingTimeMs;
+        private FontCache.Stats fontCache;
     }
 }
 
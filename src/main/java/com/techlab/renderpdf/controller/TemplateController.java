@@ -1,8 +1,14 @@
 package com.techlab.renderpdf.controller;
 
 import com.techlab.renderpdf.model.PdfGenerationRequest;
+import com.techlab.renderpdf.output.RenderedDocument;
 import com.techlab.renderpdf.service.PdfGenerationService;
+import com.techlab.renderpdf.service.RenderCoalescer;
+import com.techlab.renderpdf.service.RenderDeadline;
+import com.techlab.renderpdf.service.RenderExecutor;
+import com.techlab.renderpdf.service.RenderScheduler;
 import com.techlab.renderpdf.service.TemplateService;
+import com.techlab.renderpdf.template.TemplateCatalog;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpHeaders;
@@ -29,6 +35,14 @@ public class TemplateController {
 
     private final PdfGenerationService pdfGenerationService;
 
+    private final RenderExecutor renderExecutor;
+
+    private final RenderCoalescer renderCoalescer;
+
+    private static final int DEFAULT_PAGE_SIZE = 100;
+
+    private static final int MAX_PAGE_SIZE = 1000;
+
     /**
      * Upload a DOCX template file
      * 
@@ -37,16 +51,18 @@ public class TemplateController {
      * 
      * @param file The DOCX file to upload
      * @param templateName Optional template name (without extension). If not provided, uses original filename
+     * @param type Optional template type: docx (default) or form (fill-able PDF, fixed layout, simple variables only)
      * @return Response with template name and success message
      */
     @PostMapping("/upload")
     public ResponseEntity<?> uploadTemplate(
             @RequestParam("file") MultipartFile file,
-            @RequestParam(value = "templateName", required = false) String templateName) {
+            @RequestParam(value = "templateName", required = false) String templateName,
+            @RequestParam(value = "type", required = false) String type) {
         try {
             log.info("Uploading template: {}", file.getOriginalFilename());
             
-            String savedTemplateName = templateService.uploadTemplate(file, templateName);
+            String savedTemplateName = templateService.uploadTemplate(file, templateName, type);
             
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
@@ -78,14 +94,25 @@ public class TemplateController {
      * GET /api/templates/{templateName}/preview
      * 
      * @param templateName Template name (without .docx extension)
+     * @param tenant Optional tenant, capped like generate requests
+     * @param deadlineHeader Optional deadline, see {@link RenderDeadline#HEADER}
      * @return PDF file for preview
      */
     @GetMapping("/{templateName}/preview")
-    public ResponseEntity<byte[]> previewTemplate(@PathVariable String templateName) {
+    public ResponseEntity<byte[]> previewTemplate(@PathVariable String templateName,
+            @RequestHeader(value = RenderScheduler.TENANT_HEADER, required = false) String tenant,
+            @RequestHeader(value = RenderDeadline.HEADER, required = false) String deadlineHeader) {
+        RenderDeadline deadline;
+        try {
+            deadline = renderExecutor.deadline(deadlineHeader);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(("Error: " + e.getMessage()).getBytes());
+        }
         try {
             log.info("Previewing template: {}", templateName);
             
-            byte[] pdfBytes = templateService.previewTemplate(templateName);
+            byte[] pdfBytes = renderExecutor.execute(preview(templateName, tenant), deadline,
+                    () -> templateService.previewTemplate(templateName));
             
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.APPLICATION_PDF);
@@ -98,6 +125,10 @@ public class TemplateController {
             log.error("Template not found: {}", templateName);
             return ResponseEntity.notFound().build();
             
+        } catch (RenderDeadline.ExceededException e) {
+            log.warn("{} for preview of template: {}", e.getMessage(), templateName);
+            return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).body(("Error: " + e.getMessage()).getBytes());
+
         } catch (Exception e) {
             log.error("Error previewing template: {}", templateName, e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -111,26 +142,46 @@ public class TemplateController {
      * GET /api/templates/{templateName}/preview
      * 
      * @param templateName Template name (without .docx extension)
+     * @param tenant Optional tenant, capped like generate requests
+     * @param deadlineHeader Optional deadline, see {@link RenderDeadline#HEADER}
      * @return PDF file for preview
      */
     @GetMapping("/{templateName}/preview-v2")
-    public ResponseEntity<byte[]> previewTemplateV2(@PathVariable String templateName) {
+    public ResponseEntity<?> previewTemplateV2(@PathVariable String templateName,
+            @RequestHeader(value = RenderScheduler.TENANT_HEADER, required = false) String tenant,
+            @RequestHeader(value = RenderDeadline.HEADER, required = false) String deadlineHeader) {
+        RenderDeadline deadline;
+        try {
+            deadline = renderExecutor.deadline(deadlineHeader);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(("Error: " + e.getMessage()).getBytes());
+        }
         try {
             log.info("Previewing template: {}", templateName);
             
-            byte[] pdfBytes = pdfGenerationService.generatePdfFromDocxTemplate(new PdfGenerationRequest(templateName, null, null, null));
+            PdfGenerationRequest request = new PdfGenerationRequest(templateName, null, null, null);
+            RenderedDocument pdf = renderCoalescer.render(request, deadline, shared -> {
+                try (PdfGenerationService.PreparedRender prepared = pdfGenerationService.prepare(request, shared)) {
+                    return renderExecutor.execute(preview(templateName, tenant), shared,
+                            () -> pdfGenerationService.render(prepared));
+                }
+            });
             
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.APPLICATION_PDF);
             headers.setContentDispositionFormData("inline", templateName + "_preview.pdf");
-            headers.setContentLength(pdfBytes.length);
+            headers.setContentLength(pdf.size());
             
-            return new ResponseEntity<>(pdfBytes, headers, HttpStatus.OK);
+            return new ResponseEntity<>(pdf.toResource(), headers, HttpStatus.OK);
             
         } catch (java.io.FileNotFoundException e) {
             log.error("Template not found: {}", templateName);
             return ResponseEntity.notFound().build();
             
+        } catch (RenderDeadline.ExceededException e) {
+            log.warn("{} for preview of template: {}", e.getMessage(), templateName);
+            return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).body(("Error: " + e.getMessage()).getBytes());
+
         } catch (Exception e) {
             log.error("Error previewing template: {}", templateName, e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -142,18 +193,36 @@ public class TemplateController {
      * List all available templates
      * 
      * GET /api/templates
+     * GET /api/templates?prefix=invoice&limit=50&after=invoice-0049
+     * 
+     * Served from the in-memory catalogue. Without parameters all names are returned as before;
+     * with {@code limit} (and optionally {@code prefix} / {@code after}) one page is returned with
+     * metadata (size, hash, placeholders, upload and last-used time) and the cursor of the next page.
      * 
      * @return List of template names
      */
     @GetMapping
-    public ResponseEntity<?> listTemplates() {
+    public ResponseEntity<?> listTemplates(
+            @RequestParam(value = "prefix", required = false) String prefix,
+            @RequestParam(value = "after", required = false) String after,
+            @RequestParam(value = "limit", required = false) Integer limit) {
         try {
-            List<String> templates = templateService.listTemplates();
-            
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
-            response.put("templates", templates);
-            response.put("count", templates.size());
+
+            if (prefix == null && after == null && limit == null) {
+                List<String> templates = templateService.listTemplates();
+                response.put("templates", templates);
+                response.put("count", templates.size());
+                return ResponseEntity.ok(response);
+            }
+
+            int pageSize = Math.max(1, Math.min(limit != null ? limit : DEFAULT_PAGE_SIZE, MAX_PAGE_SIZE));
+            TemplateCatalog.Page page = templateService.listTemplates(prefix, after, pageSize);
+            response.put("templates", page.templates().stream().map(TemplateCatalog.TemplateInfo::name).toList());
+            response.put("items", page.templates());
+            response.put("count", page.templates().size());
+            response.put("nextAfter", page.nextAfter());
             
             return ResponseEntity.ok(response);
             
@@ -235,5 +304,11 @@ public class TemplateController {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(error);
         }
     }
-}
 
+    /**
+     * Previews are always interactive: a user is waiting for them
+     */
+    private static RenderScheduler.Ticket preview(String templateName, String tenant) {
+        return new RenderScheduler.Ticket(RenderScheduler.Priority.INTERACTIVE, tenant, templateName);
+    }
+}
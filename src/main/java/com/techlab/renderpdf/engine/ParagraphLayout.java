@@ -0,0 +1,405 @@
+package com.techlab.renderpdf.engine;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.pdmodel.graphics.state.RenderingMode;
+import org.apache.pdfbox.util.Matrix;
+import org.apache.poi.ooxml.util.POIXMLUnits;
+import org.apache.poi.xwpf.usermodel.LineSpacingRule;
+import org.apache.poi.xwpf.usermodel.ParagraphAlignment;
+import org.apache.poi.xwpf.usermodel.UnderlinePatterns;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFPicture;
+import org.apache.poi.xwpf.usermodel.XWPFPictureData;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.apache.poi.xwpf.usermodel.XWPFStyle;
+import org.apache.poi.xwpf.usermodel.XWPFStyles;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTBr;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTRPr;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTStyle;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.STBrType;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Line layout of one DOCX paragraph for {@link PdfBoxRenderEngine}
+ *
+ * Greedy word wrapping over the runs of the paragraph; lengths are in points (DOCX twips / 20).
+ * Bold and italic are simulated (stroke and skew) because a single configured font is used, like
+ * the xdocreport engine does.
+ */
+final class ParagraphLayout {
+
+    static final float TAB_STOP = 36f;
+
+    record TextStyle(float size, boolean bold, boolean italic, boolean underline, Color color) {
+    }
+
+    sealed interface Item permits Word, Gap, Picture {
+        float width();
+    }
+
+    record Word(String text, TextStyle style, float width) implements Item {
+    }
+
+    record Gap(TextStyle style, float width, boolean space) implements Item {
+    }
+
+    record Picture(XWPFPictureData data, float width, float height) implements Item {
+    }
+
+    record Placed(Item item, float x) {
+    }
+
+    static final class Line {
+        final List<Placed> items = new ArrayList<>();
+        float width;
+        float ascent;
+        float descent;
+        float height;
+        boolean last;
+        boolean pageBreakAfter;
+        float start;
+    }
+
+    final List<Line> lines = new ArrayList<>();
+    final float spaceBefore;
+    final float spaceAfter;
+    final float indentLeft;
+    final float available;
+    final ParagraphAlignment alignment;
+    final boolean pageBreakBefore;
+    private final LineSpacingRule lineRule;
+    private final double lineSpacing;
+
+    /**
+     * Shared per-render state: font, metrics and style lookups
+     */
+    static final class Context {
+        final PDDocument pdf;
+        final PDFont font;
+        final float ascent;
+        final float descent;
+        final XWPFDocument document;
+        final float defaultSize;
+        final float defaultSpacingAfter;
+        private final Map<String, TextStyle> styleCache = new HashMap<>();
+        private final Map<XWPFPictureData, PDImageXObject> images = new IdentityHashMap<>();
+        private final Map<String, String> sanitized = new HashMap<>();
+
+        Context(PDDocument pdf, PDFont font, XWPFDocument document) {
+            this.pdf = pdf;
+            this.font = font;
+            this.ascent = font.getFontDescriptor() != null ? font.getFontDescriptor().getAscent() / 1000f : 0.8f;
+            this.descent = font.getFontDescriptor() != null ? Math.abs(font.getFontDescriptor().getDescent()) / 1000f : 0.2f;
+            this.document = document;
+            XWPFStyles styles = document.getStyles();
+            Double size = styles != null && styles.getDefaultRunStyle() != null ? styles.getDefaultRunStyle().getFontSizeAsDouble() : null;
+            this.defaultSize = size != null && size > 0 ? size.floatValue() : 11f;
+            int after = styles != null && styles.getDefaultParagraphStyle() != null ? styles.getDefaultParagraphStyle().getSpacingAfter() : -1;
+            this.defaultSpacingAfter = after > 0 ? after / 20f : 0;
+        }
+
+        float width(String text, float size) throws IOException {
+            return font.getStringWidth(text) / 1000f * size;
+        }
+
+        /**
+         * Text with characters the font has no glyph for replaced by '?'
+         */
+        String sanitize(String text) {
+            return sanitized.computeIfAbsent(text, t -> {
+                try {
+                    font.encode(t);
+                    return t;
+                } catch (IllegalArgumentException | IOException e) {
+                    StringBuilder sb = new StringBuilder(t.length());
+                    t.codePoints().forEach(cp -> {
+                        String ch = new String(Character.toChars(cp));
+                        try {
+                            font.encode(ch);
+                            sb.append(ch);
+                        } catch (IllegalArgumentException | IOException ex) {
+                            sb.append('?');
+                        }
+                    });
+                    return sb.toString();
+                }
+            });
+        }
+
+        PDImageXObject image(XWPFPictureData data) throws IOException {
+            PDImageXObject image = images.get(data);
+            if (image == null) {
+                image = PDImageXObject.createFromByteArray(pdf, data.getData(), data.getFileName());
+                images.put(data, image);
+            }
+            return image;
+        }
+
+        TextStyle style(XWPFRun run, XWPFParagraph paragraph) {
+            TextStyle inherited = paragraphStyle(paragraph);
+            Double size = run.getFontSizeAsDouble();
+            String color = run.getColor();
+            return new TextStyle(
+                    size != null && size > 0 ? size.floatValue() : inherited.size(),
+                    run.isBold() || inherited.bold(),
+                    run.isItalic() || inherited.italic(),
+                    run.getUnderline() != null && run.getUnderline() != UnderlinePatterns.NONE,
+                    color != null && color.matches("[0-9A-Fa-f]{6}") ? new Color(Integer.parseInt(color, 16)) : Color.BLACK);
+        }
+
+        /**
+         * Run properties of the paragraph style chain (sz, b, i), over the document defaults
+         */
+        TextStyle paragraphStyle(XWPFParagraph paragraph) {
+            String styleId = paragraph.getStyleID() != null ? paragraph.getStyleID() : "Normal";
+            return styleCache.computeIfAbsent(styleId, id -> {
+                Float size = null;
+                Boolean bold = null;
+                Boolean italic = null;
+                XWPFStyles styles = document.getStyles();
+                String current = id;
+                for (int depth = 0; styles != null && current != null && depth < 10; depth++) {
+                    XWPFStyle style = styles.getStyle(current);
+                    if (style == null) {
+                        break;
+                    }
+                    CTStyle ct = style.getCTStyle();
+                    CTRPr rPr = ct.getRPr();
+                    if (rPr != null) {
+                        if (size == null && rPr.sizeOfSzArray() > 0) {
+                            size = Float.parseFloat(rPr.getSzArray(0).getVal().toString()) / 2f;
+                        }
+                        if (bold == null && rPr.sizeOfBArray() > 0) {
+                            bold = POIXMLUnits.parseOnOff(rPr.getBArray(0));
+                        }
+                        if (italic == null && rPr.sizeOfIArray() > 0) {
+                            italic = POIXMLUnits.parseOnOff(rPr.getIArray(0));
+                        }
+                    }
+                    current = ct.getBasedOn() != null ? ct.getBasedOn().getVal() : null;
+                }
+                return new TextStyle(size != null ? size : defaultSize, Boolean.TRUE.equals(bold),
+                        Boolean.TRUE.equals(italic), false, Color.BLACK);
+            });
+        }
+    }
+
+    ParagraphLayout(XWPFParagraph paragraph, float width, Context ctx) throws IOException {
+        this.indentLeft = twips(paragraph.getIndentationLeft());
+        float indentRight = twips(paragraph.getIndentationRight());
+        float firstLine = paragraph.getIndentationHanging() > 0
+                ? -twips(paragraph.getIndentationHanging())
+                : twips(paragraph.getIndentationFirstLine());
+        this.available = Math.max(1f, width - indentLeft - indentRight);
+        this.spaceBefore = twips(paragraph.getSpacingBefore());
+        this.spaceAfter = paragraph.getSpacingAfter() >= 0 ? paragraph.getSpacingAfter() / 20f : ctx.defaultSpacingAfter;
+        this.alignment = paragraph.getAlignment();
+        this.pageBreakBefore = paragraph.isPageBreak();
+        // AUTO: multiplier (line / 240); EXACT, AT_LEAST: points (line / 20)
+        this.lineRule = paragraph.getSpacingLineRule();
+        this.lineSpacing = paragraph.getSpacingBetween();
+
+        TextStyle paragraphStyle = ctx.paragraphStyle(paragraph);
+        Line line = newLine(firstLine);
+        for (XWPFRun run : paragraph.getRuns()) {
+            TextStyle style = ctx.style(run, paragraph);
+            for (XWPFPicture picture : run.getEmbeddedPictures()) {
+                line = add(line, new Picture(picture.getPictureData(), (float) picture.getWidth(), (float) picture.getDepth()), ctx);
+            }
+            String text = run.text();
+            int start = 0;
+            for (int i = 0; i <= text.length(); i++) {
+                char c = i < text.length() ? text.charAt(i) : 0;
+                if (i == text.length() || c == ' ' || c == '\t' || c == '\n') {
+                    if (i > start) {
+                        line = addWord(line, ctx.sanitize(text.substring(start, i)), style, ctx);
+                    }
+                    if (c == ' ') {
+                        line = add(line, new Gap(style, ctx.width(" ", style.size()), true), ctx);
+                    } else if (c == '\t') {
+                        float x = line.start + line.width;
+                        line = add(line, new Gap(style, TAB_STOP - (x % TAB_STOP), false), ctx);
+                    } else if (c == '\n') {
+                        line = finish(line, paragraphStyle, ctx);
+                    }
+                    start = i + 1;
+                }
+            }
+            for (CTBr br : run.getCTR().getBrList()) {
+                if (br.getType() == STBrType.PAGE) {
+                    // text() already turned the page break into a line break; mark the line it ended
+                    if (!lines.isEmpty()) {
+                        lines.get(lines.size() - 1).pageBreakAfter = true;
+                    }
+                }
+            }
+        }
+        finish(line, paragraphStyle, ctx);
+    }
+
+    float height() {
+        float height = spaceBefore + spaceAfter;
+        for (Line line : lines) {
+            height += line.height;
+        }
+        return height;
+    }
+
+    /**
+     * Draw one line; {@code top} is the top of the line box
+     */
+    void draw(PDPageContentStream cs, Context ctx, Line line, float left, float top) throws IOException {
+        float baseline = top - (line.height - line.ascent - line.descent) - line.ascent;
+        float free = available - line.start - line.width;
+        float shift = switch (alignment) {
+            case CENTER -> free / 2;
+            case RIGHT, END -> free;
+            default -> 0;
+        };
+        float extraPerSpace = 0;
+        if ((alignment == ParagraphAlignment.BOTH || alignment == ParagraphAlignment.DISTRIBUTE) && !line.last && free > 0) {
+            long spaces = line.items.stream().filter(p -> p.item() instanceof Gap gap && gap.space()).count();
+            extraPerSpace = spaces > 0 ? free / spaces : 0;
+        }
+
+        float extra = 0;
+        for (Placed placed : line.items) {
+            float x = left + indentLeft + line.start + shift + placed.x() + extra;
+            switch (placed.item()) {
+                case Word word -> drawWord(cs, ctx, word, x, baseline);
+                case Picture picture -> cs.drawImage(ctx.image(picture.data()), x, baseline, picture.width(), picture.height());
+                case Gap gap -> {
+                    if (gap.space()) {
+                        extra += extraPerSpace;
+                    }
+                }
+            }
+        }
+    }
+
+    private static void drawWord(PDPageContentStream cs, Context ctx, Word word, float x, float baseline) throws IOException {
+        TextStyle style = word.style();
+        cs.beginText();
+        cs.setFont(ctx.font, style.size());
+        cs.setNonStrokingColor(style.color());
+        if (style.bold()) {
+            cs.setRenderingMode(RenderingMode.FILL_STROKE);
+            cs.setStrokingColor(style.color());
+            cs.setLineWidth(style.size() / 30f);
+        } else {
+            cs.setRenderingMode(RenderingMode.FILL);
+        }
+        cs.setTextMatrix(style.italic() ? new Matrix(1, 0, 0.21f, 1, x, baseline) : Matrix.getTranslateInstance(x, baseline));
+        cs.showText(word.text());
+        cs.endText();
+        if (style.underline()) {
+            cs.setStrokingColor(style.color());
+            cs.setLineWidth(style.size() / 20f);
+            cs.moveTo(x, baseline - style.size() * 0.12f);
+            cs.lineTo(x + word.width(), baseline - style.size() * 0.12f);
+            cs.stroke();
+        }
+    }
+
+    private Line newLine(float start) {
+        Line line = new Line();
+        line.start = start;
+        return line;
+    }
+
+    private Line addWord(Line line, String text, TextStyle style, Context ctx) throws IOException {
+        float width = ctx.width(text, style.size());
+        if (width <= available - line.start || text.length() == 1) {
+            return add(line, new Word(text, style, width), ctx);
+        }
+        // Word wider than the whole line: break it between characters
+        int from = 0;
+        for (int to = 1; to <= text.length(); to++) {
+            float partWidth = ctx.width(text.substring(from, to), style.size());
+            if (partWidth > available - line.start && to - from > 1) {
+                String part = text.substring(from, to - 1);
+                line = add(line, new Word(part, style, ctx.width(part, style.size())), ctx);
+                from = to - 1;
+            }
+        }
+        String rest = text.substring(from);
+        return add(line, new Word(rest, style, ctx.width(rest, style.size())), ctx);
+    }
+
+    private Line add(Line line, Item item, Context ctx) {
+        boolean hasContent = line.items.stream().anyMatch(p -> !(p.item() instanceof Gap));
+        if (!(item instanceof Gap) && hasContent && line.start + line.width + item.width() > available) {
+            line = wrap(line, ctx);
+        }
+        line.items.add(new Placed(item, line.width));
+        line.width += item.width();
+        return line;
+    }
+
+    private Line wrap(Line line, Context ctx) {
+        measure(line, ctx, null);
+        lines.add(line);
+        return newLine(0);
+    }
+
+    /**
+     * End of paragraph or manual line break: the line is not justified
+     */
+    private Line finish(Line line, TextStyle paragraphStyle, Context ctx) {
+        line.last = true;
+        measure(line, ctx, paragraphStyle);
+        lines.add(line);
+        return newLine(0);
+    }
+
+    private void measure(Line line, Context ctx, TextStyle emptyStyle) {
+        // Trailing spaces do not count towards the width used for centring and justification
+        while (!line.items.isEmpty() && line.items.get(line.items.size() - 1).item() instanceof Gap gap && gap.space()) {
+            line.width -= gap.width();
+            line.items.remove(line.items.size() - 1);
+        }
+        for (Placed placed : line.items) {
+            if (placed.item() instanceof Word word) {
+                line.ascent = Math.max(line.ascent, word.style().size() * ctx.ascent);
+                line.descent = Math.max(line.descent, word.style().size() * ctx.descent);
+            } else if (placed.item() instanceof Gap gap) {
+                line.ascent = Math.max(line.ascent, gap.style().size() * ctx.ascent);
+                line.descent = Math.max(line.descent, gap.style().size() * ctx.descent);
+            } else if (placed.item() instanceof Picture picture) {
+                line.ascent = Math.max(line.ascent, picture.height());
+            }
+        }
+        if (line.ascent == 0) {
+            float size = emptyStyle != null ? emptyStyle.size() : ctx.defaultSize;
+            line.ascent = size * ctx.ascent;
+            line.descent = size * ctx.descent;
+        }
+        line.height = lineHeight(line.ascent + line.descent);
+    }
+
+    private float lineHeight(float natural) {
+        if (lineSpacing <= 0) {
+            return natural;
+        }
+        return switch (lineRule) {
+            case AUTO -> (float) (natural * lineSpacing);
+            case EXACT -> (float) lineSpacing;
+            case AT_LEAST -> Math.max(natural, (float) lineSpacing);
+        };
+    }
+
+    private static float twips(int value) {
+        return value > 0 ? value / 20f : 0;
+    }
+}
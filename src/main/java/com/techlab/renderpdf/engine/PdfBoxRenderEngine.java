@@ -0,0 +1,459 @@
+package com.techlab.renderpdf.engine;
+
+import com.techlab.renderpdf.output.TempStorage;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.fontbox.ttf.TTFParser;
+import org.apache.fontbox.ttf.TrueTypeFont;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.io.RandomAccessReadBufferedFile;
+import org.apache.pdfbox.io.RandomAccessStreamCache;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.apache.poi.xwpf.model.XWPFHeaderFooterPolicy;
+import org.apache.poi.xwpf.usermodel.IBodyElement;
+import org.apache.poi.xwpf.usermodel.TableRowAlign;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFHeaderFooter;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.apache.poi.xwpf.usermodel.XWPFTableCell;
+import org.apache.poi.xwpf.usermodel.XWPFTableRow;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTDrawing;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTPageMar;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTPageSz;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTR;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTSectPr;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTTblGrid;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTTblGridCol;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTTcPr;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Direct DOCX -> PDFBox engine for simple (form-letter style) templates
+ *
+ * Lays the document out straight into PDFBox content streams without building the intermediate
+ * iText model: paragraphs with runs (size, bold, italic, underline, colour), alignment, indentation,
+ * line spacing and page breaks; tables with grid widths, horizontal spans, shading and borders;
+ * inline images; the default header and footer on every page. Anything else is reported by
+ * {@link #unsupportedFeatures} so {@code auto} selection can fall back to xdocreport.
+ *
+ * The configured TrueType font is parsed once and shared; each render embeds a subset of it.
+ * Page content scratch buffers come from {@link TempStorage#pdfboxStreamCache()}, so a long document
+ * moves them to temp files instead of holding them all in memory.
+ */
+@Slf4j
+@Component
+public class PdfBoxRenderEngine implements RenderEngine {
+
+    public static final String NAME = "pdfbox";
+
+    private static final float CELL_PADDING = 108 / 20f;
+
+    private final TrueTypeFont sharedFont;
+    private final RandomAccessStreamCache.StreamCacheCreateFunction streamCache;
+
+    /**
+     * Engine keeping all scratch data in memory
+     */
+    public PdfBoxRenderEngine(String fontPath) {
+        this(fontPath, IOUtils.createMemoryOnlyStreamCache());
+    }
+
+    @Autowired
+    public PdfBoxRenderEngine(@Value("${pdf.generation.font-path:./fonts/times.ttf}") String fontPath,
+                              TempStorage tempStorage) {
+        this(fontPath, tempStorage.pdfboxStreamCache());
+    }
+
+    private PdfBoxRenderEngine(String fontPath, RandomAccessStreamCache.StreamCacheCreateFunction streamCache) {
+        this.streamCache = streamCache;
+        TrueTypeFont font = null;
+        File fontFile = new File(fontPath);
+        if (fontFile.isFile()) {
+            try {
+                font = new TTFParser().parse(new RandomAccessReadBufferedFile(fontFile));
+            } catch (IOException e) {
+                log.warn("Cannot parse font {} for the {} engine, using Helvetica: {}", fontPath, NAME, e.getMessage());
+            }
+        } else {
+            log.warn("Font {} not found for the {} engine, using Helvetica (no Unicode beyond WinAnsi)", fontPath, NAME);
+        }
+        this.sharedFont = font;
+    }
+
+    @PreDestroy
+    void close() throws IOException {
+        if (sharedFont != null) {
+            sharedFont.close();
+        }
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public List<String> unsupportedFeatures(XWPFDocument document) {
+        Set<String> unsupported = new LinkedHashSet<>();
+        for (IBodyElement element : document.getBodyElements()) {
+            if (element instanceof XWPFParagraph paragraph) {
+                checkParagraph(paragraph, unsupported);
+                if (paragraph.getCTP().getPPr() != null && paragraph.getCTP().getPPr().getSectPr() != null) {
+                    unsupported.add("multiple sections");
+                }
+            } else if (element instanceof XWPFTable table) {
+                checkTable(table, unsupported);
+            } else {
+                unsupported.add("content controls");
+            }
+        }
+        XWPFHeaderFooterPolicy policy = document.getHeaderFooterPolicy();
+        if (policy != null) {
+            if (policy.getFirstPageHeader() != null || policy.getFirstPageFooter() != null
+                    || policy.getEvenPageHeader() != null || policy.getEvenPageFooter() != null) {
+                unsupported.add("first/even page headers");
+            }
+            for (XWPFHeaderFooter headerFooter : new XWPFHeaderFooter[]{policy.getDefaultHeader(), policy.getDefaultFooter()}) {
+                if (headerFooter != null) {
+                    headerFooter.getParagraphs().forEach(paragraph -> checkParagraph(paragraph, unsupported));
+                    headerFooter.getTables().forEach(table -> checkTable(table, unsupported));
+                }
+            }
+        }
+        return List.copyOf(unsupported);
+    }
+
+    private static void checkTable(XWPFTable table, Set<String> unsupported) {
+        for (XWPFTableRow row : table.getRows()) {
+            for (XWPFTableCell cell : row.getTableCells()) {
+                if (!cell.getTables().isEmpty()) {
+                    unsupported.add("nested tables");
+                }
+                CTTcPr tcPr = cell.getCTTc().getTcPr();
+                if (tcPr != null && tcPr.isSetVMerge()) {
+                    unsupported.add("vertically merged cells");
+                }
+                cell.getParagraphs().forEach(paragraph -> checkParagraph(paragraph, unsupported));
+            }
+        }
+    }
+
+    private static void checkParagraph(XWPFParagraph paragraph, Set<String> unsupported) {
+        if (paragraph.getNumID() != null) {
+            unsupported.add("numbered lists");
+        }
+        if (paragraph.getCTP().sizeOfFldSimpleArray() > 0) {
+            unsupported.add("fields");
+        }
+        for (XWPFRun run : paragraph.getRuns()) {
+            CTR ctr = run.getCTR();
+            if (ctr.sizeOfFldCharArray() > 0 || ctr.sizeOfInstrTextArray() > 0) {
+                unsupported.add("fields");
+            }
+            if (ctr.sizeOfPictArray() > 0) {
+                unsupported.add("VML shapes");
+            }
+            if (ctr.sizeOfFootnoteReferenceArray() > 0 || ctr.sizeOfEndnoteReferenceArray() > 0) {
+                unsupported.add("footnotes");
+            }
+            for (CTDrawing drawing : ctr.getDrawingList()) {
+                if (drawing.sizeOfAnchorArray() > 0) {
+                    unsupported.add("floating drawings");
+                }
+            }
+        }
+    }
+
+    /**
+     * The configured font, embedded as a subset of the glyphs this document ends up using
+     */
+    public PDFont loadFont(PDDocument pdf) throws IOException {
+        return sharedFont != null
+                ? PDType0Font.load(pdf, sharedFont, true)
+                : new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+    }
+
+    @Override
+    public void render(XWPFDocument document, OutputStream out) throws IOException {
+        try (PDDocument pdf = new PDDocument(streamCache)) {
+            PDFont font = loadFont(pdf);
+            ParagraphLayout.Context ctx = new ParagraphLayout.Context(pdf, font, document);
+            Pages pages = new Pages(pdf, document, ctx);
+
+            for (IBodyElement element : document.getBodyElements()) {
+                if (element instanceof XWPFParagraph paragraph) {
+                    pages.paragraph(new ParagraphLayout(paragraph, pages.contentWidth, ctx));
+                } else if (element instanceof XWPFTable table) {
+                    pages.table(table);
+                }
+            }
+            pages.close();
+            pdf.save(out);
+        }
+    }
+
+    /**
+     * Page geometry of the (single) section and the cursor moving down the current page
+     */
+    private static final class Pages {
+        private final PDDocument pdf;
+        private final ParagraphLayout.Context ctx;
+        private final PDRectangle size;
+        private final float marginTop;
+        private final float marginBottom;
+        private final float marginLeft;
+        private final float headerDistance;
+        private final float footerDistance;
+        private final float contentWidth;
+        private final List<ParagraphLayout> header = new ArrayList<>();
+        private final List<ParagraphLayout> footer = new ArrayList<>();
+
+        private PDPageContentStream cs;
+        private float top;
+        private float y;
+
+        Pages(PDDocument pdf, XWPFDocument document, ParagraphLayout.Context ctx) throws IOException {
+            this.pdf = pdf;
+            this.ctx = ctx;
+            CTSectPr sectPr = document.getDocument().getBody().getSectPr();
+            CTPageSz pgSz = sectPr != null ? sectPr.getPgSz() : null;
+            CTPageMar pgMar = sectPr != null ? sectPr.getPgMar() : null;
+            this.size = new PDRectangle(
+                    points(pgSz != null ? pgSz.getW() : null, PDRectangle.A4.getWidth()),
+                    points(pgSz != null ? pgSz.getH() : null, PDRectangle.A4.getHeight()));
+            this.marginTop = Math.abs(points(pgMar != null ? pgMar.getTop() : null, 72));
+            this.marginBottom = Math.abs(points(pgMar != null ? pgMar.getBottom() : null, 72));
+            this.marginLeft = points(pgMar != null ? pgMar.getLeft() : null, 72);
+            float marginRight = points(pgMar != null ? pgMar.getRight() : null, 72);
+            this.headerDistance = points(pgMar != null ? pgMar.getHeader() : null, 36);
+            this.footerDistance = points(pgMar != null ? pgMar.getFooter() : null, 36);
+            this.contentWidth = size.getWidth() - marginLeft - marginRight;
+
+            XWPFHeaderFooterPolicy policy = document.getHeaderFooterPolicy();
+            if (policy != null && policy.getDefaultHeader() != null) {
+                for (XWPFParagraph paragraph : policy.getDefaultHeader().getParagraphs()) {
+                    header.add(new ParagraphLayout(paragraph, contentWidth, ctx));
+                }
+            }
+            if (policy != null && policy.getDefaultFooter() != null) {
+                for (XWPFParagraph paragraph : policy.getDefaultFooter().getParagraphs()) {
+                    footer.add(new ParagraphLayout(paragraph, contentWidth, ctx));
+                }
+            }
+            newPage();
+        }
+
+        void paragraph(ParagraphLayout layout) throws IOException {
+            if (layout.pageBreakBefore && y < top) {
+                newPage();
+            }
+            y -= layout.spaceBefore;
+            for (ParagraphLayout.Line line : layout.lines) {
+                if (y - line.height < marginBottom && y < top) {
+                    newPage();
+                }
+                layout.draw(cs, ctx, line, marginLeft, y);
+                y -= line.height;
+                if (line.pageBreakAfter) {
+                    newPage();
+                }
+            }
+            y -= layout.spaceAfter;
+        }
+
+        void table(XWPFTable table) throws IOException {
+            float[] grid = gridWidths(table);
+            float tableWidth = 0;
+            for (float width : grid) {
+                tableWidth += width;
+            }
+            float left = marginLeft;
+            TableRowAlign align = table.getTableAlignment();
+            if (align == TableRowAlign.CENTER) {
+                left += (contentWidth - tableWidth) / 2;
+            } else if (align == TableRowAlign.RIGHT) {
+                left += contentWidth - tableWidth;
+            }
+            boolean borders = table.getCTTbl().getTblPr() != null
+                    && (table.getCTTbl().getTblPr().isSetTblBorders() || table.getStyleID() != null);
+
+            for (XWPFTableRow row : table.getRows()) {
+                List<XWPFTableCell> cells = row.getTableCells();
+                List<List<ParagraphLayout>> contents = new ArrayList<>(cells.size());
+                float[] widths = new float[cells.size()];
+                float rowHeight = row.getHeight() > 0 ? row.getHeight() / 20f : 0;
+                int column = 0;
+                for (int i = 0; i < cells.size(); i++) {
+                    XWPFTableCell cell = cells.get(i);
+                    int span = span(cell);
+                    float width = 0;
+                    for (int c = column; c < Math.min(grid.length, column + span); c++) {
+                        width += grid[c];
+                    }
+                    column += span;
+                    widths[i] = width;
+                    List<ParagraphLayout> layouts = new ArrayList<>();
+                    float contentHeight = 0;
+                    for (XWPFParagraph paragraph : cell.getParagraphs()) {
+                        ParagraphLayout layout = new ParagraphLayout(paragraph, width - 2 * CELL_PADDING, ctx);
+                        layouts.add(layout);
+                        contentHeight += layout.height();
+                    }
+                    contents.add(layouts);
+                    rowHeight = Math.max(rowHeight, contentHeight);
+                }
+
+                if (y - rowHeight < marginBottom && y < top) {
+                    newPage();
+                }
+                float x = left;
+                for (int i = 0; i < cells.size(); i++) {
+                    XWPFTableCell cell = cells.get(i);
+                    String fill = cell.getColor();
+                    if (fill != null && fill.matches("[0-9A-Fa-f]{6}")) {
+                        cs.setNonStrokingColor(new Color(Integer.parseInt(fill, 16)));
+                        cs.addRect(x, y - rowHeight, widths[i], rowHeight);
+                        cs.fill();
+                    }
+                    float contentHeight = 0;
+                    for (ParagraphLayout layout : contents.get(i)) {
+                        contentHeight += layout.height();
+                    }
+                    float cellY = y - switch (cell.getVerticalAlignment() == null ? XWPFTableCell.XWPFVertAlign.TOP : cell.getVerticalAlignment()) {
+                        case CENTER -> (rowHeight - contentHeight) / 2;
+                        case BOTTOM -> rowHeight - contentHeight;
+                        default -> 0;
+                    };
+                    for (ParagraphLayout layout : contents.get(i)) {
+                        cellY -= layout.spaceBefore;
+                        for (ParagraphLayout.Line line : layout.lines) {
+                            layout.draw(cs, ctx, line, x + CELL_PADDING, cellY);
+                            cellY -= line.height;
+                        }
+                        cellY -= layout.spaceAfter;
+                    }
+                    if (borders) {
+                        cs.setStrokingColor(Color.BLACK);
+                        cs.setLineWidth(0.5f);
+                        cs.addRect(x, y - rowHeight, widths[i], rowHeight);
+                        cs.stroke();
+                    }
+                    x += widths[i];
+                }
+                y -= rowHeight;
+            }
+        }
+
+        void close() throws IOException {
+            cs.close();
+        }
+
+        private void newPage() throws IOException {
+            if (cs != null) {
+                cs.close();
+            }
+            PDPage page = new PDPage(size);
+            pdf.addPage(page);
+            cs = new PDPageContentStream(pdf, page);
+
+            float headerY = size.getHeight() - headerDistance;
+            for (ParagraphLayout layout : header) {
+                headerY -= layout.spaceBefore;
+                for (ParagraphLayout.Line line : layout.lines) {
+                    layout.draw(cs, ctx, line, marginLeft, headerY);
+                    headerY -= line.height;
+                }
+                headerY -= layout.spaceAfter;
+            }
+            float footerHeight = 0;
+            for (ParagraphLayout layout : footer) {
+                footerHeight += layout.height();
+            }
+            float footerY = footerDistance + footerHeight;
+            for (ParagraphLayout layout : footer) {
+                footerY -= layout.spaceBefore;
+                for (ParagraphLayout.Line line : layout.lines) {
+                    layout.draw(cs, ctx, line, marginLeft, footerY);
+                    footerY -= line.height;
+                }
+                footerY -= layout.spaceAfter;
+            }
+            // A header taller than the top margin pushes the body down, like Word does
+            top = Math.min(size.getHeight() - marginTop, headerY);
+            y = top;
+        }
+
+        private float[] gridWidths(XWPFTable table) {
+            CTTblGrid tblGrid = table.getCTTbl().getTblGrid();
+            List<Float> widths = new ArrayList<>();
+            if (tblGrid != null) {
+                for (CTTblGridCol col : tblGrid.getGridColList()) {
+                    widths.add(col.isSetW() ? points(col.getW(), 0) : 0);
+                }
+            }
+            int columns = 0;
+            for (XWPFTableRow row : table.getRows()) {
+                int rowColumns = 0;
+                for (XWPFTableCell cell : row.getTableCells()) {
+                    rowColumns += span(cell);
+                }
+                columns = Math.max(columns, rowColumns);
+            }
+            float[] grid = new float[Math.max(columns, widths.size())];
+            float total = 0;
+            for (int i = 0; i < grid.length; i++) {
+                grid[i] = i < widths.size() ? widths.get(i) : 0;
+                total += grid[i];
+            }
+            if (total <= 0 || widths.contains(0f)) {
+                Arrays.fill(grid, contentWidth / Math.max(1, grid.length));
+            } else if (total > contentWidth) {
+                for (int i = 0; i < grid.length; i++) {
+                    grid[i] = grid[i] * contentWidth / total;
+                }
+            }
+            return grid;
+        }
+
+        private static int span(XWPFTableCell cell) {
+            CTTcPr tcPr = cell.getCTTc().getTcPr();
+            return tcPr != null && tcPr.isSetGridSpan() ? tcPr.getGridSpan().getVal().intValue() : 1;
+        }
+
+        private static float points(Object twips, float fallback) {
+            if (twips instanceof BigInteger value) {
+                return value.floatValue() / 20f;
+            }
+            if (twips != null) {
+                try {
+                    return Float.parseFloat(twips.toString()) / 20f;
+                } catch (NumberFormatException e) {
+                    return fallback;
+                }
+            }
+            return fallback;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.techlab.renderpdf.engine;
+
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Lays out a filled DOCX document and writes it as PDF
+ *
+ * Engines are Spring beans selected per template by {@link RenderEngineRegistry}.
+ */
+public interface RenderEngine {
+
+    /**
+     * Name used in {@code pdf.generation.engine.*} configuration
+     */
+    String name();
+
+    /**
+     * Features of the document this engine cannot lay out; empty when the whole document is supported
+     */
+    List<String> unsupportedFeatures(XWPFDocument document);
+
+    /**
+     * Write the document as PDF
+     *
+     * @throws IOException If the PDF cannot be written
+     */
+    void render(XWPFDocument document, OutputStream out) throws IOException;
+}
@@ -0,0 +1,79 @@
+package com.techlab.renderpdf.engine;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Chooses the engine for a template
+ *
+ * {@code pdf.generation.engine.default} applies to every template without an entry in
+ * {@code pdf.generation.engine.templates} ({@code name=engine,name=engine}). Besides engine names,
+ * {@code auto} picks the direct PDFBox engine when it supports every feature of the document and
+ * falls back to xdocreport otherwise.
+ */
+@Slf4j
+@Component
+public class RenderEngineRegistry {
+
+    public static final String AUTO = "auto";
+
+    private final Map<String, RenderEngine> engines = new LinkedHashMap<>();
+    private final String defaultEngine;
+    private final Map<String, String> templateEngines;
+
+    public RenderEngineRegistry(List<RenderEngine> engines,
+                                @Value("${pdf.generation.engine.default:" + XdocreportRenderEngine.NAME + "}") String defaultEngine,
+                                @Value("${pdf.generation.engine.templates:}") String templateEngines) {
+        engines.forEach(engine -> this.engines.put(engine.name(), engine));
+        this.defaultEngine = validate(defaultEngine.trim());
+        this.templateEngines = Arrays.stream(templateEngines.split(","))
+                .map(String::trim)
+                .filter(entry -> entry.contains("="))
+                .map(entry -> entry.split("=", 2))
+                .collect(Collectors.toMap(pair -> pair[0].trim(), pair -> validate(pair[1].trim()), (a, b) -> b, LinkedHashMap::new));
+        log.info("Render engines {}: default={}, per template={}", this.engines.keySet(), this.defaultEngine, this.templateEngines);
+    }
+
+    /**
+     * Engine configured for the template, resolving {@code auto} against the document
+     */
+    public RenderEngine select(String templateName, XWPFDocument document) {
+        String configured = templateEngines.getOrDefault(templateName, defaultEngine);
+        if (!AUTO.equals(configured)) {
+            return engines.get(configured);
+        }
+        RenderEngine direct = engines.get(PdfBoxRenderEngine.NAME);
+        List<String> unsupported = direct.unsupportedFeatures(document);
+        if (unsupported.isEmpty()) {
+            return direct;
+        }
+        log.debug("Template {} uses {} -> {}", templateName, unsupported, XdocreportRenderEngine.NAME);
+        return engines.get(XdocreportRenderEngine.NAME);
+    }
+
+    /**
+     * Engine by name (not {@code auto})
+     */
+    public RenderEngine get(String name) {
+        RenderEngine engine = engines.get(name);
+        if (engine == null) {
+            throw new IllegalArgumentException("Unknown render engine '" + name + "', available: " + engines.keySet());
+        }
+        return engine;
+    }
+
+    private String validate(String name) {
+        if (!AUTO.equals(name) && !engines.containsKey(name)) {
+            throw new IllegalArgumentException("Unknown render engine '" + name + "', available: " + engines.keySet() + " or " + AUTO);
+        }
+        return name;
+    }
+}
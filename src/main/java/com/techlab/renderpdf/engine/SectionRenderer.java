@@ -0,0 +1,149 @@
+package com.techlab.renderpdf.engine;
+
+import com.techlab.renderpdf.output.ChunkedOutputStream;
+import com.techlab.renderpdf.output.PdfMerger;
+import com.techlab.renderpdf.output.RenderedDocument;
+import com.techlab.renderpdf.output.TempStorage;
+import com.techlab.renderpdf.service.RenderDeadline;
+import com.techlab.renderpdf.template.SectionSplitter;
+import com.techlab.renderpdf.template.TemplateDocument;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders large documents section by section in parallel and joins the PDFs
+ *
+ * A filled document with at least {@code pdf.generation.sections.min-elements} body elements is cut by
+ * {@link SectionSplitter} into up to {@code pdf.generation.sections.max-parts} parts (0 = render pool
+ * parallelism). The parts are forked on the render pool: idle workers steal them, and when every worker
+ * is busy with other renders the calling worker renders them itself, so a split never oversubscribes the
+ * pool. Part PDFs are joined in order by {@link PdfMerger}.
+ */
+@Slf4j
+@Component
+public class SectionRenderer {
+
+    private final ForkJoinPool renderPool;
+    private final TempStorage tempStorage;
+    private final PdfMerger pdfMerger;
+    private final boolean enabled;
+    private final int maxParts;
+    private final int minElements;
+    private final DistributionSummary partsSummary;
+    private final Timer mergeTimer;
+
+    public SectionRenderer(@Qualifier("renderPool") ForkJoinPool renderPool,
+                           TempStorage tempStorage,
+                           PdfMerger pdfMerger,
+                           MeterRegistry meterRegistry,
+                           @Value("${pdf.generation.sections.enabled:true}") boolean enabled,
+                           @Value("${pdf.generation.sections.max-parts:0}") int maxParts,
+                           @Value("${pdf.generation.sections.min-elements:400}") int minElements) {
+        this.renderPool = renderPool;
+        this.tempStorage = tempStorage;
+        this.pdfMerger = pdfMerger;
+        this.enabled = enabled;
+        this.maxParts = maxParts > 0 ? maxParts : renderPool.getParallelism();
+        this.minElements = minElements;
+        this.partsSummary = DistributionSummary.builder("render.sections.parts")
+                .description("Parts a document was cut into for parallel rendering")
+                .register(meterRegistry);
+        this.mergeTimer = Timer.builder("render.sections.merge")
+                .description("Time spent joining the PDFs of document parts")
+                .register(meterRegistry);
+        log.info("Section rendering: {}, max {} parts, documents from {} body elements",
+                enabled && this.maxParts > 1 ? "enabled" : "disabled", this.maxParts, minElements);
+    }
+
+    /**
+     * Write the document as PDF with the engine, in parallel parts when it can be cut
+     *
+     * @return Number of parts rendered (1 when the document was rendered whole)
+     * @throws IOException If a part cannot be rendered or the PDFs cannot be joined
+     */
+    public int render(RenderEngine engine, TemplateDocument document, OutputStream out) throws IOException {
+        List<byte[]> parts = enabled ? SectionSplitter.split(document, maxParts, minElements) : List.of();
+        if (parts.size() < 2) {
+            engine.render(document, out);
+            return 1;
+        }
+
+        // Parts run on other workers too: they carry the render's deadline
+        RenderDeadline deadline = RenderDeadline.current();
+        List<ForkJoinTask<RenderedDocument>> tasks = new ArrayList<>(parts.size());
+        for (byte[] part : parts) {
+            tasks.add(ForkJoinTask.adapt(() -> {
+                try (RenderDeadline.Scope scope = RenderDeadline.bind(deadline)) {
+                    RenderDeadline.check("section");
+                    return renderPart(engine, part);
+                }
+            }));
+        }
+        List<RenderedDocument> pdfs = new ArrayList<>(tasks.size());
+        try {
+            if (ForkJoinTask.getPool() == renderPool) {
+                // First part on this worker, the rest forked for idle workers to steal
+                ForkJoinTask.invokeAll(tasks);
+            } else {
+                tasks.forEach(renderPool::execute);
+            }
+            for (ForkJoinTask<RenderedDocument> task : tasks) {
+                pdfs.add(task.join());
+            }
+            long start = System.nanoTime();
+            pdfMerger.merge(pdfs, out);
+            mergeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        } catch (RuntimeException e) {
+            throw unwrap(e);
+        } finally {
+            // Parts that completed after a failure are released too
+            for (ForkJoinTask<RenderedDocument> task : tasks) {
+                task.quietlyJoin();
+                if (task.isCompletedNormally()) {
+                    task.getRawResult().close();
+                }
+            }
+        }
+        partsSummary.record(parts.size());
+        log.debug("Rendered {} parts in parallel", parts.size());
+        return parts.size();
+    }
+
+    private RenderedDocument renderPart(RenderEngine engine, byte[] docx) throws IOException {
+        ChunkedOutputStream out = tempStorage.newOutput(docx.length);
+        try (XWPFDocument part = SectionSplitter.open(docx)) {
+            engine.render(part, out);
+            out.finish();
+            return new RenderedDocument(out);
+        } catch (IOException | RuntimeException e) {
+            out.release();
+            throw e;
+        }
+    }
+
+    /**
+     * {@link ForkJoinTask#adapt} wraps the checked exceptions of a part; rethrow an IOException as it was
+     */
+    private static RuntimeException unwrap(RuntimeException e) throws IOException {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+        }
+        return e;
+    }
+}
@@ -0,0 +1,154 @@
+package com.techlab.renderpdf.engine;
+
+import com.techlab.renderpdf.output.ChunkedOutputStream;
+import com.techlab.renderpdf.output.PdfMerger;
+import com.techlab.renderpdf.output.RenderedDocument;
+import com.techlab.renderpdf.output.TempStorage;
+import com.techlab.renderpdf.service.RenderDeadline;
+import com.techlab.renderpdf.template.TableChunks;
+import com.techlab.renderpdf.template.TemplateDocument;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renders documents with very large dynamic tables one chunk of rows at a time
+ *
+ * A table with at least {@code pdf.generation.table-chunks.min-rows} data rows is not expanded in the
+ * filled document. Instead {@link TableChunks} cuts the document around it, and each chunk of
+ * {@code pdf.generation.table-chunks.rows} rows is expanded, rendered and released before the next one,
+ * so the DOM and layout never hold more than one chunk. Chunk PDFs are written to temp files by
+ * {@link TempStorage}, so the chunks waiting for the merge hold no heap however many rows there are, and are
+ * joined in order by {@link PdfMerger}. The render's deadline is checked before each chunk.
+ */
+@Slf4j
+@Component
+public class TableChunkRenderer {
+
+    /**
+     * Expands the template row of a chunk's table for its rows
+     */
+    @FunctionalInterface
+    public interface RowFiller {
+        void fill(XWPFTable table, List<Map<String, Object>> rows);
+    }
+
+    /**
+     * Page objects a merged chunk leaves in the result, and the parsed chunk while it is appended
+     */
+    private static final long MERGED_CHUNK_BYTES = 256 * 1024;
+
+    private final TempStorage tempStorage;
+    private final PdfMerger pdfMerger;
+    private final int minRows;
+    private final int rowsPerChunk;
+    private final DistributionSummary chunksSummary;
+
+    public TableChunkRenderer(TempStorage tempStorage,
+                              PdfMerger pdfMerger,
+                              MeterRegistry meterRegistry,
+                              @Value("${pdf.generation.table-chunks.min-rows:5000}") int minRows,
+                              @Value("${pdf.generation.table-chunks.rows:1000}") int rowsPerChunk) {
+        this.tempStorage = tempStorage;
+        this.pdfMerger = pdfMerger;
+        this.minRows = minRows;
+        this.rowsPerChunk = Math.max(rowsPerChunk, 1);
+        this.chunksSummary = DistributionSummary.builder("render.table.chunks")
+                .description("Row chunks a large table was rendered in")
+                .register(meterRegistry);
+        log.info("Table chunks: {}", minRows > 0
+                ? "tables from " + minRows + " rows in chunks of " + this.rowsPerChunk : "disabled");
+    }
+
+    /**
+     * Whether a table of this many rows is rendered in chunks
+     */
+    public boolean chunks(int rows) {
+        return minRows > 0 && rows >= minRows && rows > rowsPerChunk;
+    }
+
+    /**
+     * Whether the table of the document is rendered in chunks; not when headers or footers show the page count
+     */
+    public boolean chunks(XWPFDocument document, int rows) {
+        return chunks(rows) && !TableChunks.showsPageCount(document);
+    }
+
+    /**
+     * Rows of a chunked table held in the document at once
+     */
+    public int rowsPerChunk() {
+        return rowsPerChunk;
+    }
+
+    /**
+     * Heap the merge of a chunked table holds besides one chunk of rows: the pages joined so far, and PDFBox
+     * scratch data of the result up to {@code pdf.generation.spill.pdfbox-max-memory}
+     *
+     * @param rows Data rows of the chunked tables
+     * @param outputBytes Expected size of the whole PDF
+     */
+    public long mergeBytes(int rows, long outputBytes) {
+        long chunkCount = (rows + rowsPerChunk - 1) / rowsPerChunk;
+        return Math.min(outputBytes, tempStorage.pdfboxMaxMemory()) + chunkCount * MERGED_CHUNK_BYTES;
+    }
+
+    /**
+     * Write the document as PDF with the engine, expanding the table one chunk of rows at a time
+     *
+     * @param document Filled document whose table is not expanded yet
+     * @param templateRowIndex Row of the table expanded for each data row
+     * @return Number of chunks rendered
+     * @throws IOException If a chunk cannot be rendered or the PDFs cannot be joined
+     */
+    public int render(RenderEngine engine, TemplateDocument document, XWPFTable table, int templateRowIndex,
+                      List<Map<String, Object>> rows, RowFiller filler, OutputStream out) throws IOException {
+        TableChunks chunks = TableChunks.cut(document, table, templateRowIndex);
+        int chunkCount = (rows.size() + rowsPerChunk - 1) / rowsPerChunk;
+        List<RenderedDocument> pdfs = new ArrayList<>(chunkCount);
+        try {
+            int pages = 0;
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                RenderDeadline.check("table chunk");
+                List<Map<String, Object>> chunkRows =
+                        rows.subList(chunk * rowsPerChunk, Math.min(rows.size(), (chunk + 1) * rowsPerChunk));
+                RenderedDocument pdf = renderChunk(engine, chunks, chunk, chunkCount, pages + 1, chunkRows, filler);
+                pdfs.add(pdf);
+                if (chunks.numbersPages()) {
+                    pages += pdfMerger.pageCount(pdf);
+                }
+            }
+            pdfMerger.merge(pdfs, out);
+        } finally {
+            pdfs.forEach(RenderedDocument::close);
+        }
+        chunksSummary.record(chunkCount);
+        log.debug("Rendered {} rows in {} chunks", rows.size(), chunkCount);
+        return chunkCount;
+    }
+
+    private RenderedDocument renderChunk(RenderEngine engine, TableChunks chunks, int chunk, int chunkCount,
+                                         int firstPageNumber, List<Map<String, Object>> rows, RowFiller filler)
+            throws IOException {
+        ChunkedOutputStream out = tempStorage.newFileOutput();
+        try (XWPFDocument document = chunks.open(chunk, chunkCount, firstPageNumber)) {
+            filler.fill(chunks.table(document, chunk), rows);
+            engine.render(document, out);
+            out.finish();
+            return new RenderedDocument(out);
+        } catch (IOException | RuntimeException e) {
+            out.release();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.techlab.renderpdf.engine;
+
+import com.lowagie.text.Font;
+import com.lowagie.text.pdf.BaseFont;
+import com.techlab.renderpdf.service.FontCache;
+import fr.opensagres.poi.xwpf.converter.pdf.PdfConverter;
+import fr.opensagres.poi.xwpf.converter.pdf.PdfOptions;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * The original engine: xdocreport PdfConverter on OpenPDF; handles any DOCX the converter understands
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class XdocreportRenderEngine implements RenderEngine {
+
+    public static final String NAME = "xdocreport";
+
+    private final FontCache fontCache;
+
+    @Value("${pdf.generation.font-path:./fonts/times.ttf}")
+    private String fontPath;
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public List<String> unsupportedFeatures(XWPFDocument document) {
+        return List.of();
+    }
+
+    @Override
+    public void render(XWPFDocument document, OutputStream out) throws IOException {
+        PdfOptions options = PdfOptions.create();
+        options.fontEncoding("UTF-8");
+
+        // Cấu hình font với caching để tránh reload font mỗi request
+        if (fontPath != null && !fontPath.trim().isEmpty()) {
+            options.fontProvider((familyName, encoding, size, style, color) -> {
+                try {
+                    BaseFont baseFont = fontCache.get(fontPath, BaseFont.IDENTITY_H, BaseFont.EMBEDDED);
+                    return new Font(baseFont, size, style, color);
+                } catch (Exception e) {
+                    log.warn("Lỗi khi load font, sử dụng font mặc định: {}", e.getMessage());
+                    return new Font(Font.HELVETICA, size, style, color);
+                }
+            });
+        }
+
+        PdfConverter.getInstance().convert(document, out, options);
+    }
+}
@@ -0,0 +1,138 @@
+package com.techlab.renderpdf.form;
+
+import com.techlab.renderpdf.engine.PdfBoxRenderEngine;
+import com.techlab.renderpdf.template.Placeholder;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotation;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationWidget;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fills the fields of a form template and flattens them into page content
+ *
+ * Each value is drawn straight into the page at its widget, with the configured font and the font
+ * size recorded in the widget, and the widgets are dropped: the result is what flattening the filled
+ * form produces, without generating appearance streams first. Values follow the DOCX path: a missing
+ * variable keeps its {@code ${name}} text, a null value becomes empty and list values (table data)
+ * are ignored.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class FormFiller {
+
+    private final PdfBoxRenderEngine fieldFonts;
+
+    /**
+     * Write the flattened PDF to {@code out}
+     */
+    public void fill(FormTemplate form, Map<String, Object> variables, OutputStream out) throws IOException {
+        try (PDDocument pdf = Loader.loadPDF(form.pdf())) {
+            PDFont font = fieldFonts.loadFont(pdf);
+            float capHeight = FormTemplateCompiler.capHeight(font);
+
+            for (PDPage page : pdf.getPages()) {
+                List<PDAnnotation> annotations = page.getAnnotations();
+                List<PDAnnotation> kept = new ArrayList<>(annotations.size());
+                List<PDAnnotationWidget> widgets = new ArrayList<>();
+                for (PDAnnotation annotation : annotations) {
+                    if (annotation instanceof PDAnnotationWidget widget && fieldName(widget) != null) {
+                        widgets.add(widget);
+                    } else {
+                        kept.add(annotation);
+                    }
+                }
+                if (widgets.isEmpty()) {
+                    continue;
+                }
+
+                try (PDPageContentStream content = new PDPageContentStream(pdf, page,
+                        PDPageContentStream.AppendMode.APPEND, true, true)) {
+                    for (PDAnnotationWidget widget : widgets) {
+                        String value = encodable(font, value(fieldName(widget), variables));
+                        if (!value.isEmpty()) {
+                            draw(content, font, capHeight, widget, value);
+                        }
+                    }
+                }
+                page.setAnnotations(kept);
+            }
+            pdf.getDocumentCatalog().setAcroForm(null);
+
+            pdf.save(out);
+        }
+    }
+
+    /**
+     * Draw the value on the widget's baseline, clipped to the widget like a field appearance
+     */
+    private static void draw(PDPageContentStream content, PDFont font, float capHeight,
+                             PDAnnotationWidget widget, String value) throws IOException {
+        PDRectangle rect = widget.getRectangle();
+        float fontSize = FormTemplateCompiler.fontSize(widget);
+
+        content.saveGraphicsState();
+        content.addRect(rect.getLowerLeftX(), rect.getLowerLeftY(), rect.getWidth(), rect.getHeight());
+        content.clip();
+        content.beginText();
+        content.setFont(font, fontSize);
+        content.newLineAtOffset(rect.getLowerLeftX() + FormTemplateCompiler.FIELD_PADDING,
+                FormTemplateCompiler.baseline(rect, fontSize, capHeight));
+        content.showText(value);
+        content.endText();
+        content.restoreGraphicsState();
+    }
+
+    private static String fieldName(PDAnnotationWidget widget) {
+        COSDictionary parent = widget.getCOSObject().getCOSDictionary(COSName.PARENT);
+        return parent != null ? parent.getString(COSName.T) : widget.getCOSObject().getString(COSName.T);
+    }
+
+    private static String value(String fieldName, Map<String, Object> variables) {
+        String body = fieldName.replace(FormTemplateCompiler.FIELD_DOT, ".");
+        Placeholder placeholder = Placeholder.parse(body);
+        String name = placeholder.name();
+        if (variables == null || !variables.containsKey(name) || variables.get(name) instanceof List) {
+            return "${" + body + "}";
+        }
+        // Single-line fields: line breaks become spaces
+        return placeholder.format(variables.get(name)).replaceAll("[\\r\\n\\t]+", " ");
+    }
+
+    /**
+     * Replace characters the font has no glyph for, as the direct engine does
+     */
+    private static String encodable(PDFont font, String value) {
+        try {
+            font.encode(value);
+            return value;
+        } catch (IllegalArgumentException | IOException e) {
+            StringBuilder sb = new StringBuilder(value.length());
+            value.codePoints().forEach(cp -> {
+                String ch = new String(Character.toChars(cp));
+                try {
+                    font.encode(ch);
+                    sb.append(ch);
+                } catch (IllegalArgumentException | IOException ex) {
+                    sb.append('?');
+                }
+            });
+            return sb.toString();
+        }
+    }
+}
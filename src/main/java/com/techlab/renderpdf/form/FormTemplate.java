@@ -0,0 +1,33 @@
+package com.techlab.renderpdf.form;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.interactive.form.PDAcroForm;
+import org.apache.pdfbox.pdmodel.interactive.form.PDField;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Template laid out once into a PDF with one text field per {@code ${variable}}
+ *
+ * @param hash Content hash of the template version it was compiled from
+ * @param pdf PDF bytes with the AcroForm fields; each request loads its own document from them
+ * @param fieldNames Variable names that have a field, in document order
+ */
+public record FormTemplate(String hash, byte[] pdf, List<String> fieldNames) {
+
+    /**
+     * Form from PDF bytes laid out earlier (its blob, or the owner node in cluster fetch mode)
+     *
+     * @throws IOException If the bytes are not a PDF
+     */
+    public static FormTemplate read(String hash, byte[] pdf) throws IOException {
+        try (PDDocument document = Loader.loadPDF(pdf)) {
+            PDAcroForm acroForm = document.getDocumentCatalog().getAcroForm(null);
+            List<String> fieldNames = acroForm == null ? List.of()
+                    : acroForm.getFields().stream().map(PDField::getPartialName).toList();
+            return new FormTemplate(hash, pdf, fieldNames);
+        }
+    }
+}
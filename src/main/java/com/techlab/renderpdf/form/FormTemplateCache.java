@@ -0,0 +1,117 @@
+package com.techlab.renderpdf.form;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.techlab.renderpdf.template.CompiledTemplateCache;
+import com.techlab.renderpdf.template.TemplateVersion;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+
+/**
+ * Form templates keyed by content hash, persisted next to the DOCX blob
+ *
+ * The form PDF only depends on the DOCX bytes, so it is written once as
+ * {@code .versions/blobs/<sha256>.form.pdf} and survives restarts; after a restart only
+ * the field list is re-read from it instead of laying the template out again.
+ */
+@Slf4j
+@Component
+public class FormTemplateCache {
+
+    public static final String FORM_SUFFIX = ".form.pdf";
+
+    private final FormTemplateCompiler compiler;
+    private final CompiledTemplateCache compiledCache;
+    private final Cache<String, FormTemplate> cache;
+
+    public FormTemplateCache(FormTemplateCompiler compiler,
+                             CompiledTemplateCache compiledCache,
+                             MeterRegistry meterRegistry,
+                             @Value("${pdf.generation.cache.template.max-size:100}") long maxSize,
+                             @Value("${pdf.generation.cache.template.expire-hours:1}") long expireHours) {
+        this.compiler = compiler;
+        this.compiledCache = compiledCache;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterAccess(Duration.ofHours(expireHours))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "formTemplates");
+    }
+
+    /**
+     * Form of the version: cached, read back from its blob, or compiled once
+     */
+    public FormTemplate get(TemplateVersion version) throws IOException {
+        try {
+            return cache.get(version.hash(), hash -> {
+                try {
+                    Path blob = blob(version);
+                    if (Files.exists(blob)) {
+                        return FormTemplate.read(hash, Files.readAllBytes(blob));
+                    }
+                    byte[] compiledDocx = compiledCache.get(version).bytes();
+                    FormTemplate form = compiler.compile(version.name(), hash, compiledDocx);
+                    write(blob, form.pdf());
+                    return form;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Compile the form of a version that is not published yet, from its compiled DOCX
+     * The caller writes it with {@link #put} once the DOCX blob exists
+     *
+     * @throws IllegalArgumentException If the template cannot be used as a form
+     */
+    public FormTemplate compile(TemplateVersion version, byte[] compiledDocx) throws IOException {
+        FormTemplate cached = cache.getIfPresent(version.hash());
+        return cached != null ? cached : compiler.compile(version.name(), version.hash(), compiledDocx);
+    }
+
+    public boolean contains(String hash) {
+        return cache.getIfPresent(hash) != null;
+    }
+
+    public void put(TemplateVersion version, FormTemplate form) throws IOException {
+        Path blob = blob(version);
+        if (!Files.exists(blob)) {
+            write(blob, form.pdf());
+        }
+        cache.put(form.hash(), form);
+    }
+
+    private static Path blob(TemplateVersion version) {
+        return version.path().resolveSibling(version.hash() + FORM_SUFFIX);
+    }
+
+    private static void write(Path blob, byte[] pdf) throws IOException {
+        Path temp = Files.createTempFile(blob.getParent(), blob.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, pdf);
+            try {
+                Files.move(temp, blob, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, blob, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
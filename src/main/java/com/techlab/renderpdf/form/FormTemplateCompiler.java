@@ -0,0 +1,366 @@
+package com.techlab.renderpdf.form;
+
+import com.techlab.renderpdf.engine.PdfBoxRenderEngine;
+import com.techlab.renderpdf.engine.XdocreportRenderEngine;
+import com.techlab.renderpdf.template.Placeholder;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotation;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationWidget;
+import org.apache.pdfbox.pdmodel.interactive.form.PDAcroForm;
+import org.apache.pdfbox.pdmodel.interactive.form.PDField;
+import org.apache.pdfbox.pdmodel.interactive.form.PDTextField;
+import org.apache.poi.xwpf.usermodel.IBodyElement;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFFieldRun;
+import org.apache.poi.xwpf.usermodel.XWPFHeaderFooter;
+import org.apache.poi.xwpf.usermodel.XWPFHyperlinkRun;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.apache.poi.xwpf.usermodel.XWPFTableCell;
+import org.apache.poi.xwpf.usermodel.XWPFTableRow;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTPageMar;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTSectPr;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTText;
+import org.springframework.stereotype.Component;
+
+import javax.xml.namespace.QName;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Lays a compiled DOCX template out once and turns its placeholders into AcroForm text fields
+ *
+ * Every {@code ${variable}} is split into runs of its own and coloured with {@link #MARKER_COLOR},
+ * the document is rendered by the xdocreport engine, the marker glyphs are located with a text
+ * stripper and erased from the content streams, and a text field widget is placed on each of them.
+ * A field starts at the placeholder's first glyph, uses its font size, and extends to the right
+ * margin: the layout is fixed, so a value never reflows the text around it.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class FormTemplateCompiler {
+
+    static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([^}]+)\\}");
+
+    static final String FIELD_DOT = "%2E";
+
+    /**
+     * Run colour of placeholders in the marker render; near white so that anything left over is invisible
+     */
+    static final String MARKER_COLOR = "FFFEFD";
+
+    /**
+     * Font name in the fields' default appearance; {@link FormFiller} draws values with the configured font itself
+     */
+    static final COSName FIELD_FONT = COSName.getPDFName("FormFont");
+
+    /**
+     * Space a field appearance keeps between the widget border and the text
+     */
+    static final float FIELD_PADDING = 2;
+
+    private static final Pattern FONT_SIZE = Pattern.compile("([0-9.]+)\\s+Tf");
+
+    private static final QName XML_SPACE = new QName("http://www.w3.org/XML/1998/namespace", "space");
+
+    private final XdocreportRenderEngine layoutEngine;
+
+    private final PdfBoxRenderEngine fieldFonts;
+
+    /**
+     * Compile the form of a template version
+     *
+     * @param compiledDocx Compiled DOCX bytes of the version
+     * @throws IllegalArgumentException If the template uses table placeholders or a placeholder cannot be located
+     */
+    public FormTemplate compile(String templateName, String hash, byte[] compiledDocx) throws IOException {
+        long start = System.nanoTime();
+
+        byte[] markerPdf;
+        Set<String> names = new LinkedHashSet<>();
+        float rightMargin;
+        try (XWPFDocument document = new XWPFDocument(new ByteArrayInputStream(compiledDocx))) {
+            for (XWPFParagraph paragraph : paragraphs(document)) {
+                markParagraph(paragraph, names);
+            }
+            rightMargin = rightMargin(document);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(compiledDocx.length);
+            layoutEngine.render(document, out);
+            markerPdf = out.toByteArray();
+        }
+
+        try (PDDocument pdf = Loader.loadPDF(markerPdf)) {
+            List<PlaceholderLocator.Placement> placements = new PlaceholderLocator().locate(pdf);
+            Set<String> missing = new LinkedHashSet<>(names);
+            placements.forEach(placement -> missing.remove(placement.name()));
+            if (!missing.isEmpty()) {
+                throw new IllegalArgumentException("Form template " + templateName
+                        + ": placeholders not laid out on a single line: " + missing);
+            }
+
+            int removed = MarkerTextRemover.remove(pdf);
+            List<String> fieldNames = addFields(pdf, placements, rightMargin);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(markerPdf.length);
+            pdf.save(out);
+            log.info("Compiled form template {} ({}): {} fields, {} widgets, {} marker strings removed in {} ms",
+                    templateName, hash.substring(0, 12), fieldNames.size(), placements.size(), removed,
+                    (System.nanoTime() - start) / 1_000_000);
+            return new FormTemplate(hash, out.toByteArray(), fieldNames);
+        }
+    }
+
+    private List<String> addFields(PDDocument pdf, List<PlaceholderLocator.Placement> placements,
+                                   float rightMargin) throws IOException {
+        PDAcroForm acroForm = new PDAcroForm(pdf);
+        pdf.getDocumentCatalog().setAcroForm(acroForm);
+        acroForm.setDefaultResources(new PDResources());
+        acroForm.setDefaultAppearance("/" + FIELD_FONT.getName() + " 0 Tf 0 g");
+
+        float capHeight;
+        try (PDDocument scratch = new PDDocument()) {
+            capHeight = capHeight(fieldFonts.loadFont(scratch));
+        }
+
+        Map<String, PDTextField> fields = new LinkedHashMap<>();
+        Map<String, List<PDAnnotationWidget>> widgets = new LinkedHashMap<>();
+        for (PlaceholderLocator.Placement placement : placements) {
+            PDPage page = pdf.getPage(placement.page());
+            PDRectangle box = page.getCropBox();
+            PDTextField field = fields.computeIfAbsent(placement.name(), name -> {
+                PDTextField textField = new PDTextField(acroForm);
+                // Field names cannot contain '.', which format patterns may (${total:number:#,##0.00})
+                textField.setPartialName(name.replace(".", FIELD_DOT));
+                textField.setDoNotSpellCheck(true);
+                return textField;
+            });
+
+            // Inverse of baseline(): the box that puts the filled text on the placeholder's baseline
+            float fontSize = placement.fontSize();
+            float height = fontSize * 1.4f + 2 * FIELD_PADDING;
+            float baseline = box.getUpperRightY() - placement.baseline();
+            float bottom = baseline - FIELD_PADDING - (height - 2 * FIELD_PADDING - capHeight * fontSize) / 2;
+            float left = box.getLowerLeftX() + placement.x() - FIELD_PADDING;
+            float width = Math.max(box.getUpperRightX() - rightMargin - left + FIELD_PADDING, fontSize);
+
+            PDAnnotationWidget widget = new PDAnnotationWidget();
+            widget.setRectangle(new PDRectangle(left, bottom, width, height));
+            widget.setPage(page);
+            widget.setPrinted(true);
+            widget.getCOSObject().setString(COSName.DA, "/" + FIELD_FONT.getName() + " " + fontSize + " Tf 0 g");
+            List<PDAnnotation> annotations = page.getAnnotations();
+            annotations.add(widget);
+            page.setAnnotations(annotations);
+            widgets.computeIfAbsent(placement.name(), name -> new ArrayList<>()).add(widget);
+        }
+
+        fields.forEach((name, field) -> field.setWidgets(widgets.get(name)));
+        acroForm.setFields(new ArrayList<PDField>(fields.values()));
+        return List.copyOf(fields.keySet());
+    }
+
+    /**
+     * Baseline of a single-line field: the cap height is centred inside the padded widget,
+     * as viewers lay out single-line field appearances
+     */
+    static float baseline(PDRectangle rect, float fontSize, float capHeight) {
+        return rect.getLowerLeftY() + FIELD_PADDING + (rect.getHeight() - 2 * FIELD_PADDING - capHeight * fontSize) / 2;
+    }
+
+    static float capHeight(PDFont font) {
+        return font.getFontDescriptor() != null && font.getFontDescriptor().getCapHeight() > 0
+                ? font.getFontDescriptor().getCapHeight() / 1000 : 0.7f;
+    }
+
+    /**
+     * Font size from the widget's default appearance ({@code /FormFont 12.0 Tf 0 g})
+     */
+    static float fontSize(PDAnnotationWidget widget) {
+        String appearance = widget.getCOSObject().getString(COSName.DA);
+        Matcher matcher = FONT_SIZE.matcher(appearance != null ? appearance : "");
+        return matcher.find() ? Float.parseFloat(matcher.group(1)) : 11;
+    }
+
+    /**
+     * Give every placeholder of the paragraph runs of its own and colour them with the marker
+     */
+    private static void markParagraph(XWPFParagraph paragraph, Set<String> names) {
+        String text = runText(paragraph.getRuns());
+        if (!text.contains("${")) {
+            return;
+        }
+
+        List<int[]> spans = new ArrayList<>();
+        TreeSet<Integer> cuts = new TreeSet<>();
+        Matcher matcher = PLACEHOLDER.matcher(text);
+        while (matcher.find()) {
+            String name = matcher.group(1).trim();
+            if (name.startsWith("#") || name.startsWith("/")) {
+                throw new IllegalArgumentException("Form templates do not support block directives, found "
+                        + matcher.group() + "; use a docx template for conditional or repeated sections");
+            }
+            if (Placeholder.reference(name).contains(".")) {
+                throw new IllegalArgumentException("Form templates only support simple ${variable} placeholders, found "
+                        + matcher.group() + "; table rows cannot grow in a fixed layout");
+            }
+            Placeholder.parse(name);
+            names.add(name);
+            spans.add(new int[]{matcher.start(), matcher.end()});
+            cuts.add(matcher.start());
+            cuts.add(matcher.end());
+        }
+        if (spans.isEmpty()) {
+            return;
+        }
+
+        // Split from the last run backwards so that the offsets of earlier runs stay valid
+        List<XWPFRun> runs = new ArrayList<>(paragraph.getRuns());
+        int[] offsets = new int[runs.size() + 1];
+        for (int i = 0; i < runs.size(); i++) {
+            offsets[i + 1] = offsets[i] + runText(runs.get(i)).length();
+        }
+        for (int i = runs.size() - 1; i >= 0; i--) {
+            XWPFRun run = runs.get(i);
+            for (int cut : cuts.subSet(offsets[i], false, offsets[i + 1], false).descendingSet()) {
+                if (run instanceof XWPFHyperlinkRun || run instanceof XWPFFieldRun) {
+                    throw new IllegalArgumentException("Form templates cannot place a placeholder inside a hyperlink or field");
+                }
+                splitRun(paragraph, run, cut - offsets[i]);
+            }
+        }
+
+        int offset = 0;
+        for (XWPFRun run : paragraph.getRuns()) {
+            int length = runText(run).length();
+            int from = offset;
+            if (length > 0 && spans.stream().anyMatch(span -> span[0] <= from && from + length <= span[1])) {
+                run.setColor(MARKER_COLOR);
+            }
+            offset += length;
+        }
+    }
+
+    /**
+     * Move everything after {@code offset} characters of the run into a new run right after it
+     */
+    private static void splitRun(XWPFParagraph paragraph, XWPFRun run, int offset) {
+        XWPFRun tail = paragraph.insertNewRun(paragraph.getRuns().indexOf(run) + 1);
+        if (run.getCTR().isSetRPr()) {
+            tail.getCTR().setRPr(run.getCTR().getRPr());
+        }
+
+        int position = 0;
+        for (XmlObject child : run.getCTR().selectPath("./*")) {
+            String name = child.getDomNode().getLocalName();
+            if (name.equals("rPr")) {
+                continue;
+            }
+            int length = childText(child).length();
+            if (position >= offset) {
+                try (XmlCursor source = child.newCursor(); XmlCursor target = tail.getCTR().newCursor()) {
+                    target.toEndToken();
+                    source.moveXml(target);
+                }
+            } else if (position + length > offset) {
+                CTText head = (CTText) child;
+                String value = head.getStringValue();
+                head.setStringValue(value.substring(0, offset - position));
+                preserveSpace(head);
+                CTText rest = tail.getCTR().addNewT();
+                rest.setStringValue(value.substring(offset - position));
+                preserveSpace(rest);
+            }
+            position += length;
+        }
+    }
+
+    private static void preserveSpace(CTText text) {
+        try (XmlCursor cursor = text.newCursor()) {
+            cursor.setAttributeText(XML_SPACE, "preserve");
+        }
+    }
+
+    private static String runText(List<XWPFRun> runs) {
+        StringBuilder text = new StringBuilder();
+        runs.forEach(run -> text.append(runText(run)));
+        return text.toString();
+    }
+
+    /**
+     * Text of the run as the split sees it: one character per tab or break
+     */
+    private static String runText(XWPFRun run) {
+        StringBuilder text = new StringBuilder();
+        for (XmlObject child : run.getCTR().selectPath("./*")) {
+            text.append(childText(child));
+        }
+        return text.toString();
+    }
+
+    private static String childText(XmlObject child) {
+        return switch (child.getDomNode().getLocalName()) {
+            case "t" -> ((CTText) child).getStringValue();
+            case "tab", "ptab" -> "\t";
+            case "br", "cr" -> "\n";
+            default -> "";
+        };
+    }
+
+    private static List<XWPFParagraph> paragraphs(XWPFDocument document) {
+        List<XWPFParagraph> paragraphs = new ArrayList<>();
+        collect(document.getBodyElements(), paragraphs);
+        for (XWPFHeaderFooter headerFooter : document.getHeaderList()) {
+            collect(headerFooter.getBodyElements(), paragraphs);
+        }
+        for (XWPFHeaderFooter headerFooter : document.getFooterList()) {
+            collect(headerFooter.getBodyElements(), paragraphs);
+        }
+        return paragraphs;
+    }
+
+    private static void collect(List<IBodyElement> elements, List<XWPFParagraph> paragraphs) {
+        for (IBodyElement element : elements) {
+            if (element instanceof XWPFParagraph paragraph) {
+                paragraphs.add(paragraph);
+            } else if (element instanceof XWPFTable table) {
+                for (XWPFTableRow row : table.getRows()) {
+                    for (XWPFTableCell cell : row.getTableCells()) {
+                        collect(cell.getBodyElements(), paragraphs);
+                    }
+                }
+            }
+        }
+    }
+
+    private static float rightMargin(XWPFDocument document) {
+        CTSectPr sectPr = document.getDocument().getBody().getSectPr();
+        CTPageMar margins = sectPr != null ? sectPr.getPgMar() : null;
+        if (margins != null && margins.getRight() instanceof BigInteger right) {
+            return right.floatValue() / 20;
+        }
+        return 72;
+    }
+}
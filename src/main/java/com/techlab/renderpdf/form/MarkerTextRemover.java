@@ -0,0 +1,201 @@
+package com.techlab.renderpdf.form;
+
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNumber;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdfparser.PDFStreamParser;
+import org.apache.pdfbox.pdfwriter.ContentStreamWriter;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Removes the placeholder text drawn in the marker colour from the page content streams
+ *
+ * Each text-showing operator drawn in the marker colour is replaced by a {@code TJ} that only
+ * advances by the same width, so text that follows in the same text object keeps its position.
+ * Text inside form XObjects is left alone; it is drawn in the near-white marker colour anyway.
+ */
+final class MarkerTextRemover {
+
+    private static final float[] MARKER_RGB = {
+            Integer.parseInt(FormTemplateCompiler.MARKER_COLOR.substring(0, 2), 16) / 255f,
+            Integer.parseInt(FormTemplateCompiler.MARKER_COLOR.substring(2, 4), 16) / 255f,
+            Integer.parseInt(FormTemplateCompiler.MARKER_COLOR.substring(4, 6), 16) / 255f};
+
+    private static final float TOLERANCE = 0.002f;
+
+    /**
+     * Graphics state the removal depends on; saved and restored with q/Q
+     */
+    private static final class State implements Cloneable {
+        boolean marker;
+        PDFont font;
+        float fontSize;
+        float charSpacing;
+        float wordSpacing;
+
+        @Override
+        protected State clone() {
+            try {
+                return (State) super.clone();
+            } catch (CloneNotSupportedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private MarkerTextRemover() {
+    }
+
+    /**
+     * @return Number of text operators removed
+     */
+    static int remove(PDDocument pdf) throws IOException {
+        int removed = 0;
+        for (PDPage page : pdf.getPages()) {
+            removed += remove(pdf, page);
+        }
+        return removed;
+    }
+
+    private static int remove(PDDocument pdf, PDPage page) throws IOException {
+        List<Object> tokens = new PDFStreamParser(page).parse();
+
+        PDResources resources = page.getResources();
+        Deque<State> saved = new ArrayDeque<>();
+        State state = new State();
+        List<Object> output = new ArrayList<>(tokens.size());
+        List<COSBase> operands = new ArrayList<>();
+        int removed = 0;
+
+        for (Object token : tokens) {
+            if (!(token instanceof Operator operator)) {
+                operands.add((COSBase) token);
+                output.add(token);
+                continue;
+            }
+            String name = operator.getName();
+            switch (name) {
+                case "q" -> saved.push(state.clone());
+                case "Q" -> state = saved.isEmpty() ? new State() : saved.pop();
+                case "rg", "sc", "scn" -> state.marker = isMarker(operands);
+                case "g", "k", "cs" -> state.marker = false;
+                case "Tf" -> {
+                    if (operands.size() == 2 && operands.get(0) instanceof COSName fontName
+                            && operands.get(1) instanceof COSNumber size) {
+                        state.font = resources != null ? resources.getFont(fontName) : null;
+                        state.fontSize = size.floatValue();
+                    }
+                }
+                case "Tc" -> state.charSpacing = number(operands, 0);
+                case "Tw" -> state.wordSpacing = number(operands, 0);
+                default -> {
+                }
+            }
+
+            boolean showsText = name.equals("Tj") || name.equals("TJ") || name.equals("'") || name.equals("\"");
+            if (showsText && state.marker && state.font != null && state.fontSize != 0) {
+                // Drop the operands already copied, keep only the movement of the operator
+                output.subList(output.size() - operands.size(), output.size()).clear();
+                if (name.equals("\"")) {
+                    state.wordSpacing = number(operands, 0);
+                    state.charSpacing = number(operands, 1);
+                    output.add(operands.get(0));
+                    output.add(Operator.getOperator("Tw"));
+                    output.add(operands.get(1));
+                    output.add(Operator.getOperator("Tc"));
+                }
+                if (name.equals("'") || name.equals("\"")) {
+                    output.add(Operator.getOperator("T*"));
+                }
+                COSArray advance = new COSArray();
+                advance.add(new COSFloat(-advance(state, operands.get(operands.size() - 1))));
+                output.add(advance);
+                output.add(Operator.getOperator("TJ"));
+                removed++;
+            } else {
+                output.add(operator);
+            }
+            operands.clear();
+        }
+
+        if (removed > 0) {
+            PDStream stream = new PDStream(pdf);
+            try (OutputStream out = stream.createOutputStream(COSName.FLATE_DECODE)) {
+                new ContentStreamWriter(out).writeTokens(output);
+            }
+            page.setContents(stream);
+        }
+        return removed;
+    }
+
+    /**
+     * Horizontal advance of a Tj string or TJ array in thousandths of text space
+     */
+    private static float advance(State state, COSBase text) throws IOException {
+        float advance = 0;
+        if (text instanceof COSArray array) {
+            for (COSBase element : array) {
+                if (element instanceof COSNumber adjustment) {
+                    advance -= adjustment.floatValue();
+                } else if (element instanceof COSString string) {
+                    advance += advance(state, string);
+                }
+            }
+        } else if (text instanceof COSString string) {
+            advance += advance(state, string);
+        }
+        return advance;
+    }
+
+    private static float advance(State state, COSString string) throws IOException {
+        float advance = 0;
+        int glyphs = 0;
+        int spaces = 0;
+        InputStream in = new ByteArrayInputStream(string.getBytes());
+        while (in.available() > 0) {
+            int code = state.font.readCode(in);
+            advance += state.font.getWidth(code);
+            glyphs++;
+            // Word spacing only applies to the single-byte code 32
+            if (code == 32 && !(state.font instanceof PDType0Font)) {
+                spaces++;
+            }
+        }
+        return advance + (glyphs * state.charSpacing + spaces * state.wordSpacing) * 1000 / state.fontSize;
+    }
+
+    private static boolean isMarker(List<COSBase> operands) {
+        if (operands.size() != 3) {
+            return false;
+        }
+        for (int i = 0; i < 3; i++) {
+            if (!(operands.get(i) instanceof COSNumber number)
+                    || Math.abs(number.floatValue() - MARKER_RGB[i]) > TOLERANCE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static float number(List<COSBase> operands, int index) {
+        return operands.size() > index && operands.get(index) instanceof COSNumber number ? number.floatValue() : 0;
+    }
+}
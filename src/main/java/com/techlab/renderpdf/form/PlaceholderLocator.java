@@ -0,0 +1,58 @@
+package com.techlab.renderpdf.form;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.pdfbox.text.TextPosition;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+
+/**
+ * Finds where the layout engine placed each {@code ${variable}} of the marker render
+ */
+final class PlaceholderLocator extends PDFTextStripper {
+
+    /**
+     * @param page Zero-based page index
+     * @param x Left edge of the placeholder's first glyph
+     * @param baseline Baseline of the first glyph, measured from the top of the page
+     * @param fontSize Font size of the first glyph in points
+     */
+    record Placement(String name, int page, float x, float baseline, float fontSize) {
+    }
+
+    private final List<Placement> placements = new ArrayList<>();
+
+    PlaceholderLocator() {
+        setSortByPosition(true);
+    }
+
+    List<Placement> locate(PDDocument pdf) throws IOException {
+        placements.clear();
+        getText(pdf);
+        return List.copyOf(placements);
+    }
+
+    @Override
+    protected void writeString(String text, List<TextPosition> positions) {
+        // One TextPosition may carry several chars (ligatures): map every char back to its glyph
+        StringBuilder chars = new StringBuilder(text.length());
+        List<TextPosition> owners = new ArrayList<>(text.length());
+        for (TextPosition position : positions) {
+            String unicode = position.getUnicode();
+            chars.append(unicode);
+            for (int i = 0; i < unicode.length(); i++) {
+                owners.add(position);
+            }
+        }
+
+        Matcher matcher = FormTemplateCompiler.PLACEHOLDER.matcher(chars);
+        while (matcher.find()) {
+            TextPosition first = owners.get(matcher.start());
+            placements.add(new Placement(matcher.group(1).trim(), getCurrentPageNo() - 1,
+                    first.getXDirAdj(), first.getYDirAdj(), first.getFontSizeInPt()));
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.techlab.renderpdf.jfr;
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * DOCX to PDF conversion through the render engine selected for the template
+ */
+@Name("com.techlab.renderpdf.Convert")
+@Label("Convert To PDF")
+@Description("Filled DOCX document laid out and written as PDF")
+public class ConvertEvent extends RenderStageEvent {
+
+    @Label("Engine")
+    public String engine;
+
+    @Label("Parts")
+    @Description("Sections rendered in parallel, or table row chunks rendered in turn, and joined; 1 when the document was rendered whole")
+    public int parts;
+
+    @Label("Template Size")
+    @DataAmount
+    public long templateBytes;
+
+    @Label("PDF Size")
+    @DataAmount
+    public long outputBytes;
+}
@@ -0,0 +1,24 @@
+package com.techlab.renderpdf.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Parsing the compiled template and filling request variables into it, including table expansion
+ */
+@Name("com.techlab.renderpdf.Fill")
+@Label("Fill Variables")
+@Description("Template parsed and request variables filled into paragraphs, tables, headers and footers")
+public class FillEvent extends RenderStageEvent {
+
+    @Label("Variable Count")
+    public int variableCount;
+
+    @Label("Table Count")
+    public int tableCount;
+
+    @Label("Expanded Row Count")
+    @Description("Total number of rows created by table expansion")
+    public int rowCount;
+}
@@ -0,0 +1,23 @@
+package com.techlab.renderpdf.jfr;
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Waiting for the render's memory estimate to fit in the global memory budget
+ */
+@Name("com.techlab.renderpdf.MemoryWait")
+@Label("Memory Wait")
+@Description("Render waited for its estimated heap to be reserved from the memory budget")
+public class MemoryWaitEvent extends RenderStageEvent {
+
+    @Label("Estimated Heap")
+    @DataAmount
+    public long estimatedBytes;
+
+    @Label("Memory Budget")
+    @DataAmount
+    public long budgetBytes;
+}
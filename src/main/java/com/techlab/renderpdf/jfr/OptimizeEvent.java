@@ -0,0 +1,29 @@
+package com.techlab.renderpdf.jfr;
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Rendered PDF rewritten by the output optimization stage
+ */
+@Name("com.techlab.renderpdf.Optimize")
+@Label("Optimize PDF")
+@Description("Rendered PDF rewritten with object streams and deduplicated resources")
+public class OptimizeEvent extends RenderStageEvent {
+
+    @Label("Level")
+    public String level;
+
+    @Label("Duplicate Streams")
+    public int duplicateStreams;
+
+    @Label("Input Size")
+    @DataAmount
+    public long inputBytes;
+
+    @Label("Output Size")
+    @DataAmount
+    public long outputBytes;
+}
@@ -0,0 +1,20 @@
+package com.techlab.renderpdf.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * Base class for JFR events emitted by the render pipeline.
+ * Stack traces are disabled so the events stay cheap enough to leave enabled in a continuous recording.
+ */
+@Category({"Render PDF", "Pipeline"})
+@StackTrace(false)
+public abstract class RenderStageEvent extends Event {
+
+    @Label("Template Name")
+    @Description("Template the request is rendered from")
+    public String templateName;
+}
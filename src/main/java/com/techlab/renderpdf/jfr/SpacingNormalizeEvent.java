@@ -0,0 +1,17 @@
+package com.techlab.renderpdf.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Line spacing normalisation over the whole document, once per template version at compile time
+ */
+@Name("com.techlab.renderpdf.SpacingNormalize")
+@Label("Spacing Normalize")
+@Description("Line spacing made explicit on every paragraph so PdfConverter lays it out correctly")
+public class SpacingNormalizeEvent extends RenderStageEvent {
+
+    @Label("Paragraph Count")
+    public int paragraphCount;
+}
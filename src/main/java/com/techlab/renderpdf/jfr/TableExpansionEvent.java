@@ -0,0 +1,24 @@
+package com.techlab.renderpdf.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Duplicating a template row once per data row of a dynamic table
+ */
+@Name("com.techlab.renderpdf.TableExpansion")
+@Label("Table Expansion")
+@Description("Template row duplicated for every row of a dynamic table")
+public class TableExpansionEvent extends RenderStageEvent {
+
+    @Label("Table Name")
+    public String tableName;
+
+    @Label("Row Count")
+    public int rowCount;
+
+    @Label("Cell Count")
+    @Description("Number of cells in the template row")
+    public int cellCount;
+}
@@ -0,0 +1,26 @@
+package com.techlab.renderpdf.jfr;
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Resolving the template version and reading its compiled bytes (from cache, disk or the owner node)
+ */
+@Name("com.techlab.renderpdf.TemplateLoad")
+@Label("Template Load")
+@Description("Template bytes resolved for the request")
+public class TemplateLoadEvent extends RenderStageEvent {
+
+    @Label("Template Version")
+    @Description("Content hash of the version the request is pinned to")
+    public String templateVersion;
+
+    @Label("Template Size")
+    @DataAmount
+    public long templateBytes;
+
+    @Label("Cache Hit")
+    public boolean cacheHit;
+}
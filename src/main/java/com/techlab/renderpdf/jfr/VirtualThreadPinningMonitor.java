@@ -0,0 +1,89 @@
+package com.techlab.renderpdf.jfr;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Detects virtual threads pinned to their carrier (blocking inside a monitor or native frame)
+ * by streaming the JDK's {@code jdk.VirtualThreadPinned} JFR event in-process.
+ * Each pinning above the threshold is counted in {@code render.virtual.pinned} and logged
+ * with the top frames of the pinned stack.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "pdf.generation.render.pinning-monitor.enabled", havingValue = "true", matchIfMissing = true)
+public class VirtualThreadPinningMonitor {
+
+    private static final int LOGGED_FRAMES = 8;
+
+    private final Duration threshold;
+    private final Counter pinnedCounter;
+    private final Timer pinnedTimer;
+    private RecordingStream stream;
+
+    public VirtualThreadPinningMonitor(MeterRegistry meterRegistry,
+                                       @Value("${pdf.generation.render.pinning-monitor.threshold-ms:20}") long thresholdMs) {
+        this.threshold = Duration.ofMillis(thresholdMs);
+        this.pinnedCounter = Counter.builder("render.virtual.pinned")
+                .description("Virtual threads pinned to their carrier longer than the threshold")
+                .register(meterRegistry);
+        this.pinnedTimer = Timer.builder("render.virtual.pinned.duration")
+                .description("Duration of virtual thread pinning events")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        try {
+            stream = new RecordingStream();
+            stream.enable("jdk.VirtualThreadPinned").withThreshold(threshold).withStackTrace();
+            stream.onEvent("jdk.VirtualThreadPinned", this::onPinned);
+            stream.startAsync();
+            log.info("Virtual thread pinning monitor started (threshold {} ms)", threshold.toMillis());
+        } catch (Exception e) {
+            // JFR không khả dụng (ví dụ JVM build không có JFR) -> chỉ tắt monitor
+            log.warn("Cannot start virtual thread pinning monitor: {}", e.getMessage());
+            stream = null;
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (stream != null) {
+            stream.close();
+        }
+    }
+
+    private void onPinned(RecordedEvent event) {
+        pinnedCounter.increment();
+        pinnedTimer.record(event.getDuration());
+        if (log.isWarnEnabled()) {
+            StringBuilder frames = new StringBuilder();
+            if (event.getStackTrace() != null) {
+                List<RecordedFrame> stack = event.getStackTrace().getFrames();
+                for (int i = 0; i < Math.min(LOGGED_FRAMES, stack.size()); i++) {
+                    RecordedFrame frame = stack.get(i);
+                    frames.append("\n\tat ").append(frame.getMethod().getType().getName())
+                            .append('.').append(frame.getMethod().getName())
+                            .append(':').append(frame.getLineNumber());
+                }
+            }
+            log.warn("Virtual thread {} pinned for {} ms{}",
+                    event.getThread() != null ? event.getThread().getJavaName() : "?",
+                    event.getDuration().toMillis(), frames);
+        }
+    }
+}
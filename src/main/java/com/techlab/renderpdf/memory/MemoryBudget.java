@@ -0,0 +1,237 @@
+package com.techlab.renderpdf.memory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import com.techlab.renderpdf.service.RenderDeadline;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Global heap budget that renders reserve their {@link MemoryEstimate} from before parsing the template
+ *
+ * {@code pdf.generation.max-concurrent} bounds how many renders run; this bounds how much they hold
+ * together, so a few large jobs wait for memory instead of pushing the heap into an OOM for every
+ * request. The budget is {@code pdf.generation.memory.budget}, or half the max heap when 0. Reservations
+ * are granted in arrival order (a large job is not overtaken indefinitely by small ones); one larger than
+ * the whole budget is clamped to it and runs alone. A render that cannot reserve within
+ * {@code pdf.generation.memory.wait-timeout-ms} is rejected like a full render queue; one whose
+ * {@link RenderDeadline} passes first stops at the {@code memory} stage instead.
+ */
+@Slf4j
+@Component
+public class MemoryBudget {
+
+    /**
+     * Memory held by one admitted render; closing it returns the memory to the budget
+     */
+    public final class Reservation implements AutoCloseable {
+        private final long id;
+        private final String templateName;
+        private final MemoryEstimate estimate;
+        private int permits;
+        private final long startNanos = System.nanoTime();
+        private boolean closed;
+
+        private Reservation(long id, String templateName, MemoryEstimate estimate, int permits) {
+            this.id = id;
+            this.templateName = templateName;
+            this.estimate = estimate;
+            this.permits = permits;
+        }
+
+        public MemoryEstimate estimate() {
+            return estimate;
+        }
+
+        /**
+         * Keep only what the result of the render still holds and return the rest to the budget
+         */
+        public synchronized void shrinkTo(long bytes) {
+            int keep = (int) Math.min(permits, (Math.max(0, bytes) + UNIT - 1) / UNIT);
+            if (closed || keep == permits) {
+                return;
+            }
+            int excess = permits - keep;
+            permits = keep;
+            reservedBytes.addAndGet(-(long) excess * UNIT);
+            semaphore.release(excess);
+        }
+
+        synchronized long reservedBytes() {
+            return (long) permits * UNIT;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            active.remove(id);
+            reservedBytes.addAndGet(-(long) permits * UNIT);
+            semaphore.release(permits);
+        }
+    }
+
+    /** Permits are kilobytes so budgets up to terabytes fit in an int */
+    static final int UNIT = 1024;
+
+    private final long budgetBytes;
+    private final int totalPermits;
+    private final Semaphore semaphore;
+    private final long waitTimeoutMs;
+
+    private final AtomicLong ids = new AtomicLong();
+    private final AtomicLong reservedBytes = new AtomicLong();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final ConcurrentMap<Long, Reservation> active = new ConcurrentHashMap<>();
+    private final DistributionSummary estimatedBytes;
+    private final Counter rejectedCounter;
+
+    public MemoryBudget(@Value("${pdf.generation.memory.budget:0}") DataSize budget,
+                        @Value("${pdf.generation.memory.wait-timeout-ms:30000}") long waitTimeoutMs,
+                        MeterRegistry meterRegistry) {
+        long bytes = budget.toBytes() > 0 ? budget.toBytes() : Runtime.getRuntime().maxMemory() / 2;
+        this.totalPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytes / UNIT));
+        this.budgetBytes = (long) totalPermits * UNIT;
+        this.semaphore = new Semaphore(totalPermits, true);
+        this.waitTimeoutMs = waitTimeoutMs;
+
+        Gauge.builder("render.memory.budget", this, b -> b.budgetBytes)
+                .description("Heap renders may reserve together")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("render.memory.reserved", reservedBytes, AtomicLong::get)
+                .description("Heap reserved by running renders")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("render.memory.waiting", waiting, AtomicInteger::get)
+                .description("Renders waiting for memory")
+                .register(meterRegistry);
+        this.estimatedBytes = DistributionSummary.builder("render.memory.estimated")
+                .description("Estimated peak heap of a render")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("render.memory.rejected")
+                .description("Renders rejected because the memory budget stayed exhausted")
+                .register(meterRegistry);
+        log.info("Render memory budget: {} MB (max heap {} MB)", budgetBytes / (1024 * 1024),
+                Runtime.getRuntime().maxMemory() / (1024 * 1024));
+    }
+
+    /**
+     * Wait until the estimate fits in the budget and reserve it
+     *
+     * @throws RejectedExecutionException If it does not fit within the wait timeout
+     */
+    public Reservation reserve(String templateName, MemoryEstimate estimate) throws InterruptedIOException {
+        return reserve(templateName, estimate, null);
+    }
+
+    /**
+     * Wait until the estimate fits in the budget and reserve it, no longer than the render's deadline allows
+     *
+     * @param deadline Deadline of the render, or null for the wait timeout alone
+     * @throws RejectedExecutionException If it does not fit within the wait timeout
+     * @throws RenderDeadline.ExceededException If the deadline passed (or the render was cancelled) while waiting
+     */
+    public Reservation reserve(String templateName, MemoryEstimate estimate, RenderDeadline deadline)
+            throws InterruptedIOException {
+        long bytes = estimate.totalBytes();
+        estimatedBytes.record(bytes);
+        int permits = (int) Math.min(totalPermits, Math.max(1, (bytes + UNIT - 1) / UNIT));
+        if (permits == totalPermits && bytes > budgetBytes) {
+            log.warn("Render of {} estimated at {} MB exceeds the memory budget of {} MB, running it alone",
+                    templateName, bytes / (1024 * 1024), budgetBytes / (1024 * 1024));
+        }
+
+        long waitNanos = TimeUnit.MILLISECONDS.toNanos(waitTimeoutMs);
+        boolean deadlineFirst = deadline != null && deadline.remainingNanos() < waitNanos;
+        if (deadlineFirst) {
+            waitNanos = Math.max(0, deadline.remainingNanos());
+        }
+        waiting.incrementAndGet();
+        try {
+            if (!semaphore.tryAcquire(permits, waitNanos, TimeUnit.NANOSECONDS)) {
+                if (deadlineFirst) {
+                    // Nobody reads the result any more: a deadline stop, not a rejection
+                    deadline.checkpoint("memory");
+                }
+                rejectedCounter.increment();
+                throw new RejectedExecutionException("Memory budget exhausted, retry later");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for render memory");
+        } finally {
+            waiting.decrementAndGet();
+        }
+        reservedBytes.addAndGet((long) permits * UNIT);
+        Reservation reservation = new Reservation(ids.incrementAndGet(), templateName, estimate, permits);
+        active.put(reservation.id, reservation);
+        return reservation;
+    }
+
+    public long budgetBytes() {
+        return budgetBytes;
+    }
+
+    public long reservedBytes() {
+        return reservedBytes.get();
+    }
+
+    /**
+     * Budget, heap and the reservation of each running render, largest first
+     */
+    public Map<String, Object> snapshot() {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("budgetBytes", budgetBytes);
+        snapshot.put("reservedBytes", reservedBytes.get());
+        snapshot.put("availableBytes", (long) semaphore.availablePermits() * UNIT);
+        snapshot.put("waiting", waiting.get());
+        snapshot.put("heapUsedBytes", heap.getUsed());
+        snapshot.put("heapMaxBytes", heap.getMax());
+
+        List<Reservation> reservations = new ArrayList<>(active.values());
+        reservations.sort(Comparator.comparingLong((Reservation r) -> r.estimate.totalBytes()).reversed());
+        List<Map<String, Object>> renders = new ArrayList<>(reservations.size());
+        long now = System.nanoTime();
+        for (Reservation reservation : reservations) {
+            MemoryEstimate estimate = reservation.estimate;
+            Map<String, Object> render = new LinkedHashMap<>();
+            render.put("id", reservation.id);
+            render.put("templateName", reservation.templateName);
+            render.put("runningMs", TimeUnit.NANOSECONDS.toMillis(now - reservation.startNanos));
+            render.put("reservedBytes", reservation.reservedBytes());
+            render.put("payloadBytes", estimate.payloadBytes());
+            render.put("documentBytes", estimate.documentBytes());
+            render.put("rows", estimate.rows());
+            render.put("rowBytes", estimate.rowBytes());
+            render.put("outputBytes", estimate.outputBytes());
+            renders.add(render);
+        }
+        snapshot.put("renders", renders);
+        return snapshot;
+    }
+}
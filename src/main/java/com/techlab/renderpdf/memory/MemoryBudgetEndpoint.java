@@ -0,0 +1,24 @@
+package com.techlab.renderpdf.memory;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * {@code /actuator/rendermemory}: live memory budget and what each running render reserved
+ */
+@Component
+@Endpoint(id = "rendermemory")
+@RequiredArgsConstructor
+public class MemoryBudgetEndpoint {
+
+    private final MemoryBudget memoryBudget;
+
+    @ReadOperation
+    public Map<String, Object> budget() {
+        return memoryBudget.snapshot();
+    }
+}
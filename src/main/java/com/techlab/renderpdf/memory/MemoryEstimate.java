@@ -0,0 +1,95 @@
+package com.techlab.renderpdf.memory;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * Heap one render is expected to hold at its peak, by component
+ *
+ * @param payloadBytes Request variables; counted twice in {@link #totalBytes()} as the filled values are copied into the document
+ * @param documentBytes Parsed template (DOCX model, or the form PDF)
+ * @param rows Table rows the variables expand to
+ * @param rowBytes Heap of one expanded row
+ * @param outputBytes In-memory part of the output buffer (at most the spill threshold), and the merge of
+ *                    table chunks when a table is rendered in chunks
+ */
+public record MemoryEstimate(long payloadBytes, long documentBytes, int rows, long rowBytes, long outputBytes) {
+
+    public long totalBytes() {
+        return 2 * payloadBytes + documentBytes + rows * rowBytes + outputBytes;
+    }
+
+    /**
+     * Approximate heap of a deserialized JSON value (maps, lists, strings, numbers)
+     */
+    public static long payloadBytes(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof CharSequence text) {
+            // String header + array; non-Latin-1 text (Vietnamese) takes two bytes per char
+            return 40 + 2L * text.length();
+        }
+        if (value instanceof Map<?, ?> map) {
+            long bytes = 64;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                bytes += 32 + payloadBytes(entry.getKey()) + payloadBytes(entry.getValue());
+            }
+            return bytes;
+        }
+        if (value instanceof Collection<?> collection) {
+            long bytes = 24 + 8L * collection.size();
+            for (Object element : collection) {
+                bytes += payloadBytes(element);
+            }
+            return bytes;
+        }
+        return 16;
+    }
+
+    /**
+     * Rows of all table values (lists of maps) among the variables
+     */
+    public static int rows(Map<String, Object> variables) {
+        return rows(variables, size -> false, 0);
+    }
+
+    /**
+     * Rows of all table values among the variables, tables rendered in chunks counting one chunk
+     *
+     * @param chunked Whether a table of the given size is rendered in chunks
+     */
+    public static int rows(Map<String, Object> variables, IntPredicate chunked, int rowsPerChunk) {
+        if (variables == null) {
+            return 0;
+        }
+        int rows = 0;
+        for (Object value : variables.values()) {
+            if (value instanceof List<?> list && !list.isEmpty() && list.get(0) instanceof Map) {
+                rows += chunked.test(list.size()) ? rowsPerChunk : list.size();
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Rows of the table values among the variables that are rendered in chunks
+     *
+     * @param chunked Whether a table of the given size is rendered in chunks
+     */
+    public static int chunkedRows(Map<String, Object> variables, IntPredicate chunked) {
+        if (variables == null) {
+            return 0;
+        }
+        int rows = 0;
+        for (Object value : variables.values()) {
+            if (value instanceof List<?> list && !list.isEmpty() && list.get(0) instanceof Map
+                    && chunked.test(list.size())) {
+                rows += list.size();
+            }
+        }
+        return rows;
+    }
+}
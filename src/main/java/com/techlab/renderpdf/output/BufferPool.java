@@ -0,0 +1,118 @@
+package com.techlab.renderpdf.output;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of output chunks in size classes of 16KB, 64KB, 256KB and 1MB
+ *
+ * Render output is written into chunks taken from here by {@link ChunkedOutputStream} and returned
+ * by {@link ChunkedOutputStream#release()} (closing the stream keeps them), so a request does not allocate
+ * (and grow by copying) its own buffer.
+ * Each class retains at most an equal share of {@code pdf.generation.buffer.max-pooled}; chunks
+ * released beyond that are left to the GC. The pool is shared, not per thread, because requests run
+ * on virtual threads.
+ */
+@Slf4j
+@Component
+public class BufferPool {
+
+    static final int MIN_CHUNK = 16 * 1024;
+    static final int MAX_CHUNK = 1024 * 1024;
+
+    private static final class SizeClass {
+        final int size;
+        final int maxRetained;
+        final ConcurrentLinkedDeque<byte[]> free = new ConcurrentLinkedDeque<>();
+        final AtomicInteger retained = new AtomicInteger();
+
+        SizeClass(int size, int maxRetained) {
+            this.size = size;
+            this.maxRetained = maxRetained;
+        }
+    }
+
+    private final SizeClass[] classes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public BufferPool(@Value("${pdf.generation.buffer.max-pooled:64MB}") DataSize maxPooled,
+                      MeterRegistry meterRegistry) {
+        int count = Integer.numberOfTrailingZeros(MAX_CHUNK / MIN_CHUNK) / 2 + 1;
+        long share = maxPooled.toBytes() / count;
+        this.classes = new SizeClass[count];
+        for (int i = 0; i < count; i++) {
+            int size = MIN_CHUNK << (2 * i);
+            classes[i] = new SizeClass(size, (int) Math.min(Integer.MAX_VALUE, share / size));
+        }
+
+        Gauge.builder("render.buffer.pool.retained", this, BufferPool::retainedBytes)
+                .description("Bytes held by free output chunks")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        FunctionCounter.builder("render.buffer.pool.hits", hits, LongAdder::sum).register(meterRegistry);
+        FunctionCounter.builder("render.buffer.pool.misses", misses, LongAdder::sum).register(meterRegistry);
+        log.info("Output buffer pool: max pooled {} MB", maxPooled.toMegabytes());
+    }
+
+    /**
+     * Stream whose first chunk holds {@code expectedSize} bytes (up to the largest class)
+     */
+    public ChunkedOutputStream newStream(int expectedSize) {
+        return new ChunkedOutputStream(this, expectedSize);
+    }
+
+    /**
+     * Chunk of the smallest class holding {@code minSize} bytes, or of the largest class
+     */
+    byte[] acquire(int minSize) {
+        SizeClass sizeClass = classFor(minSize);
+        byte[] chunk = sizeClass.free.pollFirst();
+        if (chunk != null) {
+            sizeClass.retained.decrementAndGet();
+            hits.increment();
+            return chunk;
+        }
+        misses.increment();
+        return new byte[sizeClass.size];
+    }
+
+    void release(byte[] chunk) {
+        SizeClass sizeClass = classFor(chunk.length);
+        if (sizeClass.size != chunk.length) {
+            return;
+        }
+        if (sizeClass.retained.incrementAndGet() <= sizeClass.maxRetained) {
+            // LIFO: the most recently used chunk is the most likely to still be in cache
+            sizeClass.free.offerFirst(chunk);
+        } else {
+            sizeClass.retained.decrementAndGet();
+        }
+    }
+
+    long retainedBytes() {
+        long bytes = 0;
+        for (SizeClass sizeClass : classes) {
+            bytes += (long) sizeClass.retained.get() * sizeClass.size;
+        }
+        return bytes;
+    }
+
+    private SizeClass classFor(int size) {
+        for (SizeClass sizeClass : classes) {
+            if (sizeClass.size >= size) {
+                return sizeClass;
+            }
+        }
+        return classes[classes.length - 1];
+    }
+}
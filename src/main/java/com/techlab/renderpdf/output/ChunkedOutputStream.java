@@ -0,0 +1,298 @@
+package com.techlab.renderpdf.output;
+
+import org.apache.pdfbox.io.RandomAccessRead;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Output buffer made of pooled chunks: growing adds a chunk instead of copying what was written
+ *
+ * Each new chunk is of the class holding everything written so far, so the chunk count stays
+ * logarithmic when the first one was too small. With a spill threshold (see {@link TempStorage}),
+ * a write that would take the output past it moves everything to a temp file and returns the chunks;
+ * one chunk is kept as the write buffer of the file from then on, until {@link #finish()}.
+ *
+ * {@link #release()} returns the chunks to the pool, deletes the spill file and the stream cannot be
+ * used afterwards; {@link #close()} has no effect, as writers such as OpenPDF and PDFBox close the
+ * stream they write to before the caller reads it. Not thread safe.
+ */
+public final class ChunkedOutputStream extends OutputStream {
+
+    private static final int SPILL_BUFFER = 64 * 1024;
+
+    private final BufferPool pool;
+    private final long spillThreshold;
+    private final Supplier<Path> spillFiles;
+    private final List<byte[]> chunks = new ArrayList<>(4);
+    private byte[] current;
+    private int position;
+    private long size;
+    private Path spillFile;
+    private OutputStream spillOut;
+    private boolean finished;
+    private boolean released;
+
+    ChunkedOutputStream(BufferPool pool, int expectedSize) {
+        this(pool, expectedSize, Long.MAX_VALUE, null);
+    }
+
+    ChunkedOutputStream(BufferPool pool, int expectedSize, long spillThreshold, Supplier<Path> spillFiles) {
+        this.pool = pool;
+        this.spillThreshold = spillThreshold;
+        this.spillFiles = spillFiles;
+        this.current = pool.acquire((int) Math.min(expectedSize, spillThreshold));
+        chunks.add(current);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureWritable();
+        if (spillFile == null && size + 1 > spillThreshold) {
+            spill();
+        }
+        if (position == current.length) {
+            nextChunk();
+        }
+        current[position++] = (byte) b;
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureWritable();
+        if (spillFile == null && size + len > spillThreshold) {
+            spill();
+        }
+        while (len > 0) {
+            if (position == current.length) {
+                nextChunk();
+            }
+            int count = Math.min(len, current.length - position);
+            System.arraycopy(b, off, current, position, count);
+            position += count;
+            off += count;
+            len -= count;
+            size += count;
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean isSpilled() {
+        return spillFile != null;
+    }
+
+    /**
+     * Written bytes as one array of exactly {@link #size()} bytes
+     */
+    public byte[] toByteArray() throws IOException {
+        ensureOpen();
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Output of " + size + " bytes does not fit in an array");
+        }
+        if (spillFile != null) {
+            flushSpillBuffer();
+            return Files.readAllBytes(spillFile);
+        }
+        byte[] bytes = new byte[(int) size];
+        int offset = 0;
+        for (byte[] chunk : chunks) {
+            int count = (int) Math.min(chunk.length, size - offset);
+            System.arraycopy(chunk, 0, bytes, offset, count);
+            offset += count;
+        }
+        return bytes;
+    }
+
+    /**
+     * Copy the written bytes to {@code out} chunk by chunk (or from the spill file), without assembling them first
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        ensureOpen();
+        if (spillFile != null) {
+            flushSpillBuffer();
+            Files.copy(spillFile, out);
+            return;
+        }
+        long remaining = size;
+        for (byte[] chunk : chunks) {
+            int count = (int) Math.min(chunk.length, remaining);
+            out.write(chunk, 0, count);
+            remaining -= count;
+        }
+    }
+
+    /**
+     * Stream over the written bytes; valid until {@link #release()}
+     */
+    public InputStream openInputStream() throws IOException {
+        ensureOpen();
+        if (spillFile != null) {
+            flushSpillBuffer();
+            return Files.newInputStream(spillFile);
+        }
+        List<InputStream> parts = new ArrayList<>(chunks.size());
+        long remaining = size;
+        for (byte[] chunk : chunks) {
+            int count = (int) Math.min(chunk.length, remaining);
+            parts.add(new ByteArrayInputStream(chunk, 0, count));
+            remaining -= count;
+        }
+        return new SequenceInputStream(Collections.enumeration(parts));
+    }
+
+    /**
+     * Random access to the written bytes in memory, read from the chunks without copying; valid until
+     * {@link #release()}
+     *
+     * @throws IllegalStateException If the output was spilled, see {@link #spillFile()}
+     */
+    RandomAccessRead openRandomAccess() {
+        ensureOpen();
+        if (spillFile != null) {
+            throw new IllegalStateException("Output is in spill file " + spillFile);
+        }
+        return new ChunkedRandomAccessRead(List.copyOf(chunks), size);
+    }
+
+    /**
+     * Spill file holding the complete output, or {@code null} while the output is in memory
+     */
+    Path spillFile() throws IOException {
+        if (spillFile != null) {
+            ensureOpen();
+            flushSpillBuffer();
+        }
+        return spillFile;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * End writing: a spilled output flushes its write buffer, closes the file and returns the buffer to the
+     * pool, so that a finished output waiting for its reader holds no heap; writes fail afterwards
+     */
+    public void finish() throws IOException {
+        ensureOpen();
+        if (spillOut != null) {
+            flushSpillBuffer();
+            spillOut.close();
+            spillOut = null;
+            chunks.forEach(pool::release);
+            chunks.clear();
+            current = null;
+        }
+        finished = true;
+    }
+
+    /**
+     * Return the chunks to the pool and delete the spill file
+     */
+    public void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        for (byte[] chunk : chunks) {
+            pool.release(chunk);
+        }
+        chunks.clear();
+        current = null;
+        if (spillFile != null) {
+            try {
+                if (spillOut != null) {
+                    spillOut.close();
+                }
+                Files.deleteIfExists(spillFile);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot delete spill file " + spillFile, e);
+            }
+        }
+    }
+
+    private void nextChunk() throws IOException {
+        if (spillFile != null) {
+            flushSpillBuffer();
+            return;
+        }
+        current = pool.acquire((int) Math.min(size, BufferPool.MAX_CHUNK));
+        chunks.add(current);
+        position = 0;
+    }
+
+    /**
+     * Move what was written so far to a new spill file; later writes are buffered in one chunk
+     *
+     * The chunks go back to the pool only once all of them are in the file: if the spill fails, the
+     * stream is left as it was (in memory, without spill file) and {@link #release()} returns them once.
+     */
+    private void spill() throws IOException {
+        Path file = spillFiles.get();
+        OutputStream out = null;
+        try {
+            out = Files.newOutputStream(file);
+            long remaining = size;
+            for (byte[] chunk : chunks) {
+                int count = (int) Math.min(chunk.length, remaining);
+                out.write(chunk, 0, count);
+                remaining -= count;
+            }
+        } catch (IOException | RuntimeException e) {
+            try {
+                if (out != null) {
+                    out.close();
+                }
+                Files.deleteIfExists(file);
+            } catch (IOException cleanup) {
+                e.addSuppressed(cleanup);
+            }
+            throw e;
+        }
+        spillFile = file;
+        spillOut = out;
+        for (byte[] chunk : chunks) {
+            pool.release(chunk);
+        }
+        chunks.clear();
+        current = pool.acquire(SPILL_BUFFER);
+        chunks.add(current);
+        position = 0;
+    }
+
+    private void flushSpillBuffer() throws IOException {
+        if (spillOut == null) {
+            return;
+        }
+        spillOut.write(current, 0, position);
+        spillOut.flush();
+        position = 0;
+    }
+
+    private void ensureWritable() {
+        ensureOpen();
+        if (finished) {
+            throw new IllegalStateException("Output already finished");
+        }
+    }
+
+    private void ensureOpen() {
+        if (released) {
+            throw new IllegalStateException("Output buffer already released");
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.techlab.renderpdf.output;
+
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.RandomAccessReadView;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * PDFBox input over the chunks of a {@link ChunkedOutputStream}, read in place instead of copied to one array
+ *
+ * Every chunk but the last is full. Closing it leaves the chunks to their stream. Not thread safe.
+ */
+final class ChunkedRandomAccessRead implements RandomAccessRead {
+
+    private final List<byte[]> chunks;
+    private final long length;
+    private long position;
+    private int chunk;
+    private long chunkStart;
+    private boolean closed;
+
+    ChunkedRandomAccessRead(List<byte[]> chunks, long length) {
+        this.chunks = chunks;
+        this.length = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        ensureOpen();
+        if (position >= length) {
+            return -1;
+        }
+        locate();
+        int b = chunks.get(chunk)[(int) (position - chunkStart)] & 0xff;
+        position++;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= length) {
+            return -1;
+        }
+        int total = 0;
+        while (len > 0 && position < length) {
+            locate();
+            byte[] bytes = chunks.get(chunk);
+            int from = (int) (position - chunkStart);
+            int count = (int) Math.min(Math.min(len, bytes.length - from), length - position);
+            System.arraycopy(bytes, from, b, off, count);
+            position += count;
+            off += count;
+            len -= count;
+            total += count;
+        }
+        return total;
+    }
+
+    @Override
+    public long getPosition() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public void seek(long position) throws IOException {
+        ensureOpen();
+        if (position < 0) {
+            throw new IOException("Invalid position " + position);
+        }
+        this.position = Math.min(position, length);
+    }
+
+    @Override
+    public long length() throws IOException {
+        ensureOpen();
+        return length;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public boolean isEOF() throws IOException {
+        ensureOpen();
+        return position >= length;
+    }
+
+    @Override
+    public RandomAccessReadView createView(long startPosition, long streamLength) throws IOException {
+        ensureOpen();
+        return new RandomAccessReadView(this, startPosition, streamLength);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * Move the cursor to the chunk holding the position: forward while reading, from the start after a seek back
+     */
+    private void locate() {
+        if (position < chunkStart) {
+            chunk = 0;
+            chunkStart = 0;
+        }
+        while (position >= chunkStart + chunks.get(chunk).length) {
+            chunkStart += chunks.get(chunk).length;
+            chunk++;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Input already closed");
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.techlab.renderpdf.output;
+
+import java.util.Locale;
+
+/**
+ * Post-processing applied to a rendered PDF before it is returned
+ *
+ * Each level includes the previous one. {@link #OBJECT_STREAMS} rewrites the file with object streams
+ * and a compressed cross-reference stream (PDF 1.5); {@link #DEDUPLICATE} also merges streams with
+ * identical dictionaries and bytes (fonts, images, form XObjects) into one object.
+ */
+public enum OptimizationLevel {
+    NONE,
+    OBJECT_STREAMS,
+    DEDUPLICATE;
+
+    /**
+     * Parse a configured level: {@code none}, {@code object-streams} or {@code dedup}
+     *
+     * @throws IllegalArgumentException If the value is not a known level
+     */
+    public static OptimizationLevel parse(String value) {
+        String id = value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+        for (OptimizationLevel level : values()) {
+            if (level.id().equals(id)) {
+                return level;
+            }
+        }
+        throw new IllegalArgumentException("Unknown PDF optimization level '" + value
+                + "', expected none, object-streams or dedup");
+    }
+
+    public String id() {
+        return switch (this) {
+            case NONE -> "none";
+            case OBJECT_STREAMS -> "object-streams";
+            case DEDUPLICATE -> "dedup";
+        };
+    }
+}
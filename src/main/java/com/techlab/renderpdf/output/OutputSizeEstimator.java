@@ -0,0 +1,43 @@
+package com.techlab.renderpdf.output;
+
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Per-template estimate of the rendered PDF size, learnt from previous outputs
+ *
+ * Keeps an exponentially weighted moving average of the output size and of its absolute deviation;
+ * the estimate is the average plus two deviations, so most outputs fit in the first chunk.
+ * Until a template has rendered once the caller's fallback (derived from the template size) is used.
+ */
+@Component
+public class OutputSizeEstimator {
+
+    static final double ALPHA = 0.2;
+
+    /**
+     * Moving averages of one template; replaced, never mutated
+     */
+    private record Average(double mean, double deviation) {
+        Average update(long size) {
+            double error = size - mean;
+            return new Average(mean + ALPHA * error, deviation + ALPHA * (Math.abs(error) - deviation));
+        }
+    }
+
+    private final ConcurrentMap<String, Average> averages = new ConcurrentHashMap<>();
+
+    public int estimate(String templateName, int fallback) {
+        Average average = averages.get(templateName);
+        if (average == null) {
+            return fallback;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, Math.ceil(average.mean() + 2 * average.deviation()));
+    }
+
+    public void record(String templateName, long size) {
+        averages.merge(templateName, new Average(size, 0), (average, first) -> average.update(size));
+    }
+}
@@ -0,0 +1,68 @@
+package com.techlab.renderpdf.output;
+
+import lombok.RequiredArgsConstructor;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.RandomAccessReadBufferedFile;
+import org.apache.pdfbox.multipdf.PDFMergerUtility;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Joins PDFs rendered separately (sections or table chunks of one document) into one, pages in order
+ *
+ * Parts are appended one at a time: each is loaded, its pages are copied into the result and it is closed
+ * before the next one. Spilled parts are read from their files and parts in memory from their chunks, never
+ * copied to an array; PDFBox scratch data of the result is bounded by {@link TempStorage#pdfboxStreamCache()},
+ * as in {@link PdfOptimizer}.
+ */
+@Component
+@RequiredArgsConstructor
+public class PdfMerger {
+
+    private final TempStorage tempStorage;
+
+    /**
+     * Write the parts one after another as a single PDF; the parts stay owned by the caller
+     *
+     * @throws IOException If a part cannot be read or the result cannot be written
+     */
+    public void merge(List<RenderedDocument> parts, OutputStream out) throws IOException {
+        PDFMergerUtility merger = new PDFMergerUtility();
+        merger.setDocumentMergeMode(PDFMergerUtility.DocumentMergeMode.OPTIMIZE_RESOURCES_MODE);
+        for (RenderedDocument part : parts) {
+            // Files are opened by the merger when their turn comes
+            Path spillFile = part.spillFile();
+            if (spillFile != null) {
+                merger.addSource(spillFile.toFile());
+            } else {
+                merger.addSource(part.openRandomAccess());
+            }
+        }
+        merger.setDestinationStream(out);
+        merger.mergeDocuments(tempStorage.pdfboxStreamCache());
+    }
+
+    /**
+     * Number of pages of a rendered PDF
+     *
+     * @throws IOException If the PDF cannot be read
+     */
+    public int pageCount(RenderedDocument pdf) throws IOException {
+        try (PDDocument document = Loader.loadPDF(source(pdf), "", null, null, tempStorage.pdfboxStreamCache())) {
+            return document.getNumberOfPages();
+        }
+    }
+
+    private static RandomAccessRead source(RenderedDocument pdf) throws IOException {
+        Path spillFile = pdf.spillFile();
+        return spillFile != null
+                ? new RandomAccessReadBufferedFile(spillFile)
+                : pdf.openRandomAccess();
+    }
+}
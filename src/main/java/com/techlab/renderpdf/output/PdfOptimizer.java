@@ -0,0 +1,307 @@
+package com.techlab.renderpdf.output;
+
+import com.techlab.renderpdf.jfr.OptimizeEvent;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSDocument;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSObjectKey;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdfwriter.compress.CompressParameters;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Optional output stage: rewrites the rendered PDF at the level configured for the template
+ *
+ * {@code pdf.generation.optimize.level} applies to every template without an entry in
+ * {@code pdf.generation.optimize.templates} ({@code name=level,name=level}). The result is only used
+ * when it is smaller than the input, so a level never makes a response larger; PDFs that already use
+ * a cross-reference stream (PDFBox engine and form output) are not rewritten for object streams alone.
+ */
+@Slf4j
+@Component
+public class PdfOptimizer {
+
+    private final OptimizationLevel defaultLevel;
+    private final Map<String, OptimizationLevel> templateLevels;
+    private final Map<OptimizationLevel, Timer> timers = new EnumMap<>(OptimizationLevel.class);
+    private final Map<OptimizationLevel, DistributionSummary> savedBytes = new EnumMap<>(OptimizationLevel.class);
+    private final TempStorage tempStorage;
+
+    public PdfOptimizer(@Value("${pdf.generation.optimize.level:none}") String defaultLevel,
+                        @Value("${pdf.generation.optimize.templates:}") String templateLevels,
+                        TempStorage tempStorage,
+                        MeterRegistry meterRegistry) {
+        this.tempStorage = tempStorage;
+        this.defaultLevel = OptimizationLevel.parse(defaultLevel);
+        this.templateLevels = Arrays.stream(templateLevels.split(","))
+                .map(String::trim)
+                .filter(entry -> entry.contains("="))
+                .map(entry -> entry.split("=", 2))
+                .collect(Collectors.toMap(pair -> pair[0].trim(), pair -> OptimizationLevel.parse(pair[1]),
+                        (a, b) -> b, LinkedHashMap::new));
+        for (OptimizationLevel level : OptimizationLevel.values()) {
+            if (level == OptimizationLevel.NONE) {
+                continue;
+            }
+            timers.put(level, Timer.builder("render.optimize")
+                    .description("Time spent rewriting rendered PDFs")
+                    .tag("level", level.id())
+                    .register(meterRegistry));
+            savedBytes.put(level, DistributionSummary.builder("render.optimize.saved.bytes")
+                    .description("Bytes removed from rendered PDFs by the optimization stage")
+                    .baseUnit("bytes")
+                    .tag("level", level.id())
+                    .register(meterRegistry));
+        }
+        log.info("PDF optimization: default={}, per template={}", this.defaultLevel.id(), this.templateLevels);
+    }
+
+    public OptimizationLevel levelFor(String templateName) {
+        return templateLevels.getOrDefault(templateName, defaultLevel);
+    }
+
+    /**
+     * Optimize at the level configured for the template
+     *
+     * A spilled document is loaded from its file and the rewrite goes to a buffer that spills the same
+     * way, with PDFBox scratch data bounded by {@link TempStorage#pdfboxStreamCache()}.
+     *
+     * @return The rewritten PDF (the input is released), or the input if the level is {@code none} or
+     *         rewriting did not make it smaller
+     */
+    public RenderedDocument optimize(String templateName, RenderedDocument pdf) throws IOException {
+        OptimizationLevel level = levelFor(templateName);
+        if (level == OptimizationLevel.NONE) {
+            return pdf;
+        }
+
+        OptimizeEvent event = new OptimizeEvent();
+        event.begin();
+        long start = System.nanoTime();
+        long inputBytes = pdf.size();
+        RenderedDocument result = pdf;
+        int duplicates = 0;
+        Path spillFile = pdf.spillFile();
+        try (PDDocument document = spillFile != null
+                ? Loader.loadPDF(spillFile.toFile(), tempStorage.pdfboxStreamCache())
+                : Loader.loadPDF(pdf.toByteArray(), "", null, null, tempStorage.pdfboxStreamCache())) {
+            if (level == OptimizationLevel.DEDUPLICATE) {
+                duplicates = deduplicateStreams(document.getDocument());
+            }
+            if (duplicates > 0 || !document.getDocument().isXRefStream()) {
+                ChunkedOutputStream out = tempStorage.newOutput((int) Math.min(inputBytes, Integer.MAX_VALUE));
+                try {
+                    document.save(out, CompressParameters.DEFAULT_COMPRESSION);
+                } catch (IOException | RuntimeException e) {
+                    out.release();
+                    throw e;
+                }
+                if (out.size() < inputBytes) {
+                    result = new RenderedDocument(out);
+                } else {
+                    out.release();
+                }
+            }
+        }
+        if (result != pdf) {
+            pdf.close();
+        }
+        timers.get(level).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        savedBytes.get(level).record(inputBytes - result.size());
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.templateName = templateName;
+            event.level = level.id();
+            event.duplicateStreams = duplicates;
+            event.inputBytes = inputBytes;
+            event.outputBytes = result.size();
+            event.commit();
+        }
+        return result;
+    }
+
+    /**
+     * Point every reference to a stream with the same dictionary and bytes as an earlier one at that
+     * earlier stream; the copies become unreachable and are not written
+     *
+     * @return Number of duplicate streams dropped
+     */
+    static int deduplicateStreams(COSDocument document) throws IOException {
+        Fingerprints fingerprints = new Fingerprints();
+        Map<String, COSObject> canonical = new HashMap<>();
+        Map<COSObjectKey, COSObject> replacements = new HashMap<>();
+        List<COSObjectKey> keys = new ArrayList<>(document.getXrefTable().keySet());
+        for (COSObjectKey key : keys) {
+            COSObject object = document.getObjectFromPool(key);
+            if (object.getObject() instanceof COSStream stream) {
+                COSObject first = canonical.putIfAbsent(fingerprints.of(stream), object);
+                if (first != null) {
+                    replacements.put(key, first);
+                }
+            }
+        }
+        if (replacements.isEmpty()) {
+            return 0;
+        }
+        for (COSObjectKey key : keys) {
+            if (!replacements.containsKey(key)) {
+                replaceReferences(document.getObjectFromPool(key).getObject(), replacements);
+            }
+        }
+        replaceReferences(document.getTrailer(), replacements);
+        return replacements.size();
+    }
+
+    private static void replaceReferences(COSBase base, Map<COSObjectKey, COSObject> replacements) {
+        if (base instanceof COSDictionary dictionary) {
+            for (Map.Entry<COSName, COSBase> entry : new ArrayList<>(dictionary.entrySet())) {
+                COSBase replacement = replacement(entry.getValue(), replacements);
+                if (replacement != null) {
+                    dictionary.setItem(entry.getKey(), replacement);
+                }
+            }
+        } else if (base instanceof COSArray array) {
+            for (int i = 0; i < array.size(); i++) {
+                COSBase replacement = replacement(array.get(i), replacements);
+                if (replacement != null) {
+                    array.set(i, replacement);
+                }
+            }
+        }
+    }
+
+    /**
+     * Canonical object for a reference to a duplicate; direct containers are updated in place
+     */
+    private static COSBase replacement(COSBase value, Map<COSObjectKey, COSObject> replacements) {
+        if (value instanceof COSObject reference) {
+            return reference.getKey() != null ? replacements.get(reference.getKey()) : null;
+        }
+        if (value instanceof COSDictionary || value instanceof COSArray) {
+            replaceReferences(value, replacements);
+        }
+        return null;
+    }
+
+    /**
+     * Content fingerprints of streams, memoized by object key
+     *
+     * Referenced streams count by their own fingerprint and other referenced objects (DecodeParms,
+     * font descriptors) by their content, so copies that each carry their own copy of a parameter
+     * dictionary still compare equal; references that would loop back count by object number.
+     */
+    private static final class Fingerprints {
+
+        private static final int MAX_DEPTH = 8;
+
+        private final Map<COSStream, String> memo = new IdentityHashMap<>();
+        private final Set<COSBase> visiting = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        String of(COSStream stream) throws IOException {
+            String cached = memo.get(stream);
+            if (cached != null) {
+                return cached;
+            }
+            MessageDigest digest = sha256();
+            StringBuilder dictionary = new StringBuilder();
+            visiting.add(stream);
+            try {
+                describe(stream, dictionary, 0);
+            } finally {
+                visiting.remove(stream);
+            }
+            digest.update(dictionary.toString().getBytes(StandardCharsets.UTF_8));
+            try (InputStream raw = stream.createRawInputStream()) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = raw.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+            String fingerprint = HexFormat.of().formatHex(digest.digest());
+            memo.put(stream, fingerprint);
+            return fingerprint;
+        }
+
+        /**
+         * Dictionary entries sorted by name; Length is left out as the bytes are compared
+         */
+        private void describe(COSBase base, StringBuilder out, int depth) throws IOException {
+            if (base instanceof COSObject reference) {
+                COSBase target = reference.getObject();
+                if (target instanceof COSStream stream && !visiting.contains(stream)) {
+                    out.append("stream:").append(of(stream));
+                } else if ((target instanceof COSDictionary || target instanceof COSArray)
+                        && depth < MAX_DEPTH && visiting.add(target)) {
+                    try {
+                        describe(target, out, depth + 1);
+                    } finally {
+                        visiting.remove(target);
+                    }
+                } else {
+                    out.append(reference.getKey());
+                }
+            } else if (base instanceof COSDictionary dictionary) {
+                List<Map.Entry<COSName, COSBase>> entries = new ArrayList<>(dictionary.entrySet());
+                entries.sort(Map.Entry.comparingByKey(Comparator.comparing(COSName::getName)));
+                out.append("<<");
+                for (Map.Entry<COSName, COSBase> entry : entries) {
+                    if (!COSName.LENGTH.equals(entry.getKey())) {
+                        out.append('/').append(entry.getKey().getName()).append(' ');
+                        describe(entry.getValue(), out, depth);
+                    }
+                }
+                out.append(">>");
+            } else if (base instanceof COSArray array) {
+                out.append('[');
+                for (COSBase element : array) {
+                    describe(element, out, depth);
+                    out.append(' ');
+                }
+                out.append(']');
+            } else {
+                out.append(base);
+            }
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
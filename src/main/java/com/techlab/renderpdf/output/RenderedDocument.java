@@ -0,0 +1,137 @@
+package com.techlab.renderpdf.output;
+
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Rendered PDF owned by the caller: in pooled chunks, or in a spill file once it outgrew them
+ *
+ * The caller either writes it out and closes it, or hands it to the response with
+ * {@link #toResource()}, which releases it when the response body has been written.
+ * {@link #share()} hands the same bytes to another owner; they are released when every owner has closed.
+ * What the render reserved for its output is held with {@link #onRelease} until then.
+ */
+public final class RenderedDocument implements AutoCloseable {
+
+    /**
+     * Owner count and release actions, common to the document and its shares
+     */
+    private static final class Owners {
+        private final AtomicInteger count = new AtomicInteger(1);
+        private final List<Runnable> onRelease = new CopyOnWriteArrayList<>();
+    }
+
+    private final ChunkedOutputStream content;
+    private final Owners owners;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    public RenderedDocument(ChunkedOutputStream content) {
+        this(content, new Owners());
+    }
+
+    private RenderedDocument(ChunkedOutputStream content, Owners owners) {
+        this.content = content;
+        this.owners = owners;
+    }
+
+    public long size() {
+        return content.size();
+    }
+
+    public boolean isSpilled() {
+        return content.isSpilled();
+    }
+
+    public byte[] toByteArray() throws IOException {
+        return content.toByteArray();
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        content.writeTo(out);
+    }
+
+    Path spillFile() throws IOException {
+        return content.spillFile();
+    }
+
+    RandomAccessRead openRandomAccess() {
+        return content.openRandomAccess();
+    }
+
+    /**
+     * Another owner of the same bytes, closed independently of this one; owners may read concurrently
+     *
+     * @throws IllegalStateException If this document is already closed
+     */
+    public RenderedDocument share() throws IOException {
+        if (closed.get()) {
+            throw new IllegalStateException("Rendered document already closed");
+        }
+        // Flush the spill buffer once, so that readers never write to the spill file concurrently
+        content.spillFile();
+        owners.count.incrementAndGet();
+        return new RenderedDocument(content, owners);
+    }
+
+    /**
+     * Run the action once the bytes are released, after the last owner closed; attach it before the document
+     * is handed on
+     */
+    public RenderedDocument onRelease(Runnable action) {
+        owners.onRelease.add(action);
+        return this;
+    }
+
+    /**
+     * Response body streaming the document; closing its stream releases the document
+     */
+    public Resource toResource() {
+        return new AbstractResource() {
+            @Override
+            public String getDescription() {
+                return "Rendered PDF (" + content.size() + " bytes)";
+            }
+
+            @Override
+            public long contentLength() {
+                return content.size();
+            }
+
+            @Override
+            public InputStream getInputStream() throws IOException {
+                return new FilterInputStream(content.openInputStream()) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            RenderedDocument.this.close();
+                        }
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true) && owners.count.decrementAndGet() == 0) {
+            try {
+                content.release();
+            } finally {
+                owners.onRelease.forEach(Runnable::run);
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.techlab.renderpdf.output;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.RandomAccessStreamCache;
+import org.apache.poi.openxml4j.util.ZipInputStreamZipEntrySource;
+import org.apache.poi.util.DefaultTempFileCreationStrategy;
+import org.apache.poi.util.TempFile;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Temp-file backing for documents too large to keep in memory, under {@code pdf.generation.temp-dir}
+ *
+ * Three thresholds bound per-request memory instead of document size:
+ * <ul>
+ *   <li>output: a {@link ChunkedOutputStream} from {@link #newOutput} moves to a spill file once it
+ *       holds more than {@code pdf.generation.spill.output-threshold}</li>
+ *   <li>PDFBox: documents created or loaded with {@link #pdfboxStreamCache()} keep at most
+ *       {@code pdf.generation.spill.pdfbox-max-memory} of scratch data in memory</li>
+ *   <li>POI: zip entries larger than {@code pdf.generation.spill.poi-entry-threshold} are extracted
+ *       to temp files when a DOCX is opened; POI temp files are created here too (process-wide)</li>
+ * </ul>
+ * The filled XWPF DOM itself stays in memory. Spill files left by a previous run are deleted at startup.
+ */
+@Slf4j
+@Component
+public class TempStorage {
+
+    static final String SPILL_PREFIX = "render-";
+
+    private final BufferPool bufferPool;
+    private final Path spillDir;
+    private final long outputThreshold;
+    private final long pdfboxMaxMemory;
+    private final MemoryUsageSetting pdfboxMemory;
+    private final Counter spills;
+
+    public TempStorage(BufferPool bufferPool,
+                       @Value("${pdf.generation.temp-dir:./temp}") String tempDir,
+                       @Value("${pdf.generation.spill.output-threshold:32MB}") DataSize outputThreshold,
+                       @Value("${pdf.generation.spill.pdfbox-max-memory:32MB}") DataSize pdfboxMaxMemory,
+                       @Value("${pdf.generation.spill.poi-entry-threshold:16MB}") DataSize poiEntryThreshold,
+                       MeterRegistry meterRegistry) throws IOException {
+        this.bufferPool = bufferPool;
+        Path root = Path.of(tempDir).toAbsolutePath().normalize();
+        this.spillDir = Files.createDirectories(root.resolve("spill"));
+        Path pdfboxDir = Files.createDirectories(root.resolve("pdfbox"));
+        Path poiDir = Files.createDirectories(root.resolve("poi"));
+        deleteStaleFiles(spillDir);
+        deleteStaleFiles(pdfboxDir);
+
+        this.outputThreshold = outputThreshold.toBytes();
+        this.pdfboxMaxMemory = pdfboxMaxMemory.toBytes();
+        this.pdfboxMemory = MemoryUsageSetting.setupMixed(pdfboxMaxMemory.toBytes()).setTempDir(pdfboxDir.toFile());
+        TempFile.setTempFileCreationStrategy(new DefaultTempFileCreationStrategy(poiDir.toFile()));
+        ZipInputStreamZipEntrySource.setThresholdBytesForTempFiles(
+                (int) Math.min(Integer.MAX_VALUE, poiEntryThreshold.toBytes()));
+        this.spills = Counter.builder("render.output.spills")
+                .description("Rendered outputs moved to a temp file")
+                .register(meterRegistry);
+        log.info("Temp storage {}: output spill > {} MB, PDFBox memory {} MB, POI entries > {} MB",
+                root, outputThreshold.toMegabytes(), pdfboxMaxMemory.toMegabytes(), poiEntryThreshold.toMegabytes());
+    }
+
+    /**
+     * Pooled output buffer that spills to a temp file past the output threshold
+     */
+    public ChunkedOutputStream newOutput(int expectedSize) {
+        return new ChunkedOutputStream(bufferPool, expectedSize, outputThreshold, this::newSpillFile);
+    }
+
+    /**
+     * Output written to a temp file from the first byte, for parts held until they are merged; once
+     * {@linkplain ChunkedOutputStream#finish() finished} it holds no heap
+     */
+    public ChunkedOutputStream newFileOutput() {
+        return new ChunkedOutputStream(bufferPool, 0, 0, this::newSpillFile);
+    }
+
+    public long outputThreshold() {
+        return outputThreshold;
+    }
+
+    public long pdfboxMaxMemory() {
+        return pdfboxMaxMemory;
+    }
+
+    /**
+     * Scratch buffers for a PDFBox document: in memory up to the limit, then in temp files
+     */
+    public RandomAccessStreamCache.StreamCacheCreateFunction pdfboxStreamCache() {
+        return pdfboxMemory.streamCache;
+    }
+
+    private Path newSpillFile() {
+        spills.increment();
+        try {
+            return Files.createTempFile(spillDir, SPILL_PREFIX, ".pdf");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void deleteStaleFiles(Path dir) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                if (Files.isRegularFile(file)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+}
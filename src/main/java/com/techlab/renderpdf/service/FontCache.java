@@ -0,0 +1,109 @@
+package com.techlab.renderpdf.service;
+
+import com.lowagie.text.pdf.BaseFont;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Font cache keyed by (path, encoding, embedding)
+ *
+ * Each key is loaded exactly once through a per-key future: the first caller loads the font,
+ * concurrent callers for the same key wait on that future, and callers for other keys are not
+ * blocked at all (no global lock). Entries are never evicted, because a font may be in use by
+ * another render at any moment and the set of configured fonts is small.
+ * A failed load is removed so the next request can retry.
+ */
+@Slf4j
+@Component
+public class FontCache {
+
+    /**
+     * Cache key: the same file loaded with another encoding or embedding is a different BaseFont
+     */
+    public record FontKey(String path, String encoding, boolean embedded) {
+    }
+
+    /**
+     * Point-in-time cache statistics
+     */
+    public record Stats(int size, long hits, long misses, long loadFailures, double averageLoadMs) {
+    }
+
+    private final ConcurrentMap<FontKey, CompletableFuture<BaseFont>> fonts = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder loadTimeNanos = new LongAdder();
+
+    public FontCache(MeterRegistry meterRegistry) {
+        Gauge.builder("render.font.cache.size", fonts, ConcurrentMap::size)
+                .description("Fonts loaded or loading")
+                .register(meterRegistry);
+        FunctionCounter.builder("render.font.cache.hits", hits, LongAdder::sum).register(meterRegistry);
+        FunctionCounter.builder("render.font.cache.misses", misses, LongAdder::sum).register(meterRegistry);
+        FunctionCounter.builder("render.font.cache.load.failures", loadFailures, LongAdder::sum).register(meterRegistry);
+    }
+
+    /**
+     * Get the font for the key, loading it on the calling thread if nobody has yet
+     *
+     * @throws IOException If the font file cannot be read or parsed
+     */
+    public BaseFont get(String path, String encoding, boolean embedded) throws IOException {
+        FontKey key = new FontKey(path, encoding, embedded);
+        CompletableFuture<BaseFont> future = fonts.get(key);
+        if (future != null) {
+            hits.increment();
+            return await(future);
+        }
+
+        CompletableFuture<BaseFont> created = new CompletableFuture<>();
+        future = fonts.putIfAbsent(key, created);
+        if (future != null) {
+            // Thread khác đang load cùng key -> chờ future đó
+            hits.increment();
+            return await(future);
+        }
+
+        misses.increment();
+        long start = System.nanoTime();
+        try {
+            log.debug("Loading font from disk: {} ({}, embedded={})", path, encoding, embedded);
+            BaseFont font = BaseFont.createFont(path, encoding, embedded);
+            created.complete(font);
+            return font;
+        } catch (Exception e) {
+            loadFailures.increment();
+            fonts.remove(key, created);
+            created.completeExceptionally(e);
+            throw e instanceof IOException io ? io : new IOException("Cannot load font " + path, e);
+        } finally {
+            loadTimeNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    public Stats stats() {
+        long loads = misses.sum();
+        double averageLoadMs = loads == 0 ? 0 : loadTimeNanos.sum() / 1_000_000d / loads;
+        return new Stats(fonts.size(), hits.sum(), loads, loadFailures.sum(), averageLoadMs);
+    }
+
+    private static BaseFont await(CompletableFuture<BaseFont> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw cause instanceof IOException io ? io : new IOException(cause.getMessage(), cause);
+        }
+    }
+}
@@ -1,133 +1,342 @@
 package com.techlab.renderpdf.service;
 
+import com.techlab.renderpdf.cluster.ClusterRouter;
+import com.techlab.renderpdf.engine.RenderEngine;
+import com.techlab.renderpdf.engine.RenderEngineRegistry;
+import com.techlab.renderpdf.engine.SectionRenderer;
+import com.techlab.renderpdf.engine.TableChunkRenderer;
+import com.techlab.renderpdf.form.FormFiller;
+import com.techlab.renderpdf.form.FormTemplate;
+import com.techlab.renderpdf.form.FormTemplateCache;
+import com.techlab.renderpdf.jfr.ConvertEvent;
+import com.techlab.renderpdf.jfr.FillEvent;
+import com.techlab.renderpdf.jfr.MemoryWaitEvent;
+import com.techlab.renderpdf.jfr.TableExpansionEvent;
+import com.techlab.renderpdf.jfr.TemplateLoadEvent;
+import com.techlab.renderpdf.memory.MemoryBudget;
+import com.techlab.renderpdf.memory.MemoryEstimate;
 import com.techlab.renderpdf.model.PdfGenerationRequest;
+import com.techlab.renderpdf.output.ChunkedOutputStream;
+import com.techlab.renderpdf.output.OutputSizeEstimator;
+import com.techlab.renderpdf.output.PdfOptimizer;
+import com.techlab.renderpdf.output.RenderedDocument;
+import com.techlab.renderpdf.output.TempStorage;
+import com.techlab.renderpdf.template.BlockPlan;
+import com.techlab.renderpdf.template.CompiledTemplate;
+import com.techlab.renderpdf.template.CompiledTemplateCache;
+import com.techlab.renderpdf.template.MemoryProfile;
+import com.techlab.renderpdf.template.Placeholder;
+import com.techlab.renderpdf.template.SpacingNormalizer;
+import com.techlab.renderpdf.template.TemplateDocument;
+import com.techlab.renderpdf.template.TemplateStore;
+import com.techlab.renderpdf.template.TemplateType;
+import com.techlab.renderpdf.template.TemplateVersion;
+import com.techlab.renderpdf.template.ValueFormats;
+import com.techlab.renderpdf.template.ValueFormatters;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.poi.xwpf.usermodel.*;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import fr.opensagres.poi.xwpf.converter.core.XWPFConverterException;
-import fr.opensagres.poi.xwpf.converter.pdf.PdfConverter;
-import fr.opensagres.poi.xwpf.converter.pdf.PdfOptions;
-
-import com.lowagie.text.Font;
-import com.lowagie.text.pdf.BaseFont;
 
 import java.io.*;
-import java.math.BigInteger;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTPPr;
-import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTSpacing;
-import org.openxmlformats.schemas.wordprocessingml.x2006.main.STLineSpacingRule;
 
 /**
  * Version 4: Điền thông tin từ request body vào file DOCX, sau đó convert sang
  * PDF bằng PdfConverter
  * 
  * Quy trình:
- * 1. Đọc file DOCX template
- * 2. Điền thông tin từ request body (variables) vào DOCX
- * 3. Sử dụng PdfConverter.getInstance().convert() để convert DOCX sang PDF
+ * 1. Đọc compiled DOCX template (line spacing đã được chuẩn hóa lúc compile)
+ * 2. Áp dụng block plan (${#if}/${#each} đã compile sẵn), rồi điền thông tin từ request body (variables) vào DOCX,
+ *    giá trị có format specifier (${amount:currency:vi_VN}) dùng formatter đã bind lúc compile
+ * 3. Convert DOCX sang PDF bằng RenderEngine của template (xdocreport PdfConverter hoặc PDFBox trực tiếp);
+ *    document lớn được tách tại section break / page break, các phần render song song rồi ghép bằng PDFBox
+ * 4. (Tùy chọn) Viết lại PDF bằng PdfOptimizer theo level cấu hình cho template
+ *
+ * Form template (type=form): layout đã làm 1 lần lúc upload thành PDF có AcroForm field,
+ * mỗi request chỉ điền field và flatten
+ *
+ * Output trả về là RenderedDocument: nằm trong chunks của pool, hoặc trong file tạm (temp-dir)
+ * khi vượt ngưỡng spill; caller phải close (hoặc trả qua toResource()) để giải phóng
  */
 @Slf4j
 @Service
+@RequiredArgsConstructor
 public class PdfGenerationService {
 
-    @Value("${pdf.generation.template-dir:./templates}")
-    private String templateDir;
+    private final ClusterRouter clusterRouter;
+
+    private final TemplateStore templateStore;
+
+    private final CompiledTemplateCache compiledTemplateCache;
+
+    private final SpacingNormalizer spacingNormalizer;
+
+    private final RenderEngineRegistry renderEngineRegistry;
+
+    private final SectionRenderer sectionRenderer;
+
+    private final TableChunkRenderer tableChunkRenderer;
+
+    private final FormTemplateCache formTemplateCache;
+
+    private final FormFiller formFiller;
+
+    private final PdfOptimizer pdfOptimizer;
+
+    private final TempStorage tempStorage;
+
+    private final OutputSizeEstimator outputSizeEstimator;
+
+    private final MemoryBudget memoryBudget;
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([^}]+)}");
+
+    private static final Pattern TABLE_PLACEHOLDER = Pattern.compile("\\$\\{([^.]+)\\.([^}]+)\\}");
+
+    /**
+     * Template đã load cho một request: DOCX bytes (kèm memory profile, block plan, formats), hoặc form PDF nếu là form template
+     * blocks = null: bytes lấy từ node khác (cluster fetch), plan compile từ document đã parse
+     * version, cacheHit: chỉ để ghi JFR event
+     */
+    private record LoadedTemplate(byte[] docxBytes, MemoryProfile memory, BlockPlan blocks, ValueFormats formats,
+                                  FormTemplate form, String version, boolean cacheHit) {
+
+        int sizeBytes() {
+            return form != null ? form.pdf().length : docxBytes.length;
+        }
+    }
 
-    @Value("${pdf.generation.font-path:./fonts/times.ttf}")
-    private String fontPath;
+    /**
+     * Bảng động: hàng template tại templateRowIndex được duplicate cho mỗi phần tử của rows
+     */
+    private record DynamicTable(XWPFTable table, String name, List<Map<String, Object>> rows, int templateRowIndex) {
+    }
 
-    private static final double DEFAULT_LINE_SPACING = 1.5d;
-    
-    // Font cache để tránh reload font mỗi request
-    private static final Map<String, BaseFont> fontCache = new ConcurrentHashMap<>();
-    private static final Object fontCacheLock = new Object();
-    
-    // Template byte cache - cache template file bytes
-    private static final Map<String, byte[]> templateBytesCache = new ConcurrentHashMap<>();
-    private static final Map<String, Long> templateFileModifiedCache = new ConcurrentHashMap<>();
+    /**
+     * Render đã load template và giữ memory reservation, chờ render worker
+     * Tạo bởi {@link #prepare} trên request thread, chạy bằng {@link #render}; close() trả reservation
+     * nếu render không chạy (hết deadline khi chờ worker, queue đầy...)
+     */
+    public static final class PreparedRender implements AutoCloseable {
+        private final PdfGenerationRequest request;
+        private final LoadedTemplate template;
+        private final MemoryBudget.Reservation reservation;
+        private final AtomicBoolean taken = new AtomicBoolean();
+
+        private PreparedRender(PdfGenerationRequest request, LoadedTemplate template,
+                               MemoryBudget.Reservation reservation) {
+            this.request = request;
+            this.template = template;
+            this.reservation = reservation;
+        }
+
+        /**
+         * Chuyển reservation cho render; false nếu đã close
+         */
+        private boolean take() {
+            return taken.compareAndSet(false, true);
+        }
+
+        @Override
+        public void close() {
+            if (take()) {
+                reservation.close();
+            }
+        }
+    }
 
     /**
      * Generate PDF from DOCX template
      * Điền thông tin từ request vào DOCX, sau đó convert sang PDF
-     * Tối ưu: Cache template bytes để tránh đọc từ disk mỗi request
+     * Tối ưu: Template được resolve sang version (content hash) và lấy compiled form từ cache
+     *
+     * @return PDF đã render, caller sở hữu và phải close
      */
-    public byte[] generatePdfFromDocxTemplate(PdfGenerationRequest request) throws IOException, XWPFConverterException {
-        String templatePath = Paths.get(templateDir, request.getTemplateName() + ".docx").toString();
-        File templateFile = new File(templatePath);
+    public RenderedDocument generatePdfFromDocxTemplate(PdfGenerationRequest request) throws IOException, XWPFConverterException {
+        try (PreparedRender prepared = prepare(request, RenderDeadline.current())) {
+            return render(prepared);
+        }
+    }
 
-        log.debug("Đang xử lý DOCX template: {}", templatePath);
+    /**
+     * Bước trước render, chạy trên request thread (virtual): load template và chờ memory budget
+     * Chờ memory (tối đa wait-timeout-ms) không chiếm render worker (platform thread, số lượng = số core)
+     *
+     * @param deadline Deadline của render, chờ memory không quá deadline
+     * @return Render chờ worker, caller phải close (không giữ gì nữa nếu {@link #render} đã chạy)
+     */
+    public PreparedRender prepare(PdfGenerationRequest request, RenderDeadline deadline) throws IOException {
+        log.debug("Đang xử lý DOCX template: {}", request.getTemplateName());
 
         // 1. Đọc DOCX template với caching
-        XWPFDocument docxDocument = loadTemplateWithCache(templateFile, request.getTemplateName());
+        // JFR events: chỉ set field khi shouldCommit() để chi phí gần như bằng 0 khi recording tắt
+        TemplateLoadEvent loadEvent = new TemplateLoadEvent();
+        loadEvent.begin();
+        LoadedTemplate template = loadTemplate(request.getTemplateName());
+        loadEvent.end();
+        if (loadEvent.shouldCommit()) {
+            loadEvent.templateName = request.getTemplateName();
+            loadEvent.templateVersion = template.version();
+            loadEvent.cacheHit = template.cacheHit();
+            loadEvent.templateBytes = template.sizeBytes();
+            loadEvent.commit();
+        }
+
+        // Memory budget: chờ đến khi heap ước lượng của render (payload, DOM, rows, output buffer)
+        // vừa với budget chung rồi mới parse template, thay vì để nhiều job lớn cùng lúc gây OOM
+        MemoryEstimate estimate = estimateMemory(request, template);
+        MemoryWaitEvent waitEvent = new MemoryWaitEvent();
+        waitEvent.begin();
+        MemoryBudget.Reservation reservation = memoryBudget.reserve(request.getTemplateName(), estimate, deadline);
+        waitEvent.end();
+        if (waitEvent.shouldCommit()) {
+            waitEvent.templateName = request.getTemplateName();
+            waitEvent.estimatedBytes = estimate.totalBytes();
+            waitEvent.budgetBytes = memoryBudget.budgetBytes();
+            waitEvent.commit();
+        }
+        return new PreparedRender(request, template, reservation);
+    }
 
+    /**
+     * Render trên render worker với reservation của {@link #prepare}; reservation được giữ đến khi PDF trả về
+     * được release
+     *
+     * @return PDF đã render, caller sở hữu và phải close
+     * @throws IllegalStateException Nếu prepared đã close (caller đã bỏ render)
+     */
+    public RenderedDocument render(PreparedRender prepared) throws IOException, XWPFConverterException {
+        if (!prepared.take()) {
+            throw new IllegalStateException("Render of " + prepared.request.getTemplateName() + " already abandoned");
+        }
+        PdfGenerationRequest request = prepared.request;
+        LoadedTemplate template = prepared.template;
+        MemoryBudget.Reservation reservation = prepared.reservation;
         try {
-            // 2. Điền thông tin từ request body vào DOCX
+            // Checkpoint: chờ memory / worker có thể lâu, quá deadline thì không parse/điền nữa
+            RenderDeadline.check("fill");
+            RenderedDocument pdf;
+            if (template.form() != null) {
+                RenderedDocument filled = fillFormTemplate(request, template.form());
+                try {
+                    RenderDeadline.check("optimize");
+                    pdf = pdfOptimizer.optimize(request.getTemplateName(), filled);
+                } catch (IOException | RuntimeException e) {
+                    filled.close();
+                    throw e;
+                }
+            } else {
+                pdf = renderDocx(request, template.docxBytes(), template.blocks(), template.formats());
+            }
+            // Render xong: DOM đã bỏ, chỉ giữ phần reservation của output trong heap (file tạm thì 0)
+            // đến khi document được release (response stream xong, mọi request coalesce đã close)
+            reservation.shrinkTo(pdf.isSpilled() ? 0 : pdf.size());
+            return pdf.onRelease(reservation::close);
+        } catch (IOException | RuntimeException | Error e) {
+            reservation.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Parse, điền biến và convert DOCX template sang PDF (sau khi đã có memory reservation)
+     */
+    private RenderedDocument renderDocx(PdfGenerationRequest request, byte[] templateBytes, BlockPlan blocks,
+                                        ValueFormats formats) throws IOException, XWPFConverterException {
+        // 2. Parse template và điền thông tin từ request body vào DOCX
+        FillEvent fillEvent = new FillEvent();
+        fillEvent.begin();
+        TemplateDocument docxDocument = new TemplateDocument(new ByteArrayInputStream(templateBytes));
+
+        try {
+            // Section điều kiện / lặp: chỉ giữ, copy hoặc bỏ body elements theo plan, không quét lại text
+            BlockPlan plan = blocks != null ? blocks : BlockPlan.compile(docxDocument);
+            plan.apply(docxDocument, request.getVariables());
+
+            int expandedRows = 0;
+            DynamicTable chunkedTable = null;
             if (request.getVariables() != null && !request.getVariables().isEmpty()) {
+                // Bảng rất lớn: không expand ở đây, render theo từng chunk hàng ở bước convert
+                chunkedTable = findChunkedTable(docxDocument, request.getVariables());
                 log.debug("Đang điền {} biến vào DOCX", request.getVariables().size());
-                fillVariablesIntoDocx(docxDocument, request.getVariables());
+                expandedRows = fillVariablesIntoDocx(docxDocument, request.getVariables(), request.getTemplateName(), formats,
+                        chunkedTable != null ? chunkedTable.table() : null);
+            }
+            fillEvent.end();
+            if (fillEvent.shouldCommit()) {
+                fillEvent.templateName = request.getTemplateName();
+                fillEvent.variableCount = request.getVariables() != null ? request.getVariables().size() : 0;
+                fillEvent.tableCount = docxDocument.getTables().size();
+                fillEvent.rowCount = expandedRows + (chunkedTable != null ? chunkedTable.rows().size() : 0);
+                fillEvent.commit();
             }
 
-            normalizeLineSpacing(docxDocument);
-
-            log.debug("Đã điền xong thông tin, đang convert sang PDF bằng PdfConverter");
+            // 3. Convert DOCX sang PDF bằng render engine cấu hình cho template
+            RenderDeadline.check("convert");
+            RenderEngine engine = renderEngineRegistry.select(request.getTemplateName(), docxDocument);
+            log.debug("Đã điền xong thông tin, đang convert sang PDF bằng engine {}", engine.name());
 
-            // 3. Convert DOCX sang PDF bằng PdfConverter
-            // Tối ưu: Dùng initial size ước lượng để giảm memory reallocation
-            int estimatedSize = (int) (templateFile.length() * 1.2); // Estimate PDF ~20% larger than DOCX
-            ByteArrayOutputStream pdfOutputStream = new ByteArrayOutputStream(Math.max(estimatedSize, 8192));
+            // Tối ưu: Output ghi vào chunks lấy từ pool (không copy khi grow), chunk đầu theo size
+            // ước lượng từ các output trước của template (lần đầu: ~20% lớn hơn DOCX);
+            // vượt pdf.generation.spill.output-threshold thì chuyển sang file tạm
+            int estimatedSize = outputSizeEstimator.estimate(request.getTemplateName(), (int) (templateBytes.length * 1.2));
+            ChunkedOutputStream pdfOutputStream = tempStorage.newOutput(estimatedSize);
 
             try {
-                PdfOptions options = PdfOptions.create();
-                options.fontEncoding("UTF-8");
-
-                // Cấu hình font với caching để tránh reload font mỗi request
-                if (fontPath != null && !fontPath.trim().isEmpty()) {
-                    options.fontProvider((familyName, encoding, size, style, color) -> {
-                        try {
-                            BaseFont baseFont = getCachedFont(fontPath);
-                            return new Font(baseFont, size, style, color);
-                        } catch (Exception e) {
-                            log.warn("Lỗi khi load font, sử dụng font mặc định: {}", e.getMessage());
-                            return new Font(Font.HELVETICA, size, style, color);
-                        }
-                    });
-                }
-
                 // Convert DOCX to PDF
-                PdfConverter.getInstance().convert(docxDocument, pdfOutputStream, options);
-
-                byte[] pdfBytes = pdfOutputStream.toByteArray();
-                log.debug("Đã tạo PDF thành công: {} bytes", pdfBytes.length);
+                // Document lớn có section break / page break: tách thành nhiều phần render song song rồi ghép
+                // Bảng chunked: mỗi lần chỉ expand + render một chunk hàng, PDF các chunk ghép theo thứ tự
+                ConvertEvent convertEvent = new ConvertEvent();
+                convertEvent.begin();
+                int parts;
+                if (chunkedTable != null) {
+                    DynamicTable dynamic = chunkedTable;
+                    parts = tableChunkRenderer.render(engine, docxDocument, dynamic.table(), dynamic.templateRowIndex(),
+                            dynamic.rows(), (table, rows) -> expandTable(new DynamicTable(table, dynamic.name(), rows,
+                                    dynamic.templateRowIndex()), request.getVariables(), request.getTemplateName(), formats),
+                            pdfOutputStream);
+                } else {
+                    parts = sectionRenderer.render(engine, docxDocument, pdfOutputStream);
+                }
+                convertEvent.end();
+                outputSizeEstimator.record(request.getTemplateName(), pdfOutputStream.size());
+
+                RenderedDocument pdf = new RenderedDocument(pdfOutputStream);
+                log.debug("Đã tạo PDF thành công: {} bytes{}", pdf.size(), pdf.isSpilled() ? " (file tạm)" : "");
+                if (convertEvent.shouldCommit()) {
+                    convertEvent.templateName = request.getTemplateName();
+                    convertEvent.engine = engine.name();
+                    convertEvent.parts = parts;
+                    convertEvent.templateBytes = templateBytes.length;
+                    convertEvent.outputBytes = pdf.size();
+                    convertEvent.commit();
+                }
                 
-                // Tối ưu: Trả về array trước khi close streams
-                return pdfBytes;
+                // 4. Output optimization (object streams, dedup resources) nếu bật cho template
+                // Tối ưu: Không copy ra byte[], ownership chuyển cho caller
+                RenderDeadline.check("optimize");
+                return pdfOptimizer.optimize(request.getTemplateName(), pdf);
                 
-            } finally {
-                // Cleanup output stream
-                try {
-                    pdfOutputStream.close();
-                } catch (IOException e) {
-                    log.debug("Error closing output stream: {}", e.getMessage());
-                }
+            } catch (IOException | RuntimeException e) {
+                // Lỗi: trả chunks về pool, xóa file tạm
+                pdfOutputStream.release();
+                throw e;
             }
 
         } finally {
             // Đóng document - QUAN TRỌNG: giải phóng memory
-            if (docxDocument != null) {
-                try {
-                    docxDocument.close();
-                } catch (IOException e) {
-                    log.debug("Error closing document: {}", e.getMessage());
-                }
+            try {
+                docxDocument.close();
+            } catch (IOException e) {
+                log.debug("Error closing document: {}", e.getMessage());
             }
         }
     }
@@ -136,48 +345,94 @@ public class PdfGenerationService {
      * Điền biến vào DOCX document
      * Tìm và thay thế các placeholder ${variableName} và ${tableName.field} bằng
      * giá trị từ request
+     *
+     * @param chunkedTable Bảng render theo chunk (null nếu không có): chỉ điền biến đơn giản, không duplicate rows
+     * @return Tổng số hàng được tạo ra khi duplicate bảng
      */
-    private void fillVariablesIntoDocx(XWPFDocument document, Map<String, Object> variables) {
+    private int fillVariablesIntoDocx(XWPFDocument document, Map<String, Object> variables, String templateName,
+                                      ValueFormats formats, XWPFTable chunkedTable) {
         // Xử lý bảng trước (có thể cần duplicate rows)
+        int expandedRows = 0;
         for (XWPFTable table : document.getTables()) {
-            processTable(table, variables);
+            if (table == chunkedTable) {
+                replaceSimpleVariablesInTable(table, variables, formats);
+            } else {
+                expandedRows += processTable(table, variables, templateName, formats);
+            }
         }
 
         // Điền biến đơn giản trong paragraphs
         for (XWPFParagraph paragraph : document.getParagraphs()) {
-            replaceVariablesInParagraph(paragraph, variables);
+            replaceVariablesInParagraph(paragraph, variables, formats);
         }
 
         // Điền biến trong headers
         if (document.getHeaderFooterPolicy() != null) {
             if (document.getHeaderFooterPolicy().getDefaultHeader() != null) {
                 for (XWPFParagraph paragraph : document.getHeaderFooterPolicy().getDefaultHeader().getParagraphs()) {
-                    replaceVariablesInParagraph(paragraph, variables);
+                    replaceVariablesInParagraph(paragraph, variables, formats);
                 }
             }
 
             // Điền biến trong footers
             if (document.getHeaderFooterPolicy().getDefaultFooter() != null) {
                 for (XWPFParagraph paragraph : document.getHeaderFooterPolicy().getDefaultFooter().getParagraphs()) {
-                    replaceVariablesInParagraph(paragraph, variables);
+                    replaceVariablesInParagraph(paragraph, variables, formats);
                 }
             }
         }
+        return expandedRows;
+    }
+
+    /**
+     * Bảng động đầu tiên đủ lớn để render theo chunk hàng, null nếu không có
+     * Header/footer có tổng số trang (NUMPAGES) thì không chunk: chunk chưa biết số trang của cả document
+     */
+    private DynamicTable findChunkedTable(XWPFDocument document, Map<String, Object> variables) {
+        for (XWPFTable table : document.getTables()) {
+            DynamicTable dynamic = findDynamicTable(table, variables);
+            if (dynamic != null && tableChunkRenderer.chunks(dynamic.rows().size())) {
+                if (!tableChunkRenderer.chunks(document, dynamic.rows().size())) {
+                    log.info("Bảng '{}' có {} hàng nhưng header/footer có tổng số trang, không render theo chunk",
+                            dynamic.name(), dynamic.rows().size());
+                    return null;
+                }
+                return dynamic;
+            }
+        }
+        return null;
     }
 
     /**
      * Xử lý bảng: tìm hàng template có chứa ${tableName.field} và duplicate theo dữ
      * liệu
+     *
+     * @return Số hàng đã được tạo (0 nếu bảng không có dữ liệu động)
      */
-    private void processTable(XWPFTable table, Map<String, Object> variables) {
-        if (table.getRows().isEmpty() || variables == null) {
-            return;
+    private int processTable(XWPFTable table, Map<String, Object> variables, String templateName,
+                             ValueFormats formats) {
+        DynamicTable dynamic = findDynamicTable(table, variables);
+
+        // Nếu tìm thấy bảng động, duplicate rows
+        if (dynamic != null) {
+            expandTable(dynamic, variables, templateName, formats);
+            return dynamic.rows().size();
+        } else {
+            // Chỉ thay thế biến đơn giản trong bảng
+            replaceSimpleVariablesInTable(table, variables, formats);
+            return 0;
         }
+    }
 
-        // Tìm hàng template chứa placeholder dạng ${tableName.field}
-        String tableName = null;
-        List<Map<String, Object>> tableData = null;
-        int templateRowIndex = -1;
+    /**
+     * Tìm hàng template có chứa ${tableName.field} mà tableName là list dữ liệu trong variables
+     *
+     * @return Bảng động, null nếu bảng không có dữ liệu động
+     */
+    private DynamicTable findDynamicTable(XWPFTable table, Map<String, Object> variables) {
+        if (table.getRows().isEmpty() || variables == null) {
+            return null;
+        }
 
         // Kiểm tra từ hàng 1 trở đi (hàng 0 thường là header)
         int startRow = table.getRows().size() > 1 ? 1 : 0;
@@ -187,8 +442,7 @@ public class PdfGenerationService {
             String rowText = getTableRowText(row);
 
             // Tìm pattern ${tableName.field}
-            Pattern pattern = Pattern.compile("\\$\\{([^.]+)\\.([^}]+)\\}");
-            Matcher matcher = pattern.matcher(rowText);
+            Matcher matcher = TABLE_PLACEHOLDER.matcher(rowText);
 
             Set<String> foundTableNames = new HashSet<>();
             while (matcher.find()) {
@@ -202,27 +456,32 @@ public class PdfGenerationService {
                     @SuppressWarnings("unchecked")
                     List<Map<String, Object>> rows = (List<Map<String, Object>>) value;
                     if (!rows.isEmpty() && rows.get(0) instanceof Map) {
-                        tableName = name;
-                        tableData = rows;
-                        templateRowIndex = rowIndex;
                         log.info("Tìm thấy bảng '{}' với {} hàng dữ liệu tại hàng template index {}",
                                 name, rows.size(), rowIndex);
-                        break;
+                        return new DynamicTable(table, name, rows, rowIndex);
                     }
                 }
             }
-
-            if (tableName != null) {
-                break;
-            }
         }
+        return null;
+    }
 
-        // Nếu tìm thấy bảng động, duplicate rows
-        if (tableName != null && tableData != null && templateRowIndex >= 0) {
-            duplicateTableRows(table, tableName, tableData, variables, templateRowIndex);
-        } else {
-            // Chỉ thay thế biến đơn giản trong bảng
-            replaceSimpleVariablesInTable(table, variables);
+    /**
+     * Duplicate hàng template của bảng động (cả bảng, hoặc một chunk hàng của bảng chunked)
+     */
+    private void expandTable(DynamicTable dynamic, Map<String, Object> variables, String templateName,
+                             ValueFormats formats) {
+        RenderDeadline.check("table expansion");
+        TableExpansionEvent expansionEvent = new TableExpansionEvent();
+        expansionEvent.begin();
+        duplicateTableRows(dynamic.table(), dynamic.name(), dynamic.rows(), variables, dynamic.templateRowIndex(), formats);
+        expansionEvent.end();
+        if (expansionEvent.shouldCommit()) {
+            expansionEvent.templateName = templateName;
+            expansionEvent.tableName = dynamic.name();
+            expansionEvent.rowCount = dynamic.rows().size();
+            expansionEvent.cellCount = dynamic.table().getRows().isEmpty() ? 0 : dynamic.table().getRow(0).getTableCells().size();
+            expansionEvent.commit();
         }
     }
 
@@ -232,7 +491,8 @@ public class PdfGenerationService {
     private void duplicateTableRows(XWPFTable table, String tableName,
             List<Map<String, Object>> tableData,
             Map<String, Object> variables,
-            int templateRowIndex) {
+            int templateRowIndex,
+            ValueFormats formats) {
         if (table.getRows().isEmpty() || tableData.isEmpty() || templateRowIndex < 0) {
             return;
         }
@@ -248,22 +508,14 @@ public class PdfGenerationService {
             XWPFTableCell cell = templateRow.getCell(i);
             String cellText = cell.getText();
             
-            // Lưu formatting từ paragraph đầu tiên (nếu có) - lưu giá trị, không phải reference
+            // Lưu paragraph properties từ paragraph đầu tiên (nếu có) - bản copy, không phải reference
+            // pPr trong compiled template đã có spacing chuẩn hóa sẵn nên hàng mới chỉ cần copy
             CellTemplateInfo cellInfo = new CellTemplateInfo(cellText != null ? cellText : "");
             
             if (cell.getParagraphs() != null && !cell.getParagraphs().isEmpty()) {
-                XWPFParagraph sourcePara = cell.getParagraphs().get(0);
-                // Lưu các giá trị formatting
-                try {
-                    cellInfo.alignment = sourcePara.getAlignment();
-                    cellInfo.spacingBefore = sourcePara.getSpacingBefore();
-                    cellInfo.spacingAfter = sourcePara.getSpacingAfter();
-                    cellInfo.lineSpacing = resolveParagraphLineSpacing(sourcePara);
-                    cellInfo.indentationLeft = sourcePara.getIndentationLeft();
-                    cellInfo.indentationRight = sourcePara.getIndentationRight();
-                    cellInfo.indentationFirstLine = sourcePara.getIndentationFirstLine();
-                } catch (Exception e) {
-                    log.warn("Không thể lưu formatting từ template cell {}: {}", i, e.getMessage());
+                CTPPr sourcePPr = cell.getParagraphs().get(0).getCTP().getPPr();
+                if (sourcePPr != null) {
+                    cellInfo.paragraphProperties = (CTPPr) sourcePPr.copy();
                 }
             }
             
@@ -286,6 +538,10 @@ public class PdfGenerationService {
         int insertPosition = hasHeader ? 1 : 0;
 
         for (int i = 0; i < tableData.size(); i++) {
+            if (i > 0 && i % 1000 == 0) {
+                // Bảng lớn: checkpoint mỗi 1000 hàng
+                RenderDeadline.check("table expansion");
+            }
             XWPFTableRow newRow;
 
             try {
@@ -318,32 +574,9 @@ public class PdfGenerationService {
                     // Tạo paragraph mới
                     XWPFParagraph newPara = cell.addParagraph();
                     
-                    // Apply formatting đã lưu
-                    try {
-                        if (cellInfo.alignment != null) {
-                            newPara.setAlignment(cellInfo.alignment);
-                        }
-                        if (cellInfo.spacingBefore > 0) {
-                            newPara.setSpacingBefore(cellInfo.spacingBefore);
-                        }
-                        if (cellInfo.spacingAfter > 0) {
-                            newPara.setSpacingAfter(cellInfo.spacingAfter);
-                        }
-                        if (cellInfo.lineSpacing > 0) {
-                            newPara.setSpacingBetween(cellInfo.lineSpacing, LineSpacingRule.AUTO);
-                        }
-                        if (cellInfo.indentationLeft > 0) {
-                            newPara.setIndentationLeft(cellInfo.indentationLeft);
-                        }
-                        if (cellInfo.indentationRight > 0) {
-                            newPara.setIndentationRight(cellInfo.indentationRight);
-                        }
-                        if (cellInfo.indentationFirstLine > 0) {
-                            newPara.setIndentationFirstLine(cellInfo.indentationFirstLine);
-                        }
-                        applyLineSpacingToParagraph(newPara, cellInfo.lineSpacing);
-                    } catch (Exception e) {
-                        log.warn("Không thể apply formatting cho cell {}: {}", j, e.getMessage());
+                    // Apply paragraph properties đã lưu (alignment, indentation, spacing đã chuẩn hóa)
+                    if (cellInfo.paragraphProperties != null) {
+                        newPara.getCTP().setPPr(cellInfo.paragraphProperties);
                     }
                     
                     // Copy text từ template
@@ -356,7 +589,7 @@ public class PdfGenerationService {
 
             // Điền dữ liệu vào hàng mới
             Map<String, Object> rowData = tableData.get(i);
-            fillTableRowData(newRow, tableName, rowData, variables);
+            fillTableRowData(newRow, tableName, rowData, variables, formats);
         }
 
         log.info("Đã duplicate {} hàng cho bảng '{}'", tableData.size(), tableName);
@@ -367,7 +600,8 @@ public class PdfGenerationService {
      */
     private void fillTableRowData(XWPFTableRow row, String tableName,
             Map<String, Object> rowData,
-            Map<String, Object> variables) {
+            Map<String, Object> variables,
+            ValueFormats formats) {
         for (int cellIndex = 0; cellIndex < row.getTableCells().size(); cellIndex++) {
             XWPFTableCell cell = row.getTableCells().get(cellIndex);
 
@@ -378,17 +612,18 @@ public class PdfGenerationService {
             }
 
             // Thay thế ${tableName.field} bằng giá trị từ rowData
-            String processedText = replaceTableVariables(cellText, tableName, rowData);
+            String processedText = replaceTableVariables(cellText, tableName, rowData, formats);
 
             // Thay thế các biến đơn giản khác
-            processedText = replaceSimpleVariables(processedText, variables);
+            processedText = replaceSimpleVariables(processedText, variables, formats);
 
             // Cập nhật cell nếu có thay đổi
             if (!processedText.equals(cellText)) {
-                // Preserve formatting từ paragraph hiện tại (nếu có)
-                XWPFParagraph existingPara = null;
-                if (cell.getParagraphs() != null && !cell.getParagraphs().isEmpty()) {
-                    existingPara = cell.getParagraphs().get(0);
+                // Preserve paragraph properties từ paragraph hiện tại (nếu có) - copy trước khi xóa
+                CTPPr existingPPr = null;
+                if (cell.getParagraphs() != null && !cell.getParagraphs().isEmpty()
+                        && cell.getParagraphs().get(0).getCTP().getPPr() != null) {
+                    existingPPr = (CTPPr) cell.getParagraphs().get(0).getCTP().getPPr().copy();
                 }
 
                 // Xóa paragraphs cũ
@@ -399,9 +634,9 @@ public class PdfGenerationService {
                 // Thêm paragraph mới với text đã xử lý
                 XWPFParagraph para = cell.addParagraph();
                 
-                // Copy formatting từ paragraph cũ nếu có
-                if (existingPara != null) {
-                    copyParagraphFormatting(existingPara, para);
+                // Copy paragraph properties từ paragraph cũ nếu có
+                if (existingPPr != null) {
+                    para.getCTP().setPPr(existingPPr);
                 }
                 
                 XWPFRun run = para.createRun();
@@ -411,31 +646,44 @@ public class PdfGenerationService {
     }
 
     /**
-     * Thay thế biến bảng ${tableName.field} trong text
+     * Thay thế biến bảng ${tableName.field} (có thể kèm format ${tableName.field:spec}) trong text
+     * Tối ưu: 1 lần quét với pattern tĩnh, ghi vào StringBuilder thay vì compile pattern + String.replace mỗi cell
      */
-    private String replaceTableVariables(String text, String tableName, Map<String, Object> rowData) {
-        if (text == null || tableName == null || rowData == null) {
+    private String replaceTableVariables(String text, String tableName, Map<String, Object> rowData,
+                                         ValueFormats formats) {
+        if (text == null || tableName == null || rowData == null || !text.contains("${")) {
             return text;
         }
 
-        String result = text;
-        Pattern pattern = Pattern.compile("\\$\\{" + Pattern.quote(tableName) + "\\.([^}]+)\\}");
-        Matcher matcher = pattern.matcher(text);
-
+        StringBuilder result = null;
+        int last = 0;
+        Matcher matcher = PLACEHOLDER.matcher(text);
         while (matcher.find()) {
-            String field = matcher.group(1);
-            String placeholder = "${" + tableName + "." + field + "}";
-            Object value = rowData.get(field);
-            result = result.replace(placeholder, value != null ? value.toString() : "");
+            String body = matcher.group(1);
+            if (!body.startsWith(tableName) || body.length() <= tableName.length() + 1
+                    || body.charAt(tableName.length()) != '.') {
+                continue;
+            }
+            String replacement;
+            if (body.indexOf(':') < 0) {
+                replacement = ValueFormatters.PLAIN.format(rowData.get(body.substring(tableName.length() + 1)));
+            } else {
+                Placeholder placeholder = formats.get(body);
+                replacement = placeholder.format(rowData.get(placeholder.field()));
+            }
+            if (result == null) {
+                result = new StringBuilder(text.length() + 16);
+            }
+            result.append(text, last, matcher.start()).append(replacement);
+            last = matcher.end();
         }
-
-        return result;
+        return result == null ? text : result.append(text, last, text.length()).toString();
     }
 
     /**
      * Thay thế biến đơn giản ${variableName} trong text
      */
-    private String replaceSimpleVariables(String text, Map<String, Object> variables) {
+    private String replaceSimpleVariables(String text, Map<String, Object> variables, ValueFormats formats) {
         if (text == null || variables == null) {
             return text;
         }
@@ -459,8 +707,15 @@ public class PdfGenerationService {
 
             String placeholder = "${" + key + "}";
             if (result.contains(placeholder)) {
-                String replacement = value != null ? value.toString() : "";
-                result = result.replace(placeholder, replacement);
+                result = result.replace(placeholder, ValueFormatters.PLAIN.format(value));
+            }
+        }
+
+        // Biến có format specifier: placeholder + formatter đã parse lúc compile template
+        for (Placeholder placeholder : formats.simple()) {
+            if (variables.containsKey(placeholder.name()) && !(variables.get(placeholder.name()) instanceof List)
+                    && result.contains(placeholder.text())) {
+                result = result.replace(placeholder.text(), placeholder.format(variables.get(placeholder.name())));
             }
         }
 
@@ -484,11 +739,11 @@ public class PdfGenerationService {
     /**
      * Thay thế biến đơn giản trong bảng (không duplicate)
      */
-    private void replaceSimpleVariablesInTable(XWPFTable table, Map<String, Object> variables) {
+    private void replaceSimpleVariablesInTable(XWPFTable table, Map<String, Object> variables, ValueFormats formats) {
         for (XWPFTableRow row : table.getRows()) {
             for (XWPFTableCell cell : row.getTableCells()) {
                 for (XWPFParagraph paragraph : cell.getParagraphs()) {
-                    replaceVariablesInParagraph(paragraph, variables);
+                    replaceVariablesInParagraph(paragraph, variables, formats);
                 }
             }
         }
@@ -497,28 +752,21 @@ public class PdfGenerationService {
     /**
      * Thay thế biến trong một paragraph
      * Tìm các placeholder ${variableName} và thay thế bằng giá trị tương ứng
-     * Preserve formatting của paragraph (line spacing, spacing before/after)
+     * Paragraph properties (line spacing, spacing before/after) đã được chuẩn hóa lúc compile template
      */
-    private void replaceVariablesInParagraph(XWPFParagraph paragraph, Map<String, Object> variables) {
+    private void replaceVariablesInParagraph(XWPFParagraph paragraph, Map<String, Object> variables,
+                                             ValueFormats formats) {
         String paragraphText = paragraph.getText();
         if (paragraphText == null || paragraphText.trim().isEmpty()) {
             return;
         }
 
         // Thay thế biến đơn giản
-        String processedText = replaceSimpleVariables(paragraphText, variables);
+        String processedText = replaceSimpleVariables(paragraphText, variables, formats);
 
         // Nếu có thay đổi, cập nhật lại paragraph
+        // Chỉ thay runs: paragraph properties (spacing đã chuẩn hóa lúc compile) giữ nguyên
         if (!processedText.equals(paragraphText)) {
-            // Preserve formatting trước khi thay đổi
-            ParagraphAlignment alignment = paragraph.getAlignment();
-            int spacingBefore = paragraph.getSpacingBefore();
-            int spacingAfter = paragraph.getSpacingAfter();
-            double lineSpacing = resolveParagraphLineSpacing(paragraph);
-            int indentationLeft = paragraph.getIndentationLeft();
-            int indentationRight = paragraph.getIndentationRight();
-            int indentationFirstLine = paragraph.getIndentationFirstLine();
-
             // Xóa tất cả runs hiện tại
             for (int i = paragraph.getRuns().size() - 1; i >= 0; i--) {
                 paragraph.removeRun(i);
@@ -530,508 +778,156 @@ public class PdfGenerationService {
                 run.setText(processedText);
             }
 
-            // Restore formatting
-            try {
-                if (alignment != null) {
-                    paragraph.setAlignment(alignment);
-                }
-                if (spacingBefore > 0) {
-                    paragraph.setSpacingBefore(spacingBefore);
-                }
-                if (spacingAfter > 0) {
-                    paragraph.setSpacingAfter(spacingAfter);
-                }
-                applyLineSpacingToParagraph(paragraph, lineSpacing);
-                if (indentationLeft > 0) {
-                    paragraph.setIndentationLeft(indentationLeft);
-                }
-                if (indentationRight > 0) {
-                    paragraph.setIndentationRight(indentationRight);
-                }
-                if (indentationFirstLine > 0) {
-                    paragraph.setIndentationFirstLine(indentationFirstLine);
-                }
-            } catch (Exception e) {
-                log.warn("Không thể restore formatting cho paragraph: {}", e.getMessage());
+            // Paragraph thành trống sau khi điền -> spacing như paragraph trống
+            if (processedText == null || processedText.isBlank()) {
+                spacingNormalizer.normalizeEmptied(paragraph);
             }
         }
     }
 
     /**
-     * Đảm bảo paragraph có line spacing rõ ràng để PdfConverter hiểu đúng
-     * Sử dụng AUTO spacing rule với giá trị multiplier chính xác
-     * 
-     * @param paragraph Paragraph cần set spacing
-     * @param lineSpacing Line spacing multiplier (1.0 = single, 1.5 = 1.5x, etc.)
-     * @param inTable true nếu paragraph trong table, false nếu paragraph thường
+     * Ước lượng heap của một render: payload, DOM (theo memory profile của template), rows sau khi
+     * expand bảng và phần output buffer nằm trong memory (tối đa ngưỡng spill)
      */
-    private void applyLineSpacingToParagraph(XWPFParagraph paragraph, double lineSpacing, boolean inTable) {
-        if (paragraph == null) {
-            return;
-        }
-
-        // Kiểm tra paragraph có text hay không (có runs với text)
-        boolean hasText = false;
-        String paragraphText = paragraph.getText();
-        if (paragraphText != null && !paragraphText.trim().isEmpty()) {
-            hasText = true;
-        }
-        
-        // Kiểm tra paragraph có runs với text thực sự không (loại trừ runs chỉ có whitespace)
-        if (!hasText && paragraph.getRuns() != null) {
-            for (XWPFRun run : paragraph.getRuns()) {
-                String runText = run.getText(0); // getText(index) - 0 là index đầu tiên
-                if (runText != null && !runText.trim().isEmpty()) {
-                    hasText = true;
-                    break;
-                }
-            }
-        }
-
-        // Nếu chưa có line spacing, dùng default
-        double spacingValue = lineSpacing > 0 ? lineSpacing : DEFAULT_LINE_SPACING;
-
-        // Lấy font size từ run đầu tiên (nếu có) để tính spacing chính xác
-        int fontSize = 12; // default font size
-        if (paragraph.getRuns() != null && !paragraph.getRuns().isEmpty()) {
-            XWPFRun firstRun = paragraph.getRuns().get(0);
-            try {
-                // Thử lấy font size
-                Double fontSizeDouble = firstRun.getFontSizeAsDouble();
-                if (fontSizeDouble != null && fontSizeDouble > 0) {
-                    fontSize = fontSizeDouble.intValue();
-                }
-            } catch (Exception e) {
-                log.debug("Không thể lấy font size, dùng default 12: {}", e.getMessage());
-            }
-        }
-
-        try {
-            // Set ở API level với AUTO
-            paragraph.setSpacingBetween(spacingValue, LineSpacingRule.AUTO);
-        } catch (Exception e) {
-            log.debug("Không thể set spacingBetween: {}", e.getMessage());
-        }
-
-        try {
-            // QUAN TRỌNG: Set ở XML level để PdfConverter nhận diện
-            CTPPr pPr = paragraph.getCTP().isSetPPr() ? paragraph.getCTP().getPPr() : paragraph.getCTP().addNewPPr();
-            CTSpacing spacing = pPr.isSetSpacing() ? pPr.getSpacing() : pPr.addNewSpacing();
-            
-            // Sử dụng AUTO rule với multiplier - PdfConverter có thể xử lý tốt hơn
-            // AUTO rule: line spacing = multiplier * font size (tính bằng twips)
-            // Line spacing 1.5 = 1.5 * 240 = 360 twips
-            BigInteger lineSpacingTwips = BigInteger.valueOf(Math.round(spacingValue * 240));
-            spacing.setLine(lineSpacingTwips);
-            spacing.setLineRule(STLineSpacingRule.AUTO);
-            
-            log.debug("Set line spacing AUTO: {} twips (multiplier {}, fontSize={}, hasText={}, inTable={})", 
-                    lineSpacingTwips, spacingValue, fontSize, hasText, inTable);
-            
-            // Đảm bảo spacing element được set vào paragraph properties
-            if (!pPr.isSetSpacing()) {
-                pPr.setSpacing(spacing);
-            }
-            
-            // QUAN TRỌNG: Xử lý spacingAfter và spacingBefore
-            // - Paragraphs trống (không có text): KHÔNG set spacingAfter để tránh dãn quá nhiều
-            // - Paragraphs có text: chỉ set spacingAfter nhẹ cho paragraphs ngoài bảng
-            if (!hasText) {
-                // Paragraph trống: không set spacingAfter và spacingBefore
-                // Chỉ unset nếu đã được set trước đó
-                try {
-                    if (spacing.isSetAfter()) {
-                        spacing.unsetAfter();
-                    }
-                } catch (Exception e) {
-                    // Ignore nếu không thể unset
-                }
-                try {
-                    if (spacing.isSetBefore()) {
-                        spacing.unsetBefore();
-                    }
-                } catch (Exception e) {
-                    // Ignore nếu không thể unset
-                }
-                log.debug("Paragraph trống: unset spacingAfter và spacingBefore");
-            } else {
-                // Paragraph có text - thêm spacingAfter để tạo khoảng cách giữa các paragraphs
-                // Cách này tạo khoảng cách giữa các dòng text bằng cách tăng khoảng cách giữa paragraphs
-                if (!inTable) {
-                    // Ngoài bảng: set spacingAfter để tạo khoảng cách giữa các paragraphs
-                    // SpacingAfter tạo khoảng cách sau paragraph, làm các dòng text trông dãn nhau hơn
-                    // Tính dựa trên font size và line spacing: fontSize * (spacingValue - 1) * 20 (points to twips)
-                    double extraSpacingPoints = fontSize * (spacingValue - 0.5);
-                    
-                    // Kiểm tra xem paragraph đã có spacingAfter chưa
-                    int existingSpacingAfter = paragraph.getSpacingAfter();
-                    int spacingAfterTwips;
-                    
-                    if (extraSpacingPoints > 0) {
-                        // Có line spacing > 1.0: tính spacingAfter dựa trên extra spacing
-                        // HỆ SỐ: 1.5 = 150% (giảm từ 1.0 để tránh dãn quá nhiều)
-                        spacingAfterTwips = (int) Math.round(extraSpacingPoints * 20 * 1.5);
-                        // Nếu đã có spacingAfter sẵn, lấy giá trị lớn hơn (nhưng không quá lớn)
-                        if (existingSpacingAfter > 0) {
-                            spacingAfterTwips = Math.max(spacingAfterTwips, (int)(existingSpacingAfter * 1.2));
-                        }
-                    } else {
-                        // SpacingValue = 1.0: set spacingAfter nhẹ
-                        // HỆ SỐ: 0.4 = 40% (giảm từ 0.6 để tránh dãn quá nhiều)
-                        spacingAfterTwips = (int) Math.round(fontSize * 0.4 * 20);
-                        // Nếu đã có spacingAfter sẵn và nhỏ hơn, giữ nguyên
-                        if (existingSpacingAfter > 0 && existingSpacingAfter < spacingAfterTwips) {
-                            spacingAfterTwips = existingSpacingAfter;
-                        }
-                    }
-                    
-                    // Giới hạn spacingAfter tối đa để tránh dãn quá nhiều
-                    int maxSpacingAfter = (int) Math.round(fontSize * 2.0 * 20); // Tối đa 2.0x font size
-                    spacingAfterTwips = Math.min(spacingAfterTwips, maxSpacingAfter);
-                    
-                    if (spacingAfterTwips > 0) {
-                        spacing.setAfter(BigInteger.valueOf(spacingAfterTwips));
-                        paragraph.setSpacingAfter(spacingAfterTwips); // Cũng set ở API level
-                    }
-                } else {
-                    // Trong bảng: set spacingAfter nhẹ hơn để không dãn quá nhiều
-                    double extraSpacingPoints = fontSize * (spacingValue - 1.0);
-                    
-                    // Kiểm tra spacingAfter hiện tại
-                    int existingSpacingAfter = paragraph.getSpacingAfter();
-                    int spacingAfterTwips;
-                    
-                    if (extraSpacingPoints > 0) {
-                        // HỆ SỐ: 0.3 = 30% (giảm từ 0.5 để tránh dãn quá nhiều trong bảng)
-                        spacingAfterTwips = (int) Math.round(extraSpacingPoints * 20 * 0.5);
-                        if (existingSpacingAfter > 0) {
-                            spacingAfterTwips = Math.max(spacingAfterTwips, (int)(existingSpacingAfter * 1.1));
-                        }
-                    } else {
-                        // HỆ SỐ: 0.2 = 20% (giảm từ 0.3 để tránh dãn quá nhiều trong bảng)
-                        spacingAfterTwips = (int) Math.round(fontSize * 0.5 * 20);
-                        // Giữ nguyên nếu đã có spacingAfter nhỏ hơn
-                        if (existingSpacingAfter > 0 && existingSpacingAfter < spacingAfterTwips) {
-                            spacingAfterTwips = existingSpacingAfter;
-                        }
-                    }
-                    
-                    // Giới hạn spacingAfter trong bảng (nhỏ hơn ngoài bảng)
-                    int maxSpacingAfter = (int) Math.round(fontSize * 0.8 * 20); // Tối đa 0.8x font size
-                    spacingAfterTwips = Math.min(spacingAfterTwips, maxSpacingAfter);
-                    
-                    if (spacingAfterTwips > 0) {
-                        spacing.setAfter(BigInteger.valueOf(spacingAfterTwips));
-                        paragraph.setSpacingAfter(spacingAfterTwips);
-                    } else {
-                        // Nếu không set được spacingAfter, đảm bảo không có spacingAfter cũ
-                        try {
-                            if (spacing.isSetAfter()) {
-                                spacing.unsetAfter();
-                            }
-                        } catch (Exception e) {
-                            // Ignore nếu không thể unset
-                        }
-                    }
-                }
-                // Không set spacingBefore cho paragraphs có text
-                try {
-                    if (spacing.isSetBefore()) {
-                        spacing.unsetBefore();
-                    }
-                } catch (Exception e) {
-                    // Ignore nếu không thể unset
-                }
-            }
-            
-        } catch (Exception e) {
-            String errorMsg = e.getMessage();
-            if (errorMsg == null || errorMsg.isEmpty()) {
-                errorMsg = e.getClass().getSimpleName();
-            }
-            log.warn("Không thể set CTSpacing: {} - {}", errorMsg, e.getClass().getName());
-            log.debug("Stack trace cho CTSpacing error:", e);
-        }
-        
-        // Force verify và set lại nếu cần
-        try {
-            if (paragraph.getSpacingBetween() <= 0) {
-                paragraph.setSpacingBetween(spacingValue, LineSpacingRule.AUTO);
-            }
-        } catch (Exception e) {
-            log.debug("Không thể force set spacingBetween: {}", e.getMessage());
-        }
-        
-        // Force unset spacingAfter ở API level cho paragraphs trống
-        if (!hasText) {
-            try {
-                paragraph.setSpacingAfter(0);
-                paragraph.setSpacingBefore(0);
-            } catch (Exception e) {
-                log.debug("Không thể unset spacingAfter/spacingBefore: {}", e.getMessage());
-            }
-        }
+    private MemoryEstimate estimateMemory(PdfGenerationRequest request, LoadedTemplate template) {
+        long payloadBytes = MemoryEstimate.payloadBytes(request.getVariables())
+                + MemoryEstimate.payloadBytes(request.getTables());
+        if (template.form() != null) {
+            // Form PDF được PDFBox load (COS model) rồi ghi ra output cùng cỡ
+            int formBytes = template.form().pdf().length;
+            long outputBytes = Math.min(outputSizeEstimator.estimate(request.getTemplateName(), formBytes + 4096),
+                    tempStorage.outputThreshold());
+            return new MemoryEstimate(payloadBytes, 4L * formBytes, 0, 0, outputBytes);
+        }
+        int expectedOutput = outputSizeEstimator.estimate(request.getTemplateName(),
+                (int) (template.docxBytes().length * 1.2));
+        long outputBytes = Math.min(expectedOutput, tempStorage.outputThreshold());
+        // Bảng render theo chunk chỉ giữ một chunk hàng trong DOM cùng lúc; PDF các chunk chờ ghép nằm trong
+        // file tạm, lúc ghép giữ các trang đã ghép và scratch PDFBox (tối đa pdfbox-max-memory)
+        int chunkedRows = MemoryEstimate.chunkedRows(request.getVariables(), tableChunkRenderer::chunks);
+        if (chunkedRows > 0) {
+            outputBytes += tableChunkRenderer.mergeBytes(chunkedRows, expectedOutput);
+        }
+        return new MemoryEstimate(payloadBytes, template.memory().documentBytes(),
+                MemoryEstimate.rows(request.getVariables(), tableChunkRenderer::chunks, tableChunkRenderer.rowsPerChunk()),
+                template.memory().rowBytes(), outputBytes);
     }
 
     /**
-     * Overload method - mặc định không trong bảng
+     * Form template: điền AcroForm field và flatten, không layout lại DOCX
      */
-    private void applyLineSpacingToParagraph(XWPFParagraph paragraph, double lineSpacing) {
-        applyLineSpacingToParagraph(paragraph, lineSpacing, false);
+    private RenderedDocument fillFormTemplate(PdfGenerationRequest request, FormTemplate form) throws IOException {
+        FillEvent fillEvent = new FillEvent();
+        fillEvent.begin();
+        ChunkedOutputStream out = tempStorage.newOutput(
+                outputSizeEstimator.estimate(request.getTemplateName(), form.pdf().length + 4096));
+        try {
+            formFiller.fill(form, request.getVariables(), out);
+            outputSizeEstimator.record(request.getTemplateName(), out.size());
+        } catch (IOException | RuntimeException e) {
+            out.release();
+            throw e;
+        }
+        fillEvent.end();
+        if (fillEvent.shouldCommit()) {
+            fillEvent.templateName = request.getTemplateName();
+            fillEvent.variableCount = request.getVariables() != null ? request.getVariables().size() : 0;
+            fillEvent.commit();
+        }
+        log.debug("Đã điền form template {}: {} fields, {} bytes", request.getTemplateName(),
+                form.fieldNames().size(), out.size());
+        return new RenderedDocument(out);
     }
 
     /**
-     * Đọc line spacing thực sự của paragraph (kể cả từ CTSpacing)
+     * Lấy template (version hiện tại) của node này để gửi cho node khác
+     * Dùng cho cluster fetch mode: node không sở hữu template gọi sang owner để lấy bytes.
+     * Form template gửi form PDF đã layout (không phải DOCX) để node đó điền field giống hệt owner
+     *
+     * @param templateName Tên template
+     * @return Compiled DOCX, hoặc form PDF nếu là form template
+     * @throws IOException Nếu template không tồn tại hoặc không đọc được
      */
-    private double resolveParagraphLineSpacing(XWPFParagraph paragraph) {
-        if (paragraph == null) {
-            return 0;
-        }
-
-        double spacing = paragraph.getSpacingBetween();
-        if (spacing > 0) {
-            return spacing;
-        }
-
-        try {
-            CTPPr pPr = paragraph.getCTP().getPPr();
-            if (pPr != null && pPr.isSetSpacing()) {
-                CTSpacing spacingElement = pPr.getSpacing();
-                if (spacingElement != null && spacingElement.isSetLine()) {
-                    Object lineObj = spacingElement.getLine();
-                    if (lineObj instanceof BigInteger line && line.doubleValue() > 0) {
-                        double resolved = line.doubleValue() / 240d;
-                        if (resolved > 0) {
-                            return resolved;
-                        }
-                    }
-                }
-            }
-        } catch (Exception e) {
-            log.debug("Không thể đọc line spacing: {}", e.getMessage());
-        }
-
-        return 0;
+    public ClusterRouter.FetchedTemplate getTemplateForPeer(String templateName) throws IOException {
+        TemplateLoadEvent loadEvent = new TemplateLoadEvent();
+        loadEvent.begin();
+        TemplateVersion version = templateStore.resolve(templateName);
+        byte[] bytes;
+        boolean cacheHit;
+        if (version.type() == TemplateType.FORM) {
+            cacheHit = formTemplateCache.contains(version.hash());
+            bytes = formTemplateCache.get(version).pdf();
+        } else {
+            cacheHit = compiledTemplateCache.contains(version.hash());
+            bytes = compiledTemplateCache.get(version).bytes();
+        }
+        loadEvent.end();
+        if (loadEvent.shouldCommit()) {
+            loadEvent.templateName = templateName;
+            loadEvent.cacheHit = cacheHit;
+            loadEvent.templateVersion = version.hash();
+            loadEvent.templateBytes = bytes.length;
+            loadEvent.commit();
+        }
+        return new ClusterRouter.FetchedTemplate(version.type(), version.hash(), bytes);
     }
 
     /**
-     * Chuẩn hóa và preserve line spacing trong document
-     * Đảm bảo line spacing được giữ nguyên khi convert sang PDF
-     * Force set line spacing cho TẤT CẢ paragraphs để PdfConverter nhận diện đúng
+     * Load template cho một request
+     * Resolve name -> version đúng 1 lần: request dùng version đó đến hết, kể cả khi có upload
+     * mới flip pointer giữa chừng. Compiled form được cache theo content hash nên không cần
+     * kiểm tra file modification time.
+     * Cluster fetch mode: template thuộc node khác thì lấy bytes từ owner và KHÔNG cache ở node này
+     * (form template: owner gửi form PDF đã layout, node này chỉ điền field như owner)
+     * 
+     * @param templateName Tên template
+     * @return DOCX bytes, hoặc form PDF nếu là form template (kèm version, cache hit cho JFR event)
+     * @throws IOException Nếu template không tồn tại hoặc không đọc được
      */
-    private void normalizeLineSpacing(XWPFDocument document) {
-        log.debug("Bắt đầu normalize line spacing cho toàn bộ document");
-        
-        int paragraphCount = 0;
-        
-        // Xử lý paragraphs trong body (KHÔNG trong bảng)
-        for (XWPFParagraph paragraph : document.getParagraphs()) {
-            preserveParagraphSpacing(paragraph, false); // false = không trong bảng
-            paragraphCount++;
-        }
-
-        // Xử lý trong tables (TRONG bảng)
-        for (XWPFTable table : document.getTables()) {
-            for (XWPFTableRow row : table.getRows()) {
-                for (XWPFTableCell cell : row.getTableCells()) {
-                    for (XWPFParagraph paragraph : cell.getParagraphs()) {
-                        preserveParagraphSpacing(paragraph, true); // true = trong bảng
-                        paragraphCount++;
+    private LoadedTemplate loadTemplate(String templateName) throws IOException {
+        if (clusterRouter.getMode() == ClusterRouter.Mode.FETCH) {
+            Optional<String> owner = clusterRouter.remoteOwner(templateName);
+            if (owner.isPresent()) {
+                try {
+                    ClusterRouter.FetchedTemplate fetched = clusterRouter.fetchTemplate(owner.get(), templateName);
+                    byte[] bytes = fetched.bytes();
+                    if (fetched.type() == TemplateType.FORM) {
+                        return new LoadedTemplate(null, null, null, null, FormTemplate.read(fetched.hash(), bytes),
+                                fetched.hash(), false);
                     }
+                    return new LoadedTemplate(bytes, MemoryProfile.of(bytes), null, ValueFormats.of(bytes), null,
+                            fetched.hash(), false);
+                } catch (FileNotFoundException e) {
+                    throw e;
+                } catch (IOException e) {
+                    // Owner không truy cập được -> thử đọc local
+                    clusterRouter.recordFallback(owner.get(), e);
                 }
             }
         }
 
-        // Xử lý trong headers và footers (KHÔNG trong bảng)
-        if (document.getHeaderFooterPolicy() != null) {
-            if (document.getHeaderFooterPolicy().getDefaultHeader() != null) {
-                for (XWPFParagraph paragraph : document.getHeaderFooterPolicy().getDefaultHeader().getParagraphs()) {
-                    preserveParagraphSpacing(paragraph, false); // false = không trong bảng
-                    paragraphCount++;
-                }
-            }
-            if (document.getHeaderFooterPolicy().getDefaultFooter() != null) {
-                for (XWPFParagraph paragraph : document.getHeaderFooterPolicy().getDefaultFooter().getParagraphs()) {
-                    preserveParagraphSpacing(paragraph, false); // false = không trong bảng
-                    paragraphCount++;
-                }
-            }
-        }
-        
-        log.debug("Đã normalize line spacing cho {} paragraphs", paragraphCount);
-    }
-
-    /**
-     * Copy formatting từ source paragraph sang target paragraph
-     */
-    private void copyParagraphFormatting(XWPFParagraph source, XWPFParagraph target) {
-        if (source == null || target == null) {
-            return;
-        }
-
-        try {
-            // Copy alignment
-            if (source.getAlignment() != null) {
-                target.setAlignment(source.getAlignment());
-            }
-
-            // Copy spacing before
-            if (source.getSpacingBefore() > 0) {
-                target.setSpacingBefore(source.getSpacingBefore());
-            }
-
-            // Copy spacing after
-            if (source.getSpacingAfter() > 0) {
-                target.setSpacingAfter(source.getSpacingAfter());
-            }
-
-            // Copy line spacing
-            double lineSpacing = resolveParagraphLineSpacing(source);
-            applyLineSpacingToParagraph(target, lineSpacing);
-
-            // Copy indentation
-            if (source.getIndentationLeft() > 0) {
-                target.setIndentationLeft(source.getIndentationLeft());
-            }
-            if (source.getIndentationRight() > 0) {
-                target.setIndentationRight(source.getIndentationRight());
-            }
-            if (source.getIndentationFirstLine() > 0) {
-                target.setIndentationFirstLine(source.getIndentationFirstLine());
-            }
-        } catch (Exception e) {
-            String errorMsg = e.getMessage();
-            if (errorMsg == null || errorMsg.isEmpty()) {
-                errorMsg = e.getClass().getSimpleName();
-            }
-            log.warn("Không thể copy paragraph formatting: {} - {}", errorMsg, e.getClass().getName());
-            log.debug("Stack trace cho copy paragraph formatting error:", e);
-        }
-    }
-
-    /**
-     * Preserve line spacing và các spacing properties của paragraph
-     * Nếu paragraph chưa có line spacing, sẽ set default line spacing
-     * 
-     * @param paragraph Paragraph cần preserve spacing
-     * @param inTable true nếu paragraph trong table, false nếu paragraph thường
-     */
-    private void preserveParagraphSpacing(XWPFParagraph paragraph, boolean inTable) {
-        if (paragraph == null) {
-            return;
+        TemplateVersion version = templateStore.resolve(templateName);
+        if (version.type() == TemplateType.FORM) {
+            boolean cacheHit = formTemplateCache.contains(version.hash());
+            return new LoadedTemplate(null, null, null, null, formTemplateCache.get(version), version.hash(), cacheHit);
         }
 
-        double lineSpacing = resolveParagraphLineSpacing(paragraph);
-        
-        // Nếu chưa có line spacing rõ ràng, set default
-        if (lineSpacing <= 0) {
-            lineSpacing = DEFAULT_LINE_SPACING;
-        }
-        
-        applyLineSpacingToParagraph(paragraph, lineSpacing, inTable);
-    }
-
-    /**
-     * Load template với caching để tối ưu hiệu năng
-     * Cache template bytes và kiểm tra file modification time để invalidate cache khi file thay đổi
-     * 
-     * @param templateFile File template
-     * @param templateName Tên template (để làm cache key)
-     * @return XWPFDocument từ template
-     * @throws IOException Nếu không đọc được file
-     */
-    private XWPFDocument loadTemplateWithCache(File templateFile, String templateName) throws IOException {
-        if (!templateFile.exists()) {
-            throw new FileNotFoundException("Template not found: " + templateFile.getAbsolutePath());
-        }
+        boolean cacheHit = compiledTemplateCache.contains(version.hash());
+        CompiledTemplate compiled = compiledTemplateCache.get(version);
+        log.debug("Template {} -> version {} ({})", templateName, version.hash(), cacheHit ? "cache hit" : "compiled");
 
-        String cacheKey = templateName;
-        long currentModifiedTime = templateFile.lastModified();
-        
-        // Kiểm tra cache và file modification time
-        byte[] templateBytes = templateBytesCache.get(cacheKey);
-        Long cachedModifiedTime = templateFileModifiedCache.get(cacheKey);
-        
-        // Invalidate cache nếu file đã thay đổi hoặc chưa có trong cache
-        if (templateBytes == null || cachedModifiedTime == null || cachedModifiedTime < currentModifiedTime) {
-            log.debug("Loading template from disk: {} (cache miss or file changed)", templateName);
-            
-            // Đọc template từ disk
-            templateBytes = Files.readAllBytes(templateFile.toPath());
-            
-            // Update cache
-            templateBytesCache.put(cacheKey, templateBytes);
-            templateFileModifiedCache.put(cacheKey, currentModifiedTime);
-            
-            // Cleanup cache nếu quá lớn (giữ tối đa 100 templates)
-            if (templateBytesCache.size() > 100) {
-                // Remove oldest entry (simple strategy - remove first entry)
-                String oldestKey = templateBytesCache.keySet().iterator().next();
-                templateBytesCache.remove(oldestKey);
-                templateFileModifiedCache.remove(oldestKey);
-                log.debug("Cache cleanup: removed template {}", oldestKey);
-            }
-        } else {
-            log.debug("Loading template from cache: {}", templateName);
-        }
-        
-        // Tạo XWPFDocument từ cached bytes
-        return new XWPFDocument(new ByteArrayInputStream(templateBytes));
-    }
-
-    /**
-     * Get font với caching để tránh reload font mỗi request
-     * Font được cache trong memory để tối ưu hiệu năng
-     * 
-     * @param fontPath Đường dẫn đến font file
-     * @return BaseFont từ cache hoặc load mới
-     * @throws Exception Nếu không load được font
-     */
-    private BaseFont getCachedFont(String fontPath) throws Exception {
-        BaseFont cachedFont = fontCache.get(fontPath);
-        
-        if (cachedFont != null) {
-            return cachedFont;
-        }
-        
-        // Synchronized để tránh load font nhiều lần cùng lúc
-        synchronized (fontCacheLock) {
-            // Double-check sau khi acquire lock
-            cachedFont = fontCache.get(fontPath);
-            if (cachedFont != null) {
-                return cachedFont;
-            }
-            
-            // Load font mới
-            log.debug("Loading font from disk: {}", fontPath);
-            BaseFont newFont = BaseFont.createFont(fontPath, BaseFont.IDENTITY_H, BaseFont.EMBEDDED);
-            fontCache.put(fontPath, newFont);
-            
-            // Cleanup font cache nếu quá lớn (giữ tối đa 10 fonts)
-            if (fontCache.size() > 10) {
-                String oldestKey = fontCache.keySet().iterator().next();
-                fontCache.remove(oldestKey);
-                log.debug("Font cache cleanup: removed font {}", oldestKey);
-            }
-            
-            return newFont;
-        }
+        return new LoadedTemplate(compiled.bytes(), compiled.memory(), compiled.blocks(), compiled.formats(), null,
+                version.hash(), cacheHit);
     }
 
     /**
      * Helper class để lưu thông tin về cell template (text + formatting)
      * Sử dụng để tránh XmlValueDisconnectedException khi truy cập templateRow sau khi xóa
-     * Lưu các giá trị formatting thay vì reference đến paragraph object
+     * Lưu bản copy paragraph properties thay vì reference đến paragraph object
      */
     private static class CellTemplateInfo {
         final String cellText;
-        ParagraphAlignment alignment;
-        int spacingBefore = 0;
-        int spacingAfter = 0;
-        double lineSpacing = 0;
-        int indentationLeft = 0;
-        int indentationRight = 0;
-        int indentationFirstLine = 0;
+        CTPPr paragraphProperties;
 
         CellTemplateInfo(String cellText) {
             this.cellText = cellText;
@@ -0,0 +1,229 @@
+package com.techlab.renderpdf.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.techlab.renderpdf.model.PdfGenerationRequest;
+import com.techlab.renderpdf.output.RenderedDocument;
+import com.techlab.renderpdf.template.TemplateStore;
+import fr.opensagres.poi.xwpf.converter.core.XWPFConverterException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Single-flight for identical concurrent renders: retries and double-clicks share one render
+ *
+ * Requests are keyed by the current version (content hash) of their template and a SHA-256 of their
+ * variables and tables, serialised with map keys sorted. The first request of a key renders; requests
+ * with the same key arriving while it runs wait for it without taking a render slot, and each receives
+ * its own {@link RenderedDocument#share() share} of the same bytes, or the same failure. The key is
+ * forgotten as soon as the render completes, so this is not a result cache: a later identical request
+ * renders again. The shared render runs on a thread of its own under a deadline of its own, the latest of
+ * the requests waiting for it, and each request (the first one included) stops waiting at its own.
+ */
+@Slf4j
+@Component
+public class RenderCoalescer {
+
+    /**
+     * Render of the request under the given deadline
+     */
+    @FunctionalInterface
+    public interface SharedRender {
+        RenderedDocument call(RenderDeadline deadline) throws IOException, XWPFConverterException;
+    }
+
+    private final TemplateStore templateStore;
+    private final ObjectMapper keyMapper;
+    private final boolean enabled;
+
+    private final Map<Key, Flight> flights = new ConcurrentHashMap<>();
+    private final Counter coalescedCounter;
+
+    public RenderCoalescer(TemplateStore templateStore,
+                           ObjectMapper objectMapper,
+                           MeterRegistry meterRegistry,
+                           @Value("${pdf.generation.single-flight.enabled:true}") boolean enabled) {
+        this.templateStore = templateStore;
+        this.keyMapper = objectMapper.copy().enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+        this.enabled = enabled;
+
+        this.coalescedCounter = Counter.builder("render.singleflight.coalesced")
+                .description("Requests that received the render of an identical request already in flight")
+                .register(meterRegistry);
+        Gauge.builder("render.singleflight.inflight", flights, Map::size)
+                .description("Distinct renders currently in flight")
+                .register(meterRegistry);
+        log.info("Single-flight renders: {}", enabled ? "enabled" : "disabled");
+    }
+
+    /**
+     * Run the render of the request, or wait for the identical render already in flight
+     *
+     * @param deadline Deadline of this request; the render in flight is extended to it
+     * @param render Renders the request under the deadline it is given (that of the render in flight); runs at
+     *               most once for concurrent identical requests
+     * @return PDF owned by the caller, who must close it
+     * @throws RenderDeadline.ExceededException If the deadline passed while waiting for the render
+     */
+    public RenderedDocument render(PdfGenerationRequest request, RenderDeadline deadline, SharedRender render)
+            throws IOException, XWPFConverterException {
+        if (!enabled) {
+            return render.call(deadline);
+        }
+        Key key;
+        try {
+            key = new Key(templateStore.resolve(request.getTemplateName()).hash(), hash(request));
+        } catch (FileNotFoundException e) {
+            // Not a local template (or none at all): the render reports it, or fetches it from the owner
+            return render.call(deadline);
+        }
+
+        // The flight's own deadline: extending it for a later request must not keep this one waiting
+        Flight created = new Flight(deadline.copy());
+        Flight flight = flights.compute(key, (k, current) -> {
+            Flight joined = current != null ? current : created;
+            joined.participants.incrementAndGet();
+            joined.deadline.extendTo(deadline);
+            return joined;
+        });
+        if (flight == created) {
+            Thread.ofVirtual().name("single-flight").start(() -> lead(key, flight, render));
+        }
+        return follow(flight, deadline, flight != created);
+    }
+
+    /**
+     * Run the render under the flight's deadline and set aside one share of the result per participant
+     */
+    private void lead(Key key, Flight flight, SharedRender render) {
+        RenderedDocument pdf;
+        try {
+            pdf = render.call(flight.deadline);
+        } catch (IOException | RuntimeException | Error e) {
+            flights.remove(key, flight);
+            flight.result.completeExceptionally(e);
+            return;
+        }
+        // Nobody joins once the flight is removed, so the participant count is final
+        flights.remove(key, flight);
+        try {
+            for (int i = 1; i < flight.participants.get(); i++) {
+                flight.shares.add(pdf.share());
+            }
+        } catch (IOException | RuntimeException e) {
+            flight.shares.forEach(RenderedDocument::close);
+            flight.result.completeExceptionally(e);
+            pdf.close();
+            return;
+        }
+        flight.shares.add(pdf);
+        flight.result.complete(null);
+        if (flight.participants.get() > 1) {
+            log.debug("Render of template version {} shared with {} identical requests",
+                    key.templateHash(), flight.participants.get() - 1);
+        }
+    }
+
+    /**
+     * Wait for the render until the request's own deadline
+     *
+     * @param coalesced Whether the request joined a render started by another one
+     */
+    private RenderedDocument follow(Flight flight, RenderDeadline deadline, boolean coalesced)
+            throws IOException, XWPFConverterException {
+        try {
+            while (true) {
+                try {
+                    flight.result.get(Math.max(deadline.remainingNanos(), 0), TimeUnit.NANOSECONDS);
+                    break;
+                } catch (TimeoutException e) {
+                    if (deadline.isExpired()) {
+                        abandon(flight);
+                        deadline.checkpoint("shared render");
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            abandon(flight);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an identical render");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(cause);
+        }
+        if (coalesced) {
+            coalescedCounter.increment();
+        }
+        return flight.shares.remove();
+    }
+
+    /**
+     * Stop waiting: the share set aside for this request is released once the render completes
+     */
+    private static void abandon(Flight flight) {
+        flight.result.thenRun(() -> flight.shares.remove().close());
+    }
+
+    /**
+     * SHA-256 of the request's variables and tables; the output filename does not change the PDF
+     */
+    private String hash(PdfGenerationRequest request) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (OutputStream out = new DigestOutputStream(OutputStream.nullOutputStream(), digest)) {
+            keyMapper.writeValue(out, new Object[]{request.getVariables(), request.getTables()});
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private record Key(String templateHash, String requestHash) {
+    }
+
+    private static final class Flight {
+        /** Deadline the render runs under, extended by every request that joins; no request waits on it */
+        final RenderDeadline deadline;
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        final AtomicInteger participants = new AtomicInteger();
+        /** The PDF and one share of it per further participant, added before {@link #result} completes */
+        final Queue<RenderedDocument> shares = new ConcurrentLinkedQueue<>();
+
+        Flight(RenderDeadline deadline) {
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.techlab.renderpdf.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time after which nobody reads the result of a render, and the cooperative cancellation of that render
+ *
+ * {@link RenderExecutor} binds the deadline to the render worker while the render runs; the pipeline calls
+ * {@link #check(String)} between its stages (fill, table expansion, convert, table chunks, section parts,
+ * optimisation) and stops with {@link ExceededException} once the deadline has passed or the render was
+ * cancelled. A deadline only moves later: a render shared by identical requests runs until the latest
+ * of their deadlines.
+ */
+public final class RenderDeadline {
+
+    /**
+     * Request header: ISO-8601 instant ({@code 2026-10-18T10:15:30Z}) or milliseconds from now ({@code 5000})
+     */
+    public static final String HEADER = "X-Request-Deadline";
+
+    /** Far enough to never pass, near enough that nanoTime arithmetic never overflows */
+    private static final long UNBOUNDED = Long.MAX_VALUE / 4;
+
+    private static final ThreadLocal<RenderDeadline> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Render stopped at a checkpoint because its deadline passed or it was cancelled
+     */
+    public static final class ExceededException extends CancellationException {
+        private final String stage;
+
+        ExceededException(String stage, String reason) {
+            super("Render " + reason + " before " + stage);
+            this.stage = stage;
+        }
+
+        /**
+         * Pipeline stage the render would have started next
+         */
+        public String getStage() {
+            return stage;
+        }
+    }
+
+    /**
+     * Binding of a deadline to the current thread, undone by {@link #close()}
+     */
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private final AtomicLong deadlineNanos;
+    private volatile String cancelled;
+
+    private RenderDeadline(long deadlineNanos) {
+        this.deadlineNanos = new AtomicLong(deadlineNanos);
+    }
+
+    /**
+     * Deadline the given time from now; none when the duration is zero or negative
+     */
+    public static RenderDeadline after(Duration timeout) {
+        long now = System.nanoTime();
+        return new RenderDeadline(timeout.isZero() || timeout.isNegative()
+                ? now + UNBOUNDED
+                : now + Math.min(timeout.toNanos(), UNBOUNDED));
+    }
+
+    /**
+     * Deadline of a request: its {@link #HEADER} value, or the fallback when it has none
+     *
+     * @throws IllegalArgumentException If the header is neither an instant nor a number of milliseconds
+     */
+    public static RenderDeadline parse(String header, Duration fallback) {
+        if (header == null || header.isBlank()) {
+            return after(fallback);
+        }
+        String value = header.trim();
+        long remaining;
+        try {
+            remaining = value.chars().allMatch(Character::isDigit)
+                    ? TimeUnit.MILLISECONDS.toNanos(Long.parseLong(value))
+                    : Duration.between(Instant.now(), Instant.parse(value)).toNanos();
+        } catch (NumberFormatException | DateTimeParseException | ArithmeticException e) {
+            throw new IllegalArgumentException("Invalid " + HEADER + ": " + value);
+        }
+        // A deadline already passed is kept: the request is rejected at its first checkpoint
+        return new RenderDeadline(System.nanoTime() + Math.min(remaining, UNBOUNDED));
+    }
+
+    /**
+     * Deadline bound to this thread by {@link #bind}, or {@code null}
+     */
+    public static RenderDeadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Stop the render running on this thread if its deadline passed; no effect without a bound deadline
+     *
+     * @param stage Stage about to start, reported in the exception and metrics
+     */
+    public static void check(String stage) {
+        RenderDeadline deadline = CURRENT.get();
+        if (deadline != null) {
+            deadline.checkpoint(stage);
+        }
+    }
+
+    /**
+     * Bind the deadline to this thread until the scope is closed; {@code null} unbinds
+     */
+    public static Scope bind(RenderDeadline deadline) {
+        RenderDeadline previous = CURRENT.get();
+        CURRENT.set(deadline);
+        return previous == null ? CURRENT::remove : () -> CURRENT.set(previous);
+    }
+
+    /**
+     * @throws ExceededException If the deadline passed or the render was cancelled
+     */
+    public void checkpoint(String stage) {
+        String reason = cancelled;
+        if (reason != null) {
+            throw new ExceededException(stage, "cancelled (" + reason + ")");
+        }
+        if (isExpired()) {
+            throw new ExceededException(stage, "deadline exceeded");
+        }
+    }
+
+    public boolean isExpired() {
+        return remainingNanos() <= 0;
+    }
+
+    public boolean isBounded() {
+        return remainingNanos() < UNBOUNDED / 2;
+    }
+
+    /**
+     * Nanoseconds left, zero or negative once passed
+     */
+    public long remainingNanos() {
+        return deadlineNanos.get() - System.nanoTime();
+    }
+
+    /**
+     * Independent deadline at the same time: extending or cancelling one leaves the other alone
+     */
+    RenderDeadline copy() {
+        return new RenderDeadline(deadlineNanos.get());
+    }
+
+    /**
+     * Move the deadline to the other one if that is later
+     */
+    public void extendTo(RenderDeadline other) {
+        long later = other.deadlineNanos.get();
+        deadlineNanos.accumulateAndGet(later, (current, candidate) -> candidate - current > 0 ? candidate : current);
+    }
+
+    /**
+     * Stop the render at its next checkpoint
+     */
+    public void cancel(String reason) {
+        cancelled = reason;
+    }
+
+    /**
+     * Value of {@link #HEADER} carrying what is left of the deadline to another node, or {@code null} if unbounded
+     */
+    public String toHeader() {
+        return isBounded() ? String.valueOf(Math.max(TimeUnit.NANOSECONDS.toMillis(remainingNanos()), 0)) : null;
+    }
+}
@@ -0,0 +1,279 @@
+package com.techlab.renderpdf.service;
+
+import fr.opensagres.poi.xwpf.converter.core.XWPFConverterException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands the CPU-heavy render off from the request (virtual) thread to the bounded platform-thread
+ * {@code renderPool}, and records how long work waits for a worker and how long it runs.
+ *
+ * Admission is bounded by {@code pdf.generation.max-concurrent}: a request that cannot get a slot
+ * within {@code pdf.generation.render.queue-timeout-ms} is rejected instead of piling up. Batch renders
+ * may hold at most {@code pdf.generation.scheduling.batch-max-admitted} of those slots, so a bulk job
+ * never leaves interactive requests without one. Admitted renders wait in the {@link RenderScheduler}.
+ */
+@Slf4j
+@Component
+public class RenderExecutor {
+
+    /**
+     * A render step that may fail the same way {@link PdfGenerationService} does
+     */
+    @FunctionalInterface
+    public interface RenderTask<T> {
+        T call() throws IOException, XWPFConverterException;
+    }
+
+    private final RenderScheduler scheduler;
+    private final Semaphore admission;
+    private final Semaphore batchAdmission;
+    private final long queueTimeoutMs;
+    private final Duration defaultDeadline;
+    private final MeterRegistry meterRegistry;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final Map<RenderScheduler.Priority, Timer> queueWaitTimers = new EnumMap<>(RenderScheduler.Priority.class);
+    private final Timer executionTimer;
+    private final Counter rejectedCounter;
+
+    public RenderExecutor(@Qualifier("renderPool") ForkJoinPool renderPool,
+                          RenderScheduler scheduler,
+                          MeterRegistry meterRegistry,
+                          @Value("${pdf.generation.max-concurrent:1000}") int maxConcurrent,
+                          @Value("${pdf.generation.scheduling.batch-max-admitted:0}") int batchMaxAdmitted,
+                          @Value("${pdf.generation.render.queue-timeout-ms:30000}") long queueTimeoutMs,
+                          @Value("${pdf.generation.deadline.default-ms:60000}") long defaultDeadlineMs) {
+        this.scheduler = scheduler;
+        this.admission = new Semaphore(maxConcurrent, true);
+        this.batchAdmission = new Semaphore(batchMaxAdmitted > 0
+                ? Math.min(batchMaxAdmitted, maxConcurrent) : Math.max(maxConcurrent / 2, 1), true);
+        this.queueTimeoutMs = queueTimeoutMs;
+        this.defaultDeadline = Duration.ofMillis(defaultDeadlineMs);
+        this.meterRegistry = meterRegistry;
+
+        for (RenderScheduler.Priority priority : RenderScheduler.Priority.values()) {
+            queueWaitTimers.put(priority, Timer.builder("render.executor.queue.wait")
+                    .description("Time a render waits between hand-off and a worker picking it up")
+                    .tag("priority", priority.tag())
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+        this.executionTimer = Timer.builder("render.executor.execution")
+                .description("Time a render runs on a render worker")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("render.executor.rejected")
+                .description("Renders rejected because no admission slot was free in time")
+                .register(meterRegistry);
+        Gauge.builder("render.executor.queued", queued, AtomicInteger::get)
+                .description("Renders handed off but not started yet")
+                .register(meterRegistry);
+        Gauge.builder("render.executor.running", running, AtomicInteger::get)
+                .description("Renders currently running on render workers")
+                .register(meterRegistry);
+        Gauge.builder("render.executor.parallelism", renderPool, ForkJoinPool::getParallelism)
+                .register(meterRegistry);
+
+        log.info("Render executor: {} platform workers, max {} admitted renders ({} batch)",
+                renderPool.getParallelism(), maxConcurrent, batchAdmission.availablePermits());
+    }
+
+    /**
+     * Deadline of a request from its {@link RenderDeadline#HEADER} value, or {@code pdf.generation.deadline.default-ms}
+     *
+     * @throws IllegalArgumentException If the header value is invalid
+     */
+    public RenderDeadline deadline(String header) {
+        return RenderDeadline.parse(header, defaultDeadline);
+    }
+
+    /**
+     * Run the task on a render worker when the scheduler gives its ticket a turn, and block the calling
+     * (virtual) thread until it completes or its deadline passes
+     *
+     * The deadline is bound to the worker while the task runs (see {@link RenderDeadline#check}); a task
+     * whose deadline passed while it was queued is not started. A result the task still produces after the
+     * caller stopped waiting is closed. The admission slot is returned when the task is over (or skipped),
+     * so renders still running for callers that gave up count against {@code max-concurrent}.
+     *
+     * @throws RenderDeadline.ExceededException If the deadline passed before the task completed
+     */
+    public <T> T execute(RenderScheduler.Ticket ticket, RenderDeadline deadline, RenderTask<T> task)
+            throws IOException, XWPFConverterException {
+        long admitBy = System.nanoTime()
+                + Math.min(TimeUnit.MILLISECONDS.toNanos(queueTimeoutMs), Math.max(deadline.remainingNanos(), 0));
+        Semaphore batch = ticket.priority() == RenderScheduler.Priority.BATCH ? batchAdmission : null;
+        if (batch != null) {
+            admit(batch, admitBy, deadline);
+        }
+        try {
+            admit(admission, admitBy, deadline);
+        } catch (IOException | RuntimeException e) {
+            if (batch != null) {
+                batch.release();
+            }
+            throw e;
+        }
+
+        // The slots are held until the task is over, not until the caller stops waiting: a render still
+        // running after its caller gave up keeps counting against max-concurrent
+        Runnable releaseSlots = () -> {
+            admission.release();
+            if (batch != null) {
+                batch.release();
+            }
+        };
+        long handoff = System.nanoTime();
+        queued.incrementAndGet();
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            scheduler.submit(ticket, () -> {
+                try {
+                    queued.decrementAndGet();
+                    if (future.isDone()) {
+                        // The caller stopped waiting before a worker was free
+                        return;
+                    }
+                    run(ticket, deadline, task, future, handoff);
+                } finally {
+                    releaseSlots.run();
+                }
+            }, rejected -> {
+                queued.decrementAndGet();
+                releaseSlots.run();
+                future.completeExceptionally(rejected);
+            });
+        } catch (RuntimeException | Error e) {
+            queued.decrementAndGet();
+            releaseSlots.run();
+            throw e;
+        }
+        return await(future, deadline);
+    }
+
+    private <T> void run(RenderScheduler.Ticket ticket, RenderDeadline deadline, RenderTask<T> task,
+                         CompletableFuture<T> future, long handoff) {
+        running.incrementAndGet();
+        long start = System.nanoTime();
+        queueWaitTimers.get(ticket.priority()).record(start - handoff, TimeUnit.NANOSECONDS);
+        try (RenderDeadline.Scope scope = RenderDeadline.bind(deadline)) {
+            deadline.checkpoint("render");
+            T result = task.call();
+            if (!future.complete(result)) {
+                release(result);
+            }
+        } catch (Throwable e) {
+            if (e instanceof RenderDeadline.ExceededException exceeded) {
+                exceeded(exceeded);
+            }
+            future.completeExceptionally(e);
+        } finally {
+            executionTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            running.decrementAndGet();
+        }
+    }
+
+    private void admit(Semaphore slots, long admitBy, RenderDeadline deadline) throws InterruptedIOException {
+        try {
+            if (!slots.tryAcquire(Math.max(admitBy - System.nanoTime(), 0), TimeUnit.NANOSECONDS)) {
+                if (deadline.isExpired()) {
+                    throwExceeded(deadline, "admission");
+                }
+                rejectedCounter.increment();
+                throw new RejectedExecutionException("Render queue is full, retry later");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a render slot");
+        }
+    }
+
+    private <T> T await(CompletableFuture<T> future, RenderDeadline deadline) throws IOException, XWPFConverterException {
+        try {
+            while (true) {
+                try {
+                    return future.get(Math.max(deadline.remainingNanos(), 0), TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    // The deadline may have moved later since (a request joined this render)
+                    if (deadline.isExpired()) {
+                        // The render stops at its next checkpoint
+                        future.cancel(false);
+                        throwExceeded(deadline, "result");
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            deadline.cancel("caller interrupted");
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for render");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException && e.getCause().getCause() != null
+                    ? e.getCause().getCause()
+                    : e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Throw the exception of the passed deadline, counting it for the stage
+     */
+    private void throwExceeded(RenderDeadline deadline, String stage) {
+        try {
+            deadline.checkpoint(stage);
+        } catch (RenderDeadline.ExceededException e) {
+            exceeded(e);
+            throw e;
+        }
+    }
+
+    private void exceeded(RenderDeadline.ExceededException e) {
+        meterRegistry.counter("render.deadline.exceeded", "stage", e.getStage()).increment();
+        log.debug("{}", e.getMessage());
+    }
+
+    /**
+     * Close a result nobody waits for any more
+     */
+    private static void release(Object result) {
+        if (result instanceof AutoCloseable closeable) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                log.debug("Cannot release abandoned render result: {}", e.getMessage());
+            }
+        }
+    }
+}
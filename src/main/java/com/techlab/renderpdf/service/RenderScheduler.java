@@ -0,0 +1,271 @@
+package com.techlab.renderpdf.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Weighted fair queuing of renders in front of the render workers
+ *
+ * Renders wait in one queue per {@link Priority} and are handed to the render pool only while fewer
+ * than its parallelism are running, so the order they start in is decided here rather than by the pool.
+ * Each free worker goes to the next render of a priority picked by smooth weighted round robin
+ * ({@code pdf.generation.scheduling.*-weight}): with weights 4:1 and both queues full, interactive renders
+ * get four of every five workers that free up, and batch renders get all of them when nothing interactive
+ * waits. Within a priority renders start in arrival order, skipping those whose tenant or template
+ * already has its cap of running renders.
+ */
+@Slf4j
+@Component
+public class RenderScheduler {
+
+    public static final String PRIORITY_HEADER = "X-Render-Priority";
+    public static final String TENANT_HEADER = "X-Tenant-Id";
+
+    /**
+     * Scheduling class of a render: previews and UI requests, or bulk generation
+     */
+    public enum Priority {
+        INTERACTIVE, BATCH;
+
+        /**
+         * Priority named by a header or configuration value (case-insensitive), or the fallback
+         */
+        public static Priority parse(String value, Priority fallback) {
+            if (value == null || value.isBlank()) {
+                return fallback;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                return fallback;
+            }
+        }
+
+        public String tag() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * What a render is scheduled by
+     *
+     * @param priority Queue the render waits in
+     * @param tenant Tenant capped by {@code tenant-max-running}, or {@code null}
+     * @param template Template capped by {@code template-max-running}, or {@code null}
+     */
+    public record Ticket(Priority priority, String tenant, String template) {
+    }
+
+    private record Job(Ticket ticket, Runnable work, Consumer<RuntimeException> rejected) {
+    }
+
+    private final Executor renderPool;
+    private final int slots;
+    private final Priority defaultPriority;
+    private final int tenantMaxRunning;
+    private final int templateMaxRunning;
+    private final Map<Priority, Integer> weights = new EnumMap<>(Priority.class);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Priority, ArrayDeque<Job>> queues = new EnumMap<>(Priority.class);
+    private final Map<Priority, Integer> credits = new EnumMap<>(Priority.class);
+    private final Map<String, Integer> runningTenants = new HashMap<>();
+    private final Map<String, Integer> runningTemplates = new HashMap<>();
+    private int running;
+
+    @Autowired
+    public RenderScheduler(@Qualifier("renderPool") ForkJoinPool renderPool,
+                           MeterRegistry meterRegistry,
+                           @Value("${pdf.generation.scheduling.default-priority:interactive}") String defaultPriority,
+                           @Value("${pdf.generation.scheduling.interactive-weight:4}") int interactiveWeight,
+                           @Value("${pdf.generation.scheduling.batch-weight:1}") int batchWeight,
+                           @Value("${pdf.generation.scheduling.tenant-max-running:0}") int tenantMaxRunning,
+                           @Value("${pdf.generation.scheduling.template-max-running:0}") int templateMaxRunning) {
+        this(renderPool, renderPool.getParallelism(), meterRegistry,
+                Priority.parse(defaultPriority, Priority.INTERACTIVE), interactiveWeight, batchWeight,
+                tenantMaxRunning, templateMaxRunning);
+    }
+
+    RenderScheduler(Executor renderPool, int slots, MeterRegistry meterRegistry, Priority defaultPriority,
+                    int interactiveWeight, int batchWeight, int tenantMaxRunning, int templateMaxRunning) {
+        this.renderPool = renderPool;
+        this.slots = Math.max(slots, 1);
+        this.defaultPriority = defaultPriority;
+        this.tenantMaxRunning = tenantMaxRunning;
+        this.templateMaxRunning = templateMaxRunning;
+        weights.put(Priority.INTERACTIVE, Math.max(interactiveWeight, 1));
+        weights.put(Priority.BATCH, Math.max(batchWeight, 1));
+        for (Priority priority : Priority.values()) {
+            ArrayDeque<Job> queue = new ArrayDeque<>();
+            queues.put(priority, queue);
+            credits.put(priority, 0);
+            Gauge.builder("render.scheduler.queued", this, scheduler -> scheduler.queued(priority))
+                    .description("Renders waiting for a render worker")
+                    .tag("priority", priority.tag())
+                    .register(meterRegistry);
+        }
+
+        log.info("Render scheduling: {} workers, weights {}, default {}, max running per tenant {}, per template {}",
+                this.slots, weights, defaultPriority.tag(),
+                tenantMaxRunning > 0 ? tenantMaxRunning : "unlimited",
+                templateMaxRunning > 0 ? templateMaxRunning : "unlimited");
+    }
+
+    /**
+     * Priority of requests that do not ask for one
+     */
+    public Priority defaultPriority() {
+        return defaultPriority;
+    }
+
+    /**
+     * Queue the work; it runs on a render worker when its turn comes
+     *
+     * @param rejected Told instead, with the exception of the pool, if the pool refuses the work (shut down)
+     */
+    void submit(Ticket ticket, Runnable work, Consumer<RuntimeException> rejected) {
+        lock.lock();
+        try {
+            queues.get(ticket.priority()).add(new Job(ticket, work, rejected));
+        } finally {
+            lock.unlock();
+        }
+        dispatch();
+    }
+
+    int queued(Priority priority) {
+        lock.lock();
+        try {
+            return queues.get(priority).size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hand the next renders to the pool while workers are free
+     */
+    private void dispatch() {
+        boolean freed;
+        do {
+            List<Job> started = new ArrayList<>();
+            lock.lock();
+            try {
+                Job job;
+                while (running < slots && (job = next()) != null) {
+                    running++;
+                    count(runningTenants, job.ticket().tenant(), 1);
+                    count(runningTemplates, job.ticket().template(), 1);
+                    started.add(job);
+                }
+            } finally {
+                lock.unlock();
+            }
+            freed = false;
+            for (Job job : started) {
+                try {
+                    renderPool.execute(() -> run(job));
+                } catch (RuntimeException e) {
+                    // The slot goes back and the next renders get their turn (or are refused the same way)
+                    finished(job);
+                    freed = true;
+                    log.warn("Render pool refused a render of {}: {}", job.ticket().template(), e.toString());
+                    job.rejected().accept(e);
+                }
+            }
+        } while (freed);
+    }
+
+    private void run(Job job) {
+        try {
+            job.work().run();
+        } finally {
+            finished(job);
+            dispatch();
+        }
+    }
+
+    private void finished(Job job) {
+        lock.lock();
+        try {
+            running--;
+            count(runningTenants, job.ticket().tenant(), -1);
+            count(runningTemplates, job.ticket().template(), -1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove and return the next render to start: smooth weighted round robin between the priorities
+     * that have a render allowed to start, the first allowed one of the priority picked
+     */
+    private Job next() {
+        Map<Priority, Job> candidates = new EnumMap<>(Priority.class);
+        for (Priority priority : Priority.values()) {
+            for (Job job : queues.get(priority)) {
+                if (allowed(job.ticket())) {
+                    candidates.put(priority, job);
+                    break;
+                }
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+
+        Priority picked = null;
+        int total = 0;
+        for (Priority priority : candidates.keySet()) {
+            int weight = weights.get(priority);
+            credits.merge(priority, weight, Integer::sum);
+            total += weight;
+            if (picked == null || credits.get(priority) > credits.get(picked)) {
+                picked = priority;
+            }
+        }
+        credits.merge(picked, -total, Integer::sum);
+
+        Job job = candidates.get(picked);
+        for (Iterator<Job> it = queues.get(picked).iterator(); it.hasNext(); ) {
+            if (it.next() == job) {
+                it.remove();
+                break;
+            }
+        }
+        return job;
+    }
+
+    private boolean allowed(Ticket ticket) {
+        return under(runningTenants, ticket.tenant(), tenantMaxRunning)
+                && under(runningTemplates, ticket.template(), templateMaxRunning);
+    }
+
+    private static boolean under(Map<String, Integer> running, String key, int max) {
+        return max <= 0 || key == null || running.getOrDefault(key, 0) < max;
+    }
+
+    private static void count(Map<String, Integer> running, String key, int delta) {
+        if (key != null) {
+            running.merge(key, delta, (current, change) -> current + change == 0 ? null : current + change);
+        }
+    }
+}
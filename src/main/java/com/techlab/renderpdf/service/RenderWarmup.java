@@ -0,0 +1,138 @@
+package com.techlab.renderpdf.service;
+
+import com.techlab.renderpdf.model.PdfGenerationRequest;
+import com.techlab.renderpdf.model.TableData;
+import com.techlab.renderpdf.output.RenderedDocument;
+import com.techlab.renderpdf.template.PlaceholderSummary;
+import com.techlab.renderpdf.template.TemplateStore;
+import fr.opensagres.poi.xwpf.converter.core.XWPFConverterException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renders every template once at startup, so the classes of a render (POI, the XMLBeans schema types,
+ * xdocreport, OpenPDF, PDFBox) are loaded before the first request needs them
+ *
+ * Each template is rendered with its placeholder names as values and {@value #SAMPLE_ROWS} rows per table,
+ * as a batch render through {@link RenderExecutor}. A render that takes longer than
+ * {@code pdf.generation.warmup.timeout-ms} is abandoned and the warm-up moves on, so startup stays bounded. With {@code pdf.generation.warmup.exit} the process exits
+ * once the warm-up is done: that is the training run of the {@code fast-start} Maven profile, whose JVM
+ * writes the classes it loaded into an AppCDS archive at exit. With {@code pdf.generation.warmup.checkpoint}
+ * a JVM with CRaC support checkpoints after the warm-up, and a process restored from it starts warm.
+ */
+@Slf4j
+@Component
+public class RenderWarmup {
+
+    static final int SAMPLE_ROWS = 3;
+
+    private final TemplateStore templateStore;
+    private final RenderExecutor renderExecutor;
+    private final PdfGenerationService pdfGenerationService;
+    private final ApplicationContext context;
+    private final boolean enabled;
+    private final boolean exit;
+    private final boolean checkpoint;
+    private final Duration timeout;
+
+    public RenderWarmup(TemplateStore templateStore,
+                        RenderExecutor renderExecutor,
+                        PdfGenerationService pdfGenerationService,
+                        ApplicationContext context,
+                        @Value("${pdf.generation.warmup.enabled:false}") boolean enabled,
+                        @Value("${pdf.generation.warmup.exit:false}") boolean exit,
+                        @Value("${pdf.generation.warmup.checkpoint:false}") boolean checkpoint,
+                        @Value("${pdf.generation.warmup.timeout-ms:30000}") long timeoutMs) {
+        this.templateStore = templateStore;
+        this.renderExecutor = renderExecutor;
+        this.pdfGenerationService = pdfGenerationService;
+        this.context = context;
+        this.enabled = enabled;
+        this.exit = exit;
+        this.checkpoint = checkpoint;
+        this.timeout = Duration.ofMillis(timeoutMs);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (!enabled) {
+            return;
+        }
+        long start = System.nanoTime();
+        List<String> names = templateStore.listNames();
+        int rendered = 0;
+        for (String name : names) {
+            try {
+                render(name);
+                rendered++;
+            } catch (RenderDeadline.ExceededException e) {
+                log.warn("Warm-up render of template {} skipped: {}", name, e.getMessage());
+            } catch (IOException | RuntimeException e) {
+                log.warn("Warm-up render of template {} failed: {}", name, e.getMessage());
+            }
+        }
+        log.info("Warm-up: rendered {} of {} templates in {} ms", rendered, names.size(),
+                (System.nanoTime() - start) / 1_000_000);
+
+        if (checkpoint) {
+            checkpoint();
+        }
+        if (exit) {
+            System.exit(SpringApplication.exit(context));
+        }
+    }
+
+    private void render(String templateName) throws IOException, XWPFConverterException {
+        PlaceholderSummary placeholders = PlaceholderSummary.scan(templateStore.resolve(templateName).readBytes());
+        Map<String, Object> variables = new LinkedHashMap<>();
+        placeholders.variables().forEach(variable -> variables.put(variable, variable));
+        List<TableData> tables = new ArrayList<>();
+        placeholders.tables().forEach((table, fields) -> {
+            Map<String, Object> row = new LinkedHashMap<>();
+            fields.forEach(field -> row.put(field, field));
+            List<Map<String, Object>> rows = Collections.nCopies(SAMPLE_ROWS, row);
+            tables.add(new TableData(table, List.copyOf(fields), rows));
+            // ${#each table} loops read the same rows from the variables
+            variables.putIfAbsent(table, rows);
+        });
+
+        PdfGenerationRequest request = new PdfGenerationRequest(templateName, variables, tables, null);
+        RenderScheduler.Ticket ticket = new RenderScheduler.Ticket(RenderScheduler.Priority.BATCH, null, templateName);
+        RenderDeadline deadline = RenderDeadline.after(timeout);
+        try (PdfGenerationService.PreparedRender prepared = pdfGenerationService.prepare(request, deadline);
+             RenderedDocument pdf = renderExecutor.execute(ticket, deadline, () -> pdfGenerationService.render(prepared))) {
+            log.debug("Warm-up render of template {}: {} bytes", templateName, pdf.size());
+        }
+    }
+
+    /**
+     * Checkpoint through {@code org.crac} (the {@code crac} Maven profile); on a JVM without CRaC the
+     * checkpoint fails and the process keeps running warm
+     */
+    private static void checkpoint() {
+        try {
+            Class.forName("org.crac.Core").getMethod("checkpointRestore").invoke(null);
+            log.info("Restored from CRaC checkpoint");
+        } catch (ClassNotFoundException e) {
+            log.warn("CRaC checkpoint requested, but org.crac is not on the class path (build with -Pcrac)");
+        } catch (InvocationTargetException e) {
+            log.warn("CRaC checkpoint failed: {}", e.getCause().toString());
+        } catch (ReflectiveOperationException e) {
+            log.warn("CRaC checkpoint failed: {}", e.toString());
+        }
+    }
+}
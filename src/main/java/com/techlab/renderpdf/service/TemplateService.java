@@ -1,5 +1,11 @@
 package com.techlab.renderpdf.service;
 
+import com.techlab.renderpdf.template.Placeholder;
+import com.techlab.renderpdf.template.TemplateCatalog;
+import com.techlab.renderpdf.template.TemplateStore;
+import com.techlab.renderpdf.template.TemplateType;
+import com.techlab.renderpdf.template.TemplateVersion;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.poi.xwpf.usermodel.*;
 import org.springframework.beans.factory.annotation.Value;
@@ -14,10 +20,6 @@ import com.lowagie.text.Font;
 import com.lowagie.text.pdf.BaseFont;
 
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -27,23 +29,29 @@ import java.util.regex.Pattern;
  */
 @Slf4j
 @Service
+@RequiredArgsConstructor
 public class TemplateService {
 
-    @Value("${pdf.generation.template-dir:./templates}")
-    private String templateDir;
+    private final FontCache fontCache;
+
+    private final TemplateStore templateStore;
+
+    private final TemplateCatalog templateCatalog;
 
     @Value("${pdf.generation.font-path:./fonts/times.ttf}")
     private String fontPath;
 
     /**
-     * Upload template file (DOCX) to templates directory
+     * Upload template file (DOCX) as a new version of the template
+     * In-flight renders keep using the version they resolved; later requests see the new one
      * 
      * @param file The DOCX file to upload
      * @param templateName Optional template name (without extension). If not provided, uses original filename
+     * @param type Template type: docx (default) or form (laid out once into a fill-able PDF)
      * @return The saved template name (without .docx extension)
      * @throws IOException If file operation fails
      */
-    public String uploadTemplate(MultipartFile file, String templateName) throws IOException {
+    public String uploadTemplate(MultipartFile file, String templateName, String type) throws IOException {
         // Validate file
         if (file == null || file.isEmpty()) {
             throw new IllegalArgumentException("File cannot be empty");
@@ -54,14 +62,6 @@ public class TemplateService {
             throw new IllegalArgumentException("Only .docx files are allowed");
         }
 
-        // Validate DOCX file by trying to read it
-        try (InputStream inputStream = file.getInputStream()) {
-            XWPFDocument document = new XWPFDocument(inputStream);
-            document.close();
-        } catch (Exception e) {
-            throw new IllegalArgumentException("Invalid DOCX file: " + e.getMessage());
-        }
-
         // Determine template name
         String finalTemplateName;
         if (templateName != null && !templateName.trim().isEmpty()) {
@@ -72,20 +72,13 @@ public class TemplateService {
                     .replaceAll("[^a-zA-Z0-9_-]", "_");
         }
 
-        // Ensure template directory exists
-        Path templateDirectory = Paths.get(templateDir);
-        if (!Files.exists(templateDirectory)) {
-            Files.createDirectories(templateDirectory);
-            log.info("Created template directory: {}", templateDirectory);
-        }
+        TemplateType templateType = TemplateType.parse(type);
 
-        // Save file
-        Path targetPath = templateDirectory.resolve(finalTemplateName + ".docx");
-        try (InputStream inputStream = file.getInputStream()) {
-            Files.copy(inputStream, targetPath, StandardCopyOption.REPLACE_EXISTING);
-        }
+        // Store as a new content-addressed version; validation (compile) happens before the name switches to it
+        TemplateVersion version = templateStore.store(finalTemplateName, file.getBytes(), templateType);
 
-        log.info("Template uploaded successfully: {} -> {}", originalFilename, targetPath);
+        log.info("Template uploaded successfully: {} -> {} (version {}, {})", originalFilename, finalTemplateName,
+                version.hash(), templateType.id());
         return finalTemplateName;
     }
 
@@ -98,20 +91,12 @@ public class TemplateService {
      * @throws XWPFConverterException If PDF conversion fails
      */
     public byte[] previewTemplate(String templateName) throws IOException, XWPFConverterException {
-        String templatePath = Paths.get(templateDir, templateName + ".docx").toString();
-        File templateFile = new File(templatePath);
-
-        if (!templateFile.exists()) {
-            throw new FileNotFoundException("Template not found: " + templateName);
-        }
+        TemplateVersion version = templateStore.resolve(templateName);
 
-        log.info("Previewing template: {}", templatePath);
+        log.info("Previewing template: {} (version {})", templateName, version.hash());
 
         // Read DOCX template
-        XWPFDocument docxDocument;
-        try (FileInputStream fis = new FileInputStream(templateFile)) {
-            docxDocument = new XWPFDocument(fis);
-        }
+        XWPFDocument docxDocument = new XWPFDocument(new ByteArrayInputStream(version.readBytes()));
 
         try {
             // Convert DOCX to PDF without filling variables
@@ -126,7 +111,7 @@ public class TemplateService {
                 if (fontFile.exists()) {
                     options.fontProvider((familyName, encoding, size, style, color) -> {
                         try {
-                            BaseFont baseFont = BaseFont.createFont(fontPath, BaseFont.IDENTITY_H, BaseFont.EMBEDDED);
+                            BaseFont baseFont = fontCache.get(fontPath, BaseFont.IDENTITY_H, BaseFont.EMBEDDED);
                             return new Font(baseFont, size, style, color);
                         } catch (Exception e) {
                             log.warn("Error loading font, using default font: {}", e.getMessage());
@@ -136,6 +121,7 @@ public class TemplateService {
                 }
             }
 
+            RenderDeadline.check("convert");
             // Convert DOCX to PDF
             PdfConverter.getInstance().convert(docxDocument, pdfOutputStream, options);
 
@@ -156,42 +142,30 @@ public class TemplateService {
      * @return List of template names (without .docx extension)
      */
     public List<String> listTemplates() {
-        List<String> templates = new ArrayList<>();
-        
-        try {
-            Path templateDirectory = Paths.get(templateDir);
-            if (Files.exists(templateDirectory)) {
-                Files.list(templateDirectory)
-                    .filter(path -> path.toString().toLowerCase().endsWith(".docx"))
-                    .map(path -> {
-                        String filename = path.getFileName().toString();
-                        return filename.substring(0, filename.length() - 5); // Remove .docx
-                    })
-                    .sorted()
-                    .forEach(templates::add);
-            }
-        } catch (IOException e) {
-            log.error("Error listing templates", e);
-        }
+        return templateStore.listNames();
+    }
 
-        return templates;
+    /**
+     * One page of the template catalogue (metadata, no disk access)
+     * 
+     * @param prefix Name prefix, or null for all templates
+     * @param after Last name of the previous page, or null for the first page
+     * @param limit Maximum number of templates in the page
+     */
+    public TemplateCatalog.Page listTemplates(String prefix, String after, int limit) {
+        return templateCatalog.list(prefix, after, limit);
     }
 
     /**
      * Delete a template
+     * Renders already pinned to its current version still complete
      * 
      * @param templateName Template name (without .docx extension)
      * @return true if deleted successfully, false otherwise
      */
     public boolean deleteTemplate(String templateName) {
         try {
-            Path templatePath = Paths.get(templateDir, templateName + ".docx");
-            if (Files.exists(templatePath)) {
-                Files.delete(templatePath);
-                log.info("Template deleted: {}", templateName);
-                return true;
-            }
-            return false;
+            return templateStore.delete(templateName);
         } catch (IOException e) {
             log.error("Error deleting template: {}", templateName, e);
             return false;
@@ -210,20 +184,12 @@ public class TemplateService {
      * @throws IOException If file operation fails
      */
     public Map<String, Object> extractParamsFromTemplate(String templateName) throws IOException {
-        String templatePath = Paths.get(templateDir, templateName + ".docx").toString();
-        File templateFile = new File(templatePath);
+        TemplateVersion version = templateStore.resolve(templateName);
 
-        if (!templateFile.exists()) {
-            throw new FileNotFoundException("Template not found: " + templateName);
-        }
-
-        log.info("Extracting params from template: {}", templatePath);
+        log.info("Extracting params from template: {} (version {})", templateName, version.hash());
 
         // Read DOCX template
-        XWPFDocument docxDocument;
-        try (FileInputStream fis = new FileInputStream(templateFile)) {
-            docxDocument = new XWPFDocument(fis);
-        }
+        XWPFDocument docxDocument = new XWPFDocument(new ByteArrayInputStream(version.readBytes()));
 
         try {
             // Sets to store unique variables
@@ -231,15 +197,12 @@ public class TemplateService {
             Map<String, Set<String>> tableVariablesMap = new LinkedHashMap<>();
             Set<String> allPlaceholders = new LinkedHashSet<>();
 
-            // Pattern for simple variables: ${variableName}
+            // Pattern for all placeholders: ${variableName}, ${tableName.field}, optionally with :format
             Pattern simplePattern = Pattern.compile("\\$\\{([^}]+)\\}");
-            
-            // Pattern for table variables: ${tableName.field}
-            Pattern tablePattern = Pattern.compile("\\$\\{([^.]+)\\.([^}]+)\\}");
 
             // Extract from paragraphs in body
             for (XWPFParagraph paragraph : docxDocument.getParagraphs()) {
-                extractFromText(paragraph.getText(), simplePattern, tablePattern, 
+                extractFromText(paragraph.getText(), simplePattern, 
                                simpleVariables, tableVariablesMap, allPlaceholders);
             }
 
@@ -248,7 +211,7 @@ public class TemplateService {
                 for (XWPFTableRow row : table.getRows()) {
                     for (XWPFTableCell cell : row.getTableCells()) {
                         for (XWPFParagraph paragraph : cell.getParagraphs()) {
-                            extractFromText(paragraph.getText(), simplePattern, tablePattern,
+                            extractFromText(paragraph.getText(), simplePattern,
                                            simpleVariables, tableVariablesMap, allPlaceholders);
                         }
                     }
@@ -259,7 +222,7 @@ public class TemplateService {
             if (docxDocument.getHeaderFooterPolicy() != null) {
                 if (docxDocument.getHeaderFooterPolicy().getDefaultHeader() != null) {
                     for (XWPFParagraph paragraph : docxDocument.getHeaderFooterPolicy().getDefaultHeader().getParagraphs()) {
-                        extractFromText(paragraph.getText(), simplePattern, tablePattern,
+                        extractFromText(paragraph.getText(), simplePattern,
                                        simpleVariables, tableVariablesMap, allPlaceholders);
                     }
                 }
@@ -267,7 +230,7 @@ public class TemplateService {
                 // Extract from footers
                 if (docxDocument.getHeaderFooterPolicy().getDefaultFooter() != null) {
                     for (XWPFParagraph paragraph : docxDocument.getHeaderFooterPolicy().getDefaultFooter().getParagraphs()) {
-                        extractFromText(paragraph.getText(), simplePattern, tablePattern,
+                        extractFromText(paragraph.getText(), simplePattern,
                                        simpleVariables, tableVariablesMap, allPlaceholders);
                     }
                 }
@@ -319,8 +282,7 @@ public class TemplateService {
      * Extract variables from text using patterns
      */
     private void extractFromText(String text, 
-                                Pattern simplePattern, 
-                                Pattern tablePattern,
+                                Pattern simplePattern,
                                 Set<String> simpleVariables,
                                 Map<String, Set<String>> tableVariablesMap,
                                 Set<String> allPlaceholders) {
@@ -328,30 +290,31 @@ public class TemplateService {
             return;
         }
 
-        // Find table variables first (they have priority)
-        Matcher tableMatcher = tablePattern.matcher(text);
-        while (tableMatcher.find()) {
-            String tableName = tableMatcher.group(1);
-            String fieldName = tableMatcher.group(2);
-            String placeholder = "${" + tableName + "." + fieldName + "}";
-            
+        Matcher matcher = simplePattern.matcher(text);
+        while (matcher.find()) {
+            String varName = matcher.group(1);
+            String placeholder = "${" + varName + "}";
             allPlaceholders.add(placeholder);
-            tableVariablesMap.computeIfAbsent(tableName, k -> new LinkedHashSet<>()).add(fieldName);
-        }
 
-        // Find simple variables (but exclude those that are table names)
-        Matcher simpleMatcher = simplePattern.matcher(text);
-        while (simpleMatcher.find()) {
-            String varName = simpleMatcher.group(1);
-            String placeholder = "${" + varName + "}";
-            
-            // Only add if it's not already in table variables (to avoid duplicates)
-            if (!tableVariablesMap.containsKey(varName) && !allPlaceholders.contains(placeholder)) {
-                // Check if this is actually a table variable by looking for ${varName. pattern
-                if (!text.contains("${" + varName + ".")) {
-                    simpleVariables.add(varName);
-                    allPlaceholders.add(placeholder);
+            // Block directives: ${#if name} reads a variable, ${#each items} a list; closings read nothing
+            if (varName.startsWith("#") || varName.startsWith("/")) {
+                String[] directive = varName.trim().split("\\s+", 2);
+                if (directive.length == 2 && directive[0].equals("#each")) {
+                    tableVariablesMap.computeIfAbsent(directive[1], k -> new LinkedHashSet<>());
+                } else if (directive.length == 2 && !directive[1].contains(".")) {
+                    simpleVariables.add(directive[1].startsWith("!") ? directive[1].substring(1) : directive[1]);
                 }
+                continue;
+            }
+
+            // Format specifier (${amount:currency:vi_VN}) is not part of the name
+            String reference = Placeholder.reference(varName);
+            int dot = reference.indexOf('.');
+            if (dot > 0) {
+                tableVariablesMap.computeIfAbsent(reference.substring(0, dot), k -> new LinkedHashSet<>())
+                        .add(reference.substring(dot + 1));
+            } else {
+                simpleVariables.add(reference);
             }
         }
     }
@@ -0,0 +1,588 @@
+package com.techlab.renderpdf.template;
+
+import org.apache.poi.xwpf.usermodel.IBodyElement;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.apache.poi.xwpf.usermodel.XWPFTableCell;
+import org.apache.poi.xwpf.usermodel.XWPFTableRow;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTRPr;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Block directives of a template, compiled once into the steps that rebuild the document body per render
+ *
+ * Each directive takes a body paragraph of its own:
+ * <pre>
+ * ${#if name} ... ${#else} ... ${/if}     (${#if !name} negates; false, 0, "", empty lists and null are false)
+ * ${#each items} ... ${/each}             (the block repeats per item: ${items.field}, or ${items} for plain values,
+ *                                         both with an optional format specifier)
+ * </pre>
+ * Names resolve against the enclosing loops first, then the request variables; {@code a.b} reads a field.
+ *
+ * The plan refers to body elements by position and records which text nodes of a loop body hold loop
+ * placeholders, so a render only moves, copies or drops elements and writes those text nodes. Everything
+ * else (simple variables, table rows) is filled afterwards as for any template.
+ */
+public final class BlockPlan {
+
+    public static final BlockPlan EMPTY = new BlockPlan(List.of(), new Substitution[0][], 0, 0);
+
+    private static final Pattern DIRECTIVE =
+            Pattern.compile("\\$\\{\\s*(#if|#each|#else|/if|/each)(?:\\s+(!?[^\\s.}]+(?:\\.[^\\s.}]+)*))?\\s*}");
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([^}]+)}");
+
+    private static final String W_NS = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+
+    private sealed interface Step permits Emit, Branch, Loop {
+    }
+
+    /**
+     * Body elements [from, to) as they are
+     */
+    private record Emit(int from, int to) implements Step {
+    }
+
+    private record Branch(String[] path, boolean negate, List<Step> then, List<Step> otherwise) implements Step {
+    }
+
+    private record Loop(String[] path, String alias, List<Step> body) implements Step {
+    }
+
+    /**
+     * Text node (by position among the element's {@code w:t} nodes) rebuilt from literal text and loop fields
+     */
+    private record Substitution(int textIndex, List<Object> parts) {
+    }
+
+    /**
+     * Loop placeholder: {@code name()} is the loop alias, {@code field()} null for the item itself
+     */
+    private record Field(Placeholder placeholder) {
+    }
+
+    private record Scope(String alias, Object item, Scope parent) {
+    }
+
+    private record Directive(String kind, String name) {
+    }
+
+    private final List<Step> steps;
+    private final Substitution[][] substitutions;
+    private final int elementCount;
+    private final int directiveCount;
+
+    private BlockPlan(List<Step> steps, Substitution[][] substitutions, int elementCount, int directiveCount) {
+        this.steps = steps;
+        this.substitutions = substitutions;
+        this.elementCount = elementCount;
+        this.directiveCount = directiveCount;
+    }
+
+    /**
+     * Compile the directives of a parsed template
+     *
+     * Placeholders of loop bodies split over several runs are joined into one run (keeping the first
+     * run's formatting) so that every loop placeholder lives in a single text node.
+     *
+     * @throws IllegalArgumentException If the directives are not balanced
+     */
+    public static BlockPlan compile(XWPFDocument document) {
+        List<Node> elements = elements(document.getDocument().getBody().getDomNode());
+        Map<Node, Integer> positions = new IdentityHashMap<>();
+        for (int i = 0; i < elements.size(); i++) {
+            positions.put(elements.get(i), i);
+        }
+
+        Directive[] directives = new Directive[elements.size()];
+        IBodyElement[] bodyElements = new IBodyElement[elements.size()];
+        int directiveCount = 0;
+        for (IBodyElement element : document.getBodyElements()) {
+            Node node = switch (element) {
+                case XWPFParagraph paragraph -> paragraph.getCTP().getDomNode();
+                case XWPFTable table -> table.getCTTbl().getDomNode();
+                default -> null;
+            };
+            Integer position = node != null ? positions.get(node) : null;
+            if (position == null) {
+                continue;
+            }
+            bodyElements[position] = element;
+            if (element instanceof XWPFParagraph paragraph && paragraph.getText().contains("${")) {
+                Matcher matcher = DIRECTIVE.matcher(paragraph.getText().trim());
+                if (matcher.matches()) {
+                    directives[position] = new Directive(matcher.group(1), matcher.group(2));
+                    directiveCount++;
+                }
+            }
+        }
+        if (directiveCount == 0) {
+            return EMPTY;
+        }
+
+        Compiler compiler = new Compiler(elements, directives, bodyElements);
+        List<Step> steps = compiler.block();
+        if (compiler.position < elements.size()) {
+            throw new IllegalArgumentException("Unexpected " + directiveText(directives[compiler.position])
+                    + " without a matching opening directive");
+        }
+        return new BlockPlan(List.copyOf(steps), compiler.substitutions, elements.size(), directiveCount);
+    }
+
+    public boolean isEmpty() {
+        return directiveCount == 0;
+    }
+
+    public int directiveCount() {
+        return directiveCount;
+    }
+
+    /**
+     * Write the plan into a {@link CompiledTemplateSnapshot}
+     */
+    void write(CompiledTemplateSnapshot.Output out) throws IOException {
+        out.writeInt(directiveCount);
+        if (isEmpty()) {
+            return;
+        }
+        out.writeInt(elementCount);
+        writeSteps(out, steps);
+        for (Substitution[] element : substitutions) {
+            out.writeInt(element == null ? -1 : element.length);
+            for (Substitution substitution : element == null ? new Substitution[0] : element) {
+                out.writeInt(substitution.textIndex());
+                out.writeInt(substitution.parts().size());
+                for (Object part : substitution.parts()) {
+                    boolean field = part instanceof Field;
+                    out.writeBoolean(field);
+                    out.writeString(field ? CompiledTemplateSnapshot.body(((Field) part).placeholder()) : (String) part);
+                }
+            }
+        }
+    }
+
+    /**
+     * Plan written by {@link #write}
+     */
+    static BlockPlan read(CompiledTemplateSnapshot.Input in) {
+        int directiveCount = in.readInt();
+        if (directiveCount == 0) {
+            return EMPTY;
+        }
+        int elementCount = in.readInt();
+        List<Step> steps = readSteps(in);
+        Substitution[][] substitutions = new Substitution[elementCount][];
+        for (int i = 0; i < elementCount; i++) {
+            int count = in.readInt();
+            if (count < 0) {
+                continue;
+            }
+            substitutions[i] = new Substitution[count];
+            for (int j = 0; j < count; j++) {
+                int textIndex = in.readInt();
+                List<Object> parts = new ArrayList<>();
+                for (int k = in.readInt(); k > 0; k--) {
+                    boolean field = in.readBoolean();
+                    String text = in.readString();
+                    parts.add(field ? new Field(Placeholder.parse(text)) : text);
+                }
+                substitutions[i][j] = new Substitution(textIndex, List.copyOf(parts));
+            }
+        }
+        return new BlockPlan(steps, substitutions, elementCount, directiveCount);
+    }
+
+    private static void writeSteps(CompiledTemplateSnapshot.Output out, List<Step> block) throws IOException {
+        out.writeInt(block.size());
+        for (Step step : block) {
+            switch (step) {
+                case Emit emit -> {
+                    out.writeInt(0);
+                    out.writeInt(emit.from());
+                    out.writeInt(emit.to());
+                }
+                case Branch branch -> {
+                    out.writeInt(1);
+                    writePath(out, branch.path());
+                    out.writeBoolean(branch.negate());
+                    writeSteps(out, branch.then());
+                    writeSteps(out, branch.otherwise());
+                }
+                case Loop loop -> {
+                    out.writeInt(2);
+                    writePath(out, loop.path());
+                    out.writeString(loop.alias());
+                    writeSteps(out, loop.body());
+                }
+            }
+        }
+    }
+
+    private static List<Step> readSteps(CompiledTemplateSnapshot.Input in) {
+        List<Step> block = new ArrayList<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            int kind = in.readInt();
+            block.add(switch (kind) {
+                case 0 -> new Emit(in.readInt(), in.readInt());
+                case 1 -> new Branch(readPath(in), in.readBoolean(), readSteps(in), readSteps(in));
+                case 2 -> new Loop(readPath(in), in.readString(), readSteps(in));
+                default -> throw new IllegalArgumentException("Unknown block step " + kind);
+            });
+        }
+        return List.copyOf(block);
+    }
+
+    private static void writePath(CompiledTemplateSnapshot.Output out, String[] path) throws IOException {
+        out.writeInt(path.length);
+        for (String name : path) {
+            out.writeString(name);
+        }
+    }
+
+    private static String[] readPath(CompiledTemplateSnapshot.Input in) {
+        String[] path = new String[in.readInt()];
+        for (int i = 0; i < path.length; i++) {
+            path[i] = in.readString();
+        }
+        return path;
+    }
+
+    /**
+     * Rebuild the body of a document parsed from the compiled bytes for the given variables
+     *
+     * @return Number of body elements after the rebuild
+     */
+    public int apply(TemplateDocument document, Map<String, Object> variables) {
+        if (isEmpty()) {
+            return document.getBodyElements().size();
+        }
+        Node body = document.getDocument().getBody().getDomNode();
+        List<Node> elements = elements(body);
+        if (elements.size() != elementCount) {
+            throw new IllegalStateException("Document body has " + elements.size() + " elements, plan expects "
+                    + elementCount);
+        }
+        for (Node element : elements) {
+            body.removeChild(element);
+        }
+        int emitted = emit(steps, body, elements, variables, null);
+        document.reloadBody();
+        return emitted;
+    }
+
+    private int emit(List<Step> block, Node body, List<Node> elements, Map<String, Object> variables, Scope scope) {
+        int emitted = 0;
+        for (Step step : block) {
+            switch (step) {
+                case Emit emit -> {
+                    for (int i = emit.from(); i < emit.to(); i++) {
+                        // Inside a loop the original stays detached as the pristine copy source
+                        Node node = scope != null ? elements.get(i).cloneNode(true) : elements.get(i);
+                        if (scope != null && substitutions[i] != null) {
+                            substitute((Element) node, substitutions[i], scope);
+                        }
+                        body.appendChild(node);
+                        emitted++;
+                    }
+                }
+                case Branch branch -> emitted += emit(truthy(resolve(branch.path(), variables, scope)) != branch.negate()
+                        ? branch.then() : branch.otherwise(), body, elements, variables, scope);
+                case Loop loop -> {
+                    Object value = resolve(loop.path(), variables, scope);
+                    Collection<?> items = value instanceof Collection<?> collection ? collection
+                            : value == null ? List.of() : List.of(value);
+                    for (Object item : items) {
+                        emitted += emit(loop.body(), body, elements, variables, new Scope(loop.alias(), item, scope));
+                    }
+                }
+            }
+        }
+        return emitted;
+    }
+
+    private static void substitute(Element element, Substitution[] substitutions, Scope scope) {
+        NodeList texts = element.getElementsByTagNameNS(W_NS, "t");
+        for (Substitution substitution : substitutions) {
+            StringBuilder text = new StringBuilder();
+            for (Object part : substitution.parts()) {
+                if (part instanceof Field(Placeholder placeholder)) {
+                    Object item = item(placeholder.name(), scope);
+                    Object value = placeholder.field() == null ? item
+                            : item instanceof Map<?, ?> map ? map.get(placeholder.field()) : null;
+                    text.append(placeholder.format(value));
+                } else {
+                    text.append((String) part);
+                }
+            }
+            Element node = (Element) texts.item(substitution.textIndex());
+            while (node.getFirstChild() != null) {
+                node.removeChild(node.getFirstChild());
+            }
+            node.appendChild(node.getOwnerDocument().createTextNode(text.toString()));
+            node.setAttributeNS("http://www.w3.org/XML/1998/namespace", "xml:space", "preserve");
+        }
+    }
+
+    private static Object item(String alias, Scope scope) {
+        for (Scope s = scope; s != null; s = s.parent()) {
+            if (s.alias().equals(alias)) {
+                return s.item();
+            }
+        }
+        return null;
+    }
+
+    private static Object resolve(String[] path, Map<String, Object> variables, Scope scope) {
+        Object value = null;
+        boolean found = false;
+        for (Scope s = scope; s != null && !found; s = s.parent()) {
+            if (s.alias().equals(path[0])) {
+                value = s.item();
+                found = true;
+            }
+        }
+        if (!found && variables != null) {
+            value = variables.get(path[0]);
+        }
+        for (int i = 1; i < path.length && value != null; i++) {
+            value = value instanceof Map<?, ?> map ? map.get(path[i]) : null;
+        }
+        return value;
+    }
+
+    private static boolean truthy(Object value) {
+        return switch (value) {
+            case null -> false;
+            case Boolean b -> b;
+            case Number n -> n.doubleValue() != 0;
+            case CharSequence s -> !s.isEmpty() && !"false".contentEquals(s);
+            case Collection<?> c -> !c.isEmpty();
+            case Map<?, ?> m -> !m.isEmpty();
+            default -> true;
+        };
+    }
+
+    /**
+     * Element children of the body, {@code w:sectPr} included
+     */
+    private static List<Node> elements(Node body) {
+        List<Node> elements = new ArrayList<>();
+        for (Node child = body.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                elements.add(child);
+            }
+        }
+        return elements;
+    }
+
+    /**
+     * Character content of a {@code w:t} node (the XMLBeans DOM has no DOM Level 3 getTextContent)
+     */
+    private static String text(Node node) {
+        StringBuilder text = new StringBuilder();
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeValue() != null) {
+                text.append(child.getNodeValue());
+            }
+        }
+        return text.toString();
+    }
+
+    private static String directiveText(Directive directive) {
+        return "${" + directive.kind() + (directive.name() != null ? " " + directive.name() : "") + "}";
+    }
+
+    /**
+     * Recursive descent over the body elements
+     */
+    private static final class Compiler {
+
+        private final List<Node> elements;
+        private final Directive[] directives;
+        private final IBodyElement[] bodyElements;
+        private final Substitution[][] substitutions;
+        private final Deque<String> aliases = new ArrayDeque<>();
+        private int position;
+
+        Compiler(List<Node> elements, Directive[] directives, IBodyElement[] bodyElements) {
+            this.elements = elements;
+            this.directives = directives;
+            this.bodyElements = bodyElements;
+            this.substitutions = new Substitution[elements.size()][];
+        }
+
+        /**
+         * Steps up to the end of the body or the first closing / else directive (not consumed)
+         */
+        List<Step> block() {
+            List<Step> steps = new ArrayList<>();
+            int from = position;
+            while (position < elements.size()) {
+                Directive directive = directives[position];
+                if (directive == null) {
+                    if (!aliases.isEmpty()) {
+                        substitutions[position] = substitutions(position);
+                    }
+                    position++;
+                    continue;
+                }
+                if (position > from) {
+                    steps.add(new Emit(from, position));
+                }
+                switch (directive.kind()) {
+                    case "#if" -> {
+                        String name = name(directive);
+                        boolean negate = name.startsWith("!");
+                        position++;
+                        List<Step> then = block();
+                        List<Step> otherwise = List.of();
+                        if (position < elements.size() && directives[position].kind().equals("#else")) {
+                            position++;
+                            otherwise = block();
+                        }
+                        close("/if", directive);
+                        steps.add(new Branch((negate ? name.substring(1) : name).split("\\."), negate,
+                                List.copyOf(then), List.copyOf(otherwise)));
+                    }
+                    case "#each" -> {
+                        String name = name(directive);
+                        if (name.startsWith("!")) {
+                            throw new IllegalArgumentException("Cannot negate a loop: " + directiveText(directive));
+                        }
+                        String[] path = name.split("\\.");
+                        String alias = path[path.length - 1];
+                        position++;
+                        aliases.push(alias);
+                        List<Step> body = block();
+                        aliases.pop();
+                        close("/each", directive);
+                        steps.add(new Loop(path, alias, List.copyOf(body)));
+                    }
+                    default -> {
+                        return steps;
+                    }
+                }
+                from = position;
+            }
+            if (position > from) {
+                steps.add(new Emit(from, position));
+            }
+            return steps;
+        }
+
+        private void close(String kind, Directive opening) {
+            if (position >= elements.size() || !directives[position].kind().equals(kind)) {
+                throw new IllegalArgumentException("Unclosed " + directiveText(opening)
+                        + (position < elements.size() ? ", found " + directiveText(directives[position]) : ""));
+            }
+            position++;
+        }
+
+        private static String name(Directive directive) {
+            if (directive.name() == null) {
+                throw new IllegalArgumentException(directiveText(directive) + " needs a variable name");
+            }
+            return directive.name();
+        }
+
+        /**
+         * Loop placeholders of a body element inside a loop, or null if it has none
+         */
+        private Substitution[] substitutions(int position) {
+            if (bodyElements[position] instanceof XWPFParagraph paragraph) {
+                joinSplitPlaceholders(paragraph);
+            } else if (bodyElements[position] instanceof XWPFTable table) {
+                for (XWPFTableRow row : table.getRows()) {
+                    for (XWPFTableCell cell : row.getTableCells()) {
+                        cell.getParagraphs().forEach(Compiler::joinSplitPlaceholders);
+                    }
+                }
+            }
+
+            List<Substitution> found = new ArrayList<>();
+            NodeList texts = ((Element) elements.get(position)).getElementsByTagNameNS(W_NS, "t");
+            for (int i = 0; i < texts.getLength(); i++) {
+                String text = text(texts.item(i));
+                if (!text.contains("${")) {
+                    continue;
+                }
+                List<Object> parts = new ArrayList<>();
+                boolean loopField = false;
+                int last = 0;
+                Matcher matcher = PLACEHOLDER.matcher(text);
+                while (matcher.find()) {
+                    String reference = Placeholder.reference(matcher.group(1));
+                    int dot = reference.indexOf('.');
+                    if (!aliases.contains(dot < 0 ? reference : reference.substring(0, dot))) {
+                        continue;
+                    }
+                    loopField = true;
+                    if (matcher.start() > last) {
+                        parts.add(text.substring(last, matcher.start()));
+                    }
+                    parts.add(new Field(Placeholder.parse(matcher.group(1))));
+                    last = matcher.end();
+                }
+                if (loopField) {
+                    if (last < text.length()) {
+                        parts.add(text.substring(last));
+                    }
+                    found.add(new Substitution(i, List.copyOf(parts)));
+                }
+            }
+            return found.isEmpty() ? null : found.toArray(Substitution[]::new);
+        }
+
+        /**
+         * Join the runs of a paragraph whose placeholders do not each sit in a single run
+         */
+        private static void joinSplitPlaceholders(XWPFParagraph paragraph) {
+            List<XWPFRun> runs = paragraph.getRuns();
+            String text = paragraph.getText();
+            if (runs.size() < 2 || !text.contains("${")) {
+                return;
+            }
+            int whole = 0;
+            for (XWPFRun run : runs) {
+                whole += count(run.text());
+            }
+            if (whole == count(text)) {
+                return;
+            }
+            CTRPr properties = runs.get(0).getCTR().getRPr();
+            CTRPr copy = properties != null ? (CTRPr) properties.copy() : null;
+            for (int i = runs.size() - 1; i >= 0; i--) {
+                paragraph.removeRun(i);
+            }
+            XWPFRun run = paragraph.createRun();
+            if (copy != null) {
+                run.getCTR().setRPr(copy);
+            }
+            run.setText(text);
+        }
+
+        private static int count(String text) {
+            int count = 0;
+            Matcher matcher = PLACEHOLDER.matcher(text);
+            while (matcher.find()) {
+                count++;
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.techlab.renderpdf.template;
+
+/**
+ * Template prepared for rendering, cached by content hash
+ *
+ * @param name Template name the version was compiled for
+ * @param hash Content hash of the source version
+ * @param bytes DOCX bytes with line spacing already normalised; each render parses its own document from them
+ * @param memory Heap a render of these bytes is expected to take, for admission against the memory budget
+ * @param blocks Conditional / repeated sections of the body, applied to each parsed copy before filling
+ * @param formats Placeholders with a format specifier, bound to their formatters
+ */
+public record CompiledTemplate(String name, String hash, byte[] bytes, MemoryProfile memory, BlockPlan blocks,
+                               ValueFormats formats) {
+}
@@ -0,0 +1,145 @@
+package com.techlab.renderpdf.template;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+
+/**
+ * Compiled templates keyed by content hash
+ * Two names pointing at identical bytes share one entry, and a new upload never invalidates
+ * the entry an in-flight render is using (it simply gets a new key).
+ *
+ * With {@code pdf.generation.cache.template.snapshot} every compiled template is also written as a
+ * {@link CompiledTemplateSnapshot} next to its DOCX blob, and a miss loads that snapshot before compiling,
+ * so a restarted node does not normalise and analyse its templates again.
+ */
+@Slf4j
+@Component
+public class CompiledTemplateCache {
+
+    private final TemplateCompiler compiler;
+    private final Cache<String, CompiledTemplate> cache;
+    private final boolean snapshots;
+    private final Counter compiledCounter;
+    private final Counter snapshotCounter;
+
+    public CompiledTemplateCache(TemplateCompiler compiler,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${pdf.generation.cache.template.max-size:100}") long maxSize,
+                                 @Value("${pdf.generation.cache.template.expire-hours:1}") long expireHours,
+                                 @Value("${pdf.generation.cache.template.snapshot:true}") boolean snapshots) {
+        this.compiler = compiler;
+        this.snapshots = snapshots;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterAccess(Duration.ofHours(expireHours))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "compiledTemplates");
+        this.compiledCounter = Counter.builder("render.template.compiles")
+                .description("Templates compiled, or loaded from their snapshot")
+                .tag("source", "compiler")
+                .register(meterRegistry);
+        this.snapshotCounter = Counter.builder("render.template.compiles")
+                .description("Templates compiled, or loaded from their snapshot")
+                .tag("source", "snapshot")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Compiled form of the version, loading its snapshot or compiling it once on a miss
+     */
+    public CompiledTemplate get(TemplateVersion version) throws IOException {
+        try {
+            return cache.get(version.hash(), hash -> {
+                try {
+                    CompiledTemplate loaded = load(version);
+                    if (loaded != null) {
+                        return loaded;
+                    }
+                    log.debug("Compiling template {} version {}", version.name(), hash.substring(0, 12));
+                    CompiledTemplate compiled = compiler.compile(version, version.readBytes());
+                    compiledCounter.increment();
+                    save(version, compiled);
+                    return compiled;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public boolean contains(String hash) {
+        return cache.getIfPresent(hash) != null;
+    }
+
+    /**
+     * Load the snapshot of a version into the cache, without compiling it if it has none
+     *
+     * @return true if the version is cached now
+     */
+    public boolean preload(TemplateVersion version) {
+        if (contains(version.hash())) {
+            return true;
+        }
+        CompiledTemplate loaded = load(version);
+        if (loaded != null) {
+            cache.asMap().putIfAbsent(version.hash(), loaded);
+        }
+        return loaded != null;
+    }
+
+    /**
+     * Cache the version compiled by the caller, and write its snapshot once its DOCX blob exists
+     */
+    public void put(TemplateVersion version, CompiledTemplate compiled) {
+        compiledCounter.increment();
+        save(version, compiled);
+        cache.put(compiled.hash(), compiled);
+    }
+
+    /**
+     * Compiled template from the snapshot of the version, or null if it has no usable one
+     */
+    private CompiledTemplate load(TemplateVersion version) {
+        if (!snapshots) {
+            return null;
+        }
+        long start = System.nanoTime();
+        try {
+            CompiledTemplate loaded = CompiledTemplateSnapshot.read(CompiledTemplateSnapshot.path(version), version);
+            if (loaded != null) {
+                snapshotCounter.increment();
+                log.debug("Loaded template {} version {} from its snapshot in {} µs", version.name(),
+                        version.hash().substring(0, 12), (System.nanoTime() - start) / 1000);
+            }
+            return loaded;
+        } catch (IOException e) {
+            log.warn("Ignoring snapshot of template {}: {}", version.name(), e.getMessage());
+            return null;
+        }
+    }
+
+    private void save(TemplateVersion version, CompiledTemplate compiled) {
+        if (!snapshots) {
+            return;
+        }
+        try {
+            CompiledTemplateSnapshot.write(CompiledTemplateSnapshot.path(version), compiled);
+        } catch (IOException e) {
+            // The snapshot only saves work after a restart; the template is compiled again then
+            log.warn("Cannot write snapshot of template {}: {}", version.name(), e.getMessage());
+        }
+    }
+}
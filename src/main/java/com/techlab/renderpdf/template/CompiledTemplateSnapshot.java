@@ -0,0 +1,271 @@
+package com.techlab.renderpdf.template;
+
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On-disk form of a {@link CompiledTemplate}, so a new process loads what an earlier one compiled
+ *
+ * Written as {@code .versions/blobs/<sha256>.compiled} next to the DOCX blob:
+ * <pre>
+ * magic "RPDFTPL1", code version, template hash
+ * compiled DOCX bytes
+ * memory profile (document bytes, row bytes)
+ * block plan (steps, loop substitutions)
+ * formatted placeholders (by their text between ${ })
+ * </pre>
+ * The file is memory-mapped and read in one pass without parsing the DOCX. It is only used when both the
+ * template hash and the code version match: the code version is a hash of the classes that produce the
+ * compiled form and of the POI version, so a deploy that changes how templates compile ignores (and then
+ * overwrites) the snapshots of the previous one.
+ */
+public final class CompiledTemplateSnapshot {
+
+    public static final String SUFFIX = ".compiled";
+
+    private static final byte[] MAGIC = "RPDFTPL1".getBytes(StandardCharsets.US_ASCII);
+
+    /** Classes whose code decides the compiled form */
+    private static final List<Class<?>> COMPILED_BY = List.of(TemplateCompiler.class, SpacingNormalizer.class,
+            BlockPlan.class, MemoryProfile.class, ValueFormats.class, Placeholder.class, ValueFormatters.class,
+            CompiledTemplateSnapshot.class);
+
+    private static final String CODE_VERSION = codeVersion();
+
+    private CompiledTemplateSnapshot() {
+    }
+
+    /**
+     * Snapshot file of a version, next to its DOCX blob
+     */
+    public static Path path(TemplateVersion version) {
+        return version.path().resolveSibling(version.hash() + SUFFIX);
+    }
+
+    /**
+     * Write the compiled template to a temp file and rename it over the snapshot
+     */
+    public static void write(Path snapshot, CompiledTemplate compiled) throws IOException {
+        Path temp = Files.createTempFile(snapshot.getParent(), snapshot.getFileName().toString(), ".tmp");
+        try {
+            try (Output out = new Output(Files.newOutputStream(temp))) {
+                out.write(MAGIC);
+                out.writeString(CODE_VERSION);
+                out.writeString(compiled.hash());
+                out.writeBytes(compiled.bytes());
+                out.writeLong(compiled.memory().documentBytes());
+                out.writeLong(compiled.memory().rowBytes());
+                compiled.blocks().write(out);
+                writeFormats(out, compiled.formats());
+            }
+            try {
+                Files.move(temp, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Compiled template of the version from its snapshot
+     *
+     * @return {@code null} if there is no snapshot, or it was written for other bytes or by other code
+     * @throws IOException If the snapshot cannot be read or is damaged
+     */
+    public static CompiledTemplate read(Path snapshot, TemplateVersion version) throws IOException {
+        if (!Files.exists(snapshot)) {
+            return null;
+        }
+        Input in;
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            in = new Input(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        try {
+            if (!MessageDigest.isEqual(in.read(MAGIC.length), MAGIC) || !CODE_VERSION.equals(in.readString())
+                    || !version.hash().equals(in.readString())) {
+                return null;
+            }
+            byte[] bytes = in.readBytes();
+            MemoryProfile memory = new MemoryProfile(in.readLong(), in.readLong());
+            BlockPlan blocks = BlockPlan.read(in);
+            ValueFormats formats = readFormats(in);
+            if (in.hasRemaining()) {
+                throw new IOException("Trailing data in template snapshot " + snapshot);
+            }
+            return new CompiledTemplate(version.name(), version.hash(), bytes, memory, blocks, formats);
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException
+                 | NegativeArraySizeException e) {
+            throw new IOException("Damaged template snapshot " + snapshot, e);
+        }
+    }
+
+    private static void writeFormats(Output out, ValueFormats formats) throws IOException {
+        out.writeInt(formats.byBody().size());
+        for (String body : formats.byBody().keySet()) {
+            out.writeString(body);
+        }
+        out.writeInt(formats.simple().size());
+        for (Placeholder placeholder : formats.simple()) {
+            out.writeString(body(placeholder));
+        }
+    }
+
+    private static ValueFormats readFormats(Input in) {
+        int count = in.readInt();
+        if (count == 0) {
+            in.readInt();
+            return ValueFormats.NONE;
+        }
+        Map<String, Placeholder> byBody = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            String body = in.readString();
+            byBody.put(body, Placeholder.parse(body));
+        }
+        List<Placeholder> simple = new ArrayList<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            simple.add(byBody.get(in.readString()));
+        }
+        return new ValueFormats(List.copyOf(simple), Map.copyOf(byBody));
+    }
+
+    /**
+     * Text between {@code ${ }} of a placeholder, which {@link Placeholder#parse} turns back into it
+     */
+    static String body(Placeholder placeholder) {
+        return placeholder.text().substring(2, placeholder.text().length() - 1);
+    }
+
+    private static String codeVersion() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Class<?> type : COMPILED_BY) {
+                digestClass(digest, type);
+            }
+            digest.update(String.valueOf(XWPFDocument.class.getPackage().getImplementationVersion())
+                    .getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest(), 0, 16);
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Cannot determine template compiler version", e);
+        }
+    }
+
+    /**
+     * Add the class file of the type and of its nested types (BlockPlan's compiler) to the digest
+     */
+    private static void digestClass(MessageDigest digest, Class<?> type) throws IOException {
+        String resource = type.getName().substring(type.getPackageName().length() + 1) + ".class";
+        try (InputStream in = type.getResourceAsStream(resource)) {
+            if (in != null) {
+                digest.update(in.readAllBytes());
+            }
+        }
+        for (Class<?> nested : type.getDeclaredClasses()) {
+            digestClass(digest, nested);
+        }
+    }
+
+    /**
+     * Big-endian, length-prefixed writes, read back by {@link Input}
+     */
+    static final class Output implements AutoCloseable {
+        private final DataOutputStream out;
+
+        Output(OutputStream out) {
+            this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        }
+
+        void write(byte[] bytes) throws IOException {
+            out.write(bytes);
+        }
+
+        void writeInt(int value) throws IOException {
+            out.writeInt(value);
+        }
+
+        void writeLong(long value) throws IOException {
+            out.writeLong(value);
+        }
+
+        void writeBoolean(boolean value) throws IOException {
+            out.writeBoolean(value);
+        }
+
+        void writeBytes(byte[] bytes) throws IOException {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        void writeString(String value) throws IOException {
+            writeBytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    static final class Input {
+        private final ByteBuffer buffer;
+
+        Input(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        int readInt() {
+            return buffer.getInt();
+        }
+
+        long readLong() {
+            return buffer.getLong();
+        }
+
+        boolean readBoolean() {
+            return buffer.get() != 0;
+        }
+
+        byte[] readBytes() {
+            return read(buffer.getInt());
+        }
+
+        byte[] read(int length) {
+            if (length < 0 || length > buffer.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return bytes;
+        }
+
+        String readString() {
+            return new String(readBytes(), StandardCharsets.UTF_8);
+        }
+
+        boolean hasRemaining() {
+            return buffer.hasRemaining();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.techlab.renderpdf.template;
+
+/**
+ * One {@code ${...}} placeholder: {@code ${name}}, {@code ${table.field}}, optionally followed by a format
+ * specifier ({@code ${amount:currency:vi_VN}}, {@code ${items.price:number:#,##0}}, {@code ${date:dd/MM/yyyy}})
+ *
+ * @param text The placeholder as written in the template, {@code ${...}} included
+ * @param name Variable (or table / loop) name
+ * @param field Field of a table row or loop item, or null
+ * @param formatter Formatter bound to the specifier, {@link ValueFormatters#PLAIN} without one
+ */
+public record Placeholder(String text, String name, String field, ValueFormatter formatter) {
+
+    /**
+     * Parse the inside of a placeholder
+     *
+     * @throws IllegalArgumentException If the format specifier is invalid
+     */
+    public static Placeholder parse(String body) {
+        int colon = body.indexOf(':');
+        String reference = (colon < 0 ? body : body.substring(0, colon)).trim();
+        ValueFormatter formatter = colon < 0 ? ValueFormatters.PLAIN : ValueFormatters.of(body.substring(colon + 1).trim());
+        int dot = reference.indexOf('.');
+        return new Placeholder("${" + body + "}", dot < 0 ? reference : reference.substring(0, dot),
+                dot < 0 ? null : reference.substring(dot + 1), formatter);
+    }
+
+    /**
+     * Name and field of a placeholder without resolving its format specifier
+     */
+    public static String reference(String body) {
+        int colon = body.indexOf(':');
+        return (colon < 0 ? body : body.substring(0, colon)).trim();
+    }
+
+    public boolean isFormatted() {
+        return formatter != ValueFormatters.PLAIN;
+    }
+
+    public String format(Object value) {
+        return formatter.format(value);
+    }
+}
@@ -0,0 +1,116 @@
+package com.techlab.renderpdf.template;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Placeholders of a template, read from the body, header and footer XML without building a DOM
+ *
+ * Markup is stripped per paragraph, so a placeholder split over several runs is still found.
+ * Block directives count as the variables they read: {@code ${#if name}} as a variable,
+ * {@code ${#each items}} as a table.
+ *
+ * @param variables Simple {@code ${name}} placeholders
+ * @param tables Table name -> fields of its {@code ${table.field}} placeholders
+ */
+public record PlaceholderSummary(List<String> variables, Map<String, List<String>> tables) {
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([^}]+)}");
+
+    public static PlaceholderSummary scan(byte[] docx) throws IOException {
+        Set<String> variables = new LinkedHashSet<>();
+        Map<String, Set<String>> tables = new LinkedHashMap<>();
+        for (String body : placeholders(docx)) {
+            String placeholder = body.trim();
+            if (placeholder.startsWith("/") || placeholder.equals("#else")) {
+                continue;
+            }
+            boolean loop = placeholder.startsWith("#each ");
+            if (placeholder.startsWith("#")) {
+                placeholder = placeholder.substring(placeholder.indexOf(' ') + 1).trim();
+                placeholder = placeholder.startsWith("!") ? placeholder.substring(1) : placeholder;
+            }
+            // Format specifiers (${amount:currency:vi_VN}) are not part of the name
+            String reference = Placeholder.reference(placeholder);
+            int dot = reference.indexOf('.');
+            if (dot >= 0) {
+                tables.computeIfAbsent(reference.substring(0, dot), table -> new LinkedHashSet<>())
+                        .add(reference.substring(dot + 1));
+            } else if (loop) {
+                tables.computeIfAbsent(reference, table -> new LinkedHashSet<>());
+            } else {
+                variables.add(reference);
+            }
+        }
+        variables.removeAll(tables.keySet());
+        Map<String, List<String>> tableFields = new LinkedHashMap<>();
+        tables.forEach((table, fields) -> tableFields.put(table, List.copyOf(fields)));
+        return new PlaceholderSummary(List.copyOf(variables), tableFields);
+    }
+
+    /**
+     * Text between {@code ${ }} of every placeholder in the body, headers and footers, in document order
+     */
+    static List<String> placeholders(byte[] docx) throws IOException {
+        List<String> placeholders = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(docx))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                String name = entry.getName();
+                if (name.equals("word/document.xml")
+                        || (name.startsWith("word/header") || name.startsWith("word/footer")) && name.endsWith(".xml")) {
+                    Matcher matcher = PLACEHOLDER.matcher(text(zip.readAllBytes()));
+                    while (matcher.find()) {
+                        placeholders.add(matcher.group(1));
+                    }
+                }
+            }
+        }
+        return placeholders;
+    }
+
+    /**
+     * Text content with one line per paragraph
+     */
+    private static String text(byte[] xml) {
+        String markup = new String(xml, StandardCharsets.UTF_8);
+        StringBuilder text = new StringBuilder(markup.length() / 4);
+        int i = 0;
+        while (i < markup.length()) {
+            char c = markup.charAt(i);
+            if (c == '<') {
+                int end = markup.indexOf('>', i);
+                if (end < 0) {
+                    break;
+                }
+                if (markup.startsWith("</w:p>", i)) {
+                    text.append('\n');
+                }
+                i = end + 1;
+            } else {
+                text.append(c);
+                i++;
+            }
+        }
+        return text.toString();
+    }
+
+    public int placeholderCount() {
+        int count = variables.size();
+        for (List<String> fields : tables.values()) {
+            count += fields.size();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,417 @@
+package com.techlab.renderpdf.template;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.util.ZipArchiveThresholdInputStream;
+import org.apache.poi.openxml4j.util.ZipInputStreamZipEntrySource;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFFooter;
+import org.apache.poi.xwpf.usermodel.XWPFHeader;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cuts a filled document into parts that start on a new page, so that each part can be laid out on its own
+ *
+ * A part may start after a section break that starts a new page ({@code nextPage}, the default type) or at a
+ * body paragraph that starts with a page break ({@code pageBreakBefore}, or a page break before any text).
+ * Each part keeps the page setup of its sections; a part starting inside a section loses that section's
+ * different first page, and its leading page break is dropped as the part starts on a new page anyway.
+ *
+ * Parts number their pages from 1 (or the section's own start), so documents with page numbers in
+ * headers or footers are only cut at sections that restart numbering, and never when they show the
+ * page count.
+ */
+public final class SectionSplitter {
+
+    static final String W_NS = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+
+    private static final Pattern PAGE_FIELD =
+            Pattern.compile("(?:w:instr=\"|<w:instrText[^>]*>)\\s*(PAGE|NUMPAGES|SECTIONPAGES)\\b");
+
+    private SectionSplitter() {
+    }
+
+    /**
+     * Write the document as up to {@code maxParts} DOCX parts of similar size
+     *
+     * Table rows count as body elements when balancing parts. The body is rearranged while the parts are
+     * written, then restored and its element lists rebuilt.
+     *
+     * @param minElements Documents with fewer body elements are not cut
+     * @return The parts in document order, or an empty list if the document is not cut
+     * @throws IOException If a part cannot be written
+     */
+    public static List<byte[]> split(TemplateDocument document, int maxParts, int minElements) throws IOException {
+        if (maxParts < 2) {
+            return List.of();
+        }
+        Body body = new Body(document);
+        List<Element> elements = body.elements;
+        Element[] sections = body.sections;
+        int count = elements.size();
+
+        int[] weights = new int[count + 1];
+        for (int i = 0; i < count; i++) {
+            weights[i + 1] = weights[i] + weight(elements.get(i));
+        }
+        if (weights[count] < minElements) {
+            return List.of();
+        }
+
+        PageFields pageFields = PageFields.of(document);
+        List<Integer> starts = new ArrayList<>();
+        List<Boolean> midSection = new ArrayList<>();
+        for (int i = 1; i < count; i++) {
+            if (paragraphSection(elements.get(i - 1)) != null) {
+                if (startsNewPage(sections[i]) && pageFields.allowSectionCut(sections[i])) {
+                    starts.add(i);
+                    midSection.add(false);
+                }
+            } else if (pageFields == PageFields.NONE && startsWithPageBreak(elements.get(i))) {
+                starts.add(i);
+                midSection.add(true);
+            }
+        }
+        if (starts.isEmpty()) {
+            return List.of();
+        }
+
+        // Cut at the candidates closest to equal shares of the total weight
+        List<Range> ranges = new ArrayList<>();
+        int from = 0;
+        boolean fromMidSection = false;
+        int candidate = 0;
+        for (int part = 1; part < maxParts && candidate < starts.size(); part++) {
+            long target = (long) weights[count] * part / maxParts;
+            while (candidate + 1 < starts.size()
+                    && Math.abs(weights[starts.get(candidate + 1)] - target) <= Math.abs(weights[starts.get(candidate)] - target)) {
+                candidate++;
+            }
+            if (from < starts.get(candidate)) {
+                ranges.add(new Range(from, starts.get(candidate), fromMidSection));
+                from = starts.get(candidate);
+                fromMidSection = midSection.get(candidate);
+            }
+            candidate++;
+        }
+        ranges.add(new Range(from, count, fromMidSection));
+        return write(document, body, ranges);
+    }
+
+    /**
+     * Write one DOCX per range of body elements, then restore the body and rebuild its element lists
+     */
+    static List<byte[]> write(TemplateDocument document, Body body, List<Range> ranges) throws IOException {
+        List<byte[]> parts = new ArrayList<>(ranges.size());
+        try {
+            for (Range range : ranges) {
+                arrange(body, range);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                document.write(out);
+                parts.add(out.toByteArray());
+            }
+        } finally {
+            clear(body.node);
+            body.elements.forEach(body.node::appendChild);
+            if (body.section != null) {
+                body.node.appendChild(body.section);
+            }
+            document.reloadBody();
+        }
+        return parts;
+    }
+
+    /**
+     * Parse a part written by {@link #split}
+     *
+     * Parts are this service's own output, and filled documents (the same rows and paragraphs repeated)
+     * easily compress beyond POI's zip bomb ratio, so the ratio check is off for them; uploads keep it.
+     *
+     * @throws IOException If the part cannot be parsed
+     */
+    public static XWPFDocument open(byte[] part) throws IOException {
+        ZipArchiveThresholdInputStream zip =
+                new ZipArchiveThresholdInputStream(new ZipArchiveInputStream(new ByteArrayInputStream(part)));
+        zip.setGuardState(false);
+        try {
+            return new XWPFDocument(OPCPackage.open(new ZipInputStreamZipEntrySource(zip)));
+        } catch (InvalidFormatException e) {
+            throw new IOException("Invalid document part", e);
+        }
+    }
+
+    /**
+     * Make the body hold elements [from, to) followed by the section properties of the last one
+     *
+     * Elements that have to change are copied, the originals stay as they are for the other parts.
+     */
+    private static void arrange(Body body, Range range) {
+        clear(body.node);
+        int from = range.from();
+        int to = range.to();
+        Element[] sections = body.sections;
+        List<Element> part = new ArrayList<>(body.elements.subList(from, to));
+
+        Element lastSection = sections[to - 1];
+        Element last = part.get(part.size() - 1);
+        Element partSection = null;
+        if (lastSection != null) {
+            partSection = (Element) lastSection.cloneNode(true);
+            if (paragraphSection(last) == lastSection) {
+                // The section break ends the part: its properties become those of the part's body
+                Element copy = (Element) last.cloneNode(true);
+                Element copySection = paragraphSection(copy);
+                copySection.getParentNode().removeChild(copySection);
+                part.set(part.size() - 1, copy);
+            }
+        }
+
+        if (range.midSection()) {
+            Element first = (Element) part.get(0).cloneNode(true);
+            removePageBreaks(first);
+            part.set(0, first);
+
+            // Only the real first page of the section has the first-page header and footer
+            Element firstSection = sections[from] == lastSection ? partSection : null;
+            if (firstSection == null) {
+                for (int i = 0; i < part.size() && firstSection == null; i++) {
+                    Element own = paragraphSection(part.get(i));
+                    if (own != null) {
+                        Element copy = i == 0 ? part.get(0) : (Element) part.get(i).cloneNode(true);
+                        part.set(i, copy);
+                        firstSection = paragraphSection(copy);
+                    }
+                }
+            }
+            if (firstSection != null) {
+                removeChildren(firstSection, "titlePg");
+            }
+        }
+
+        part.forEach(body.node::appendChild);
+        if (partSection != null) {
+            body.node.appendChild(partSection);
+        } else if (body.section != null) {
+            body.node.appendChild(body.section.cloneNode(true));
+        }
+    }
+
+    /**
+     * Body elements [from, to) of one part; a part starting inside a section drops the section's
+     * first-page setup and its own leading page break
+     */
+    record Range(int from, int to, boolean midSection) {
+    }
+
+    /**
+     * Element children of a document body, with the section properties that apply to each
+     */
+    static final class Body {
+
+        final Node node;
+        final List<Element> elements = new ArrayList<>();
+        /** Body-level section properties (the last section), or null */
+        final Element section;
+        /** Per element: properties of the next paragraph ending a section, or of the last section */
+        final Element[] sections;
+
+        Body(XWPFDocument document) {
+            node = document.getDocument().getBody().getDomNode();
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE) {
+                    elements.add((Element) child);
+                }
+            }
+            section = !elements.isEmpty() && isW(elements.get(elements.size() - 1), "sectPr")
+                    ? elements.remove(elements.size() - 1) : null;
+            sections = new Element[elements.size()];
+            Element current = section;
+            for (int i = elements.size() - 1; i >= 0; i--) {
+                Element own = paragraphSection(elements.get(i));
+                if (own != null) {
+                    current = own;
+                }
+                sections[i] = current;
+            }
+        }
+
+        int indexOf(Node element) {
+            for (int i = 0; i < elements.size(); i++) {
+                if (elements.get(i) == element) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Headers and footers showing page numbers, and whether they show the page count
+     */
+    enum PageFields {
+        NONE, PAGE_NUMBERS, PAGE_COUNT;
+
+        static PageFields of(XWPFDocument document) {
+            PageFields fields = NONE;
+            List<String> parts = new ArrayList<>();
+            for (XWPFHeader header : document.getHeaderList()) {
+                parts.add(header._getHdrFtr().xmlText());
+            }
+            for (XWPFFooter footer : document.getFooterList()) {
+                parts.add(footer._getHdrFtr().xmlText());
+            }
+            for (String xml : parts) {
+                Matcher matcher = PAGE_FIELD.matcher(xml);
+                while (matcher.find()) {
+                    if (!matcher.group(1).equals("PAGE")) {
+                        return PAGE_COUNT;
+                    }
+                    fields = PAGE_NUMBERS;
+                }
+            }
+            return fields;
+        }
+
+        boolean allowSectionCut(Element nextSection) {
+            return switch (this) {
+                case NONE -> true;
+                case PAGE_NUMBERS -> nextSection != null && restartsNumbering(nextSection);
+                case PAGE_COUNT -> false;
+            };
+        }
+    }
+
+    private static boolean restartsNumbering(Element section) {
+        Element numbering = child(section, "pgNumType");
+        return numbering != null && numbering.hasAttributeNS(W_NS, "start");
+    }
+
+    /**
+     * The type of a section says how the section itself starts
+     */
+    private static boolean startsNewPage(Element section) {
+        if (section == null) {
+            return true;
+        }
+        Element type = child(section, "type");
+        String value = type != null ? type.getAttributeNS(W_NS, "val") : "";
+        return value.isEmpty() || value.equals("nextPage");
+    }
+
+    static Element paragraphSection(Element element) {
+        if (!isW(element, "p")) {
+            return null;
+        }
+        Element properties = child(element, "pPr");
+        return properties != null ? child(properties, "sectPr") : null;
+    }
+
+    /**
+     * Paragraph with page break before, or a page break ahead of any text in its runs
+     */
+    private static boolean startsWithPageBreak(Element element) {
+        if (!isW(element, "p")) {
+            return false;
+        }
+        Element properties = child(element, "pPr");
+        Element pageBreakBefore = properties != null ? child(properties, "pageBreakBefore") : null;
+        if (pageBreakBefore != null && isOn(pageBreakBefore)) {
+            return true;
+        }
+        for (Node run = element.getFirstChild(); run != null; run = run.getNextSibling()) {
+            if (!(run instanceof Element r) || !isW(r, "r")) {
+                continue;
+            }
+            for (Node content = r.getFirstChild(); content != null; content = content.getNextSibling()) {
+                if (content instanceof Element item && !isW(item, "rPr") && !isW(item, "lastRenderedPageBreak")) {
+                    return isPageBreak(item);
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void removePageBreaks(Element paragraph) {
+        Element properties = child(paragraph, "pPr");
+        if (properties != null) {
+            removeChildren(properties, "pageBreakBefore");
+        }
+        for (Node run = paragraph.getFirstChild(); run != null; run = run.getNextSibling()) {
+            if (!(run instanceof Element r) || !isW(r, "r")) {
+                continue;
+            }
+            Node content = r.getFirstChild();
+            while (content != null) {
+                Node next = content.getNextSibling();
+                if (content instanceof Element item && !isW(item, "rPr") && !isW(item, "lastRenderedPageBreak")) {
+                    if (!isPageBreak(item)) {
+                        return;
+                    }
+                    r.removeChild(item);
+                }
+                content = next;
+            }
+        }
+    }
+
+    private static boolean isPageBreak(Element element) {
+        return isW(element, "br") && "page".equals(element.getAttributeNS(W_NS, "type"));
+    }
+
+    private static boolean isOn(Element toggle) {
+        String value = toggle.getAttributeNS(W_NS, "val");
+        return !value.equals("0") && !value.equals("false") && !value.equals("off");
+    }
+
+    /**
+     * Body elements a part is balanced by: 1 per paragraph, 1 per table row
+     */
+    private static int weight(Element element) {
+        if (!isW(element, "tbl")) {
+            return 1;
+        }
+        int rows = 0;
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element row && isW(row, "tr")) {
+                rows++;
+            }
+        }
+        return Math.max(rows, 1);
+    }
+
+    static Element child(Element parent, String localName) {
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element element && isW(element, localName)) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    static void removeChildren(Element parent, String localName) {
+        Element child;
+        while ((child = child(parent, localName)) != null) {
+            parent.removeChild(child);
+        }
+    }
+
+    private static void clear(Node body) {
+        while (body.getFirstChild() != null) {
+            body.removeChild(body.getFirstChild());
+        }
+    }
+
+    static boolean isW(Element element, String localName) {
+        return W_NS.equals(element.getNamespaceURI()) && localName.equals(element.getLocalName());
+    }
+}
@@ -0,0 +1,223 @@
+package com.techlab.renderpdf.template;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.apache.poi.xwpf.usermodel.XWPFTableCell;
+import org.apache.poi.xwpf.usermodel.XWPFTableRow;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTPPr;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTSpacing;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.STLineSpacingRule;
+import org.springframework.stereotype.Component;
+
+import java.math.BigInteger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Makes line spacing explicit on every paragraph so PdfConverter lays it out correctly
+ *
+ * Runs once per template version at compile time; the result is baked into the compiled DOCX.
+ * The spacing of a paragraph depends only on a handful of inputs (line spacing, font size, whether
+ * it has text, whether it sits in a table, its existing spacing after), so the resulting CTSpacing
+ * values are computed once per distinct input and looked up from a table afterwards.
+ * Rows created at render time copy the paragraph properties of their (already normalised) template row.
+ */
+@Slf4j
+@Component
+public class SpacingNormalizer {
+
+    public static final double DEFAULT_LINE_SPACING = 1.5d;
+
+    private static final int DEFAULT_FONT_SIZE = 12;
+
+    /**
+     * Everything the spacing of a paragraph depends on
+     */
+    record SpacingKey(double lineSpacing, int fontSize, boolean hasText, boolean inTable, int existingAfter) {
+    }
+
+    /**
+     * Resulting spacing: {@code null} after/before means the attribute is removed
+     */
+    record SpacingSpec(BigInteger line, BigInteger after, BigInteger before) {
+    }
+
+    private final ConcurrentMap<SpacingKey, SpacingSpec> specs = new ConcurrentHashMap<>();
+
+    /**
+     * Normalise every paragraph of the document (body, table cells, default header and footer)
+     *
+     * @return Number of paragraphs normalised
+     */
+    public int normalize(XWPFDocument document) {
+        int paragraphCount = 0;
+
+        for (XWPFParagraph paragraph : document.getParagraphs()) {
+            normalize(paragraph, false);
+            paragraphCount++;
+        }
+
+        for (XWPFTable table : document.getTables()) {
+            for (XWPFTableRow row : table.getRows()) {
+                for (XWPFTableCell cell : row.getTableCells()) {
+                    for (XWPFParagraph paragraph : cell.getParagraphs()) {
+                        normalize(paragraph, true);
+                        paragraphCount++;
+                    }
+                }
+            }
+        }
+
+        if (document.getHeaderFooterPolicy() != null) {
+            if (document.getHeaderFooterPolicy().getDefaultHeader() != null) {
+                for (XWPFParagraph paragraph : document.getHeaderFooterPolicy().getDefaultHeader().getParagraphs()) {
+                    normalize(paragraph, false);
+                    paragraphCount++;
+                }
+            }
+            if (document.getHeaderFooterPolicy().getDefaultFooter() != null) {
+                for (XWPFParagraph paragraph : document.getHeaderFooterPolicy().getDefaultFooter().getParagraphs()) {
+                    normalize(paragraph, false);
+                    paragraphCount++;
+                }
+            }
+        }
+        return paragraphCount;
+    }
+
+    /**
+     * Normalise one paragraph
+     */
+    public void normalize(XWPFParagraph paragraph, boolean inTable) {
+        double lineSpacing = resolveLineSpacing(paragraph);
+        SpacingKey key = new SpacingKey(
+                lineSpacing > 0 ? lineSpacing : DEFAULT_LINE_SPACING,
+                fontSize(paragraph),
+                hasText(paragraph),
+                inTable,
+                paragraph.getSpacingAfter());
+        apply(paragraph, specs.computeIfAbsent(key, SpacingNormalizer::compute));
+    }
+
+    /**
+     * A paragraph whose text was filled with an empty value gets the spacing of an empty paragraph
+     */
+    public void normalizeEmptied(XWPFParagraph paragraph) {
+        CTPPr pPr = paragraph.getCTP().getPPr();
+        if (pPr == null || !pPr.isSetSpacing()) {
+            return;
+        }
+        CTSpacing spacing = pPr.getSpacing();
+        spacing.setAfter(BigInteger.ZERO);
+        spacing.setBefore(BigInteger.ZERO);
+    }
+
+    /**
+     * Effective line spacing multiplier of the paragraph (0 if none is set)
+     */
+    public static double resolveLineSpacing(XWPFParagraph paragraph) {
+        double spacing = paragraph.getSpacingBetween();
+        if (spacing > 0) {
+            return spacing;
+        }
+        CTPPr pPr = paragraph.getCTP().getPPr();
+        if (pPr != null && pPr.isSetSpacing() && pPr.getSpacing().isSetLine()
+                && pPr.getSpacing().getLine() instanceof BigInteger line && line.signum() > 0) {
+            return line.doubleValue() / 240d;
+        }
+        return 0;
+    }
+
+    int tableSize() {
+        return specs.size();
+    }
+
+    /**
+     * Spacing rules (AUTO line rule, multiplier * 240 twips):
+     * - empty paragraphs: no spacing before/after so blank lines do not stretch the page
+     * - text outside tables: spacing after grows with the line spacing, capped at 2x font size
+     * - text inside tables: lighter spacing after, capped at 0.8x font size
+     */
+    private static SpacingSpec compute(SpacingKey key) {
+        BigInteger line = BigInteger.valueOf(Math.round(key.lineSpacing() * 240));
+        if (!key.hasText()) {
+            return new SpacingSpec(line, BigInteger.ZERO, BigInteger.ZERO);
+        }
+
+        int fontSize = key.fontSize();
+        int existingAfter = key.existingAfter();
+        int after;
+        if (!key.inTable()) {
+            double extraPoints = fontSize * (key.lineSpacing() - 0.5);
+            if (extraPoints > 0) {
+                after = (int) Math.round(extraPoints * 20 * 1.5);
+                if (existingAfter > 0) {
+                    after = Math.max(after, (int) (existingAfter * 1.2));
+                }
+            } else {
+                after = (int) Math.round(fontSize * 0.4 * 20);
+                if (existingAfter > 0 && existingAfter < after) {
+                    after = existingAfter;
+                }
+            }
+            after = Math.min(after, (int) Math.round(fontSize * 2.0 * 20));
+        } else {
+            double extraPoints = fontSize * (key.lineSpacing() - 1.0);
+            if (extraPoints > 0) {
+                after = (int) Math.round(extraPoints * 20 * 0.5);
+                if (existingAfter > 0) {
+                    after = Math.max(after, (int) (existingAfter * 1.1));
+                }
+            } else {
+                after = (int) Math.round(fontSize * 0.5 * 20);
+                if (existingAfter > 0 && existingAfter < after) {
+                    after = existingAfter;
+                }
+            }
+            after = Math.min(after, (int) Math.round(fontSize * 0.8 * 20));
+        }
+        return new SpacingSpec(line, after > 0 ? BigInteger.valueOf(after) : null, null);
+    }
+
+    private static void apply(XWPFParagraph paragraph, SpacingSpec spec) {
+        CTPPr pPr = paragraph.getCTP().isSetPPr() ? paragraph.getCTP().getPPr() : paragraph.getCTP().addNewPPr();
+        CTSpacing spacing = pPr.isSetSpacing() ? pPr.getSpacing() : pPr.addNewSpacing();
+        spacing.setLine(spec.line());
+        spacing.setLineRule(STLineSpacingRule.AUTO);
+        if (spec.after() != null) {
+            spacing.setAfter(spec.after());
+        } else if (spacing.isSetAfter()) {
+            spacing.unsetAfter();
+        }
+        if (spec.before() != null) {
+            spacing.setBefore(spec.before());
+        } else if (spacing.isSetBefore()) {
+            spacing.unsetBefore();
+        }
+    }
+
+    private static boolean hasText(XWPFParagraph paragraph) {
+        String text = paragraph.getText();
+        if (text != null && !text.isBlank()) {
+            return true;
+        }
+        for (XWPFRun run : paragraph.getRuns()) {
+            String runText = run.getText(0);
+            if (runText != null && !runText.isBlank()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int fontSize(XWPFParagraph paragraph) {
+        if (paragraph.getRuns().isEmpty()) {
+            return DEFAULT_FONT_SIZE;
+        }
+        Double fontSize = paragraph.getRuns().get(0).getFontSizeAsDouble();
+        return fontSize != null && fontSize > 0 ? fontSize.intValue() : DEFAULT_FONT_SIZE;
+    }
+}
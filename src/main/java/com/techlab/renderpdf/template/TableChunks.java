@@ -0,0 +1,134 @@
+package com.techlab.renderpdf.template;
+
+import org.apache.poi.xwpf.usermodel.IBodyElement;
+import org.apache.poi.xwpf.usermodel.LineSpacingRule;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTPPr;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTSectPr;
+import org.w3c.dom.Element;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.List;
+
+/**
+ * A filled document cut around one dynamic table, so that its rows can be rendered a chunk at a time
+ *
+ * The table keeps its header rows (marked to repeat on every page) and its template row in each chunk.
+ * The first chunk holds the body up to the table, middle chunks only the table, the last chunk the table
+ * and the rest of the body. Each chunk ends its page, so chunks should hold a whole number of pages of rows.
+ *
+ * With page numbers in headers or footers, every chunk after the first continues the numbering of the
+ * chunks rendered before it. Documents showing the page count cannot be chunked, see {@link #showsPageCount}.
+ */
+public final class TableChunks {
+
+    private final byte[] first;
+    private final byte[] middle;
+    private final byte[] last;
+    /** Tables before the chunked one in the body */
+    private final int tableIndex;
+    private final boolean numbersPages;
+
+    private TableChunks(List<byte[]> variants, int tableIndex, boolean numbersPages) {
+        this.first = variants.get(0);
+        this.middle = variants.get(1);
+        this.last = variants.get(2);
+        this.tableIndex = tableIndex;
+        this.numbersPages = numbersPages;
+    }
+
+    /**
+     * Write the chunk variants of a filled document whose table rows are not expanded yet
+     *
+     * @param table Body-level table of the document
+     * @param templateRowIndex Row expanded for each data row; the rows before it are the header
+     * @throws IOException If a variant cannot be written
+     */
+    public static TableChunks cut(TemplateDocument document, XWPFTable table, int templateRowIndex) throws IOException {
+        for (int i = 0; i < templateRowIndex; i++) {
+            table.getRow(i).setRepeatHeader(true);
+        }
+        SectionSplitter.Body body = new SectionSplitter.Body(document);
+        int index = body.indexOf(table.getCTTbl().getDomNode());
+        if (index < 0) {
+            throw new IllegalArgumentException("Table is not in the document body");
+        }
+        int tableIndex = 0;
+        for (Element element : body.elements.subList(0, index)) {
+            if (SectionSplitter.isW(element, "tbl")) {
+                tableIndex++;
+            }
+        }
+        boolean numbersPages = SectionSplitter.PageFields.of(document) == SectionSplitter.PageFields.PAGE_NUMBERS;
+        List<byte[]> variants = SectionSplitter.write(document, body, List.of(
+                new SectionSplitter.Range(0, index + 1, false),
+                new SectionSplitter.Range(index, index + 1, true),
+                new SectionSplitter.Range(index, body.elements.size(), true)));
+        return new TableChunks(variants, tableIndex, numbersPages);
+    }
+
+    /**
+     * Whether headers or footers show the page count, which no chunk knows before the last is rendered
+     */
+    public static boolean showsPageCount(XWPFDocument document) {
+        return SectionSplitter.PageFields.of(document) == SectionSplitter.PageFields.PAGE_COUNT;
+    }
+
+    /**
+     * Whether headers or footers show page numbers, so chunks need the page count of the chunks before them
+     */
+    public boolean numbersPages() {
+        return numbersPages;
+    }
+
+    /**
+     * Parse the document of one chunk, its table still holding the header and template rows
+     *
+     * @param firstPageNumber Number of the chunk's first page, used when {@link #numbersPages()}
+     * @throws IOException If the chunk cannot be parsed
+     */
+    public XWPFDocument open(int chunk, int chunkCount, int firstPageNumber) throws IOException {
+        XWPFDocument document = SectionSplitter.open(chunk == 0 ? first : chunk == chunkCount - 1 ? last : middle);
+        if (chunk > 0 && chunk < chunkCount - 1) {
+            // xdocreport lays out only the first page of a table nothing follows, as Word never writes one
+            XWPFParagraph end = document.createParagraph();
+            end.setSpacingBefore(0);
+            end.setSpacingAfter(0);
+            end.setSpacingBetween(1, LineSpacingRule.EXACT);
+            end.createRun().setFontSize(1);
+        }
+        if (numbersPages && chunk > 0) {
+            CTSectPr section = firstSection(document);
+            (section.isSetPgNumType() ? section.getPgNumType() : section.addNewPgNumType())
+                    .setStart(BigInteger.valueOf(firstPageNumber));
+        }
+        return document;
+    }
+
+    /**
+     * The chunked table in a document returned by {@link #open}
+     */
+    public XWPFTable table(XWPFDocument document, int chunk) {
+        return document.getTables().get(chunk == 0 ? tableIndex : 0);
+    }
+
+    /**
+     * Section properties of the section the body starts in
+     */
+    private static CTSectPr firstSection(XWPFDocument document) {
+        for (IBodyElement element : document.getBodyElements()) {
+            if (element instanceof XWPFParagraph paragraph) {
+                CTPPr properties = paragraph.getCTP().getPPr();
+                if (properties != null && properties.isSetSectPr()) {
+                    return properties.getSectPr();
+                }
+            }
+        }
+        return document.getDocument().getBody().isSetSectPr()
+                ? document.getDocument().getBody().getSectPr()
+                : document.getDocument().getBody().addNewSectPr();
+    }
+}
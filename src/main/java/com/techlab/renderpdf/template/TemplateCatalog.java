@@ -0,0 +1,128 @@
+package com.techlab.renderpdf.template;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-memory index of the templates, sorted by name, so listing and searching never touch the disk
+ *
+ * {@link TemplateStore} keeps it current: every pointer flip and delete updates it, and legacy files
+ * seen at startup or by its directory watcher are listed before they are imported (without a hash
+ * until then). Placeholder summaries of versions loaded at startup are filled in by a background scan.
+ * Pages are cursor based ({@code after} = last name of the previous page), so a page costs
+ * O(log n + limit) however deep it is.
+ */
+@Component
+public class TemplateCatalog {
+
+    /**
+     * Catalogue entry of one template name
+     *
+     * @param hash Current version, or null for a legacy file not imported yet
+     * @param placeholders Null until the template was scanned
+     * @param lastUsedAt Last time a render resolved the template since startup, or null
+     */
+    public record TemplateInfo(String name, String hash, long size, String type, Instant uploadedAt,
+                               Instant lastUsedAt, PlaceholderSummary placeholders) {
+
+        TemplateInfo withLastUsed(Instant lastUsed) {
+            return new TemplateInfo(name, hash, size, type, uploadedAt, lastUsed, placeholders);
+        }
+    }
+
+    /**
+     * @param nextAfter Cursor for the next page, or null if this is the last one
+     */
+    public record Page(List<TemplateInfo> templates, String nextAfter) {
+    }
+
+    private final ConcurrentSkipListMap<String, TemplateInfo> entries = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, Instant> lastUsed = new ConcurrentHashMap<>();
+
+    public TemplateCatalog(MeterRegistry meterRegistry) {
+        Gauge.builder("render.template.catalog.size", entries, Map::size)
+                .description("Templates listed in the catalogue")
+                .register(meterRegistry);
+    }
+
+    void put(TemplateVersion version, PlaceholderSummary placeholders) {
+        entries.put(version.name(), new TemplateInfo(version.name(), version.hash(), version.size(),
+                version.type().id(), version.createdAt(), null, placeholders));
+    }
+
+    /**
+     * Fill in the placeholders if the name still points to the scanned version
+     */
+    void putPlaceholders(TemplateVersion version, PlaceholderSummary placeholders) {
+        entries.computeIfPresent(version.name(), (name, info) -> version.hash().equals(info.hash())
+                ? new TemplateInfo(name, info.hash(), info.size(), info.type(), info.uploadedAt(), null, placeholders)
+                : info);
+    }
+
+    /**
+     * List a legacy file that has not been imported yet; an imported entry is left alone
+     */
+    void putLegacy(String name, long size, Instant modified) {
+        entries.putIfAbsent(name, new TemplateInfo(name, null, size, TemplateType.DOCX.id(), modified, null, null));
+    }
+
+    void remove(String name) {
+        entries.remove(name);
+        lastUsed.remove(name);
+    }
+
+    void touch(String name) {
+        lastUsed.put(name, Instant.now());
+    }
+
+    public Optional<TemplateInfo> get(String name) {
+        return Optional.ofNullable(entries.get(name)).map(info -> info.withLastUsed(lastUsed.get(name)));
+    }
+
+    public List<String> names() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    /**
+     * Up to {@code limit} templates whose name starts with {@code prefix}, after the {@code after} cursor
+     *
+     * @param prefix Name prefix, or null/empty for all templates
+     * @param after Last name of the previous page, or null for the first page
+     */
+    public Page list(String prefix, String after, int limit) {
+        NavigableMap<String, TemplateInfo> range = entries;
+        String upper = null;
+        if (prefix != null && !prefix.isEmpty()) {
+            upper = prefix + Character.MAX_VALUE;
+            range = entries.subMap(prefix, true, upper, false);
+        }
+        // A cursor outside the prefix range: before it lists from the start, past it there is nothing left
+        if (after != null && !after.isEmpty() && (prefix == null || after.compareTo(prefix) >= 0)) {
+            if (upper != null && after.compareTo(upper) >= 0) {
+                return new Page(List.of(), null);
+            }
+            range = range.tailMap(after, false);
+        }
+        List<TemplateInfo> page = new ArrayList<>(Math.min(limit, 256));
+        String last = null;
+        for (TemplateInfo info : range.values()) {
+            if (page.size() == limit) {
+                return new Page(page, last);
+            }
+            page.add(info.withLastUsed(lastUsed.get(info.name())));
+            last = info.name();
+        }
+        return new Page(page, null);
+    }
+}
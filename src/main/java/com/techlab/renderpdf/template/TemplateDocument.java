@@ -0,0 +1,56 @@
+package com.techlab.renderpdf.template;
+
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFSDT;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTP;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTSdtBlock;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTTbl;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Document parsed for one render
+ *
+ * POI builds its paragraph and table lists once while parsing; {@link BlockPlan} rearranges the body XML
+ * directly (far cheaper than inserting copies through the POI API) and then lets the lists be rebuilt here.
+ */
+public class TemplateDocument extends XWPFDocument {
+
+    public TemplateDocument(InputStream in) throws IOException {
+        super(in);
+    }
+
+    /**
+     * Rebuild the body element lists from the body XML, the same way parsing does
+     */
+    void reloadBody() {
+        bodyElements.clear();
+        paragraphs.clear();
+        tables.clear();
+        contentControls.clear();
+        try (XmlCursor cursor = getDocument().getBody().newCursor()) {
+            cursor.selectPath("./*");
+            while (cursor.toNextSelection()) {
+                XmlObject object = cursor.getObject();
+                if (object instanceof CTP ctp) {
+                    XWPFParagraph paragraph = new XWPFParagraph(ctp, this);
+                    bodyElements.add(paragraph);
+                    paragraphs.add(paragraph);
+                } else if (object instanceof CTTbl ctTbl) {
+                    XWPFTable table = new XWPFTable(ctTbl, this);
+                    bodyElements.add(table);
+                    tables.add(table);
+                } else if (object instanceof CTSdtBlock sdtBlock) {
+                    XWPFSDT control = new XWPFSDT(sdtBlock, this);
+                    bodyElements.add(control);
+                    contentControls.add(control);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,538 @@
+package com.techlab.renderpdf.template;
+
+import com.techlab.renderpdf.form.FormTemplate;
+import com.techlab.renderpdf.form.FormTemplateCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Content-addressed template storage with an atomic name -> version pointer
+ *
+ * Layout under {@code pdf.generation.template-dir}:
+ * <pre>
+ * .versions/blobs/&lt;sha256&gt;.docx       immutable DOCX bytes, never rewritten
+ * .versions/blobs/&lt;sha256&gt;.form.pdf   laid-out form of a {@link TemplateType#FORM} version
+ * .versions/blobs/&lt;sha256&gt;.compiled   {@link CompiledTemplateSnapshot} of the version
+ * .versions/refs/&lt;name&gt;.ref           current version of a name (hash, size, type, createdAt)
+ * &lt;name&gt;.docx                       legacy drop-in file, imported on first use
+ * </pre>
+ *
+ * An upload writes its blob, compiles it into {@link CompiledTemplateCache} (and, for a form
+ * template, lays it out into {@link FormTemplateCache}), and only then flips
+ * the pointer (ref file written to a temp file and renamed atomically). A request resolves the
+ * pointer once and renders that version to the end, so a swap never exposes a half-written file
+ * and never invalidates what an in-flight render is using. Blobs that no ref points to are only
+ * removed at startup, when nothing can still be pinned to them.
+ *
+ * Legacy {@code <name>.docx} files dropped into the directory are still honoured: a changed
+ * modification time triggers a re-import, but the content hash decides whether it is a new version.
+ * Files are compared with their pointers once at startup, and with {@code pdf.generation.template-watch}
+ * a directory watcher imports them as they appear or change. A request only reads the directory for a
+ * name without a version or a file marked stale, so resolving a known template does no disk access.
+ *
+ * Every change is reflected in {@link TemplateCatalog}, which serves listings without disk access.
+ */
+@Slf4j
+@Component
+public class TemplateStore {
+
+    private static final String VERSIONS_DIR = ".versions";
+    private static final String DOCX = ".docx";
+    private static final String REF = ".ref";
+
+    /**
+     * Current version of a name plus the legacy file timestamp it was imported from (0 if uploaded)
+     */
+    private record Pointer(TemplateVersion version, long sourceModified) {
+    }
+
+    private final Path templateDirectory;
+    private final Path blobDirectory;
+    private final Path refDirectory;
+    private final TemplateCompiler compiler;
+    private final CompiledTemplateCache compiledCache;
+    private final FormTemplateCache formCache;
+    private final TemplateCatalog catalog;
+    private final boolean watchDirectory;
+    private WatchService watchService;
+
+    private final ConcurrentMap<String, Pointer> pointers = new ConcurrentHashMap<>();
+    /**
+     * Names whose legacy file may differ from the version it was imported as
+     */
+    private final Set<String> staleLegacyFiles = ConcurrentHashMap.newKeySet();
+    private final Counter swapCounter;
+
+    public TemplateStore(@Value("${pdf.generation.template-dir:./templates}") String templateDir,
+                         TemplateCompiler compiler,
+                         CompiledTemplateCache compiledCache,
+                         FormTemplateCache formCache,
+                         TemplateCatalog catalog,
+                         @Value("${pdf.generation.template-watch:true}") boolean watchDirectory,
+                         MeterRegistry meterRegistry) {
+        this.templateDirectory = Paths.get(templateDir);
+        this.blobDirectory = templateDirectory.resolve(VERSIONS_DIR).resolve("blobs");
+        this.refDirectory = templateDirectory.resolve(VERSIONS_DIR).resolve("refs");
+        this.compiler = compiler;
+        this.compiledCache = compiledCache;
+        this.formCache = formCache;
+        this.catalog = catalog;
+        this.watchDirectory = watchDirectory;
+
+        this.swapCounter = Counter.builder("render.template.swaps")
+                .description("Template pointers flipped to a new version")
+                .register(meterRegistry);
+        Gauge.builder("render.template.names", pointers, ConcurrentMap::size)
+                .description("Template names with a current version")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Load the pointers, drop blobs no pointer refers to and fill the catalogue
+     */
+    @PostConstruct
+    void init() throws IOException {
+        Files.createDirectories(blobDirectory);
+        Files.createDirectories(refDirectory);
+
+        try (DirectoryStream<Path> refs = Files.newDirectoryStream(refDirectory, "*" + REF)) {
+            for (Path ref : refs) {
+                try {
+                    Pointer pointer = readRef(ref);
+                    if (Files.exists(pointer.version().path())) {
+                        pointers.put(pointer.version().name(), pointer);
+                    } else {
+                        log.warn("Template ref {} points to missing blob {}, ignoring", ref, pointer.version().hash());
+                    }
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Cannot read template ref {}: {}", ref, e.getMessage());
+                }
+            }
+        }
+
+        Set<String> referenced = new HashSet<>();
+        pointers.values().forEach(pointer -> referenced.add(pointer.version().hash()));
+        int removed = 0;
+        try (DirectoryStream<Path> blobs = Files.newDirectoryStream(blobDirectory)) {
+            for (Path blob : blobs) {
+                // <hash>.docx, <hash>.form.pdf, <hash>.compiled and temp files left by an interrupted write
+                String fileName = blob.getFileName().toString();
+                int dot = fileName.indexOf('.');
+                if (fileName.endsWith(".tmp") || !referenced.contains(dot < 0 ? fileName : fileName.substring(0, dot))) {
+                    Files.deleteIfExists(blob);
+                    removed++;
+                }
+            }
+        }
+        log.info("Template store: {} templates, {} unreferenced blobs removed", pointers.size(), removed);
+
+        pointers.values().forEach(pointer -> catalog.put(pointer.version(), null));
+        listLegacyFiles();
+        // Placeholder summaries need the blobs, compiled templates their snapshots: read them in the background,
+        // startup does not wait
+        List<TemplateVersion> versions = pointers.values().stream().map(Pointer::version).toList();
+        Thread.ofVirtual().name("template-catalog-scan").start(() -> {
+            scanPlaceholders(versions);
+            preloadCompiled(versions);
+        });
+
+        if (watchDirectory) {
+            watchService = templateDirectory.getFileSystem().newWatchService();
+            templateDirectory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            Thread.ofPlatform().daemon().name("template-watcher").start(this::watch);
+        }
+    }
+
+    @PreDestroy
+    void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    /**
+     * Resolve the current version of a template; the caller keeps using the returned version
+     *
+     * @throws FileNotFoundException If the template does not exist
+     */
+    public TemplateVersion resolve(String templateName) throws IOException {
+        Pointer pointer = pointers.get(templateName);
+        // Marked before the check: a change the watcher reports meanwhile marks the name again
+        if (staleLegacyFiles.remove(templateName) || pointer == null) {
+            try {
+                long legacyModified = legacyModified(templateName);
+                if (legacyModified != 0 && (pointer == null || pointer.sourceModified() != legacyModified)) {
+                    pointer = importLegacy(templateName, legacyFile(templateName), legacyModified);
+                }
+            } catch (IOException | RuntimeException e) {
+                staleLegacyFiles.add(templateName);
+                throw e;
+            }
+        }
+        if (pointer == null) {
+            throw new FileNotFoundException("Template not found: " + templateName);
+        }
+        catalog.touch(templateName);
+        return pointer.version();
+    }
+
+    /**
+     * Store new bytes for the name as a DOCX template
+     *
+     * @throws IllegalArgumentException If the bytes are not a valid DOCX document
+     */
+    public TemplateVersion store(String templateName, byte[] bytes) throws IOException {
+        return store(templateName, bytes, TemplateType.DOCX);
+    }
+
+    /**
+     * Store new bytes for the name: blob and compiled form first, pointer flip last
+     *
+     * @throws IllegalArgumentException If the bytes are not a valid DOCX document, or cannot be used as a form
+     */
+    public TemplateVersion store(String templateName, byte[] bytes, TemplateType type) throws IOException {
+        TemplateVersion version = prepare(templateName, bytes, type);
+        return flip(new Pointer(version, 0), PlaceholderSummary.scan(bytes)).version();
+    }
+
+    /**
+     * Remove the name; renders already pinned to its version still complete
+     *
+     * @return true if the template existed
+     */
+    public boolean delete(String templateName) throws IOException {
+        AtomicBoolean existed = new AtomicBoolean();
+        try {
+            // Under the pointer's lock, legacy file first: an import racing the delete re-checks the file there
+            pointers.compute(templateName, (name, previous) -> {
+                try {
+                    boolean removed = Files.deleteIfExists(legacyFile(name));
+                    removed |= Files.deleteIfExists(refDirectory.resolve(name + REF));
+                    existed.set(removed || previous != null);
+                    staleLegacyFiles.remove(name);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                catalog.remove(name);
+                return null;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (existed.get()) {
+            log.info("Template deleted: {}", templateName);
+        }
+        return existed.get();
+    }
+
+    /**
+     * Names with a current version, including legacy files not imported yet, from the catalogue
+     */
+    public List<String> listNames() {
+        return catalog.names();
+    }
+
+    public Optional<TemplateVersion> current(String templateName) {
+        return Optional.ofNullable(pointers.get(templateName)).map(Pointer::version);
+    }
+
+    private Pointer importLegacy(String templateName, Path legacyFile, long legacyModified) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(legacyFile);
+        } catch (NoSuchFileException e) {
+            Pointer pointer = pointers.get(templateName);
+            if (pointer == null) {
+                throw new FileNotFoundException("Template not found: " + templateName);
+            }
+            return pointer;
+        }
+        Pointer current = pointers.get(templateName);
+        Pointer published;
+        if (current != null && current.version().hash().equals(sha256(bytes))) {
+            // Only the timestamp changed, not the content: same version
+            published = flip(new Pointer(current.version(), legacyModified), null);
+        } else {
+            // A dropped-in file replaces the content only; the name keeps its template type
+            TemplateType type = current != null ? current.version().type() : TemplateType.DOCX;
+            log.info("Importing template file {} ({} bytes, {})", legacyFile, bytes.length, type.id());
+            published = flip(new Pointer(prepare(templateName, bytes, type), legacyModified),
+                    PlaceholderSummary.scan(bytes));
+        }
+        if (published == null) {
+            // Deleted while it was imported
+            throw new FileNotFoundException("Template not found: " + templateName);
+        }
+        return published;
+    }
+
+    /**
+     * Compile the bytes and write the blob (if new), without making the version visible
+     */
+    private TemplateVersion prepare(String templateName, byte[] bytes, TemplateType type) throws IOException {
+        String hash = sha256(bytes);
+        Path blob = blobDirectory.resolve(hash + DOCX);
+        TemplateVersion version = new TemplateVersion(templateName, hash, bytes.length, Instant.now(), blob, type);
+        CompiledTemplate compiled = compiledCache.contains(hash) ? null : compiler.compile(version, bytes);
+        FormTemplate form = null;
+        if (type == TemplateType.FORM) {
+            byte[] compiledDocx = compiled != null ? compiled.bytes() : compiledCache.get(version).bytes();
+            form = formCache.compile(version, compiledDocx);
+        }
+        if (!Files.exists(blob)) {
+            writeAtomically(blob, out -> out.write(bytes));
+        }
+        if (compiled != null) {
+            compiledCache.put(version, compiled);
+        }
+        if (form != null) {
+            formCache.put(version, form);
+        }
+        return version;
+    }
+
+    /**
+     * Persist and publish the pointer and its catalogue entry; flips and deletes of one name are serialized
+     *
+     * An upload removes the legacy file before its pointer is visible, so a stale file is never imported over it.
+     * An import ({@code sourceModified != 0}) only flips if the legacy file is still the one it read; otherwise an
+     * upload or delete came first and the current pointer stays.
+     *
+     * @param placeholders Null to keep the catalogue entry (same version, new legacy timestamp)
+     * @return The published pointer, the current one if the import lost, or null if the name was deleted
+     */
+    private Pointer flip(Pointer next, PlaceholderSummary placeholders) throws IOException {
+        String templateName = next.version().name();
+        try {
+            return pointers.compute(templateName, (name, previous) -> {
+                try {
+                    if (next.sourceModified() == 0) {
+                        // The store owns this name now; a stale legacy file must not be re-imported over the upload
+                        Files.deleteIfExists(legacyFile(name));
+                    } else if (legacyModified(name) != next.sourceModified()) {
+                        return previous;
+                    }
+                    writeRef(next);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (previous == null || !previous.version().hash().equals(next.version().hash())) {
+                    swapCounter.increment();
+                    log.info("Template {} -> version {} ({} bytes){}", name, next.version().hash().substring(0, 12),
+                            next.version().size(),
+                            previous == null ? "" : ", was " + previous.version().hash().substring(0, 12));
+                }
+                if (placeholders != null || previous == null || previous.version() != next.version()) {
+                    catalog.put(next.version(), placeholders);
+                }
+                return next;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * List legacy files not imported yet and mark those changed since their import (one directory scan)
+     */
+    private void listLegacyFiles() {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(templateDirectory, "*" + DOCX)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                if (!fileName.startsWith("~$")) {
+                    String templateName = stripExtension(fileName, DOCX);
+                    FileTime modified = Files.getLastModifiedTime(file);
+                    Pointer pointer = pointers.get(templateName);
+                    if (pointer != null && pointer.sourceModified() != modified.toMillis()) {
+                        staleLegacyFiles.add(templateName);
+                    }
+                    catalog.putLegacy(templateName, Files.size(file), modified.toInstant());
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error listing template files", e);
+        }
+    }
+
+    private void scanPlaceholders(List<TemplateVersion> versions) {
+        for (TemplateVersion version : versions) {
+            try {
+                catalog.putPlaceholders(version, PlaceholderSummary.scan(version.readBytes()));
+            } catch (IOException e) {
+                log.warn("Cannot scan placeholders of template {}: {}", version.name(), e.getMessage());
+            }
+        }
+        log.debug("Scanned placeholders of {} templates", versions.size());
+    }
+
+    /**
+     * Load the compiled templates a previous process left as snapshots, so first renders do not compile them
+     */
+    private void preloadCompiled(List<TemplateVersion> versions) {
+        long start = System.nanoTime();
+        long loaded = versions.stream().filter(compiledCache::preload).count();
+        log.info("Loaded {} of {} compiled templates from snapshots in {} ms", loaded, versions.size(),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Import legacy files as they are written; a partly copied file fails to compile and is retried on the next event
+     */
+    private void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    listLegacyFiles();
+                    continue;
+                }
+                String fileName = event.context().toString();
+                if (!fileName.endsWith(DOCX) || fileName.startsWith("~$")) {
+                    continue;
+                }
+                String templateName = stripExtension(fileName, DOCX);
+                if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                    // An imported template keeps its version; only a never-imported file disappears
+                    if (!pointers.containsKey(templateName)) {
+                        catalog.remove(templateName);
+                    }
+                    continue;
+                }
+                try {
+                    staleLegacyFiles.add(templateName);
+                    resolve(templateName);
+                } catch (IOException | RuntimeException e) {
+                    log.debug("Template file {} not imported yet: {}", fileName, e.getMessage());
+                    listLegacyFiles();
+                }
+            }
+            if (!key.reset()) {
+                log.warn("Template directory {} is no longer watched", templateDirectory);
+                return;
+            }
+        }
+    }
+
+    private void writeRef(Pointer pointer) throws IOException {
+        TemplateVersion version = pointer.version();
+        Properties ref = new Properties();
+        ref.setProperty("name", version.name());
+        ref.setProperty("hash", version.hash());
+        ref.setProperty("size", Long.toString(version.size()));
+        ref.setProperty("type", version.type().id());
+        ref.setProperty("createdAt", version.createdAt().toString());
+        ref.setProperty("sourceModified", Long.toString(pointer.sourceModified()));
+        writeAtomically(refDirectory.resolve(version.name() + REF), out -> ref.store(out, null));
+    }
+
+    private Pointer readRef(Path ref) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(ref)) {
+            properties.load(in);
+        }
+        String hash = properties.getProperty("hash");
+        TemplateVersion version = new TemplateVersion(
+                properties.getProperty("name"),
+                hash,
+                Long.parseLong(properties.getProperty("size")),
+                Instant.parse(properties.getProperty("createdAt")),
+                blobDirectory.resolve(hash + DOCX),
+                TemplateType.parse(properties.getProperty("type")));
+        return new Pointer(version, Long.parseLong(properties.getProperty("sourceModified", "0")));
+    }
+
+    @FunctionalInterface
+    private interface Writer {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Write to a temp file in the same directory, then rename over the target
+     */
+    private static void writeAtomically(Path target, Writer writer) throws IOException {
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                writer.write(out);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private Path legacyFile(String templateName) {
+        return templateDirectory.resolve(templateName + DOCX);
+    }
+
+    /**
+     * Modification time of the legacy file, or 0 if there is none
+     */
+    private long legacyModified(String templateName) throws IOException {
+        Path legacyFile = legacyFile(templateName);
+        try {
+            return Files.exists(legacyFile) ? Files.getLastModifiedTime(legacyFile).toMillis() : 0;
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+    }
+
+    private static String stripExtension(String fileName, String extension) {
+        return fileName.endsWith(extension) ? fileName.substring(0, fileName.length() - extension.length()) : fileName;
+    }
+
+    static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.techlab.renderpdf.template;
+
+import java.util.Locale;
+
+/**
+ * How requests for a template are rendered
+ *
+ * {@link #DOCX} fills the DOCX and lays it out on every request. {@link #FORM} lays the template out
+ * once at upload into a PDF with a form field per {@code ${variable}}; requests only fill and flatten it.
+ */
+public enum TemplateType {
+    DOCX,
+    FORM;
+
+    /**
+     * Parse the upload parameter; blank means {@link #DOCX}
+     *
+     * @throws IllegalArgumentException If the value is not a known type
+     */
+    public static TemplateType parse(String value) {
+        if (value == null || value.isBlank()) {
+            return DOCX;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown template type '" + value + "', expected docx or form");
+        }
+    }
+
+    public String id() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
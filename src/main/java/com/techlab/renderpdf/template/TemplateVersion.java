@@ -0,0 +1,26 @@
+package com.techlab.renderpdf.template;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+
+/**
+ * One immutable, content-addressed version of a template
+ *
+ * A request resolves the version once and keeps using it, so a concurrent upload that flips
+ * the name to a newer version never changes the bytes an in-flight render sees.
+ *
+ * @param name Template name (without .docx extension)
+ * @param hash SHA-256 of the DOCX bytes (hex)
+ * @param size DOCX size in bytes
+ * @param createdAt When this version became current
+ * @param path Immutable blob file holding the DOCX bytes
+ * @param type How requests for this version are rendered
+ */
+public record TemplateVersion(String name, String hash, long size, Instant createdAt, Path path, TemplateType type) {
+
+    public byte[] readBytes() throws IOException {
+        return Files.readAllBytes(path);
+    }
+}
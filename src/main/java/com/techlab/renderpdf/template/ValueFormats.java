@@ -0,0 +1,48 @@
+package com.techlab.renderpdf.template;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Formatted placeholders of a template, parsed and bound to their formatters when the template is compiled
+ *
+ * Renders look placeholders up here instead of parsing specifiers per value; plain placeholders are not
+ * stored, they are filled with {@link ValueFormatters#PLAIN}.
+ *
+ * @param simple Formatted {@code ${name:spec}} placeholders, filled from the request variables
+ * @param byBody Every formatted placeholder (table fields included) by the text between {@code ${ }}
+ */
+public record ValueFormats(List<Placeholder> simple, Map<String, Placeholder> byBody) {
+
+    public static final ValueFormats NONE = new ValueFormats(List.of(), Map.of());
+
+    /**
+     * @throws IllegalArgumentException If a format specifier is invalid
+     */
+    public static ValueFormats of(byte[] docx) throws IOException {
+        List<Placeholder> simple = new ArrayList<>();
+        Map<String, Placeholder> byBody = new HashMap<>();
+        for (String body : PlaceholderSummary.placeholders(docx)) {
+            if (body.indexOf(':') < 0 || body.startsWith("#") || byBody.containsKey(body)) {
+                continue;
+            }
+            Placeholder placeholder = Placeholder.parse(body);
+            byBody.put(body, placeholder);
+            if (placeholder.field() == null) {
+                simple.add(placeholder);
+            }
+        }
+        return byBody.isEmpty() ? NONE : new ValueFormats(List.copyOf(simple), Map.copyOf(byBody));
+    }
+
+    /**
+     * Placeholder for the text between {@code ${ }}; parsed on the spot if the template did not declare it
+     */
+    public Placeholder get(String body) {
+        Placeholder placeholder = byBody.get(body);
+        return placeholder != null ? placeholder : Placeholder.parse(body);
+    }
+}
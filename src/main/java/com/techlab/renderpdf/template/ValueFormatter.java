@@ -0,0 +1,16 @@
+package com.techlab.renderpdf.template;
+
+/**
+ * Turns a request value into the text written into the document
+ *
+ * Implementations are shared between templates and render threads, so they must be thread-safe.
+ */
+@FunctionalInterface
+public interface ValueFormatter {
+
+    /**
+     * @param value Request value, possibly null
+     * @return Text to write, never null
+     */
+    String format(Object value);
+}
@@ -0,0 +1,193 @@
+package com.techlab.renderpdf.template;
+
+import java.math.BigDecimal;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.FormatStyle;
+import java.time.temporal.TemporalAccessor;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Formatters for placeholder format specifiers, created once per distinct specifier and shared
+ *
+ * <pre>
+ * number[:pattern][:locale]   ${total:number:#,##0.00}   DecimalFormat pattern
+ * currency[:locale]           ${amount:currency:vi_VN}
+ * percent[:locale]            ${rate:percent}
+ * date[:pattern][:locale]     ${signed:date:dd MMMM yyyy:vi_VN}
+ * pattern                     ${date:dd/MM/yyyy}          anything else is a date-time pattern
+ * </pre>
+ * Number formats are not thread-safe, so each render thread formats with its own clone; date formats are
+ * immutable and shared. A value the specifier cannot handle (text that is not a number, an unparsable date)
+ * is written as plain text rather than failing the render.
+ */
+public final class ValueFormatters {
+
+    /**
+     * Without specifier: {@code toString()}, except that doubles are never written in scientific notation
+     */
+    public static final ValueFormatter PLAIN = ValueFormatters::plain;
+
+    /**
+     * language_COUNTRY (vi_VN, en_US); a bare language would be ambiguous with patterns such as HH:mm
+     */
+    private static final Pattern LOCALE = Pattern.compile("[a-z]{2,3}[_-][A-Z]{2}");
+
+    private static final Map<String, ValueFormatter> FORMATTERS = new ConcurrentHashMap<>();
+
+    private ValueFormatters() {
+    }
+
+    /**
+     * Formatter for a specifier (the part after the first {@code :} of a placeholder)
+     *
+     * @throws IllegalArgumentException If the specifier has an invalid pattern or locale
+     */
+    public static ValueFormatter of(String spec) {
+        ValueFormatter formatter = FORMATTERS.get(spec);
+        return formatter != null ? formatter : FORMATTERS.computeIfAbsent(spec, ValueFormatters::create);
+    }
+
+    static String plain(Object value) {
+        if (value == null) {
+            return "";
+        }
+        if (value instanceof Double || value instanceof Float) {
+            String text = value.toString();
+            return text.indexOf('E') < 0 || !Double.isFinite(((Number) value).doubleValue()) ? text
+                    : new BigDecimal(text).toPlainString();
+        }
+        return value.toString();
+    }
+
+    private static ValueFormatter create(String spec) {
+        int colon = spec.indexOf(':');
+        String kind = (colon < 0 ? spec : spec.substring(0, colon)).trim().toLowerCase(Locale.ROOT);
+        String rest = colon < 0 ? "" : spec.substring(colon + 1).trim();
+        try {
+            return switch (kind) {
+                case "number" -> {
+                    String[] patternAndLocale = splitLocale(rest);
+                    Locale locale = locale(patternAndLocale[1]);
+                    yield numbers(patternAndLocale[0].isEmpty() ? NumberFormat.getNumberInstance(locale)
+                            : new DecimalFormat(patternAndLocale[0], DecimalFormatSymbols.getInstance(locale)));
+                }
+                case "currency" -> numbers(NumberFormat.getCurrencyInstance(locale(rest)));
+                case "percent" -> numbers(NumberFormat.getPercentInstance(locale(rest)));
+                case "date" -> dates(rest);
+                default -> dates(spec.trim());
+            };
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid format specifier '" + spec + "': " + e.getMessage(), e);
+        }
+    }
+
+    private static ValueFormatter numbers(NumberFormat prototype) {
+        ThreadLocal<NumberFormat> formats = ThreadLocal.withInitial(() -> (NumberFormat) prototype.clone());
+        return value -> {
+            Object number = number(value);
+            return number != null ? formats.get().format(number) : plain(value);
+        };
+    }
+
+    private static ValueFormatter dates(String patternAndLocale) {
+        String[] parts = splitLocale(patternAndLocale);
+        Locale locale = locale(parts[1]);
+        DateTimeFormatter formatter = parts[0].isEmpty()
+                ? DateTimeFormatter.ofLocalizedDate(FormatStyle.MEDIUM).withLocale(locale)
+                : DateTimeFormatter.ofPattern(parts[0], locale);
+        return value -> {
+            TemporalAccessor temporal = temporal(value);
+            if (temporal == null) {
+                return plain(value);
+            }
+            try {
+                return formatter.format(temporal);
+            } catch (DateTimeException e) {
+                // e.g. a time pattern applied to a date without time
+                return plain(value);
+            }
+        };
+    }
+
+    /**
+     * Split a trailing {@code :locale} off a pattern (patterns may contain {@code :} themselves, e.g. HH:mm)
+     */
+    private static String[] splitLocale(String text) {
+        if (LOCALE.matcher(text).matches()) {
+            return new String[]{"", text};
+        }
+        int colon = text.lastIndexOf(':');
+        if (colon >= 0 && LOCALE.matcher(text.substring(colon + 1).trim()).matches()) {
+            return new String[]{text.substring(0, colon).trim(), text.substring(colon + 1).trim()};
+        }
+        return new String[]{text, ""};
+    }
+
+    private static Locale locale(String tag) {
+        if (tag.isEmpty()) {
+            return Locale.getDefault(Locale.Category.FORMAT);
+        }
+        if (!LOCALE.matcher(tag).matches()) {
+            throw new IllegalArgumentException("not a locale: " + tag);
+        }
+        return Locale.forLanguageTag(tag.replace('_', '-'));
+    }
+
+    private static Object number(Object value) {
+        if (value instanceof Number) {
+            return value;
+        }
+        if (value instanceof CharSequence text && !text.isEmpty()) {
+            try {
+                return new BigDecimal(text.toString().trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static TemporalAccessor temporal(Object value) {
+        return switch (value) {
+            case Instant instant -> instant.atZone(ZoneId.systemDefault());
+            case TemporalAccessor temporal -> temporal;
+            case Date date -> date.toInstant().atZone(ZoneId.systemDefault());
+            case Calendar calendar -> calendar.toInstant().atZone(ZoneId.systemDefault());
+            case Long millis -> Instant.ofEpochMilli(millis).atZone(ZoneId.systemDefault());
+            case CharSequence text -> parse(text.toString().trim());
+            case null, default -> null;
+        };
+    }
+
+    /**
+     * ISO-8601 text as JSON clients send it: 2024-05-31, 2024-05-31T10:15:30, with offset or Z
+     */
+    private static TemporalAccessor parse(String text) {
+        try {
+            if (text.length() == 10) {
+                return LocalDate.parse(text);
+            }
+            if (text.endsWith("Z") || text.lastIndexOf('+') > 10 || text.lastIndexOf('-') > 10) {
+                return OffsetDateTime.parse(text);
+            }
+            return LocalDateTime.parse(text);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
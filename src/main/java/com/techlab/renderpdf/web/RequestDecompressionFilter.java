@@ -0,0 +1,259 @@
+package com.techlab.renderpdf.web;
+
+import com.github.luben.zstd.ZstdInputStream;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Decompresses request bodies sent with {@code Content-Encoding: gzip} or {@code zstd}
+ *
+ * Large variable maps compress well, so clients may send them compressed (in JSON, CBOR or Smile).
+ * The body is inflated before dispatch, bounded by {@code pdf.generation.request.max-decompressed-size},
+ * and the request continues without the Content-Encoding header with the inflated Content-Length, so
+ * controllers and message converters read it as an ordinary body. Unknown encodings are rejected
+ * with 415, bodies inflating past the limit with 413 and corrupt bodies with 400.
+ */
+@Slf4j
+@Component
+public class RequestDecompressionFilter extends OncePerRequestFilter {
+
+    static final List<String> SUPPORTED_ENCODINGS = List.of("gzip", "zstd");
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_INITIAL_BUFFER = 4 * 1024 * 1024;
+
+    private final long maxDecompressedSize;
+    private final MeterRegistry meterRegistry;
+
+    public RequestDecompressionFilter(
+            @Value("${pdf.generation.request.max-decompressed-size:50MB}") DataSize maxDecompressedSize,
+            MeterRegistry meterRegistry) {
+        this.maxDecompressedSize = maxDecompressedSize.toBytes();
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return encodings(request.getHeader(HttpHeaders.CONTENT_ENCODING)).isEmpty();
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        List<String> encodings = encodings(request.getHeader(HttpHeaders.CONTENT_ENCODING));
+        for (String encoding : encodings) {
+            if (!SUPPORTED_ENCODINGS.contains(encoding)) {
+                response.setHeader(HttpHeaders.ACCEPT_ENCODING, String.join(", ", SUPPORTED_ENCODINGS));
+                response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE,
+                        "Unsupported Content-Encoding: " + encoding);
+                return;
+            }
+        }
+
+        byte[] body;
+        try {
+            body = decode(request.getInputStream(), encodings, request.getContentLength());
+        } catch (SizeLimitExceededException e) {
+            response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, e.getMessage());
+            return;
+        } catch (IOException e) {
+            log.debug("Cannot decode {} request body: {}", encodings, e.getMessage());
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                    "Malformed " + String.join(", ", encodings) + " request body");
+            return;
+        }
+
+        DistributionSummary.builder("render.request.decompressed.bytes")
+                .description("Inflated size of compressed request bodies")
+                .baseUnit("bytes")
+                .tag("encoding", String.join("+", encodings))
+                .register(meterRegistry)
+                .record(body.length);
+        chain.doFilter(new DecompressedRequest(request, body), response);
+    }
+
+    /**
+     * Content codings in the order they were applied, without {@code identity}
+     */
+    static List<String> encodings(String header) {
+        if (header == null || header.isBlank()) {
+            return List.of();
+        }
+        List<String> encodings = new ArrayList<>(1);
+        for (String token : header.split(",")) {
+            String encoding = token.trim().toLowerCase(Locale.ROOT);
+            if (encoding.equals("x-gzip")) {
+                encoding = "gzip";
+            }
+            if (!encoding.isEmpty() && !encoding.equals("identity")) {
+                encodings.add(encoding);
+            }
+        }
+        return encodings;
+    }
+
+    private byte[] decode(InputStream body, List<String> encodings, int contentLength) throws IOException {
+        // Variable maps typically inflate several times; the buffer grows past this if needed
+        int expected = contentLength > 0 ? (int) Math.min((long) contentLength * 4, MAX_INITIAL_BUFFER) : BUFFER_SIZE;
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(expected, maxDecompressedSize));
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long total = 0;
+        try (InputStream in = decoder(body, encodings)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                total += read;
+                if (total > maxDecompressedSize) {
+                    throw new SizeLimitExceededException("Decompressed request body exceeds "
+                            + maxDecompressedSize + " bytes");
+                }
+                out.write(buffer, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static InputStream decoder(InputStream body, List<String> encodings) throws IOException {
+        // Codings are listed in the order they were applied, so undo them last to first
+        InputStream in = body;
+        for (int i = encodings.size() - 1; i >= 0; i--) {
+            in = switch (encodings.get(i)) {
+                case "gzip" -> new GZIPInputStream(in, BUFFER_SIZE);
+                case "zstd" -> new ZstdInputStream(in);
+                default -> throw new IllegalStateException("Unsupported encoding " + encodings.get(i));
+            };
+        }
+        return in;
+    }
+
+    private static final class SizeLimitExceededException extends IOException {
+        SizeLimitExceededException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * The original request with the inflated body and without Content-Encoding
+     */
+    private static final class DecompressedRequest extends HttpServletRequestWrapper {
+
+        private final byte[] body;
+
+        DecompressedRequest(HttpServletRequest request, byte[] body) {
+            super(request);
+            this.body = body;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream in = new ByteArrayInputStream(body);
+            return new ServletInputStream() {
+                @Override
+                public int read() {
+                    return in.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    return in.read(b, off, len);
+                }
+
+                @Override
+                public boolean isFinished() {
+                    return in.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(ReadListener listener) {
+                    throw new UnsupportedOperationException("Decompressed request bodies are read blocking");
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() {
+            String encoding = getCharacterEncoding();
+            return new BufferedReader(new InputStreamReader(getInputStream(),
+                    encoding != null ? Charset.forName(encoding) : StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public int getContentLength() {
+            return body.length;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return body.length;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            if (HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(name)) {
+                return null;
+            }
+            if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                return String.valueOf(body.length);
+            }
+            return super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            String value = getHeader(name);
+            if (HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(name) || HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                return value == null ? Collections.emptyEnumeration() : Collections.enumeration(List.of(value));
+            }
+            return super.getHeaders(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaderNames() {
+            List<String> names = new ArrayList<>();
+            boolean hasLength = false;
+            for (String name : Collections.list(super.getHeaderNames())) {
+                if (HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(name)) {
+                    continue;
+                }
+                hasLength |= HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name);
+                names.add(name);
+            }
+            if (!hasLength) {
+                names.add(HttpHeaders.CONTENT_LENGTH);
+            }
+            return Collections.enumeration(names);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.techlab.renderpdf;
+
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTBody;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTPageMar;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTSectPr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+
+/**
+ * DOCX documents built in code for tests
+ */
+public final class TestDocuments {
+
+    /**
+     * Content of a new document
+     */
+    public interface Body {
+        void build(XWPFDocument document);
+    }
+
+    private static final BigInteger INCH = BigInteger.valueOf(1440);
+
+    private TestDocuments() {
+    }
+
+    public static byte[] docx(Body body) throws IOException {
+        try (XWPFDocument document = new XWPFDocument(); ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            body.build(document);
+            document.write(out);
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Document of one paragraph (a single run) per text
+     */
+    public static byte[] docx(String... paragraphs) throws IOException {
+        return docx(document -> {
+            for (String text : paragraphs) {
+                paragraph(document, text);
+            }
+        });
+    }
+
+    public static void paragraph(XWPFDocument document, String text) {
+        document.createParagraph().createRun().setText(text);
+    }
+
+    /**
+     * A4 portrait page with one-inch margins, as the renderers need a page setup; the section properties
+     * a header or footer already added are reused
+     */
+    public static CTSectPr a4(XWPFDocument document) {
+        CTBody body = document.getDocument().getBody();
+        CTSectPr section = body.isSetSectPr() ? body.getSectPr() : body.addNewSectPr();
+        section.addNewPgSz().setW(BigInteger.valueOf(11906));
+        section.getPgSz().setH(BigInteger.valueOf(16838));
+        CTPageMar margins = section.addNewPgMar();
+        margins.setTop(INCH);
+        margins.setBottom(INCH);
+        margins.setLeft(INCH);
+        margins.setRight(INCH);
+        return section;
+    }
+}
@@ -0,0 +1,54 @@
+package com.techlab.renderpdf.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ownership must be stable, spread evenly, and only move the keys of a removed node
+ */
+public class ConsistentHashRingTest {
+
+    private static final List<String> NODES = List.of(
+            "http://localhost:8081", "http://localhost:8082", "http://localhost:8083");
+
+    @Test
+    public void ownerIsStableAcrossInstances() {
+        ConsistentHashRing first = new ConsistentHashRing(NODES, 128);
+        ConsistentHashRing second = new ConsistentHashRing(List.of(NODES.get(2), NODES.get(0), NODES.get(1)), 128);
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(first.ownerOf("template-" + i), second.ownerOf("template-" + i));
+        }
+    }
+
+    @Test
+    public void keysSpreadAcrossAllNodes() {
+        ConsistentHashRing ring = new ConsistentHashRing(NODES, 128);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            counts.merge(ring.ownerOf("template-" + i), 1, Integer::sum);
+        }
+
+        assertEquals(3, counts.size());
+        counts.values().forEach(count -> assertTrue(count > 700 && count < 1300, "Unbalanced ring: " + counts));
+    }
+
+    @Test
+    public void removingNodeOnlyMovesItsKeys() {
+        ConsistentHashRing full = new ConsistentHashRing(NODES, 128);
+        ConsistentHashRing reduced = new ConsistentHashRing(NODES.subList(0, 2), 128);
+
+        for (int i = 0; i < 1000; i++) {
+            String key = "template-" + i;
+            String owner = full.ownerOf(key);
+            if (!owner.equals(NODES.get(2))) {
+                assertEquals(owner, reduced.ownerOf(key));
+            }
+        }
+    }
+}
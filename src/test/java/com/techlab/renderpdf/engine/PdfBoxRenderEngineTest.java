@@ -0,0 +1,143 @@
+package com.techlab.renderpdf.engine;
+
+import com.techlab.renderpdf.service.FontCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.poi.wp.usermodel.HeaderFooterType;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.List;
+
+import static com.techlab.renderpdf.TestDocuments.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The direct engine must render the form-letter subset and refuse what it cannot lay out
+ *
+ * Run the engine comparison with {@code mvn test -Dtest=PdfBoxRenderEngineTest -Dbenchmark=true}
+ */
+public class PdfBoxRenderEngineTest {
+
+    private static final String FONT_PATH = "./fonts/times.ttf";
+
+    private final PdfBoxRenderEngine engine = new PdfBoxRenderEngine(FONT_PATH);
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        engine.close();
+    }
+
+    @Test
+    public void rendersParagraphsAndTables() throws IOException {
+        byte[] docx = formLetter(3);
+        assertEquals(List.of(), engine.unsupportedFeatures(open(docx)));
+
+        try (PDDocument pdf = Loader.loadPDF(render(engine, docx))) {
+            assertEquals(1, pdf.getNumberOfPages());
+            String text = new PDFTextStripper().getText(pdf);
+            assertTrue(text.contains("Kính gửi Nguyễn Văn A"), text);
+            assertTrue(text.contains("Item 2"), text);
+            assertTrue(text.contains("Tổng cộng"), text);
+        }
+    }
+
+    @Test
+    public void longTablesBreakAcrossPages() throws IOException {
+        try (PDDocument pdf = Loader.loadPDF(render(engine, formLetter(120)))) {
+            assertTrue(pdf.getNumberOfPages() > 1);
+            assertTrue(new PDFTextStripper().getText(pdf).contains("Item 119"));
+        }
+    }
+
+    @Test
+    public void reportsUnsupportedFeatures() throws IOException {
+        XWPFDocument document = open(formLetter(1));
+        document.getTables().get(0).getRow(1).getCell(0).getCTTc().addNewTcPr().addNewVMerge();
+        document.createParagraph().getCTP().addNewFldSimple().setInstr("PAGE");
+
+        assertTrue(engine.unsupportedFeatures(document).containsAll(List.of("vertically merged cells", "fields")));
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void benchmarkAgainstXdocreport() throws IOException {
+        XdocreportRenderEngine xdocreport = new XdocreportRenderEngine(new FontCache(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(xdocreport, "fontPath", FONT_PATH);
+
+        for (int rows : new int[]{5, 50, 500}) {
+            byte[] docx = formLetter(rows);
+            double xdocMs = measure(xdocreport, docx);
+            double pdfboxMs = measure(engine, docx);
+            System.out.printf("rows=%d xdocreport=%.2fms pdfbox=%.2fms speedup=%.1fx%n",
+                    rows, xdocMs, pdfboxMs, xdocMs / pdfboxMs);
+        }
+    }
+
+    private static double measure(RenderEngine engine, byte[] docx) throws IOException {
+        for (int i = 0; i < 20; i++) {
+            render(engine, docx);
+        }
+        int iterations = 50;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            render(engine, docx);
+        }
+        return (System.nanoTime() - start) / 1_000_000.0 / iterations;
+    }
+
+    private static byte[] render(RenderEngine engine, byte[] docx) throws IOException {
+        try (XWPFDocument document = open(docx)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            engine.render(document, out);
+            return out.toByteArray();
+        }
+    }
+
+    private static XWPFDocument open(byte[] docx) throws IOException {
+        return new XWPFDocument(new ByteArrayInputStream(docx));
+    }
+
+    private static byte[] formLetter(int rows) throws IOException {
+        return docx(document -> {
+            document.createStyles();
+            paragraph(document, "Kính gửi Nguyễn Văn A");
+            XWPFParagraph body = document.createParagraph();
+            body.setSpacingAfter(200);
+            body.createRun().setText("Chúng tôi xin gửi bảng kê chi tiết dưới đây. ".repeat(6));
+
+            XWPFTable table = document.createTable(rows + 1, 3);
+            var grid = table.getCTTbl().addNewTblGrid();
+            for (int column = 0; column < 3; column++) {
+                grid.addNewGridCol().setW(BigInteger.valueOf(3000));
+            }
+            table.getRow(0).getCell(0).setText("Mô tả");
+            table.getRow(0).getCell(1).setText("Số lượng");
+            table.getRow(0).getCell(2).setText("Đơn giá");
+            for (int row = 1; row <= rows; row++) {
+                table.getRow(row).getCell(0).setText("Item " + row);
+                table.getRow(row).getCell(1).setText(String.valueOf(row));
+                table.getRow(row).getCell(2).setText(String.valueOf(row * 1000));
+            }
+
+            XWPFRun total = document.createParagraph().createRun();
+            total.setBold(true);
+            total.setText("Tổng cộng");
+
+            a4(document).getPgMar().setHeader(BigInteger.valueOf(720));
+            document.createHeader(HeaderFooterType.DEFAULT).createParagraph().createRun().setText("Công ty ABC");
+        });
+    }
+}
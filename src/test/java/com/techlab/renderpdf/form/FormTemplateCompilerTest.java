@@ -0,0 +1,94 @@
+package com.techlab.renderpdf.form;
+
+import com.techlab.renderpdf.engine.PdfBoxRenderEngine;
+import com.techlab.renderpdf.engine.XdocreportRenderEngine;
+import com.techlab.renderpdf.service.FontCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.techlab.renderpdf.TestDocuments.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A form template must carry one field per variable and fill to the same text as the DOCX path
+ */
+public class FormTemplateCompilerTest {
+
+    private static final String FONT_PATH = "./fonts/times.ttf";
+
+    private final PdfBoxRenderEngine fieldFonts = new PdfBoxRenderEngine(FONT_PATH);
+
+    private final FormTemplateCompiler compiler = new FormTemplateCompiler(xdocreport(), fieldFonts);
+
+    @Test
+    public void placeholdersBecomeFieldsAndFillInPlace() throws IOException {
+        FormTemplate form = compiler.compile("letter", "0".repeat(64), letter());
+        assertEquals(List.of("name", "date", "total"), form.fieldNames());
+        assertFalse(text(form.pdf()).contains("${"), "marker text must be removed from the form");
+
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("name", "Nguyễn Văn A");
+        variables.put("total", null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new FormFiller(fieldFonts).fill(form, variables, out);
+        String filled = text(out.toByteArray());
+
+        assertTrue(filled.contains("Kính gửi Nguyễn Văn A"), filled);
+        assertTrue(filled.contains("${date}"), "a missing variable keeps its placeholder: " + filled);
+        assertTrue(filled.contains("Tổng: VND") || filled.contains("Tổng:  VND"), filled);
+        assertTrue(filled.contains("Trân trọng, Nguyễn Văn A"), filled);
+    }
+
+    @Test
+    public void tablePlaceholdersAreRejected() throws IOException {
+        byte[] docx = docx("${items.name}");
+        assertThrows(IllegalArgumentException.class, () -> compiler.compile("table", "1".repeat(64), docx));
+    }
+
+    private static XdocreportRenderEngine xdocreport() {
+        XdocreportRenderEngine engine = new XdocreportRenderEngine(new FontCache(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(engine, "fontPath", FONT_PATH);
+        return engine;
+    }
+
+    private static String text(byte[] pdf) throws IOException {
+        try (PDDocument document = Loader.loadPDF(pdf)) {
+            PDFTextStripper stripper = new PDFTextStripper();
+            stripper.setSortByPosition(true);
+            return stripper.getText(document);
+        }
+    }
+
+    /**
+     * Placeholders split across runs with different formatting, as Word often saves them
+     */
+    private static byte[] letter() throws IOException {
+        return docx(document -> {
+            document.createStyles();
+            paragraph(document, "Kính gửi ${name}");
+
+            XWPFParagraph date = document.createParagraph();
+            XWPFRun head = date.createRun();
+            head.setText("Ngày: ${da");
+            XWPFRun tail = date.createRun();
+            tail.setBold(true);
+            tail.setText("te}");
+
+            paragraph(document, "Tổng: ${total} VND");
+            paragraph(document, "Trân trọng, ${name}");
+            a4(document);
+        });
+    }
+}
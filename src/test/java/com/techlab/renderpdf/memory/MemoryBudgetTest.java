@@ -0,0 +1,130 @@
+package com.techlab.renderpdf.memory;
+
+import com.techlab.renderpdf.output.BufferPool;
+import com.techlab.renderpdf.output.ChunkedOutputStream;
+import com.techlab.renderpdf.output.RenderedDocument;
+import com.techlab.renderpdf.service.RenderDeadline;
+import com.techlab.renderpdf.template.MemoryProfile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.techlab.renderpdf.TestDocuments.docx;
+import static com.techlab.renderpdf.TestDocuments.paragraph;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Renders must wait for memory instead of exceeding the budget, and the estimate must follow the request
+ */
+public class MemoryBudgetTest {
+
+    @Test
+    public void reservationsWaitForMemoryAndTimeOut() throws Exception {
+        MemoryBudget budget = new MemoryBudget(DataSize.ofMegabytes(10), 200, new SimpleMeterRegistry());
+        MemoryEstimate sixMegabytes = new MemoryEstimate(0, 6 * 1024 * 1024, 0, 0, 0);
+
+        MemoryBudget.Reservation first = budget.reserve("invoice", sixMegabytes);
+        assertEquals(6 * 1024 * 1024, budget.reservedBytes());
+        assertThrows(RejectedExecutionException.class, () -> budget.reserve("invoice", sixMegabytes));
+
+        CompletableFuture<MemoryBudget.Reservation> second =
+                CompletableFuture.supplyAsync(() -> reserve(budget, "report", sixMegabytes));
+        Thread.sleep(50);
+        assertFalse(second.isDone());
+        first.close();
+        MemoryBudget.Reservation admitted = second.get(1, TimeUnit.SECONDS);
+
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> renders = (List<Map<String, Object>>) budget.snapshot().get("renders");
+        assertEquals(1, renders.size());
+        assertEquals("report", renders.get(0).get("templateName"));
+        admitted.close();
+        admitted.close();
+        assertEquals(0, budget.reservedBytes());
+
+        // Larger than the whole budget: clamped, so it runs alone instead of never
+        try (MemoryBudget.Reservation huge = budget.reserve("huge", new MemoryEstimate(0, 1L << 40, 0, 0, 0))) {
+            assertEquals(budget.budgetBytes(), budget.reservedBytes());
+        }
+    }
+
+    @Test
+    public void memoryWaitEndsAtTheDeadline() throws IOException {
+        MemoryBudget budget = new MemoryBudget(DataSize.ofMegabytes(10), 30_000, new SimpleMeterRegistry());
+        MemoryEstimate sixMegabytes = new MemoryEstimate(0, 6 * 1024 * 1024, 0, 0, 0);
+        try (MemoryBudget.Reservation first = budget.reserve("invoice", sixMegabytes)) {
+            long start = System.nanoTime();
+            RenderDeadline.ExceededException e = assertThrows(RenderDeadline.ExceededException.class,
+                    () -> budget.reserve("invoice", sixMegabytes, RenderDeadline.after(Duration.ofMillis(100))));
+            assertEquals("memory", e.getStage());
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            assertEquals(6 * 1024 * 1024, budget.reservedBytes());
+        }
+    }
+
+    @Test
+    public void outputReservationLivesAsLongAsTheDocument() throws IOException {
+        MemoryBudget budget = new MemoryBudget(DataSize.ofMegabytes(10), 200, new SimpleMeterRegistry());
+        MemoryBudget.Reservation reservation = budget.reserve("invoice", new MemoryEstimate(0, 6 * 1024 * 1024, 0, 0, 0));
+        BufferPool pool = new BufferPool(DataSize.ofMegabytes(8), new SimpleMeterRegistry());
+        ChunkedOutputStream out = pool.newStream(1024);
+        out.write(new byte[100 * 1024]);
+
+        // Render done: only the output stays reserved, until the last owner of the document closed
+        reservation.shrinkTo(out.size());
+        assertEquals(100 * 1024, budget.reservedBytes());
+        RenderedDocument pdf = new RenderedDocument(out).onRelease(reservation::close);
+        RenderedDocument shared = pdf.share();
+        pdf.close();
+        assertEquals(100 * 1024, budget.reservedBytes());
+        shared.close();
+        assertEquals(0, budget.reservedBytes());
+    }
+
+    @Test
+    public void estimateGrowsWithPayloadAndRows() throws IOException {
+        MemoryProfile profile = MemoryProfile.of(tableTemplate());
+        assertTrue(profile.rowBytes() > 4 * 1024, String.valueOf(profile.rowBytes()));
+        assertTrue(profile.documentBytes() > profile.rowBytes());
+
+        List<Map<String, Object>> items = List.of(
+                Map.of("name", "Bút bi", "qty", 10), Map.of("name", "Giấy A4", "qty", 5));
+        Map<String, Object> variables = Map.of("customer", "Nguyễn Văn A", "items", items);
+        assertEquals(2, MemoryEstimate.rows(variables));
+        assertEquals(40 + 2 * "Nguyễn Văn A".length(), MemoryEstimate.payloadBytes("Nguyễn Văn A"));
+
+        MemoryEstimate small = new MemoryEstimate(MemoryEstimate.payloadBytes(variables), profile.documentBytes(),
+                MemoryEstimate.rows(variables), profile.rowBytes(), 64 * 1024);
+        MemoryEstimate large = new MemoryEstimate(small.payloadBytes(), profile.documentBytes(),
+                5000, profile.rowBytes(), 64 * 1024);
+        assertEquals(4998 * profile.rowBytes(), large.totalBytes() - small.totalBytes());
+    }
+
+    private static MemoryBudget.Reservation reserve(MemoryBudget budget, String templateName, MemoryEstimate estimate) {
+        try {
+            return budget.reserve(templateName, estimate);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] tableTemplate() throws IOException {
+        return docx(document -> {
+            paragraph(document, "Kính gửi ${customer}");
+            XWPFTable table = document.createTable(2, 2);
+            table.getRow(0).getCell(0).setText("Tên");
+            table.getRow(0).getCell(1).setText("Số lượng");
+            table.getRow(1).getCell(0).setText("${items.name}");
+            table.getRow(1).getCell(1).setText("${items.qty}");
+        });
+    }
+}
@@ -0,0 +1,237 @@
+package com.techlab.renderpdf.output;
+
+import com.techlab.renderpdf.engine.XdocreportRenderEngine;
+import com.techlab.renderpdf.service.FontCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Chunked output must read back exactly what was written, reuse its chunks and spill past the threshold
+ *
+ * Run the allocation comparison with {@code mvn test -Dtest=BufferPoolTest -Dbenchmark=true}
+ */
+public class BufferPoolTest {
+
+    private static final String FONT_PATH = "./fonts/times.ttf";
+
+    private final BufferPool pool = new BufferPool(DataSize.ofMegabytes(8), new SimpleMeterRegistry());
+
+    @Test
+    public void writesAcrossChunksAndReusesThem() throws IOException {
+        byte[] data = new byte[300 * 1024];
+        new Random(3).nextBytes(data);
+
+        ChunkedOutputStream out = pool.newStream(10 * 1024);
+        out.write(data, 0, 100);
+        out.write(data[100]);
+        out.write(data, 101, data.length - 101);
+        out.close();
+        assertEquals(data.length, out.size());
+        assertArrayEquals(data, out.toByteArray());
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        out.writeTo(copy);
+        assertArrayEquals(data, copy.toByteArray());
+
+        byte[] first = (byte[]) ReflectionTestUtils.getField(out, "current");
+        out.release();
+        assertThrows(IllegalStateException.class, out::toByteArray);
+        assertEquals(2 * 16 * 1024 + 64 * 1024 + 256 * 1024, pool.retainedBytes());
+
+        ChunkedOutputStream reused = pool.newStream(200 * 1024);
+        assertSame(first, ReflectionTestUtils.getField(reused, "current"));
+        reused.release();
+    }
+
+    @Test
+    public void spillsPastThresholdAndDeletesFileOnRelease(@TempDir Path tempDir) throws IOException {
+        byte[] data = new byte[200 * 1024];
+        new Random(5).nextBytes(data);
+        TempStorage storage = new TempStorage(pool, tempDir.toString(), DataSize.ofKilobytes(64),
+                DataSize.ofMegabytes(1), DataSize.ofMegabytes(1), new SimpleMeterRegistry());
+
+        ChunkedOutputStream out = storage.newOutput(16 * 1024);
+        out.write(data, 0, 60 * 1024);
+        assertFalse(out.isSpilled());
+        out.write(data, 60 * 1024, data.length - 60 * 1024);
+        assertTrue(out.isSpilled());
+        assertEquals(data.length, out.size());
+        assertArrayEquals(data, out.toByteArray());
+        try (InputStream in = out.openInputStream()) {
+            assertArrayEquals(data, in.readAllBytes());
+        }
+
+        Path file = out.spillFile();
+        assertEquals(data.length, Files.size(file));
+        out.release();
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    public void fileOutputHoldsNoHeapOnceFinished(@TempDir Path tempDir) throws IOException {
+        byte[] data = new byte[100 * 1024];
+        new Random(9).nextBytes(data);
+        TempStorage storage = new TempStorage(pool, tempDir.toString(), DataSize.ofMegabytes(32),
+                DataSize.ofMegabytes(1), DataSize.ofMegabytes(1), new SimpleMeterRegistry());
+
+        ChunkedOutputStream out = storage.newFileOutput();
+        out.write(data);
+        assertTrue(out.isSpilled());
+        out.finish();
+        assertNull(ReflectionTestUtils.getField(out, "current"));
+        assertThrows(IllegalStateException.class, () -> out.write(1));
+        assertEquals(data.length, Files.size(out.spillFile()));
+        assertArrayEquals(data, out.toByteArray());
+
+        Path file = out.spillFile();
+        out.release();
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    public void randomAccessReadsTheChunksInPlace() throws IOException {
+        byte[] data = new byte[100 * 1024];
+        new Random(11).nextBytes(data);
+        ChunkedOutputStream out = pool.newStream(1024);
+        out.write(data);
+        out.finish();
+
+        try (RandomAccessRead in = out.openRandomAccess()) {
+            assertEquals(data.length, in.length());
+            byte[] read = new byte[data.length];
+            assertEquals(data.length, in.read(read, 0, read.length));
+            assertArrayEquals(data, read);
+            assertTrue(in.isEOF());
+            assertEquals(-1, in.read());
+
+            // Back across chunk boundaries
+            in.seek(1500);
+            assertEquals(data[1500] & 0xff, in.read());
+            byte[] part = new byte[5000];
+            assertEquals(part.length, in.read(part, 0, part.length));
+            assertArrayEquals(Arrays.copyOfRange(data, 1501, 6501), part);
+            in.seek(10);
+            assertEquals(data[10] & 0xff, in.read());
+        }
+        out.release();
+    }
+
+    @Test
+    public void failedSpillKeepsTheOutputInMemory(@TempDir Path tempDir) throws IOException {
+        byte[] data = new byte[100 * 1024];
+        new Random(7).nextBytes(data);
+        // The spill file cannot be created: its directory does not exist
+        Path missing = tempDir.resolve("missing").resolve("spill.tmp");
+        ChunkedOutputStream out = new ChunkedOutputStream(pool, 16 * 1024, 64 * 1024, () -> missing);
+        out.write(data, 0, 60 * 1024);
+        @SuppressWarnings("unchecked")
+        List<byte[]> chunks = new ArrayList<>((List<byte[]>) ReflectionTestUtils.getField(out, "chunks"));
+
+        assertThrows(IOException.class, () -> out.write(data, 60 * 1024, data.length - 60 * 1024));
+        assertFalse(out.isSpilled());
+        assertArrayEquals(Arrays.copyOf(data, 60 * 1024), out.toByteArray());
+        assertEquals(0, pool.retainedBytes());
+
+        // Every chunk goes back to the pool exactly once
+        out.release();
+        assertEquals(chunks.stream().mapToLong(chunk -> chunk.length).sum(), pool.retainedBytes());
+        Set<byte[]> acquired = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (byte[] chunk : chunks) {
+            assertTrue(acquired.add(pool.acquire(chunk.length)));
+        }
+        try (var files = Files.list(tempDir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void estimateFollowsOutputSizes() {
+        OutputSizeEstimator estimator = new OutputSizeEstimator();
+        assertEquals(1000, estimator.estimate("letter", 1000));
+
+        estimator.record("letter", 40_000);
+        assertEquals(40_000, estimator.estimate("letter", 1000));
+        for (int i = 0; i < 50; i++) {
+            estimator.record("letter", i % 2 == 0 ? 60_000 : 64_000);
+        }
+        int estimate = estimator.estimate("letter", 1000);
+        assertTrue(estimate >= 64_000 && estimate < 70_000, String.valueOf(estimate));
+        assertEquals(1000, estimator.estimate("other", 1000));
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void benchmarkAllocationPerRender() throws IOException {
+        XdocreportRenderEngine engine = new XdocreportRenderEngine(new FontCache(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(engine, "fontPath", FONT_PATH);
+        OutputSizeEstimator estimator = new OutputSizeEstimator();
+
+        for (int paragraphs : new int[]{5, 100, 1000}) {
+            byte[] docx = PdfOptimizerTest.letter(paragraphs);
+            int fallback = (int) (docx.length * 1.2);
+            long unpooled = allocated(() -> {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(fallback, 8192));
+                render(engine, docx, out);
+                out.toByteArray();
+            });
+            long pooled = allocated(() -> {
+                ChunkedOutputStream out = pool.newStream(estimator.estimate("letter" + paragraphs, fallback));
+                try {
+                    render(engine, docx, out);
+                    estimator.record("letter" + paragraphs, out.size());
+                    out.toByteArray();
+                } finally {
+                    out.release();
+                }
+            });
+            System.out.printf("paragraphs=%d docx=%d bytes: ByteArrayOutputStream=%d KB/render pooled=%d KB/render%n",
+                    paragraphs, docx.length, unpooled / 1024, pooled / 1024);
+        }
+    }
+
+    private interface Render {
+        void run() throws IOException;
+    }
+
+    private static long allocated(Render render) throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (int i = 0; i < 20; i++) {
+            render.run();
+        }
+        int iterations = 30;
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < iterations; i++) {
+            render.run();
+        }
+        return (threads.getCurrentThreadAllocatedBytes() - before) / iterations;
+    }
+
+    private static void render(XdocreportRenderEngine engine, byte[] docx, OutputStream out) throws IOException {
+        try (XWPFDocument document = new XWPFDocument(new ByteArrayInputStream(docx))) {
+            engine.render(document, out);
+        }
+    }
+}
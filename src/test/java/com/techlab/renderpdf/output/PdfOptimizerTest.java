@@ -0,0 +1,243 @@
+package com.techlab.renderpdf.output;
+
+import com.techlab.renderpdf.engine.XdocreportRenderEngine;
+import com.techlab.renderpdf.service.FontCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdfwriter.compress.CompressParameters;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static com.techlab.renderpdf.TestDocuments.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Each level must keep the document intact and never return a larger file
+ *
+ * Run the CPU / size comparison with {@code mvn test -Dtest=PdfOptimizerTest -Dbenchmark=true}
+ */
+public class PdfOptimizerTest {
+
+    private static final String FONT_PATH = "./fonts/times.ttf";
+
+    @TempDir
+    Path tempDir;
+
+    private TempStorage storage;
+
+    @BeforeEach
+    public void createStorage() throws IOException {
+        storage = storage(DataSize.ofMegabytes(32));
+    }
+
+    @Test
+    public void objectStreamsShrinkXdocreportOutput() throws IOException {
+        byte[] pdf = xdocreport(letter(40));
+        byte[] optimized = optimize("object-streams", "letter", pdf);
+
+        assertTrue(optimized.length < pdf.length, optimized.length + " >= " + pdf.length);
+        try (PDDocument before = Loader.loadPDF(pdf); PDDocument after = Loader.loadPDF(optimized)) {
+            assertTrue(after.getDocument().isXRefStream());
+            assertEquals(before.getNumberOfPages(), after.getNumberOfPages());
+            assertEquals(new PDFTextStripper().getText(before), new PDFTextStripper().getText(after));
+        }
+        try (RenderedDocument input = document(pdf, storage)) {
+            assertSame(input, optimizer("none").optimize("letter", input));
+        }
+    }
+
+    @Test
+    public void spilledDocumentIsOptimizedFromItsFile() throws IOException {
+        byte[] pdf = xdocreport(letter(400));
+        TempStorage spilling = storage(DataSize.ofKilobytes(16));
+        RenderedDocument input = document(pdf, spilling);
+        assertTrue(input.isSpilled());
+
+        PdfOptimizer optimizer = new PdfOptimizer("object-streams", "", spilling, new SimpleMeterRegistry());
+        try (RenderedDocument optimized = optimizer.optimize("letter", input)) {
+            assertNotSame(input, optimized);
+            assertTrue(optimized.isSpilled());
+            assertTrue(optimized.size() < pdf.length);
+            try (PDDocument document = Loader.loadPDF(optimized.toByteArray())) {
+                assertTrue(document.getNumberOfPages() > 1);
+            }
+            assertThrows(IllegalStateException.class, input::toByteArray);
+            assertEquals(1, Files.list(tempDir.resolve("spill")).count());
+        }
+        assertEquals(0, Files.list(tempDir.resolve("spill")).count());
+    }
+
+    @Test
+    public void duplicateImagesAreWrittenOnce() throws IOException {
+        byte[] pdf = duplicatedImages(3);
+        assertEquals(3, imageStreams(pdf));
+
+        byte[] deduplicated = optimize("dedup", "logo", pdf);
+        assertEquals(1, imageStreams(deduplicated));
+        assertTrue(deduplicated.length < pdf.length / 2, deduplicated.length + " vs " + pdf.length);
+        try (PDDocument document = Loader.loadPDF(deduplicated)) {
+            assertEquals(3, document.getNumberOfPages());
+        }
+
+        // Already written with a cross-reference stream and nothing to merge: returned as is
+        try (RenderedDocument input = document(deduplicated, storage)) {
+            assertSame(input, optimizer("object-streams").optimize("logo", input));
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void benchmarkLevels() throws IOException {
+        for (int paragraphs : new int[]{5, 40, 400}) {
+            byte[] pdf = xdocreport(letter(paragraphs));
+            for (String level : new String[]{"object-streams", "dedup"}) {
+                PdfOptimizer optimizer = optimizer(level);
+                for (int i = 0; i < 20; i++) {
+                    optimize(optimizer, "letter", pdf);
+                }
+                int iterations = 50;
+                byte[] optimized = pdf;
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    optimized = optimize(optimizer, "letter", pdf);
+                }
+                double ms = (System.nanoTime() - start) / 1_000_000.0 / iterations;
+                System.out.printf("paragraphs=%d level=%s %d -> %d bytes (%.1f%%) in %.2fms%n", paragraphs, level,
+                        pdf.length, optimized.length, 100.0 * (pdf.length - optimized.length) / pdf.length, ms);
+            }
+        }
+    }
+
+    @Test
+    public void mergerJoinsSpilledAndInMemoryPartsInOrder() throws IOException {
+        byte[] first = xdocreport(letter(3));
+        byte[] second = xdocreport(letter(60));
+        ChunkedOutputStream spilled = storage.newFileOutput();
+        spilled.write(second);
+        spilled.finish();
+        PdfMerger merger = new PdfMerger(storage);
+
+        try (RenderedDocument inMemory = document(first, storage); RenderedDocument inFile = new RenderedDocument(spilled)) {
+            assertFalse(inMemory.isSpilled());
+            assertTrue(inFile.isSpilled());
+            ByteArrayOutputStream merged = new ByteArrayOutputStream();
+            merger.merge(List.of(inMemory, inFile), merged);
+
+            int firstPages = merger.pageCount(inMemory);
+            int secondPages = merger.pageCount(inFile);
+            try (PDDocument document = Loader.loadPDF(merged.toByteArray());
+                 PDDocument expectedFirst = Loader.loadPDF(first);
+                 PDDocument expectedSecond = Loader.loadPDF(second)) {
+                assertEquals(firstPages + secondPages, document.getNumberOfPages());
+                PDFTextStripper stripper = new PDFTextStripper();
+                assertEquals(stripper.getText(expectedFirst) + stripper.getText(expectedSecond),
+                        stripper.getText(document));
+            }
+        }
+    }
+
+    private PdfOptimizer optimizer(String level) {
+        return new PdfOptimizer(level, "", storage, new SimpleMeterRegistry());
+    }
+
+    private byte[] optimize(String level, String templateName, byte[] pdf) throws IOException {
+        return optimize(optimizer(level), templateName, pdf);
+    }
+
+    private byte[] optimize(PdfOptimizer optimizer, String templateName, byte[] pdf) throws IOException {
+        try (RenderedDocument optimized = optimizer.optimize(templateName, document(pdf, storage))) {
+            return optimized.toByteArray();
+        }
+    }
+
+    private TempStorage storage(DataSize outputThreshold) throws IOException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        return new TempStorage(new BufferPool(DataSize.ofMegabytes(8), registry), tempDir.toString(),
+                outputThreshold, DataSize.ofMegabytes(32), DataSize.ofMegabytes(16), registry);
+    }
+
+    private static RenderedDocument document(byte[] pdf, TempStorage storage) throws IOException {
+        ChunkedOutputStream out = storage.newOutput(pdf.length);
+        out.write(pdf);
+        return new RenderedDocument(out);
+    }
+
+    private static int imageStreams(byte[] pdf) throws IOException {
+        try (PDDocument document = Loader.loadPDF(pdf)) {
+            return (int) document.getDocument().getXrefTable().keySet().stream()
+                    .map(key -> document.getDocument().getObjectFromPool(key).getObject())
+                    .filter(object -> object instanceof COSStream stream
+                            && COSName.IMAGE.equals(stream.getCOSName(COSName.SUBTYPE)))
+                    .count();
+        }
+    }
+
+    /**
+     * The same logo added to every page as a separate image object, as merged documents end up
+     */
+    private static byte[] duplicatedImages(int pages) throws IOException {
+        BufferedImage logo = new BufferedImage(200, 80, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(7);
+        for (int y = 0; y < logo.getHeight(); y++) {
+            for (int x = 0; x < logo.getWidth(); x++) {
+                logo.setRGB(x, y, random.nextInt(0xFFFFFF));
+            }
+        }
+        try (PDDocument document = new PDDocument(); ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            for (int i = 0; i < pages; i++) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.drawImage(LosslessFactory.createFromImage(document, logo), 50, 650);
+                }
+            }
+            document.save(out, CompressParameters.NO_COMPRESSION);
+            return out.toByteArray();
+        }
+    }
+
+    private static byte[] xdocreport(byte[] docx) throws IOException {
+        XdocreportRenderEngine engine = new XdocreportRenderEngine(new FontCache(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(engine, "fontPath", FONT_PATH);
+        try (XWPFDocument document = new XWPFDocument(new ByteArrayInputStream(docx))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            engine.render(document, out);
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * A4 letter of the given number of paragraphs, also rendered by {@link BufferPoolTest}
+     */
+    static byte[] letter(int paragraphs) throws IOException {
+        return docx(document -> {
+            document.createStyles();
+            paragraph(document, "Kính gửi Nguyễn Văn A");
+            for (int i = 1; i <= paragraphs; i++) {
+                paragraph(document, i + ". Chúng tôi xin gửi bảng kê chi tiết dưới đây. ".repeat(4));
+            }
+            a4(document);
+        });
+    }
+}
@@ -0,0 +1,255 @@
+package com.techlab.renderpdf.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.techlab.renderpdf.engine.PdfBoxRenderEngine;
+import com.techlab.renderpdf.engine.XdocreportRenderEngine;
+import com.techlab.renderpdf.form.FormTemplateCache;
+import com.techlab.renderpdf.form.FormTemplateCompiler;
+import com.techlab.renderpdf.model.PdfGenerationRequest;
+import com.techlab.renderpdf.output.BufferPool;
+import com.techlab.renderpdf.output.ChunkedOutputStream;
+import com.techlab.renderpdf.output.RenderedDocument;
+import com.techlab.renderpdf.template.CompiledTemplateCache;
+import com.techlab.renderpdf.template.SpacingNormalizer;
+import com.techlab.renderpdf.template.TemplateCatalog;
+import com.techlab.renderpdf.template.TemplateCompiler;
+import com.techlab.renderpdf.template.TemplateStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.techlab.renderpdf.TestDocuments.docx;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Identical requests in flight must share one render and its bytes, which are released only when every
+ * request has closed them; different or later requests render on their own
+ */
+public class RenderCoalescerTest {
+
+    private static final String FONT_PATH = "./fonts/times.ttf";
+
+    @TempDir
+    Path templateDir;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final BufferPool pool = new BufferPool(DataSize.ofMegabytes(8), registry);
+    private RenderCoalescer coalescer;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        TemplateCompiler compiler = new TemplateCompiler(new SpacingNormalizer());
+        CompiledTemplateCache compiledCache = new CompiledTemplateCache(compiler, registry, 10, 1, true);
+        FormTemplateCompiler formCompiler = new FormTemplateCompiler(
+                new XdocreportRenderEngine(new FontCache(registry)), new PdfBoxRenderEngine(FONT_PATH));
+        TemplateStore store = new TemplateStore(templateDir.toString(), compiler, compiledCache,
+                new FormTemplateCache(formCompiler, compiledCache, registry, 10, 1), new TemplateCatalog(registry),
+                false, registry);
+        ReflectionTestUtils.invokeMethod(store, "init");
+        store.store("invoice", docx("Invoice ${name}"));
+        coalescer = new RenderCoalescer(store, new ObjectMapper(), registry, true);
+    }
+
+    @Test
+    public void identicalRequestsShareOneRender() throws Exception {
+        int requests = 4;
+        AtomicInteger renders = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(requests);
+        try {
+            List<Future<RenderedDocument>> results = new ArrayList<>();
+            for (int i = 0; i < requests; i++) {
+                // Same variables in another map order
+                Map<String, Object> variables = new LinkedHashMap<>();
+                if (i % 2 == 0) {
+                    variables.put("name", "Alice");
+                    variables.put("total", 42);
+                } else {
+                    variables.put("total", 42);
+                    variables.put("name", "Alice");
+                }
+                PdfGenerationRequest request = new PdfGenerationRequest("invoice", variables, null, "copy-" + i + ".pdf");
+                results.add(executor.submit(() -> coalescer.render(request, unbounded(), shared -> {
+                    renders.incrementAndGet();
+                    await(release);
+                    return document("shared");
+                })));
+            }
+            awaitFollowers(requests - 1);
+            release.countDown();
+
+            List<RenderedDocument> pdfs = new ArrayList<>();
+            for (Future<RenderedDocument> result : results) {
+                pdfs.add(result.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(1, renders.get());
+            for (RenderedDocument pdf : pdfs) {
+                assertArrayEquals("shared".getBytes(StandardCharsets.UTF_8), pdf.toByteArray());
+            }
+
+            // The bytes stay readable until the last request has closed its share
+            for (int i = 0; i < requests - 1; i++) {
+                pdfs.get(i).close();
+            }
+            RenderedDocument last = pdfs.get(requests - 1);
+            assertArrayEquals("shared".getBytes(StandardCharsets.UTF_8), last.toByteArray());
+            last.close();
+            assertThrows(IllegalStateException.class, last::toByteArray);
+            assertEquals(requests - 1, registry.get("render.singleflight.coalesced").counter().count());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Nothing in flight any more: the same request renders again
+        try (RenderedDocument again = coalescer.render(
+                new PdfGenerationRequest("invoice", Map.of("name", "Alice", "total", 42), null, null), unbounded(),
+                shared -> document("again"))) {
+            assertArrayEquals("again".getBytes(StandardCharsets.UTF_8), again.toByteArray());
+        }
+    }
+
+    @Test
+    public void differentRequestsRenderSeparately() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<RenderedDocument> first = executor.submit(() -> coalescer.render(
+                    new PdfGenerationRequest("invoice", Map.of("name", "Alice"), null, null), unbounded(), shared -> {
+                        await(release);
+                        return document("Alice");
+                    }));
+            try (RenderedDocument second = coalescer.render(
+                    new PdfGenerationRequest("invoice", Map.of("name", "Bob"), null, null), unbounded(),
+                    shared -> document("Bob"))) {
+                assertArrayEquals("Bob".getBytes(StandardCharsets.UTF_8), second.toByteArray());
+            }
+            release.countDown();
+            try (RenderedDocument pdf = first.get(10, TimeUnit.SECONDS)) {
+                assertArrayEquals("Alice".getBytes(StandardCharsets.UTF_8), pdf.toByteArray());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void followersReceiveTheSameFailure() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        PdfGenerationRequest request = new PdfGenerationRequest("invoice", Map.of("name", "Alice"), null, null);
+        try {
+            List<Future<RenderedDocument>> results = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                results.add(executor.submit(() -> coalescer.render(request, unbounded(), shared -> {
+                    await(release);
+                    throw new IOException("convert failed");
+                })));
+            }
+            awaitFollowers(1);
+            release.countDown();
+            for (Future<RenderedDocument> result : results) {
+                ExecutionException failure = assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+                assertEquals("convert failed", failure.getCause().getMessage());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void sharedRenderRunsUntilTheLatestDeadline() throws Exception {
+        RenderDeadline leaderDeadline = RenderDeadline.after(Duration.ofMillis(200));
+        AtomicReference<RenderDeadline> renderDeadline = new AtomicReference<>();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        PdfGenerationRequest request = new PdfGenerationRequest("invoice", Map.of("name", "Alice"), null, null);
+        try {
+            Future<RenderedDocument> leader = executor.submit(() -> coalescer.render(request, leaderDeadline, shared -> {
+                renderDeadline.set(shared);
+                await(release);
+                return document("shared");
+            }));
+            awaitFollowers(0);
+            Future<RenderedDocument> patient = executor.submit(() -> coalescer.render(request,
+                    RenderDeadline.after(Duration.ofSeconds(10)), shared -> document("never")));
+            awaitFollowers(1);
+
+            // Joining moved the deadline of the render to the later one, not that of the first request,
+            // which stops waiting at its own
+            ExecutionException stopped = assertThrows(ExecutionException.class, () -> leader.get(10, TimeUnit.SECONDS));
+            assertEquals("shared render", ((RenderDeadline.ExceededException) stopped.getCause()).getStage());
+            assertTrue(leaderDeadline.isExpired());
+            assertFalse(renderDeadline.get().isExpired());
+
+            // A request with an earlier deadline stops waiting at its own
+            RenderDeadline.ExceededException exceeded = assertThrows(RenderDeadline.ExceededException.class,
+                    () -> coalescer.render(request, RenderDeadline.after(Duration.ofMillis(50)),
+                            shared -> document("never")));
+            assertEquals("shared render", exceeded.getStage());
+
+            release.countDown();
+            try (RenderedDocument pdf = patient.get(10, TimeUnit.SECONDS)) {
+                assertArrayEquals("shared".getBytes(StandardCharsets.UTF_8), pdf.toByteArray());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Wait until the given number of requests joined the render in flight
+     */
+    private void awaitFollowers(int followers) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        Map<?, ?> flights = (Map<?, ?>) ReflectionTestUtils.getField(coalescer, "flights");
+        while (System.nanoTime() < deadline) {
+            Object flight = flights.values().stream().findFirst().orElse(null);
+            if (flight != null && ((AtomicInteger) ReflectionTestUtils
+                    .getField(flight, "participants")).get() == followers + 1) {
+                return;
+            }
+            Thread.sleep(5);
+        }
+        fail("Requests did not join the render in flight");
+    }
+
+    private static RenderDeadline unbounded() {
+        return RenderDeadline.after(Duration.ZERO);
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private RenderedDocument document(String text) throws IOException {
+        ChunkedOutputStream out = pool.newStream(1024);
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+        return new RenderedDocument(out);
+    }
+}
@@ -0,0 +1,334 @@
+package com.techlab.renderpdf.service;
+
+import com.techlab.renderpdf.memory.MemoryBudget;
+import com.techlab.renderpdf.model.PdfGenerationRequest;
+import com.techlab.renderpdf.output.RenderedDocument;
+import fr.opensagres.poi.xwpf.converter.core.XWPFConverterException;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.pdfbox.text.TextPosition;
+import org.apache.poi.wp.usermodel.HeaderFooterType;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTStyles;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.techlab.renderpdf.TestDocuments.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Renders a corpus of templates through the whole pipeline and compares the PDFs with golden files,
+ * so that caching, engine and substitution changes cannot silently change output
+ *
+ * A golden file holds, per page, the page size and every text line with the position of its first glyph
+ * as extracted by PDFBox; positions may move by {@link #TOLERANCE} points. Each case also has a latency
+ * budget (best of {@link #RUNS} warm renders) and an allocation budget (bytes allocated by the rendering
+ * thread; parts rendered on other pool workers are not counted).
+ *
+ * After an intended output change, review the diff and rewrite the golden files with
+ * {@code mvn test -Dtest=RenderEquivalenceTest -Dgolden.update=true}; {@code -Dbenchmark=true} prints the
+ * latency and allocation of each case
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "pdf.generation.template-dir=target/golden/templates",
+        "pdf.generation.temp-dir=target/golden/temp",
+        "pdf.generation.template-watch=false",
+        "pdf.generation.engine.templates=letter=pdfbox",
+        "pdf.generation.table-chunks.min-rows=600",
+        "pdf.generation.table-chunks.rows=300"
+})
+@ActiveProfiles("test")
+public class RenderEquivalenceTest {
+
+    private static final Path TEMPLATES = Paths.get("target/golden/templates");
+    private static final Path GOLDEN = Paths.get("src/test/resources/golden");
+    private static final boolean UPDATE = Boolean.getBoolean("golden.update");
+    private static final boolean BENCHMARK = Boolean.getBoolean("benchmark");
+    private static final float TOLERANCE = 2f;
+    private static final int RUNS = 3;
+
+    /**
+     * @param latencyMs Budget for the best warm render
+     * @param allocatedMb Budget for the bytes one render allocates
+     */
+    private record Case(String name, String template, Map<String, Object> variables, long latencyMs, long allocatedMb) {
+    }
+
+    @Autowired
+    private PdfGenerationService pdfGenerationService;
+
+    @Autowired
+    private MemoryBudget memoryBudget;
+
+    @BeforeAll
+    public static void writeTemplates() throws IOException {
+        Files.createDirectories(TEMPLATES);
+        Files.copy(Paths.get("templates/test-template.docx"), TEMPLATES.resolve("contract.docx"),
+                StandardCopyOption.REPLACE_EXISTING);
+        write("ledger", RenderEquivalenceTest::ledger);
+        write("report", RenderEquivalenceTest::report);
+        write("letter", RenderEquivalenceTest::letter);
+    }
+
+    @Test
+    public void contract() throws IOException {
+        Map<String, Object> variables = new LinkedHashMap<>();
+        variables.put("contractNumber", "HD-2024-0001");
+        variables.put("createdDate", "31/05/2024");
+        for (String party : List.of("borrower", "lender")) {
+            variables.put(party + "Name", "Nguyễn Văn " + party);
+            variables.put(party + "Id", "001090012345");
+            variables.put(party + "IdIssuedDate", "01/01/2020");
+            variables.put(party + "IdIssuedAt", "Cục Cảnh sát QLHC về TTXH");
+            variables.put(party + "Address", "Số 1 Tràng Tiền, Hoàn Kiếm, Hà Nội");
+            variables.put(party + "Phone", "0912345678");
+            variables.put(party + "Email", party + "@example.com");
+        }
+        variables.put("penaltyrate", "0,05");
+        verify(new Case("contract", "contract", variables, 2000, 120));
+    }
+
+    @Test
+    public void ledgerExpandsRows() throws IOException {
+        verify(new Case("ledger", "ledger", ledgerVariables(250), 1000, 64));
+    }
+
+    @Test
+    public void ledgerRendersInChunks() throws IOException {
+        verify(new Case("ledger-chunked", "ledger", ledgerVariables(700), 3000, 192));
+    }
+
+    @Test
+    public void preparedRenderHoldsItsMemoryUntilTheDocumentIsReleased() throws IOException {
+        PdfGenerationRequest request = new PdfGenerationRequest("ledger", ledgerVariables(10), null, null);
+        long before = memoryBudget.reservedBytes();
+
+        // Abandoned before a worker ran it: closing returns the reservation
+        try (PdfGenerationService.PreparedRender abandoned =
+                     pdfGenerationService.prepare(request, RenderDeadline.after(Duration.ZERO))) {
+            assertTrue(memoryBudget.reservedBytes() > before);
+        }
+        assertEquals(before, memoryBudget.reservedBytes());
+
+        PdfGenerationService.PreparedRender prepared =
+                pdfGenerationService.prepare(request, RenderDeadline.after(Duration.ZERO));
+        RenderedDocument pdf = pdfGenerationService.render(prepared);
+        prepared.close();
+        assertTrue(memoryBudget.reservedBytes() > before);
+        pdf.close();
+        assertEquals(before, memoryBudget.reservedBytes());
+        assertThrows(IllegalStateException.class, () -> pdfGenerationService.render(prepared));
+    }
+
+    @Test
+    public void reportRepeatsBlocks() throws IOException {
+        List<Map<String, Object>> chapters = new ArrayList<>();
+        for (int i = 1; i <= 40; i++) {
+            chapters.add(Map.of("no", i, "text", "Nội dung chương " + i + " của báo cáo định kỳ."));
+        }
+        verify(new Case("report", "report", Map.of("customer", "Công ty A", "vip", true, "chapters", chapters),
+                600, 40));
+    }
+
+    @Test
+    public void letterWithDirectEngine() throws IOException {
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (int i = 1; i <= 30; i++) {
+            items.add(Map.of("name", "Mặt hàng " + i, "amount", i * 125000));
+        }
+        verify(new Case("letter", "letter", Map.of("customer", "Nguyễn Văn A", "items", items), 400, 12));
+    }
+
+    private void verify(Case c) throws IOException {
+        byte[] pdf = render(c);
+        String layout = layout(pdf);
+        Path golden = GOLDEN.resolve(c.name() + ".txt");
+        if (UPDATE || !Files.exists(golden)) {
+            assertTrue(UPDATE, "No golden file " + golden + ", create it with -Dgolden.update=true");
+            Files.createDirectories(GOLDEN);
+            Files.writeString(golden, layout, StandardCharsets.UTF_8);
+        } else {
+            compare(c.name(), Files.readString(golden, StandardCharsets.UTF_8), layout);
+        }
+
+        long bestNanos = Long.MAX_VALUE;
+        long allocated = Long.MAX_VALUE;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (int i = 0; i < RUNS; i++) {
+            long bytes = threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            render(c);
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+            allocated = Math.min(allocated, threads.getCurrentThreadAllocatedBytes() - bytes);
+        }
+        if (BENCHMARK) {
+            System.out.printf("%s: %d ms, %d MB allocated%n", c.name(), bestNanos / 1_000_000, allocated >> 20);
+        }
+        assertTrue(bestNanos / 1_000_000 <= c.latencyMs(),
+                c.name() + " took " + bestNanos / 1_000_000 + " ms, budget " + c.latencyMs() + " ms");
+        assertTrue(allocated >> 20 <= c.allocatedMb(),
+                c.name() + " allocated " + (allocated >> 20) + " MB, budget " + c.allocatedMb() + " MB");
+    }
+
+    private byte[] render(Case c) throws IOException {
+        PdfGenerationRequest request = new PdfGenerationRequest();
+        request.setTemplateName(c.template());
+        request.setVariables(c.variables());
+        try (RenderedDocument pdf = pdfGenerationService.generatePdfFromDocxTemplate(request)) {
+            return pdf.toByteArray();
+        } catch (XWPFConverterException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Compare line by line: same pages, sizes and text, positions within the tolerance
+     */
+    private static void compare(String name, String expected, String actual) {
+        List<String> expectedLines = expected.lines().toList();
+        List<String> actualLines = actual.lines().toList();
+        for (int i = 0; i < Math.min(expectedLines.size(), actualLines.size()); i++) {
+            String want = expectedLines.get(i);
+            String got = actualLines.get(i);
+            if (!want.equals(got) && !withinTolerance(want, got)) {
+                fail(name + " differs from its golden file at line " + (i + 1) + "\nexpected: " + want + "\nactual:   " + got);
+            }
+        }
+        assertEquals(expectedLines.size(), actualLines.size(), name + ": number of layout lines");
+    }
+
+    private static boolean withinTolerance(String expected, String actual) {
+        String[] want = expected.split(" ", 3);
+        String[] got = actual.split(" ", 3);
+        if (want.length < 3 || got.length < 3 || !want[2].equals(got[2]) || expected.startsWith("page ")) {
+            return false;
+        }
+        try {
+            return Math.abs(Float.parseFloat(want[0]) - Float.parseFloat(got[0])) <= TOLERANCE
+                    && Math.abs(Float.parseFloat(want[1]) - Float.parseFloat(got[1])) <= TOLERANCE;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * One "page n w x h" line per page, then "y x text" per text line (points, rounded)
+     */
+    private static String layout(byte[] pdf) throws IOException {
+        try (PDDocument document = Loader.loadPDF(pdf)) {
+            StringWriter out = new StringWriter();
+            PDFTextStripper stripper = new PDFTextStripper() {
+                @Override
+                protected void startPage(PDPage page) {
+                    out.write(String.format("page %d %d x %d%n", getCurrentPageNo(),
+                            Math.round(page.getMediaBox().getWidth()), Math.round(page.getMediaBox().getHeight())));
+                }
+
+                @Override
+                protected void writeString(String text, List<TextPosition> positions) {
+                    if (!text.isBlank()) {
+                        TextPosition first = positions.get(0);
+                        out.write(String.format("%d %d %s%n",
+                                Math.round(first.getYDirAdj()), Math.round(first.getXDirAdj()), text.strip()));
+                    }
+                }
+            };
+            stripper.setSortByPosition(true);
+            stripper.writeText(document, Writer.nullWriter());
+            return out.toString();
+        }
+    }
+
+    private static Map<String, Object> ledgerVariables(int rows) {
+        List<Map<String, Object>> items = new ArrayList<>(rows);
+        for (int i = 1; i <= rows; i++) {
+            items.add(Map.of("no", i, "name", "Bút toán " + i, "amount", i * 1000.5));
+        }
+        return Map.of("customer", "Công ty A", "items", items);
+    }
+
+    /**
+     * Heading, a table with a header row and a formatted template row, a closing paragraph; page numbers in the footer
+     */
+    private static void ledger(XWPFDocument document) {
+        paragraph(document, "Sổ cái của ${customer}");
+        XWPFTable table = document.createTable(2, 3);
+        var grid = table.getCTTbl().addNewTblGrid();
+        for (int i = 0; i < 3; i++) {
+            grid.addNewGridCol().setW(BigInteger.valueOf(3000));
+        }
+        String[] header = {"STT", "Diễn giải", "Số tiền"};
+        String[] cells = {"${items.no}", "${items.name}", "${items.amount:number:#,##0.00:vi_VN}"};
+        for (int i = 0; i < 3; i++) {
+            table.getRow(0).getCell(i).setText(header[i]);
+            table.getRow(1).getCell(i).setText(cells[i]);
+        }
+        paragraph(document, "Hết sổ cái");
+        document.createFooter(HeaderFooterType.DEFAULT).createParagraph().getCTP().addNewFldSimple().setInstr(" PAGE ");
+    }
+
+    /**
+     * A chapter per item, each starting on a new page, with a conditional paragraph
+     */
+    private static void report(XWPFDocument document) {
+        paragraph(document, "Báo cáo cho ${customer}");
+        paragraph(document, "${#if vip}");
+        paragraph(document, "Khách hàng VIP");
+        paragraph(document, "${/if}");
+        paragraph(document, "${#each chapters}");
+        XWPFParagraph heading = document.createParagraph();
+        heading.setPageBreak(true);
+        heading.createRun().setText("Chương ${chapters.no}");
+        for (int i = 0; i < 10; i++) {
+            paragraph(document, "Đoạn " + i + ": ${chapters.text}");
+        }
+        paragraph(document, "${/each}");
+    }
+
+    /**
+     * Form letter within the direct engine's subset
+     */
+    private static void letter(XWPFDocument document) {
+        paragraph(document, "Kính gửi ${customer}");
+        XWPFTable table = document.createTable(2, 2);
+        table.getRow(0).getCell(0).setText("Mặt hàng");
+        table.getRow(0).getCell(1).setText("Thành tiền");
+        table.getRow(1).getCell(0).setText("${items.name}");
+        table.getRow(1).getCell(1).setText("${items.amount:currency:vi_VN}");
+        paragraph(document, "Trân trọng");
+    }
+
+    private static void write(String name, Body content) throws IOException {
+        Files.write(TEMPLATES.resolve(name + ".docx"), docx(document -> {
+            // Real templates carry a default font size; without one normalised line spacing collapses table rows
+            CTStyles styles = CTStyles.Factory.newInstance();
+            styles.addNewDocDefaults().addNewRPrDefault().addNewRPr().addNewSz().setVal(BigInteger.valueOf(24));
+            document.createStyles().setStyles(styles);
+            content.build(document);
+            a4(document);
+        }));
+    }
+}
@@ -0,0 +1,58 @@
+package com.techlab.renderpdf.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.techlab.renderpdf.service.RenderScheduler.Priority.INTERACTIVE;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * An admission slot must stay taken while its render runs, even after the caller stopped waiting for it
+ */
+public class RenderExecutorTest {
+
+    private final ForkJoinPool renderPool = new ForkJoinPool(2);
+
+    @AfterEach
+    public void shutdown() {
+        renderPool.shutdownNow();
+    }
+
+    @Test
+    public void abandonedRenderKeepsItsSlotUntilItEnds() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RenderScheduler scheduler = new RenderScheduler(renderPool, 2, registry, INTERACTIVE, 4, 1, 0, 0);
+        RenderExecutor executor = new RenderExecutor(renderPool, scheduler, registry, 1, 0, 200, 60_000);
+        RenderScheduler.Ticket ticket = new RenderScheduler.Ticket(INTERACTIVE, null, "letter");
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(1);
+
+        assertThrows(RenderDeadline.ExceededException.class,
+                () -> executor.execute(ticket, RenderDeadline.after(Duration.ofMillis(100)), () -> {
+                    try {
+                        blocked.await();
+                        return "late";
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    } finally {
+                        finished.countDown();
+                    }
+                }));
+
+        // The first render still runs: max-concurrent = 1 leaves no slot
+        assertThrows(RejectedExecutionException.class,
+                () -> executor.execute(ticket, RenderDeadline.after(Duration.ofSeconds(5)), () -> "second"));
+
+        blocked.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals("third", executor.execute(ticket, RenderDeadline.after(Duration.ofSeconds(5)), () -> "third"));
+    }
+}
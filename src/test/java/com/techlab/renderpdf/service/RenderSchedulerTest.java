@@ -0,0 +1,103 @@
+package com.techlab.renderpdf.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.techlab.renderpdf.service.RenderScheduler.Priority.BATCH;
+import static com.techlab.renderpdf.service.RenderScheduler.Priority.INTERACTIVE;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Free workers must go to the priorities in proportion to their weights, to batch alone when nothing
+ * interactive waits, and never to a render whose tenant or template is at its cap
+ */
+public class RenderSchedulerTest {
+
+    /** Renders handed to a worker, run one at a time by the test */
+    private final Queue<Runnable> workers = new ArrayDeque<>();
+    /** Names of the renders in the order they ran */
+    private final List<String> started = new ArrayList<>();
+
+    @Test
+    public void workersFollowTheWeights() {
+        RenderScheduler scheduler = new RenderScheduler(workers::add, 1, new SimpleMeterRegistry(),
+                INTERACTIVE, 3, 1, 0, 0);
+        for (int i = 0; i < 8; i++) {
+            submit(scheduler, "b" + i, BATCH, null, null);
+        }
+        for (int i = 0; i < 6; i++) {
+            submit(scheduler, "i" + i, INTERACTIVE, null, null);
+        }
+        assertEquals(1, workers.size());
+        runAll();
+
+        // b0 took the idle worker; then three interactive renders for every batch render while both wait
+        assertEquals(List.of("b0", "i0", "i1", "b1", "i2", "i3", "i4", "b2", "i5", "b3", "b4", "b5", "b6", "b7"),
+                started);
+    }
+
+    @Test
+    public void tenantAndTemplateCapsLeaveWorkersToOthers() {
+        RenderScheduler scheduler = new RenderScheduler(workers::add, 2, new SimpleMeterRegistry(),
+                INTERACTIVE, 4, 1, 1, 1);
+        submit(scheduler, "a1", BATCH, "acme", "ledger");
+        submit(scheduler, "a2", BATCH, "acme", "invoice");
+        submit(scheduler, "b1", BATCH, "beta", "ledger");
+        submit(scheduler, "c1", BATCH, "gamma", "report");
+
+        // a2 waits for acme, b1 for ledger: c1 takes the second worker
+        assertEquals(2, workers.size());
+        assertEquals(2, scheduler.queued(BATCH));
+        runAll();
+        assertEquals(List.of("a1", "c1", "a2", "b1"), started);
+        assertEquals(0, scheduler.queued(BATCH));
+    }
+
+    @Test
+    public void refusedRenderGivesItsWorkerBack() {
+        List<String> refused = new ArrayList<>();
+        Queue<Runnable> accepting = new ArrayDeque<>();
+        boolean[] shutDown = {true};
+        RenderScheduler scheduler = new RenderScheduler(work -> {
+            if (shutDown[0]) {
+                throw new RejectedExecutionException("shut down");
+            }
+            accepting.add(work);
+        }, 1, new SimpleMeterRegistry(), INTERACTIVE, 4, 1, 1, 1);
+
+        RenderScheduler.Ticket ticket = new RenderScheduler.Ticket(INTERACTIVE, "acme", "ledger");
+        scheduler.submit(ticket, () -> started.add("a"), e -> refused.add("a"));
+        scheduler.submit(ticket, () -> started.add("b"), e -> refused.add("b"));
+        assertEquals(List.of("a", "b"), refused);
+        assertEquals(0, scheduler.queued(INTERACTIVE));
+
+        // The single worker slot and the tenant/template counts were given back
+        shutDown[0] = false;
+        scheduler.submit(new RenderScheduler.Ticket(INTERACTIVE, "acme", "ledger"), () -> started.add("c"),
+                e -> refused.add("c"));
+        assertEquals(1, accepting.size());
+        accepting.remove().run();
+        assertEquals(List.of("c"), started);
+    }
+
+    private void submit(RenderScheduler scheduler, String name, RenderScheduler.Priority priority,
+                        String tenant, String template) {
+        scheduler.submit(new RenderScheduler.Ticket(priority, tenant, template), () -> started.add(name),
+                e -> fail(name + " refused"));
+    }
+
+    /**
+     * Run the started renders in order; each completion hands the next render to a worker
+     */
+    private void runAll() {
+        while (!workers.isEmpty()) {
+            workers.remove().run();
+        }
+    }
+}
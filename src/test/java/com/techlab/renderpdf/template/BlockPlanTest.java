@@ -0,0 +1,74 @@
+package com.techlab.renderpdf.template;
+
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static com.techlab.renderpdf.TestDocuments.*;
+import static com.techlab.renderpdf.template.TemplateDocuments.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Directives compiled with the template must keep, drop and repeat whole body elements,
+ * and a parsed copy must stay a normal document for the fill pass afterwards
+ */
+public class BlockPlanTest {
+
+    @Test
+    public void conditionsAndLoopsRebuildTheBody() throws IOException {
+        CompiledTemplate compiled = compile(docx(document -> {
+            paragraph(document, "Kính gửi ${customer}");
+            paragraph(document, "${#if vip}");
+            paragraph(document, "Ưu đãi VIP");
+            paragraph(document, "${#else}");
+            paragraph(document, "Khách thường");
+            paragraph(document, "${/if}");
+            paragraph(document, "${#each items}");
+            // Placeholder split over two runs, as Word often saves it
+            XWPFParagraph split = document.createParagraph();
+            split.createRun().setText("Mặt hàng ${items.");
+            split.createRun().setText("name} x ${items.qty:number:00} cho ${customer}");
+            XWPFTable table = document.createTable(1, 1);
+            table.getRow(0).getCell(0).setText("${items.name}");
+            paragraph(document, "${/each}");
+            paragraph(document, "${#if !note}");
+            paragraph(document, "Không có ghi chú");
+            paragraph(document, "${/if}");
+        }));
+        assertEquals(7, compiled.blocks().directiveCount());
+
+        List<String> vip = render(compiled, Map.of("customer", "A", "vip", true,
+                "items", List.of(Map.of("name", "Bút", "qty", 2), Map.of("name", "Vở", "qty", 5))));
+        assertEquals(List.of("Kính gửi ${customer}", "Ưu đãi VIP",
+                "Mặt hàng Bút x 02 cho ${customer}", "[Bút]",
+                "Mặt hàng Vở x 05 cho ${customer}", "[Vở]",
+                "Không có ghi chú"), vip);
+
+        List<String> regular = render(compiled, Map.of("customer", "B", "vip", "", "items", List.of(), "note", "x"));
+        assertEquals(List.of("Kính gửi ${customer}", "Khách thường"), regular);
+    }
+
+    @Test
+    public void unbalancedDirectivesAreRejectedAtCompileTime() {
+        assertThrows(IllegalArgumentException.class, () -> compile(docx(document -> {
+            paragraph(document, "${#each items}");
+            paragraph(document, "${items.name}");
+        })));
+        assertThrows(IllegalArgumentException.class, () -> compile(docx(document -> {
+            paragraph(document, "${#if vip}");
+            paragraph(document, "${/each}");
+        })));
+        assertThrows(IllegalArgumentException.class, () -> compile(docx(document -> paragraph(document, "${/if}"))));
+    }
+
+    private static CompiledTemplate compile(byte[] docx) {
+        TemplateVersion version = new TemplateVersion("blocks", TemplateStore.sha256(docx), docx.length, Instant.now(),
+                null, TemplateType.DOCX);
+        return new TemplateCompiler(new SpacingNormalizer()).compile(version, docx);
+    }
+}
@@ -0,0 +1,85 @@
+package com.techlab.renderpdf.template;
+
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static com.techlab.renderpdf.TestDocuments.*;
+import static com.techlab.renderpdf.template.TemplateDocuments.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A template loaded from its snapshot must render exactly like the one compiled from the DOCX, and a
+ * snapshot of other bytes or a damaged one must never be used
+ */
+public class CompiledTemplateSnapshotTest {
+
+    @TempDir
+    Path blobDir;
+
+    @Test
+    public void snapshotRendersLikeTheCompiledTemplate() throws IOException {
+        TemplateVersion version = version(docx(document -> {
+            paragraph(document, "Kính gửi ${customer}, tổng ${total:number:#,##0} đ");
+            paragraph(document, "${#if vip}");
+            paragraph(document, "Ưu đãi VIP");
+            paragraph(document, "${/if}");
+            paragraph(document, "${#each items}");
+            paragraph(document, "Mặt hàng ${items.name} x ${items.qty:number:00}");
+            XWPFTable table = document.createTable(1, 1);
+            table.getRow(0).getCell(0).setText("${items.name}");
+            paragraph(document, "${/each}");
+        }));
+        CompiledTemplate compiled = new TemplateCompiler(new SpacingNormalizer()).compile(version, version.readBytes());
+        Path snapshot = CompiledTemplateSnapshot.path(version);
+        CompiledTemplateSnapshot.write(snapshot, compiled);
+
+        CompiledTemplate loaded = CompiledTemplateSnapshot.read(snapshot, version);
+        assertNotNull(loaded);
+        assertArrayEquals(compiled.bytes(), loaded.bytes());
+        assertEquals(compiled.memory(), loaded.memory());
+        assertEquals(compiled.blocks().directiveCount(), loaded.blocks().directiveCount());
+        assertEquals(compiled.formats().byBody().keySet(), loaded.formats().byBody().keySet());
+        assertEquals(compiled.formats().simple().stream().map(Placeholder::text).toList(),
+                loaded.formats().simple().stream().map(Placeholder::text).toList());
+        assertEquals("1,234", loaded.formats().get("total:number:#,##0").format(1234));
+
+        Map<String, Object> variables = Map.of("customer", "A", "vip", true,
+                "items", List.of(Map.of("name", "Bút", "qty", 2), Map.of("name", "Vở", "qty", 5)));
+        List<String> expected = render(compiled, variables);
+        assertEquals(List.of("Kính gửi ${customer}, tổng ${total:number:#,##0} đ", "Ưu đãi VIP",
+                "Mặt hàng Bút x 02", "[Bút]", "Mặt hàng Vở x 05", "[Vở]"), expected);
+        assertEquals(expected, render(loaded, variables));
+    }
+
+    @Test
+    public void snapshotOfOtherBytesOrDamagedIsNotUsed() throws IOException {
+        TemplateVersion version = version(docx(document -> paragraph(document, "Hóa đơn ${number}")));
+        CompiledTemplate compiled = new TemplateCompiler(new SpacingNormalizer()).compile(version, version.readBytes());
+        Path snapshot = CompiledTemplateSnapshot.path(version);
+        assertNull(CompiledTemplateSnapshot.read(snapshot, version));
+        CompiledTemplateSnapshot.write(snapshot, compiled);
+
+        // Same name, other bytes: the snapshot belongs to the previous version
+        TemplateVersion other = version(docx(document -> paragraph(document, "Hóa đơn số ${number}")));
+        assertNull(CompiledTemplateSnapshot.read(snapshot, other));
+
+        byte[] bytes = Files.readAllBytes(snapshot);
+        Files.write(snapshot, Arrays.copyOf(bytes, bytes.length - 10));
+        assertThrows(IOException.class, () -> CompiledTemplateSnapshot.read(snapshot, version));
+    }
+
+    private TemplateVersion version(byte[] docx) throws IOException {
+        String hash = TemplateStore.sha256(docx);
+        Path blob = Files.write(blobDir.resolve(hash + ".docx"), docx);
+        return new TemplateVersion("invoice", hash, docx.length, Instant.now(), blob, TemplateType.DOCX);
+    }
+}
@@ -0,0 +1,111 @@
+package com.techlab.renderpdf.template;
+
+import org.apache.poi.wp.usermodel.HeaderFooterType;
+import org.apache.poi.xwpf.usermodel.BreakType;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.junit.jupiter.api.Test;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTSectPr;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.List;
+
+import static com.techlab.renderpdf.TestDocuments.docx;
+import static com.techlab.renderpdf.template.TemplateDocuments.texts;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Parts must start where the document starts a new page anyway, keep the page setup of their sections,
+ * and leave the filled document as it was
+ */
+public class SectionSplitterTest {
+
+    @Test
+    public void cutsAtNewPageSectionsAndPageBreaks() throws IOException {
+        try (TemplateDocument document = document(false)) {
+            List<byte[]> parts = SectionSplitter.split(document, 3, 1);
+
+            assertEquals(3, parts.size());
+            try (XWPFDocument first = parse(parts.get(0));
+                 XWPFDocument second = parse(parts.get(1));
+                 XWPFDocument third = parse(parts.get(2))) {
+                assertEquals(List.of("p0", "p1", "p2", "p3"), texts(first));
+                assertFalse(first.getParagraphs().get(3).getCTP().getPPr().isSetSectPr());
+                assertEquals("16838", first.getDocument().getBody().getSectPr().getPgSz().getW().toString());
+
+                assertEquals(List.of("p4", "p5", "p6"), texts(second));
+                assertTrue(second.getDocument().getBody().getSectPr().isSetTitlePg());
+
+                // Starts inside the section: no leading page break, no first-page header
+                assertEquals(List.of("p7", "p8", "p9", "p10"), texts(third));
+                assertFalse(third.getParagraphs().get(0).getCTP().xmlText().contains("w:br"));
+                assertFalse(third.getDocument().getBody().getSectPr().isSetTitlePg());
+                assertEquals("11906", third.getDocument().getBody().getSectPr().getPgSz().getW().toString());
+            }
+
+            // The filled document is left as it was
+            assertEquals(11, document.getBodyElements().size());
+            assertTrue(document.getParagraphs().get(3).getCTP().getPPr().isSetSectPr());
+            assertTrue(document.getDocument().getBody().isSetSectPr());
+            assertEquals(List.of(), SectionSplitter.split(document, 3, 100));
+        }
+    }
+
+    @Test
+    public void pageNumbersOnlyAllowCutsWhereNumberingRestarts() throws IOException {
+        try (TemplateDocument document = document(false, " PAGE ")) {
+            assertEquals(List.of(), SectionSplitter.split(document, 3, 1));
+        }
+        try (TemplateDocument document = document(true, " PAGE ")) {
+            List<byte[]> parts = SectionSplitter.split(document, 3, 1);
+            assertEquals(2, parts.size());
+            try (XWPFDocument second = parse(parts.get(1))) {
+                assertEquals("p4", texts(second).get(0));
+            }
+        }
+        try (TemplateDocument document = document(true, "PAGE", "NUMPAGES")) {
+            assertEquals(List.of(), SectionSplitter.split(document, 3, 1));
+        }
+    }
+
+    /**
+     * p0-p3 landscape section; p4-p10 portrait section with a different first page, page break before p7;
+     * parsed back as renders see it (POI lists new footers only after parsing)
+     *
+     * @param restartNumbering Whether the second section numbers its pages from 1
+     * @param footerFields Field instructions of one footer each
+     */
+    private static TemplateDocument document(boolean restartNumbering, String... footerFields) throws IOException {
+        return new TemplateDocument(new ByteArrayInputStream(docx(document -> {
+            for (int i = 0; i < 11; i++) {
+                XWPFParagraph paragraph = document.createParagraph();
+                XWPFRun run = paragraph.createRun();
+                if (i == 7) {
+                    run.addBreak(BreakType.PAGE);
+                }
+                run.setText("p" + i);
+                if (i == 3) {
+                    CTSectPr landscape = paragraph.getCTP().addNewPPr().addNewSectPr();
+                    landscape.addNewPgSz().setW(BigInteger.valueOf(16838));
+                }
+            }
+            CTSectPr portrait = document.getDocument().getBody().addNewSectPr();
+            portrait.addNewPgSz().setW(BigInteger.valueOf(11906));
+            portrait.addNewTitlePg();
+            if (restartNumbering) {
+                portrait.addNewPgNumType().setStart(BigInteger.ONE);
+            }
+            HeaderFooterType[] types = {HeaderFooterType.DEFAULT, HeaderFooterType.FIRST};
+            for (int i = 0; i < footerFields.length; i++) {
+                document.createFooter(types[i]).createParagraph().getCTP().addNewFldSimple().setInstr(footerFields[i]);
+            }
+        })));
+    }
+
+    private static XWPFDocument parse(byte[] docx) throws IOException {
+        return SectionSplitter.open(docx);
+    }
+}
@@ -0,0 +1,80 @@
+package com.techlab.renderpdf.template;
+
+import org.apache.poi.wp.usermodel.HeaderFooterType;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static com.techlab.renderpdf.TestDocuments.docx;
+import static com.techlab.renderpdf.template.TemplateDocuments.texts;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Chunks must each hold the table's header and template row, split the rest of the body between the
+ * first and last chunk, and continue the page numbering of the chunks before them
+ */
+public class TableChunksTest {
+
+    @Test
+    public void chunksRepeatTheHeaderAndContinuePageNumbers() throws IOException {
+        try (TemplateDocument document = document("PAGE")) {
+            XWPFTable table = document.getTables().get(1);
+            TableChunks chunks = TableChunks.cut(document, table, 1);
+            assertTrue(chunks.numbersPages());
+
+            try (XWPFDocument first = chunks.open(0, 3, 1)) {
+                assertEquals(List.of("before"), texts(first));
+                XWPFTable chunkTable = chunks.table(first, 0);
+                assertEquals("${items.name}", chunkTable.getRow(1).getCell(0).getText());
+                assertTrue(chunkTable.getRow(0).isRepeatHeader());
+                assertFalse(first.getDocument().getBody().getSectPr().isSetPgNumType());
+            }
+            try (XWPFDocument middle = chunks.open(1, 3, 5)) {
+                assertEquals(List.of(""), texts(middle));
+                assertEquals(1, middle.getTables().size());
+                assertEquals("Name", chunks.table(middle, 1).getRow(0).getCell(0).getText());
+                assertEquals("5", middle.getDocument().getBody().getSectPr().getPgNumType().getStart().toString());
+            }
+            try (XWPFDocument last = chunks.open(2, 3, 9)) {
+                assertEquals(List.of("after"), texts(last));
+                assertEquals(2, chunks.table(last, 2).getRows().size());
+                assertEquals("9", last.getDocument().getBody().getSectPr().getPgNumType().getStart().toString());
+            }
+
+            // The filled document is left as it was
+            assertEquals(4, document.getBodyElements().size());
+            assertEquals(2, document.getTables().get(1).getRows().size());
+        }
+    }
+
+    @Test
+    public void pageCountPreventsChunking() throws IOException {
+        try (TemplateDocument document = document("NUMPAGES")) {
+            assertTrue(TableChunks.showsPageCount(document));
+        }
+        try (TemplateDocument document = document("PAGE")) {
+            assertFalse(TableChunks.showsPageCount(document));
+        }
+    }
+
+    /**
+     * Paragraph, static table, dynamic table (header + template row), paragraph; one footer field
+     */
+    private static TemplateDocument document(String footerField) throws IOException {
+        return new TemplateDocument(new ByteArrayInputStream(docx(document -> {
+            document.createParagraph().createRun().setText("before");
+            document.createTable(1, 1).getRow(0).getCell(0).setText("static");
+            XWPFTable table = document.createTable(2, 1);
+            table.getRow(0).getCell(0).setText("Name");
+            table.getRow(1).getCell(0).setText("${items.name}");
+            document.createParagraph().createRun().setText("after");
+            document.getDocument().getBody().addNewSectPr();
+            document.createFooter(HeaderFooterType.DEFAULT).createParagraph().getCTP().addNewFldSimple()
+                    .setInstr(footerField);
+        })));
+    }
+}
@@ -0,0 +1,53 @@
+package com.techlab.renderpdf.template;
+
+import org.apache.poi.xwpf.usermodel.IBodyElement;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Body text of compiled templates and split parts; templates are built with {@link com.techlab.renderpdf.TestDocuments}
+ */
+final class TemplateDocuments {
+
+    private TemplateDocuments() {
+    }
+
+    /**
+     * Body text after the plan ran: one entry per paragraph, tables as [cell text]
+     */
+    static List<String> render(CompiledTemplate compiled, Map<String, Object> variables) throws IOException {
+        try (TemplateDocument document = new TemplateDocument(new ByteArrayInputStream(compiled.bytes()))) {
+            compiled.blocks().apply(document, variables);
+            List<String> text = new ArrayList<>();
+            for (IBodyElement element : document.getBodyElements()) {
+                if (element instanceof XWPFParagraph paragraph && !paragraph.getText().isEmpty()) {
+                    text.add(paragraph.getText());
+                } else if (element instanceof XWPFTable table) {
+                    text.add("[" + table.getRow(0).getCell(0).getText() + "]");
+                }
+            }
+            // Reloaded lists must match the body the fill pass and engines will walk
+            assertEquals(document.getParagraphs().size() + document.getTables().size(),
+                    document.getBodyElements().size());
+            return text;
+        }
+    }
+
+    /**
+     * Text of every body paragraph, empty ones included
+     */
+    static List<String> texts(XWPFDocument document) {
+        List<String> texts = new ArrayList<>();
+        document.getParagraphs().forEach(paragraph -> texts.add(paragraph.getText()));
+        return texts;
+    }
+}
@@ -0,0 +1,165 @@
+package com.techlab.renderpdf.template;
+
+import com.techlab.renderpdf.engine.PdfBoxRenderEngine;
+import com.techlab.renderpdf.engine.XdocreportRenderEngine;
+import com.techlab.renderpdf.form.FormTemplateCache;
+import com.techlab.renderpdf.form.FormTemplateCompiler;
+import com.techlab.renderpdf.service.FontCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static com.techlab.renderpdf.TestDocuments.docx;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A swap must publish a new version without touching the bytes of the version already resolved,
+ * and the catalogue must follow every change
+ */
+public class TemplateStoreTest {
+
+    private static final String FONT_PATH = "./fonts/times.ttf";
+
+    @TempDir
+    Path templateDir;
+
+    private TemplateStore store;
+    private TemplateCatalog catalog;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        store = newStore(false);
+    }
+
+    @Test
+    public void resolvedVersionSurvivesSwapAndDelete() throws IOException {
+        byte[] v1 = docx("v1");
+        TemplateVersion first = store.store("invoice", v1);
+        TemplateVersion pinned = store.resolve("invoice");
+        assertEquals(first.hash(), pinned.hash());
+
+        TemplateVersion second = store.store("invoice", docx("v2"));
+        assertNotEquals(first.hash(), second.hash());
+        assertEquals(second.hash(), store.resolve("invoice").hash());
+
+        store.delete("invoice");
+        assertThrows(FileNotFoundException.class, () -> store.resolve("invoice"));
+        assertArrayEquals(v1, pinned.readBytes());
+    }
+
+    @Test
+    public void invalidUploadKeepsCurrentVersion() throws IOException {
+        TemplateVersion current = store.store("invoice", docx("v1"));
+
+        assertThrows(IllegalArgumentException.class, () -> store.store("invoice", "not a docx".getBytes()));
+        assertEquals(current.hash(), store.resolve("invoice").hash());
+    }
+
+    @Test
+    public void legacyFileIsImportedAndPointersSurviveRestart() throws IOException {
+        byte[] legacy = docx("legacy");
+        Files.write(templateDir.resolve("report.docx"), legacy);
+        TemplateVersion imported = store.resolve("report");
+        assertEquals(TemplateStore.sha256(legacy), imported.hash());
+
+        store.store("invoice", docx("v1"));
+        TemplateStore restarted = newStore(false);
+        assertEquals(store.resolve("invoice").hash(), restarted.resolve("invoice").hash());
+        assertEquals(imported.hash(), restarted.resolve("report").hash());
+    }
+
+    @Test
+    public void changedLegacyFileIsComparedAtStartupNotPerRequest() throws IOException {
+        Path legacyFile = templateDir.resolve("report.docx");
+        Files.write(legacyFile, docx("legacy"));
+        TemplateVersion imported = store.resolve("report");
+
+        byte[] changed = docx("changed");
+        Files.write(legacyFile, changed);
+        Files.setLastModifiedTime(legacyFile, FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+        // No watcher: requests keep the imported version, the next startup imports the change
+        assertEquals(imported.hash(), store.resolve("report").hash());
+        assertEquals(TemplateStore.sha256(changed), newStore(false).resolve("report").hash());
+    }
+
+    @Test
+    public void uploadAndDeleteRemoveTheLegacyFileFirst() throws IOException {
+        Path legacyFile = templateDir.resolve("report.docx");
+        Files.write(legacyFile, docx("legacy"));
+        store.resolve("report");
+
+        TemplateVersion uploaded = store.store("report", docx("uploaded"));
+        assertFalse(Files.exists(legacyFile));
+        assertEquals(uploaded.hash(), store.resolve("report").hash());
+
+        // Dropped again and deleted before anything resolved it: gone, not re-imported
+        Files.write(legacyFile, docx("legacy again"));
+        assertTrue(store.delete("report"));
+        assertFalse(Files.exists(legacyFile));
+        assertThrows(FileNotFoundException.class, () -> store.resolve("report"));
+        assertFalse(store.delete("report"));
+    }
+
+    @Test
+    public void catalogueFollowsUploadsDeletesAndDroppedFiles() throws Exception {
+        for (String name : new String[]{"invoice-a", "invoice-b", "invoice-c", "receipt"}) {
+            store.store(name, docx("Kính gửi ${customer}, tổng ${items.amount}"));
+        }
+        TemplateCatalog.Page first = catalog.list("invoice", null, 2);
+        assertEquals(List.of("invoice-a", "invoice-b"),
+                first.templates().stream().map(TemplateCatalog.TemplateInfo::name).toList());
+        TemplateCatalog.Page second = catalog.list("invoice", first.nextAfter(), 2);
+        assertEquals("invoice-c", second.templates().get(0).name());
+        assertNull(second.nextAfter());
+        // Cursor outside the prefix range: before it is ignored, past it the listing is over
+        assertEquals(3, catalog.list("invoice", "a", 10).templates().size());
+        assertEquals(List.of(), catalog.list("invoice", "receipt", 10).templates());
+        assertNull(catalog.list("invoice", "receipt", 10).nextAfter());
+
+        TemplateCatalog.TemplateInfo receipt = catalog.get("receipt").orElseThrow();
+        assertEquals(List.of("customer"), receipt.placeholders().variables());
+        assertEquals(List.of("amount"), receipt.placeholders().tables().get("items"));
+        assertNull(receipt.lastUsedAt());
+        store.resolve("receipt");
+        assertNotNull(catalog.get("receipt").orElseThrow().lastUsedAt());
+
+        store.delete("invoice-b");
+        assertEquals(List.of("invoice-a", "invoice-c", "receipt"), store.listNames());
+
+        // Dropped-in file: imported by the watcher, placeholders of restored versions scanned in the background
+        TemplateStore watching = newStore(true);
+        Files.write(templateDir.resolve("letter.docx"), docx("${name}"));
+        TemplateCatalog.TemplateInfo letter = null;
+        for (int i = 0; i < 100 && (letter == null || letter.hash() == null
+                || catalog.get("receipt").orElseThrow().placeholders() == null); i++) {
+            Thread.sleep(50);
+            letter = catalog.get("letter").orElse(null);
+        }
+        assertNotNull(letter);
+        assertNotNull(letter.hash());
+        assertEquals(List.of("name"), letter.placeholders().variables());
+        assertEquals(List.of("customer"), catalog.get("receipt").orElseThrow().placeholders().variables());
+        watching.close();
+    }
+
+    private TemplateStore newStore(boolean watch) throws IOException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        catalog = new TemplateCatalog(registry);
+        TemplateCompiler compiler = new TemplateCompiler(new SpacingNormalizer());
+        CompiledTemplateCache compiledCache = new CompiledTemplateCache(compiler, registry, 10, 1, true);
+        FormTemplateCompiler formCompiler = new FormTemplateCompiler(
+                new XdocreportRenderEngine(new FontCache(registry)), new PdfBoxRenderEngine(FONT_PATH));
+        TemplateStore templateStore = new TemplateStore(templateDir.toString(), compiler, compiledCache,
+                new FormTemplateCache(formCompiler, compiledCache, registry, 10, 1), catalog, watch, registry);
+        templateStore.init();
+        return templateStore;
+    }
+}
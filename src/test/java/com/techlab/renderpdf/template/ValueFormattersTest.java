@@ -0,0 +1,61 @@
+package com.techlab.renderpdf.template;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import static com.techlab.renderpdf.TestDocuments.docx;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Specifiers must be resolved once per distinct text, format the value types JSON bodies carry,
+ * and never fail a render over a value they cannot handle
+ */
+public class ValueFormattersTest {
+
+    @Test
+    public void specifiersFormatJsonValues() {
+        assertEquals("10.000.000 ₫", ValueFormatters.of("currency:vi_VN").format(1.0E7).replace('\u00A0', ' '));
+        assertEquals("1,234.50", ValueFormatters.of("number:#,##0.00:en_US").format("1234.5"));
+        assertEquals("1.234,50", ValueFormatters.of("number:#,##0.00:vi_VN").format(new BigDecimal("1234.5")));
+        assertEquals("31/05/2024", ValueFormatters.of("dd/MM/yyyy").format("2024-05-31"));
+        assertEquals("31/05/2024", ValueFormatters.of("date:dd/MM/yyyy").format(LocalDate.of(2024, 5, 31)));
+        assertEquals("10:15", ValueFormatters.of("HH:mm").format("2024-05-31T10:15:00"));
+
+        // Without specifier large doubles are no longer written as 1.0E7
+        assertEquals("10000000", ValueFormatters.PLAIN.format(1.0E7));
+        assertEquals("12.5", ValueFormatters.PLAIN.format(12.5));
+        assertEquals("", ValueFormatters.PLAIN.format(null));
+
+        // Values the specifier cannot handle are written as they are
+        assertEquals("n/a", ValueFormatters.of("currency:vi_VN").format("n/a"));
+        assertEquals("2024-05-31", ValueFormatters.of("HH:mm").format("2024-05-31"));
+
+        assertSame(ValueFormatters.of("currency:vi_VN"), ValueFormatters.of("currency:vi_VN"));
+        assertThrows(IllegalArgumentException.class, () -> ValueFormatters.of("number:#.#.#"));
+    }
+
+    @Test
+    public void templatePlaceholdersAreBoundAtCompileTime() throws IOException {
+        ValueFormats formats = ValueFormats.of(docx("Tổng ${total:currency:vi_VN}, ngày ${date:dd/MM/yyyy}",
+                "${items.price:number:#,##0} ${items.name} ${customer}"));
+
+        assertEquals(2, formats.simple().size());
+        assertEquals("total", formats.simple().get(0).name());
+        Placeholder price = formats.byBody().get("items.price:number:#,##0");
+        assertEquals("items", price.name());
+        assertEquals("price", price.field());
+        assertEquals("${items.price:number:#,##0}", price.text());
+        assertFalse(formats.byBody().containsKey("customer"));
+
+        assertSame(ValueFormats.NONE, ValueFormats.of(docx("${customer}")));
+        assertEquals(new PlaceholderSummary(List.of("total", "date", "customer"),
+                        Map.of("items", List.of("price", "name"))),
+                PlaceholderSummary.scan(docx("Tổng ${total:currency:vi_VN}, ngày ${date:dd/MM/yyyy}",
+                        "${items.price:number:#,##0} ${items.name} ${customer}")));
+    }
+}
@@ -0,0 +1,93 @@
+package com.techlab.renderpdf.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.github.luben.zstd.Zstd;
+import com.techlab.renderpdf.model.PdfGenerationRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.unit.DataSize;
+
+import jakarta.servlet.http.HttpServletRequest;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compressed request bodies must reach the message converters as plain bodies
+ */
+public class RequestDecompressionFilterTest {
+
+    private final RequestDecompressionFilter filter =
+            new RequestDecompressionFilter(DataSize.ofKilobytes(64), new SimpleMeterRegistry());
+
+    @Test
+    public void gzipJsonBodyIsInflated() throws Exception {
+        byte[] json = "{\"templateName\":\"letter\",\"variables\":{\"name\":\"Nguyễn Văn A\"}}"
+                .getBytes(StandardCharsets.UTF_8);
+        MockFilterChain chain = new MockFilterChain();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request("gzip", gzip(json), "application/json"), response, chain);
+
+        HttpServletRequest passed = (HttpServletRequest) chain.getRequest();
+        assertNotNull(passed, "the request must continue down the chain");
+        assertNull(passed.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(json.length, passed.getContentLength());
+        assertArrayEquals(json, passed.getInputStream().readAllBytes());
+    }
+
+    @Test
+    public void zstdCborBodyReadsAsRequest() throws Exception {
+        PdfGenerationRequest original = new PdfGenerationRequest("letter", Map.of("total", 1250000), null, null);
+        byte[] cbor = new ObjectMapper(new CBORFactory()).writeValueAsBytes(original);
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(request("zstd", Zstd.compress(cbor), "application/cbor"), new MockHttpServletResponse(), chain);
+
+        PdfGenerationRequest read = (PdfGenerationRequest) new MappingJackson2CborHttpMessageConverter()
+                .read(PdfGenerationRequest.class, new ServletServerHttpRequest((HttpServletRequest) chain.getRequest()));
+        assertEquals(original, read);
+    }
+
+    @Test
+    public void unsupportedOversizeAndCorruptBodiesAreRejected() throws Exception {
+        MockHttpServletResponse unsupported = new MockHttpServletResponse();
+        filter.doFilter(request("br", new byte[16], "application/json"), unsupported, new MockFilterChain());
+        assertEquals(415, unsupported.getStatus());
+        assertEquals("gzip, zstd", unsupported.getHeader(HttpHeaders.ACCEPT_ENCODING));
+
+        MockHttpServletResponse oversize = new MockHttpServletResponse();
+        filter.doFilter(request("gzip", gzip(new byte[128 * 1024]), "application/json"), oversize, new MockFilterChain());
+        assertEquals(413, oversize.getStatus());
+
+        MockHttpServletResponse corrupt = new MockHttpServletResponse();
+        filter.doFilter(request("gzip", "not gzip".getBytes(StandardCharsets.US_ASCII), "application/json"),
+                corrupt, new MockFilterChain());
+        assertEquals(400, corrupt.getStatus());
+    }
+
+    private static MockHttpServletRequest request(String encoding, byte[] body, String contentType) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/pdf/generate");
+        request.addHeader(HttpHeaders.CONTENT_ENCODING, encoding);
+        request.setContentType(contentType);
+        request.setContent(body);
+        return request;
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+}